@@ -0,0 +1,411 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.BlockInfo;
+import ru.paradoxs.bitcoin.client.FileReplacer;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Reads the block chain from a Bitcoin server and hands every block, in
+ * height order, to a {@link Consumer}.
+ *
+ * Block hashes are fetched in batches, one round trip for many heights, and
+ * the next batch is fetched while the current one is used. Blocks are
+ * downloaded raw by a few threads, enough to keep the server busy, and decoded
+ * by others, one per core. Only a window of blocks is in flight at any time,
+ * and nothing new is started while the consumer is busy, so a slow consumer
+ * slows the downloads instead of filling memory.
+ *
+ * After every few blocks the heights and hashes of the last ones delivered are
+ * written to a checkpoint file, and the next run starts after the newest of
+ * them still in the chain. The consumer is first told to drop the blocks
+ * above it, which it has if the chain has been reorganized since, or if the
+ * last run ended without writing its checkpoint.
+ */
+public class BlockIngestor {
+    private static final int CHECKPOINT_DEPTH = 100;
+
+    /**
+     * Takes the blocks read by a {@link BlockIngestor}
+     */
+    public interface Consumer {
+
+        /**
+         * Called with each block, in height order, from the thread calling ingest()
+         */
+        void accept(BlockInfo block);
+
+        /**
+         * Called before the first block whenever ingest() resumes from a checkpoint.
+         * Blocks above the height may have been delivered before, by a run that
+         * ended before checkpointing them, or be no longer in the chain. Those
+         * still in the chain are delivered again, so a consumer dropping every
+         * block above the height sees each block once.
+         *
+         * @param height the height of the last block of the checkpoint still in the chain
+         */
+        void rewind(int height);
+    }
+
+    private final BitcoinClient client;
+    private final Consumer      consumer;
+    private final File          checkpointFile;
+
+    private int hashBatchSize = 100;
+    private int window = 16;
+    private int fetchThreads = 4;
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+    private int checkpointInterval = 100;
+    private int startHeight = 0;
+
+    private volatile boolean stopped = false;
+    private final Deque<Checkpoint> recent = new ArrayDeque<Checkpoint>();
+    private boolean dirty = false;
+
+    /**
+     * @param client the client to read blocks with
+     * @param consumer takes the blocks
+     * @param checkpointFile where to keep track of the blocks delivered, or null to always start over
+     */
+    public BlockIngestor(BitcoinClient client, Consumer consumer, File checkpointFile) {
+        this.client = client;
+        this.consumer = consumer;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Sets the number of block hashes fetched in each batch
+     */
+    public void setHashBatchSize(int hashBatchSize) {
+        this.hashBatchSize = positive("hashBatchSize", hashBatchSize);
+    }
+
+    /**
+     * Sets the number of blocks being downloaded or decoded, or waiting for the
+     * consumer, at any one time, which bounds the memory used
+     */
+    public void setWindow(int window) {
+        this.window = positive("window", window);
+    }
+
+    /**
+     * Sets the number of threads downloading blocks, which should not be more
+     * than the connections the client may open to the server
+     */
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = positive("fetchThreads", fetchThreads);
+    }
+
+    /**
+     * Sets the number of threads decoding blocks
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = positive("decodeThreads", decodeThreads);
+    }
+
+    /**
+     * Sets how many blocks are delivered between writes of the checkpoint file
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = positive("checkpointInterval", checkpointInterval);
+    }
+
+    /**
+     * Sets the height to start at when there is no checkpoint yet
+     */
+    public void setStartHeight(int startHeight) {
+        this.startHeight = startHeight;
+    }
+
+    /**
+     * Makes a running ingest() return after the block being delivered
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Delivers the blocks from the last checkpoint up to the current end of the
+     * longest chain. Call it again to follow the chain as it grows.
+     *
+     * @return the number of blocks delivered
+     */
+    public long ingest() {
+        stopped = false;
+        ExecutorService fetchers = Executors.newFixedThreadPool(fetchThreads, threadFactory("block-fetch"));
+        ExecutorService decoders = Executors.newFixedThreadPool(decodeThreads, threadFactory("block-decode"));
+        Deque<Future<Future<BlockInfo>>> pending = new ArrayDeque<Future<Future<BlockInfo>>>(window);
+        long delivered = 0;
+
+        try {
+            int tip = client.getBlockCount();
+            int next = resume(tip);
+            String lastHash = recent.isEmpty() ? null : recent.getLast().hash;
+
+            int scheduled = next;
+            Iterator<String> hashes = Collections.<String>emptyList().iterator();
+            Future<List<String>> nextHashes = next <= tip ? fetchHashes(fetchers, next, tip) : null;
+
+            while (!stopped && next <= tip) {
+                while (pending.size() < window && scheduled <= tip) {
+                    if (!hashes.hasNext()) {
+                        List<String> batch = get(nextHashes);
+                        int after = scheduled + batch.size();
+                        hashes = batch.iterator();
+                        nextHashes = after <= tip ? fetchHashes(fetchers, after, tip) : null;
+                    }
+
+                    pending.addLast(fetchers.submit(download(decoders, hashes.next(), scheduled++)));
+                }
+
+                BlockInfo block = get(get(pending.removeFirst()));
+
+                if (lastHash != null && !lastHash.equals(block.getPreviousHash())) {
+                    throw new BitcoinClientException("The chain changed while reading it, block " + block.getHash() +
+                                                     " at height " + next + " doesn't follow " + lastHash);
+                }
+
+                consumer.accept(block);
+                lastHash = block.getHash();
+                record(next, lastHash);
+                delivered++;
+                next++;
+
+                if (delivered % checkpointInterval == 0) {
+                    writeCheckpoint();
+                }
+            }
+
+            return delivered;
+        } finally {
+            fetchers.shutdownNow();
+            decoders.shutdownNow();
+
+            if (dirty) {
+                writeCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Finds where to start from the checkpoint, rewinding the consumer after a reorganization
+     *
+     * @return the height of the first block to deliver
+     */
+    private int resume(int tip) {
+        recent.clear();
+        dirty = false;
+        List<Checkpoint> saved = readCheckpoint();
+
+        if (saved.isEmpty()) {
+            return startHeight;
+        }
+
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = saved.get(i);
+
+            if (checkpoint.height <= tip && checkpoint.hash.equals(client.getBlockHash(checkpoint.height))) {
+                recent.addAll(saved.subList(0, i + 1));
+                dirty = i < saved.size() - 1;
+                consumer.rewind(checkpoint.height);
+
+                return checkpoint.height + 1;
+            }
+        }
+
+        throw new BitcoinClientException("None of the blocks in " + checkpointFile + " from height " +
+                                         saved.get(0).height + " is in the chain any more");
+    }
+
+    private Future<List<String>> fetchHashes(ExecutorService fetchers, final int from, int tip) {
+        final int count = Math.min(hashBatchSize, tip - from + 1);
+
+        return fetchers.submit(new Callable<List<String>>() {
+            public List<String> call() {
+                return client.getBlockHashes(from, count);
+            }
+        });
+    }
+
+    /**
+     * Downloads a block, and hands decoding it to the decode threads
+     */
+    private Callable<Future<BlockInfo>> download(final ExecutorService decoders, final String hash, final int height) {
+        return new Callable<Future<BlockInfo>>() {
+            public Future<BlockInfo> call() {
+                final String raw = client.getRawBlock(hash);
+
+                return decoders.submit(new Callable<BlockInfo>() {
+                    public BlockInfo call() {
+                        BlockInfo block = BlockInfo.decode(raw, height);
+
+                        if (!block.getHash().equals(hash)) {
+                            throw new BitcoinClientException("Asked for block " + hash + " but got " + block.getHash());
+                        }
+
+                        return block;
+                    }
+                });
+            }
+        };
+    }
+
+    private void record(int height, String hash) {
+        recent.addLast(new Checkpoint(height, hash));
+
+        if (recent.size() > CHECKPOINT_DEPTH) {
+            recent.removeFirst();
+        }
+
+        dirty = true;
+    }
+
+    private List<Checkpoint> readCheckpoint() {
+        List<Checkpoint> saved = new ArrayList<Checkpoint>();
+
+        if (checkpointFile == null || !checkpointFile.exists()) {
+            return saved;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), "US-ASCII"));
+
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    String[] fields = line.trim().split(" ");
+
+                    if (fields.length != 2) {
+                        throw new BitcoinClientException("Bad line in " + checkpointFile + ": " + line);
+                    }
+
+                    saved.add(new Checkpoint(Integer.parseInt(fields[0]), fields[1]));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (NumberFormatException e) {
+            throw new BitcoinClientException("Bad height in " + checkpointFile, e);
+        } catch (IOException e) {
+            throw new BitcoinClientException("Can't read " + checkpointFile, e);
+        }
+
+        return saved;
+    }
+
+    /**
+     * Writes the checkpoint to a new file and renames it over the old one, so a
+     * crash leaves either the old or the new checkpoint, or on Windows maybe only
+     * the new one as the .tmp file, see {@link FileReplacer}
+     */
+    private void writeCheckpoint() {
+        if (checkpointFile == null) {
+            dirty = false;
+            return;
+        }
+
+        File temporary = new File(checkpointFile.getPath() + ".tmp");
+
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+
+            try {
+                Writer writer = new OutputStreamWriter(out, "US-ASCII");
+
+                for (Checkpoint checkpoint : recent) {
+                    writer.write(checkpoint.height + " " + checkpoint.hash + "\n");
+                }
+
+                writer.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            FileReplacer.replace(temporary, checkpointFile);
+
+            dirty = false;
+        } catch (IOException e) {
+            throw new BitcoinClientException("Can't write " + checkpointFile, e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinClientException("Interrupted while reading blocks", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new BitcoinClientException("Exception when reading blocks", e.getCause());
+        }
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be > 0");
+        }
+
+        return value;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static class Checkpoint {
+        final int    height;
+        final String hash;
+
+        Checkpoint(int height, String hash) {
+            this.height = height;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.MempoolEntry;
+import ru.paradoxs.bitcoin.client.TxIdSet;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Follows the memory pool of a Bitcoin server, telling a {@link Listener}
+ * about transactions entering and leaving it.
+ *
+ * Each poll lists the pool with getrawmempool into a packed {@link TxIdSet},
+ * and compares it with the set from the poll before. The two sets are reused
+ * from poll to poll, so the only objects allocated per transaction are those
+ * of the JSON response. Details are only fetched for the transactions that
+ * are new, with getmempoolentry in batches, so the calls made grow with the
+ * churn of the pool rather than its size.
+ *
+ * The first poll reports every transaction in the pool as added.
+ */
+public class MempoolMonitor {
+
+    /**
+     * Told about the changes found by a {@link MempoolMonitor}, from the thread polling
+     */
+    public interface Listener {
+
+        /**
+         * Called for each transaction entering the pool, in no particular order
+         */
+        void added(MempoolEntry entry);
+
+        /**
+         * Called for each transaction leaving the pool, because it was confirmed,
+         * replaced or evicted, before any of the added ones of the same poll
+         */
+        void removed(String txId);
+
+        /**
+         * Called when a scheduled poll failed, the next one is made as usual
+         */
+        void pollFailed(RuntimeException e);
+    }
+
+    private final BitcoinClient client;
+    private final Listener      listener;
+
+    private int batchSize = 100;
+
+    private TxIdSet known = new TxIdSet(1024);
+    private TxIdSet current = new TxIdSet(1024);
+    private final byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+    private ScheduledFuture<?> task = null;
+
+    /**
+     * @param client the client used to poll the server
+     * @param listener told about the changes
+     */
+    public MempoolMonitor(BitcoinClient client, Listener listener) {
+        this.client = client;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the number of transactions whose details are fetched in each batch
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Polls the server and tells the listener about the changes since the last poll.
+     * If the poll fails the listener is told nothing, and the next poll finds the
+     * same changes.
+     *
+     * @return the number of transactions added and removed
+     */
+    public synchronized int poll() {
+        client.getRawMempool(current);
+
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            if (current.isUsed(slot)) {
+                current.get(slot, txId, 0);
+
+                if (!known.contains(txId, 0)) {
+                    added.add(current.getHex(slot));
+                }
+            }
+        }
+
+        for (int slot = 0; slot < known.capacity(); slot++) {
+            if (known.isUsed(slot)) {
+                known.get(slot, txId, 0);
+
+                if (!current.contains(txId, 0)) {
+                    removed.add(known.getHex(slot));
+                }
+            }
+        }
+
+        // All details are fetched before telling the listener anything, so a failure can be retried
+        List<MempoolEntry> entries = new ArrayList<MempoolEntry>(added.size());
+
+        for (int from = 0; from < added.size(); from += batchSize) {
+            List<String> batch = added.subList(from, Math.min(from + batchSize, added.size()));
+            List<MempoolEntry> fetched = client.getMempoolEntries(batch);
+            int next = 0;
+
+            for (String id : batch) {
+                if (next < fetched.size() && fetched.get(next).getTxId().equals(id)) {
+                    entries.add(fetched.get(next++));
+                } else {
+                    // Gone again since it was listed, so it's neither added nor later removed
+                    current.remove(id);
+                }
+            }
+        }
+
+        TxIdSet previous = known;
+        known = current;
+        current = previous;
+
+        for (String id : removed) {
+            listener.removed(id);
+        }
+
+        for (MempoolEntry entry : entries) {
+            listener.added(entry);
+        }
+
+        return removed.size() + entries.size();
+    }
+
+    /**
+     * Starts polling in the background
+     *
+     * @param scheduler schedules the polls
+     * @param interval the time between the end of a poll and the start of the next
+     * @param unit the unit of the interval
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, long interval, TimeUnit unit) {
+        if (task != null) {
+            throw new BitcoinClientException("The monitor is already started");
+        }
+
+        task = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    listener.pollFailed(e);
+                }
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Stops polling in the background, letting a poll in progress finish
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * @return the number of transactions in the pool at the last poll
+     */
+    public synchronized int size() {
+        return known.size();
+    }
+}
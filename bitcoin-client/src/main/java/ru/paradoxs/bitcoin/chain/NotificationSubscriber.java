@@ -0,0 +1,492 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.BlockInfo;
+import ru.paradoxs.bitcoin.client.TransactionInfo;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+
+/**
+ * Follows the ZeroMQ notifications of a Bitcoin server started with, for
+ * instance, <code>-zmqpubhashblock=tcp://127.0.0.1:28332</code> and
+ * <code>-zmqpubhashtx=tcp://127.0.0.1:28332</code>, so new blocks and wallet
+ * transactions are seen within milliseconds instead of at the next poll.
+ *
+ * Blocks go to a {@link BlockIngestor.Consumer}, in height order, just like
+ * from a {@link BlockIngestor}, so the two can feed the same consumer: the
+ * ingestor to read the chain up to now, and the subscriber from there on.
+ * Transactions are checked against the wallet with gettransaction, and those
+ * of the wallet go to a {@link Listener}. With raw transactions, rawtx is
+ * subscribed to instead of hashtx, and every transaction is also handed on.
+ *
+ * Every notification carries a sequence number per topic. When one is
+ * skipped, because the server dropped notifications for a slow subscriber or
+ * the connection was lost, the subscriber catches up over RPC: blocks from the
+ * last one delivered up to the end of the chain, rewinding the consumer after
+ * a reorganization, and wallet transactions with listsinceblock. Wallet
+ * transactions are delivered at least once, so some may be delivered again
+ * when catching up.
+ *
+ * All callbacks are made from the subscriber thread, one at a time, and the
+ * thread reconnects when the connection is lost. A connection can also die
+ * without being closed, so when nothing has been received for the read
+ * timeout the subscriber catches up over RPC and reconnects. Topics published
+ * on different endpoints need one subscriber for each.
+ */
+public class NotificationSubscriber {
+    public static final String HASHBLOCK = "hashblock";
+    public static final String HASHTX    = "hashtx";
+    public static final String RAWTX     = "rawtx";
+
+    private static final int RECENT_BLOCKS = 100;
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Told about transactions by a {@link NotificationSubscriber}
+     */
+    public interface Listener {
+
+        /**
+         * Called with each transaction of the wallet, when it is published, and
+         * when catching up after missed notifications
+         */
+        void walletTransaction(TransactionInfo transaction);
+
+        /**
+         * Called with every transaction published, of the wallet or not, when
+         * subscribing to raw transactions
+         */
+        void rawTransaction(String txId, byte[] raw);
+
+        /**
+         * Called when a notification couldn't be handled, or the connection was lost
+         */
+        void failed(Exception e);
+    }
+
+    private final BitcoinClient          client;
+    private final String                 host;
+    private final int                    port;
+    private final BlockIngestor.Consumer blocks;
+    private final Listener               listener;
+
+    private boolean rawTransactions = false;
+    private int     connectTimeoutMillis = 5000;
+    private int     readTimeoutMillis = 10 * 60 * 1000;
+    private long    reconnectDelayMillis = 1000;
+
+    // Only touched by the subscriber thread once started
+    private final Map<String, Long> sequences = new HashMap<String, Long>();
+    private final ArrayDeque<Delivered> recent = new ArrayDeque<Delivered>();
+    private boolean catchUpBlocks = false;
+    private boolean catchUpWallet = false;
+    private String  walletMark = null;      // The end of the chain when the wallet was last caught up
+
+    private volatile boolean running = false;
+    private volatile ZmtpConnection connection = null;
+    private Thread thread = null;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong catchUps = new AtomicLong();
+
+    /**
+     * @param client the client used to fetch blocks and transactions, and to catch up
+     * @param host the host the server publishes on
+     * @param port the port the server publishes on
+     * @param blocks takes the blocks, or null to not subscribe to blocks
+     * @param listener told about transactions, or null to not subscribe to transactions
+     */
+    public NotificationSubscriber(BitcoinClient client, String host, int port, BlockIngestor.Consumer blocks,
+                                  Listener listener) {
+        if (blocks == null && listener == null) {
+            throw new BitcoinClientException("Nothing to subscribe to without a consumer or a listener");
+        }
+
+        this.client = client;
+        this.host = host;
+        this.port = port;
+        this.blocks = blocks;
+        this.listener = listener;
+    }
+
+    /**
+     * Subscribes to rawtx instead of hashtx, handing every transaction to
+     * Listener.rawTransaction() as well. Call before starting.
+     */
+    public void setRawTransactions(boolean rawTransactions) {
+        this.rawTransactions = rawTransactions;
+    }
+
+    /**
+     * Sets the last block the consumer already has, so blocks after it are
+     * caught up on when starting. Without it, delivery starts with the next
+     * block found. Call before starting.
+     */
+    public void setStartBlock(int height, String hash) {
+        recent.clear();
+        recent.addLast(new Delivered(height, hash));
+        walletMark = hash;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Sets how long the connection may be quiet before the subscriber catches up
+     * and reconnects, 10 minutes by default, 0 to wait for ever. Call before starting.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                subscribe();
+            }
+        }, "notification-subscriber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+
+        ZmtpConnection current = connection;
+
+        if (current != null) {
+            current.close();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return the number of notifications received
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * @return the number of times notifications were found missing
+     */
+    public long getGaps() {
+        return gaps.get();
+    }
+
+    /**
+     * @return the number of times the subscriber caught up over RPC
+     */
+    public long getCatchUps() {
+        return catchUps.get();
+    }
+
+    private void subscribe() {
+        while (running) {
+            ZmtpConnection current = null;
+
+            try {
+                current = ZmtpConnection.connect(host, port, connectTimeoutMillis, readTimeoutMillis);
+                connection = current;
+
+                if (!running) {
+                    break;
+                }
+
+                if (blocks != null) {
+                    current.subscribe(HASHBLOCK);
+                }
+
+                if (listener != null) {
+                    current.subscribe(rawTransactions ? RAWTX : HASHTX);
+                }
+
+                // Anything published while not connected was missed
+                catchUpBlocks = blocks != null;
+                catchUpWallet = listener != null;
+                catchUp();
+
+                while (running) {
+                    List<byte[]> frames;
+
+                    try {
+                        frames = current.receive();
+                    } catch (SocketTimeoutException e) {
+                        // The connection may be dead without having been closed, so
+                        // anything published may have been missed
+                        catchUpBlocks = blocks != null;
+                        catchUpWallet = listener != null;
+                        catchUp();
+                        break;
+                    }
+
+                    handle(frames);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    failed(e);
+                    pause();
+                }
+            } finally {
+                if (current != null) {
+                    current.close();
+                }
+            }
+        }
+    }
+
+    private void handle(List<byte[]> frames) {
+        messages.incrementAndGet();
+
+        if (frames.size() < 2) {
+            return;
+        }
+
+        String topic = new String(frames.get(0), ZmtpConnection.ASCII);
+        byte[] body = frames.get(1);
+
+        if (frames.size() > 2 && frames.get(2).length == 4) {
+            checkSequence(topic, frames.get(2));
+        }
+
+        catchUp();
+
+        try {
+            if (topic.equals(HASHBLOCK)) {
+                blockPublished(hex(body));
+            } else if (topic.equals(HASHTX)) {
+                transactionPublished(hex(body));
+            } else if (topic.equals(RAWTX)) {
+                String txId = BlockInfo.transactionId(body);
+                listener.rawTransaction(txId, body);
+                transactionPublished(txId);
+            }
+        } catch (RuntimeException e) {
+            failed(e);
+
+            // The notification is lost, so it's treated like a missed one
+            if (topic.equals(HASHBLOCK)) {
+                catchUpBlocks = true;
+            } else {
+                catchUpWallet = true;
+            }
+        }
+    }
+
+    private void checkSequence(String topic, byte[] frame) {
+        long sequence = (frame[0] & 0xffL) | (frame[1] & 0xffL) << 8 | (frame[2] & 0xffL) << 16 | (frame[3] & 0xffL) << 24;
+        Long last = sequences.put(topic, sequence);
+
+        if (last == null || ((sequence - last - 1) & 0xffffffffL) == 0) {
+            return;
+        }
+
+        gaps.incrementAndGet();
+
+        if (topic.equals(HASHBLOCK)) {
+            catchUpBlocks = true;
+        } else {
+            catchUpWallet = true;
+        }
+    }
+
+    /**
+     * Catches up on what was missed, trying again with the next notification if it fails
+     */
+    private void catchUp() {
+        try {
+            if (catchUpBlocks) {
+                catchUpBlocks();
+                catchUpBlocks = false;
+            }
+
+            if (catchUpWallet) {
+                catchUpWallet();
+                catchUpWallet = false;
+            }
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    private void blockPublished(String hash) {
+        if (blocks == null || isDelivered(hash)) {
+            return;
+        }
+
+        BlockInfo block = client.getBlock(hash);
+
+        if (!recent.isEmpty() && recent.getLast().hash.equals(block.getPreviousHash())) {
+            deliver(block);
+        } else {
+            catchUpBlocks();    // Blocks were missed, or the chain was reorganized
+        }
+    }
+
+    /**
+     * Delivers the blocks from the newest one delivered still in the chain up to the
+     * end of the chain, rewinding the consumer if that isn't the last one delivered
+     */
+    private void catchUpBlocks() {
+        catchUps.incrementAndGet();
+        int tip = client.getBlockCount();
+
+        if (recent.isEmpty()) {
+            recent.addLast(new Delivered(tip, client.getBlockHash(tip)));
+            return;
+        }
+
+        int height = -1;
+
+        for (Iterator<Delivered> i = recent.descendingIterator(); i.hasNext();) {
+            Delivered delivered = i.next();
+
+            if (delivered.height <= tip && delivered.hash.equals(client.getBlockHash(delivered.height))) {
+                height = delivered.height;
+                break;
+            }
+        }
+
+        if (height < 0) {
+            throw new BitcoinClientException("None of the last " + recent.size() + " blocks delivered is in the chain any more");
+        }
+
+        if (height < recent.getLast().height) {
+            while (recent.getLast().height > height) {
+                recent.removeLast();
+            }
+
+            blocks.rewind(height);
+        }
+
+        for (int next = height + 1; next <= tip; next++) {
+            deliver(client.getBlock(client.getBlockHash(next)));
+        }
+    }
+
+    private void deliver(BlockInfo block) {
+        blocks.accept(block);
+        recent.addLast(new Delivered(block.getHeight(), block.getHash()));
+
+        if (recent.size() > RECENT_BLOCKS) {
+            recent.removeFirst();
+        }
+    }
+
+    private boolean isDelivered(String hash) {
+        for (Delivered delivered : recent) {
+            if (delivered.hash.equals(hash)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void transactionPublished(String txId) {
+        TransactionInfo transaction;
+
+        try {
+            transaction = client.getTransaction(txId);
+        } catch (BitcoinRpcException e) {
+            if (e.getCode() == BitcoinRpcException.RPC_INVALID_ADDRESS_OR_KEY) {
+                return;     // Not a transaction of the wallet
+            }
+
+            throw e;
+        }
+
+        listener.walletTransaction(transaction);
+    }
+
+    /**
+     * Delivers the wallet transactions in blocks after the mark, and those not in a
+     * block yet. The new mark is taken first, so nothing confirmed meanwhile is missed.
+     */
+    private void catchUpWallet() {
+        String tip = client.getBlockHash(client.getBlockCount());
+
+        if (walletMark != null) {
+            catchUps.incrementAndGet();
+
+            for (TransactionInfo transaction : client.listSinceBlock(walletMark).toTransactionInfos()) {
+                listener.walletTransaction(transaction);
+            }
+        }
+
+        walletMark = tip;
+    }
+
+    private void failed(Exception e) {
+        if (listener != null) {
+            listener.failed(e);
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(reconnectDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = DIGITS[(bytes[i] >>> 4) & 0x0f];
+            chars[2 * i + 1] = DIGITS[bytes[i] & 0x0f];
+        }
+
+        return new String(chars);
+    }
+
+    private static class Delivered {
+        final int    height;
+        final String hash;
+
+        Delivered(int height, String hash) {
+            this.height = height;
+            this.hash = hash;
+        }
+    }
+}
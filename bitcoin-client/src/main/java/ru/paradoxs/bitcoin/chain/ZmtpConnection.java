@@ -0,0 +1,306 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One end of a ZeroMQ connection, speaking ZMTP 3.0 with the NULL security
+ * mechanism, which is what bitcoind uses to publish its notifications.
+ *
+ * Only what a SUB socket needs is here: the greeting and READY handshake,
+ * subscriptions, and multi-frame messages. The other end of it is enough of a
+ * PUB socket to stand in for bitcoind in tests.
+ */
+final class ZmtpConnection {
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int MORE    = 0x01;
+    private static final int LONG    = 0x02;
+    private static final int COMMAND = 0x04;
+
+    private static final int GREETING_LENGTH = 64;
+    private static final int MAX_FRAME = 64 << 20;
+
+    private final Socket           socket;
+    private final DataInputStream  in;
+    private final DataOutputStream out;
+    private String peerSocketType = null;
+
+    ZmtpConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 8192));
+    }
+
+    /**
+     * Connects to a PUB socket as a SUB socket
+     *
+     * @param readTimeoutMillis how long a read may wait, after which it throws a SocketTimeoutException, 0 for ever
+     */
+    static ZmtpConnection connect(String host, int port, int connectTimeoutMillis, int readTimeoutMillis)
+            throws IOException {
+        Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            ZmtpConnection connection = new ZmtpConnection(socket);
+            connection.handshake("SUB", false);
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Exchanges greetings and READY commands with the peer
+     *
+     * @param socketType our socket type, SUB or PUB
+     * @param asServer whether this end accepted the connection
+     */
+    void handshake(String socketType, boolean asServer) throws IOException {
+        byte[] greeting = new byte[GREETING_LENGTH];
+        greeting[0] = (byte) 0xff;
+        greeting[9] = 0x7f;
+        greeting[10] = 3;                               // Version 3.0
+        greeting[11] = 0;
+        System.arraycopy("NULL".getBytes(ASCII), 0, greeting, 12, 4);
+        greeting[32] = (byte) (asServer ? 1 : 0);
+        out.write(greeting);
+        out.flush();
+
+        byte[] peer = new byte[GREETING_LENGTH];
+        in.readFully(peer);
+
+        if ((peer[0] & 0xff) != 0xff || peer[9] != 0x7f) {
+            throw new IOException("Not a ZMTP peer");
+        }
+
+        if (peer[10] < 3) {
+            throw new IOException("ZMTP " + peer[10] + "." + peer[11] + " is too old, 3.0 is needed");
+        }
+
+        String mechanism = new String(peer, 12, 20, ASCII).trim();
+
+        if (!mechanism.equals("NULL")) {
+            throw new IOException("Unsupported ZMTP security mechanism: " + mechanism);
+        }
+
+        byte[] body = readyCommand(socketType.getBytes(ASCII));
+        writeFrame(COMMAND, body, 0, body.length);
+        out.flush();
+
+        byte[] command = readFrame(true);
+        peerSocketType = parseReady(command);
+
+        if (!compatible(socketType, peerSocketType)) {
+            throw new IOException("A " + socketType + " socket can't talk to a " + peerSocketType + " socket");
+        }
+    }
+
+    /**
+     * @return the socket type the peer sent in its READY command
+     */
+    String getPeerSocketType() {
+        return peerSocketType;
+    }
+
+    /**
+     * Subscribes to messages whose first frame starts with a topic
+     */
+    void subscribe(String topic) throws IOException {
+        byte[] bytes = topic.getBytes(ASCII);
+        byte[] body = new byte[bytes.length + 1];
+        body[0] = 1;
+        System.arraycopy(bytes, 0, body, 1, bytes.length);
+        send(body);
+    }
+
+    /**
+     * Sends a message of one or more frames
+     */
+    void send(byte[]... frames) throws IOException {
+        for (int i = 0; i < frames.length; i++) {
+            writeFrame(i < frames.length - 1 ? MORE : 0, frames[i], 0, frames[i].length);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Reads the next message, skipping commands such as PING
+     *
+     * @return the frames of the message
+     */
+    List<byte[]> receive() throws IOException {
+        List<byte[]> frames = new ArrayList<byte[]>(3);
+
+        for (;;) {
+            int flags = in.read();
+
+            if (flags < 0) {
+                throw new EOFException("The ZMTP peer closed the connection");
+            }
+
+            byte[] frame = readBody(flags);
+
+            if ((flags & COMMAND) != 0) {
+                if (commandName(frame).equals("ERROR")) {
+                    throw new IOException("The ZMTP peer sent an ERROR command");
+                }
+
+                continue;
+            }
+
+            frames.add(frame);
+
+            if ((flags & MORE) == 0) {
+                return frames;
+            }
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+    private static byte[] readyCommand(byte[] socketType) {
+        byte[] ready = "READY".getBytes(ASCII);
+        byte[] property = "Socket-Type".getBytes(ASCII);
+        byte[] body = new byte[1 + ready.length + 1 + property.length + 4 + socketType.length];
+        int at = 0;
+
+        body[at++] = (byte) ready.length;
+        System.arraycopy(ready, 0, body, at, ready.length);
+        at += ready.length;
+        body[at++] = (byte) property.length;
+        System.arraycopy(property, 0, body, at, property.length);
+        at += property.length;
+        body[at++] = (byte) (socketType.length >>> 24);
+        body[at++] = (byte) (socketType.length >>> 16);
+        body[at++] = (byte) (socketType.length >>> 8);
+        body[at++] = (byte) socketType.length;
+        System.arraycopy(socketType, 0, body, at, socketType.length);
+
+        return body;
+    }
+
+    /**
+     * @return the Socket-Type property of a READY command
+     */
+    private static String parseReady(byte[] command) throws IOException {
+        if (!commandName(command).equals("READY")) {
+            throw new IOException("Expected a READY command from the ZMTP peer");
+        }
+
+        int at = 1 + (command[0] & 0xff);
+
+        while (at < command.length) {
+            int nameLength = command[at++] & 0xff;
+
+            if (at + nameLength + 4 > command.length) {
+                break;
+            }
+
+            String name = new String(command, at, nameLength, ASCII);
+            at += nameLength;
+            int valueLength = (command[at] & 0xff) << 24 | (command[at + 1] & 0xff) << 16 |
+                              (command[at + 2] & 0xff) << 8 | (command[at + 3] & 0xff);
+            at += 4;
+
+            if (valueLength < 0 || at + valueLength > command.length) {
+                break;
+            }
+
+            if (name.equalsIgnoreCase("Socket-Type")) {
+                return new String(command, at, valueLength, ASCII);
+            }
+
+            at += valueLength;
+        }
+
+        throw new IOException("Bad READY command from the ZMTP peer");
+    }
+
+    private static String commandName(byte[] command) throws IOException {
+        if (command.length == 0 || (command[0] & 0xff) > command.length - 1) {
+            throw new IOException("Malformed ZMTP command of " + command.length + " bytes");
+        }
+
+        return new String(command, 1, command[0] & 0xff, ASCII);
+    }
+
+    private static boolean compatible(String ours, String theirs) {
+        if (ours.equals("SUB")) {
+            return theirs.equals("PUB") || theirs.equals("XPUB");
+        }
+
+        return theirs.equals("SUB") || theirs.equals("XSUB");
+    }
+
+    private byte[] readFrame(boolean command) throws IOException {
+        int flags = in.read();
+
+        if (flags < 0) {
+            throw new EOFException("The ZMTP peer closed the connection");
+        }
+
+        if (((flags & COMMAND) != 0) != command) {
+            throw new IOException(command ? "Expected a command from the ZMTP peer" : "Unexpected command");
+        }
+
+        return readBody(flags);
+    }
+
+    private byte[] readBody(int flags) throws IOException {
+        long size = (flags & LONG) != 0 ? in.readLong() : in.readUnsignedByte();
+
+        if (size < 0 || size > MAX_FRAME) {
+            throw new IOException("ZMTP frame of " + size + " bytes is too big");
+        }
+
+        byte[] body = new byte[(int) size];
+        in.readFully(body);
+        return body;
+    }
+
+    private void writeFrame(int flags, byte[] body, int offset, int length) throws IOException {
+        if (length > 255) {
+            out.write(flags | LONG);
+            out.writeLong(length);
+        } else {
+            out.write(flags);
+            out.write(length);
+        }
+
+        out.write(body, offset, length);
+    }
+}
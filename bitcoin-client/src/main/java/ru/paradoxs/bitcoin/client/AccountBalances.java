@@ -0,0 +1,185 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Balances of a set of accounts, returned from #getBalances(Collection).
+ *
+ * The balances are kept as whole satoshis in a primitive array, indexed by an
+ * open addressing hash table, so a snapshot of hundreds of thousands of
+ * accounts needs no objects besides the account names.
+ */
+public class AccountBalances {
+    private static final int NO_ENTRY = -1;
+
+    private String[] accounts;
+    private long[]   satoshis;
+    private int[]    table;     // Indexes into accounts/satoshis, or NO_ENTRY
+    private int      size;
+
+    public AccountBalances(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        accounts = new String[capacity];
+        satoshis = new long[capacity];
+        table = newTable(capacity);
+    }
+
+    /**
+     * Sets the balance of an account
+     *
+     * @param account the name of the account, the default account if null or empty
+     * @param balance the balance in satoshis
+     */
+    public void putSatoshis(String account, long balance) {
+        if (account == null) {
+            account = "";
+        }
+
+        int slot = findSlot(account);
+
+        if (table[slot] != NO_ENTRY) {
+            satoshis[table[slot]] = balance;
+            return;
+        }
+
+        if (size == accounts.length) {
+            grow();
+            slot = findSlot(account);
+        }
+
+        accounts[size] = account;
+        satoshis[size] = balance;
+        table[slot] = size++;
+    }
+
+    public void put(String account, BigDecimal balance) {
+        putSatoshis(account, Amounts.toSatoshis(balance));
+    }
+
+    public boolean contains(String account) {
+        return table[findSlot(account == null ? "" : account)] != NO_ENTRY;
+    }
+
+    /**
+     * Returns the balance of an account in satoshis
+     *
+     * @param account the name of the account, the default account if null or empty
+     * @return the balance in satoshis, 0 if the account isn't in this snapshot
+     */
+    public long getSatoshis(String account) {
+        int index = table[findSlot(account == null ? "" : account)];
+
+        return index == NO_ENTRY ? 0 : satoshis[index];
+    }
+
+    /**
+     * Returns the balance of an account
+     *
+     * @param account the name of the account, the default account if null or empty
+     * @return the balance, or null if the account isn't in this snapshot
+     */
+    public BigDecimal get(String account) {
+        int index = table[findSlot(account == null ? "" : account)];
+
+        return index == NO_ENTRY ? null : Amounts.fromSatoshis(satoshis[index]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getAccount(int index) {
+        return accounts[index];
+    }
+
+    public long getSatoshis(int index) {
+        return satoshis[index];
+    }
+
+    /**
+     * @return the account names, in the order they were added
+     */
+    public List<String> getAccounts() {
+        return Arrays.asList(accounts).subList(0, size);
+    }
+
+    /**
+     * @return the sum of all balances in satoshis
+     */
+    public long getTotalSatoshis() {
+        long total = 0;
+
+        for (int i = 0; i < size; i++) {
+            total += satoshis[i];
+        }
+
+        return total;
+    }
+
+    private int findSlot(String account) {
+        int mask = table.length - 1;
+        int slot = mix(account.hashCode()) & mask;
+
+        while (table[slot] != NO_ENTRY && !accounts[table[slot]].equals(account)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = accounts.length * 2;
+        accounts = Arrays.copyOf(accounts, capacity);
+        satoshis = Arrays.copyOf(satoshis, capacity);
+        table = newTable(capacity);
+
+        int mask = table.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = mix(accounts[i].hashCode()) & mask;
+
+            while (table[slot] != NO_ENTRY) {
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = i;
+        }
+    }
+
+    /**
+     * A table twice the capacity, rounded up to a power of two, keeps the probe sequences short
+     */
+    private static int[] newTable(int capacity) {
+        int[] table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        Arrays.fill(table, NO_ENTRY);
+        return table;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "AccountBalances{" +
+                "size=" + size +
+                ", totalSatoshis=" + getTotalSatoshis() +
+                '}';
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.http.RpcEvents;
+import ru.paradoxs.bitcoin.http.RpcListener;
+
+/**
+ * A local index of which account each address belongs to, and which addresses
+ * each account has, so that these lookups don't need a call to the server.
+ *
+ * The index is filled by {@link #warm(BitcoinClient)}, kept up to date by a
+ * {@link BitcoinClient} it has been given to with
+ * {@link BitcoinClient#setAddressIndex(AddressIndex)}, and should be reconciled
+ * with the server every now and then, since other clients can change the wallet.
+ *
+ * Every entry is stamped when it is written, so a reconciliation leaves alone
+ * the addresses written through while it was listing the wallet, which the
+ * listing may not have seen yet.
+ *
+ * Account names are interned, so an account with many addresses is only stored once.
+ */
+public class AddressIndex {
+    private final ConcurrentMap<String, Entry>       addressToAccount = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Set<String>> accountToAddresses = new ConcurrentHashMap<String, Set<String>>();
+    private final ConcurrentMap<String, String>      accountNames = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private volatile boolean warm = false;
+    private volatile RpcListener listener = null;
+
+    /**
+     * Fills the index with all addresses of the wallet, including those that never received anything
+     *
+     * @param client the client used to list the addresses
+     */
+    public void warm(BitcoinClient client) {
+        reconcile(client);
+    }
+
+    /**
+     * Brings the index in line with the server, adding and moving addresses that
+     * changed and dropping those that are gone
+     *
+     * @param client the client used to list the addresses
+     */
+    public void reconcile(BitcoinClient client) {
+        long snapshot = clock.incrementAndGet();
+        List<AddressInfo> infos = client.listReceivedByAddress(0, true);
+        Set<String> seen = new HashSet<String>(infos.size() * 2);
+
+        for (AddressInfo info : infos) {
+            refresh(info.getAddress(), info.getAccount(), snapshot);
+            seen.add(info.getAddress());
+        }
+
+        for (Map.Entry<String, Entry> entry : addressToAccount.entrySet()) {
+            String address = entry.getKey();
+            Entry current = entry.getValue();
+
+            if (!seen.contains(address) && current.stamp < snapshot && addressToAccount.remove(address, current)) {
+                removeFromAccount(current.account, address);
+            }
+        }
+
+        warm = true;
+    }
+
+    /**
+     * Puts an address listed by a reconciliation, unless it has been written
+     * through since the listing started, which makes it newer than the listing
+     */
+    private void refresh(String address, String account, long snapshot) {
+        account = intern(account == null ? "" : account);
+
+        for (;;) {
+            Entry current = addressToAccount.get(address);
+
+            if (current != null && (current.stamp > snapshot || current.account.equals(account))) {
+                return;
+            }
+
+            Entry updated = new Entry(account, clock.incrementAndGet());
+            boolean replaced = current == null ? addressToAccount.putIfAbsent(address, updated) == null
+                                               : addressToAccount.replace(address, current, updated);
+
+            if (replaced) {
+                if (current != null) {
+                    removeFromAccount(current.account, address);
+                }
+
+                addressesOf(account).add(address);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reconciles the index with the server at a fixed rate
+     *
+     * @param scheduler runs the reconciliation
+     * @param client the client used to list the addresses
+     * @param period the time between reconciliations
+     * @param unit the unit of the period
+     * @return the scheduled reconciliation, which can be cancelled
+     */
+    public ScheduledFuture<?> scheduleReconciliation(ScheduledExecutorService scheduler, final BitcoinClient client,
+                                                     long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                reconcile(client);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * @param listener told about every account lookup, whether the index knew the address or not
+     */
+    public void setRpcListener(RpcListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true once the index has been filled from the server
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Returns the account of an address
+     *
+     * @param address the address
+     * @return the account, the empty string for the default account, or null if the address isn't known
+     */
+    public String getAccount(String address) {
+        Entry entry = addressToAccount.get(address);
+        RpcListener listener = this.listener;
+
+        if (listener != null) {
+            listener.cacheLookup("address-index", entry != null);
+        }
+
+        RpcEvents.cacheLookup("address-index", entry != null);
+
+        return entry == null ? null : entry.account;
+    }
+
+    /**
+     * Returns the addresses of an account
+     *
+     * @param account the account, the default account if null or empty
+     * @return the addresses of the account, empty if there are none
+     */
+    public List<String> getAddresses(String account) {
+        Set<String> addresses = accountToAddresses.get(account == null ? "" : account);
+
+        if (addresses == null) {
+            return new ArrayList<String>(0);
+        }
+
+        return new ArrayList<String>(addresses);
+    }
+
+    /**
+     * Records that an address belongs to an account, moving it from any other account
+     *
+     * @param address the address
+     * @param account the account, the default account if null or empty
+     */
+    public void put(String address, String account) {
+        account = intern(account == null ? "" : account);
+        Entry previous = addressToAccount.put(address, new Entry(account, clock.incrementAndGet()));
+
+        if (previous != null && !previous.account.equals(account)) {
+            removeFromAccount(previous.account, address);
+        }
+
+        addressesOf(account).add(address);
+    }
+
+    /**
+     * Forgets an address
+     *
+     * @param address the address
+     */
+    public void remove(String address) {
+        Entry entry = addressToAccount.remove(address);
+
+        if (entry != null) {
+            removeFromAccount(entry.account, address);
+        }
+    }
+
+    public int size() {
+        return addressToAccount.size();
+    }
+
+    public void clear() {
+        warm = false;
+        addressToAccount.clear();
+        accountToAddresses.clear();
+        accountNames.clear();
+    }
+
+    private Set<String> addressesOf(String account) {
+        Set<String> addresses = accountToAddresses.get(account);
+
+        if (addresses == null) {
+            Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+            addresses = accountToAddresses.putIfAbsent(account, created);
+
+            if (addresses == null) {
+                addresses = created;
+            }
+        }
+
+        return addresses;
+    }
+
+    private void removeFromAccount(String account, String address) {
+        Set<String> addresses = accountToAddresses.get(account);
+
+        if (addresses != null) {
+            addresses.remove(address);
+        }
+    }
+
+    private String intern(String account) {
+        String interned = accountNames.putIfAbsent(account, account);
+
+        return interned == null ? account : interned;
+    }
+
+    @Override
+    public String toString() {
+        return "AddressIndex{" +
+                "addresses=" + addressToAccount.size() +
+                ", accounts=" + accountToAddresses.size() +
+                ", warm=" + warm +
+                '}';
+    }
+
+    private static class Entry {
+        final String account;
+        final long   stamp;
+
+        Entry(String account, long stamp) {
+            this.account = account;
+            this.stamp = stamp;
+        }
+    }
+}
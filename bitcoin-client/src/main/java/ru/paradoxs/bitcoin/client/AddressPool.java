@@ -0,0 +1,411 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Hands out new receiving addresses without waiting for the server.
+ *
+ * Each account has a pool of addresses made with getnewaddress. When a pool
+ * drops below the low watermark, it is refilled to the high watermark by a
+ * background task, so #take(String) only needs to take the next address.
+ *
+ * Every address made and every address handed out is appended to a journal
+ * file, and forced to disk before the address is put in the pool or handed
+ * out, so after a restart the pools hold exactly the addresses never handed
+ * out. The journal is compacted to those when the pool is opened.
+ *
+ * Only addresses made through the pool are tracked, so don't hand out addresses
+ * of the same accounts some other way.
+ */
+public class AddressPool {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int REFILL_CHUNK = 20;
+
+    private final BitcoinClient client;
+    private final File     journalFile;
+    private final Executor refiller;
+    private final int      lowWatermark;
+    private final int      highWatermark;
+
+    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+    private final Object      journalLock = new Object();
+    private RandomAccessFile  journal;
+    private FileChannel       channel;
+
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile RuntimeException lastRefillFailure = null;
+
+    /**
+     * Opens the pool, taking the addresses never handed out from the journal
+     *
+     * @param client the client used to make addresses
+     * @param journalFile the journal of addresses made and handed out, created if missing
+     * @param lowWatermark the size below which a pool is refilled
+     * @param highWatermark the size a pool is refilled to
+     * @param refiller runs the refills
+     */
+    public AddressPool(BitcoinClient client, File journalFile, int lowWatermark, int highWatermark, Executor refiller) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new BitcoinClientException("Must have 0 <= lowWatermark < highWatermark");
+        }
+
+        this.client = client;
+        this.journalFile = journalFile;
+        this.refiller = refiller;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+
+        try {
+            Map<String, List<String>> pooled = readJournal();
+
+            for (Map.Entry<String, List<String>> entry : pooled.entrySet()) {
+                account(entry.getKey()).ready.addAll(entry.getValue());
+            }
+
+            compact(pooled);
+            journal = new RandomAccessFile(journalFile, "rw");
+            channel = journal.getChannel();
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new BitcoinClientException("Can't open the address journal " + journalFile, e);
+        }
+    }
+
+    /**
+     * Hands out an address of an account, which will never be handed out again.
+     * Only if the pool of the account is empty is an address made while waiting.
+     *
+     * @param account the account, null or empty for the default account
+     * @return the address
+     */
+    public String take(String account) {
+        Account pool = account(account);
+        String address;
+        boolean refill;
+
+        synchronized (pool) {
+            address = pool.ready.pollFirst();
+            refill = !pool.refilling && pool.ready.size() < lowWatermark;
+
+            if (refill) {
+                pool.refilling = true;
+            }
+        }
+
+        if (refill) {
+            startRefill(pool);
+        }
+
+        if (address == null) {
+            misses.incrementAndGet();
+            address = client.getNewAddress(pool.name);
+        }
+
+        append("- " + address + "\n");
+        taken.incrementAndGet();
+
+        return address;
+    }
+
+    /**
+     * Fills the pool of an account to the high watermark while waiting, for
+     * instance when starting up
+     *
+     * @param account the account, null or empty for the default account
+     */
+    public void prefill(String account) {
+        Account pool = account(account);
+
+        synchronized (pool) {
+            while (pool.refilling) {
+                try {
+                    pool.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BitcoinClientException("Interrupted while waiting for a refill", e);
+                }
+            }
+
+            pool.refilling = true;
+        }
+
+        refill(pool);
+    }
+
+    /**
+     * @return the number of addresses ready to be handed out for an account
+     */
+    public int available(String account) {
+        Account pool = account(account);
+
+        synchronized (pool) {
+            return pool.ready.size();
+        }
+    }
+
+    /**
+     * @return the number of addresses handed out since the pool was opened
+     */
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return the number of addresses that had to be made while waiting, because a pool was empty
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return why the last failed refill failed, or null if none has failed
+     */
+    public RuntimeException getLastRefillFailure() {
+        return lastRefillFailure;
+    }
+
+    public void close() {
+        synchronized (journalLock) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                throw new BitcoinClientException("Can't close the address journal " + journalFile, e);
+            }
+        }
+    }
+
+    private Account account(String name) {
+        if (name == null) {
+            name = "";      // The default account
+        }
+
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            throw new BitcoinClientException("Account names with line breaks can't be pooled");
+        }
+
+        Account account = accounts.get(name);
+
+        if (account == null) {
+            Account created = new Account(name);
+            account = accounts.putIfAbsent(name, created);
+
+            if (account == null) {
+                account = created;
+            }
+        }
+
+        return account;
+    }
+
+    private void startRefill(final Account pool) {
+        try {
+            refiller.execute(new Runnable() {
+                public void run() {
+                    refill(pool);
+                }
+            });
+        } catch (RuntimeException e) {
+            finishRefill(pool);
+            lastRefillFailure = e;
+        }
+    }
+
+    /**
+     * Makes addresses until the pool is at the high watermark, journaling each chunk
+     * before putting it in the pool
+     */
+    private void refill(Account pool) {
+        try {
+            for (;;) {
+                int missing;
+
+                synchronized (pool) {
+                    missing = Math.min(highWatermark - pool.ready.size(), REFILL_CHUNK);
+                }
+
+                if (missing <= 0) {
+                    break;
+                }
+
+                List<String> made = new ArrayList<String>(missing);
+                StringBuilder lines = new StringBuilder();
+
+                for (int i = 0; i < missing; i++) {
+                    String address = client.getNewAddress(pool.name);
+                    made.add(address);
+                    lines.append("+ ").append(address).append(' ').append(pool.name).append('\n');
+                }
+
+                append(lines.toString());
+
+                synchronized (pool) {
+                    pool.ready.addAll(made);
+                }
+            }
+        } catch (RuntimeException e) {
+            lastRefillFailure = e;
+        } finally {
+            finishRefill(pool);
+        }
+    }
+
+    private void finishRefill(Account pool) {
+        synchronized (pool) {
+            pool.refilling = false;
+            pool.notifyAll();
+        }
+    }
+
+    /**
+     * Appends to the journal and forces it to disk
+     */
+    private void append(String lines) {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(UTF8));
+
+        synchronized (journalLock) {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                channel.force(false);
+            } catch (IOException e) {
+                throw new BitcoinClientException("Can't write the address journal " + journalFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return the addresses made but not handed out, by account, oldest first
+     */
+    private Map<String, List<String>> readJournal() throws IOException {
+        Map<String, List<String>> pooled = new LinkedHashMap<String, List<String>>();
+
+        if (!journalFile.exists()) {
+            return pooled;
+        }
+
+        Set<String> handedOut = new HashSet<String>();
+        List<String[]> made = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF8));
+
+        try {
+            StringBuilder line = new StringBuilder();
+
+            for (int c = reader.read(); c >= 0; c = reader.read()) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+
+                // A line cut short by a crash has no line break, and is never read here
+                String text = line.toString();
+                line.setLength(0);
+
+                if (text.startsWith("- ")) {
+                    handedOut.add(text.substring(2));
+                } else if (text.startsWith("+ ")) {
+                    int space = text.indexOf(' ', 2);
+                    made.add(space < 0 ? new String[] { text.substring(2), "" }
+                                       : new String[] { text.substring(2, space), text.substring(space + 1) });
+                } else {
+                    throw new IOException("Bad line in the address journal: " + text);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        for (String[] address : made) {
+            if (!handedOut.contains(address[0])) {
+                List<String> addresses = pooled.get(address[1]);
+
+                if (addresses == null) {
+                    addresses = new ArrayList<String>();
+                    pooled.put(address[1], addresses);
+                }
+
+                addresses.add(address[0]);
+            }
+        }
+
+        return pooled;
+    }
+
+    /**
+     * Replaces the journal with one holding only the pooled addresses. On Windows a
+     * crash while replacing it may leave only the .tmp file, see {@link FileReplacer}.
+     */
+    private void compact(Map<String, List<String>> pooled) throws IOException {
+        File temporary = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+
+        try {
+            StringBuilder lines = new StringBuilder();
+
+            for (Map.Entry<String, List<String>> entry : pooled.entrySet()) {
+                for (String address : entry.getValue()) {
+                    lines.append("+ ").append(address).append(' ').append(entry.getKey()).append('\n');
+                }
+            }
+
+            out.write(lines.toString().getBytes(UTF8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        FileReplacer.replace(temporary, journalFile);
+    }
+
+    private static class Account {
+        final String name;
+        final ArrayDeque<String> ready = new ArrayDeque<String>();
+        boolean refilling = false;
+
+        Account(String name) {
+            this.name = name;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AddressPool{accounts=" + accounts.size() + ", taken=" + taken + ", misses=" + misses + '}';
+    }
+}
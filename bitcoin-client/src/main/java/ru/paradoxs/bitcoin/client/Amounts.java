@@ -0,0 +1,35 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversions between Bitcoin amounts as sent by the server and whole satoshis
+ */
+final class Amounts {
+    static final int SATOSHI_DECIMALS = 8;
+
+    private Amounts() {
+    }
+
+    static long toSatoshis(BigDecimal amount) {
+        return amount.movePointRight(SATOSHI_DECIMALS).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    static BigDecimal fromSatoshis(long satoshis) {
+        return BigDecimal.valueOf(satoshis, SATOSHI_DECIMALS);
+    }
+}
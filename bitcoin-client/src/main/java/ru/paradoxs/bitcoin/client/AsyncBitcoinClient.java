@@ -0,0 +1,144 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Runs the blocking calls of a {@link BitcoinClient} on an executor, so that
+ * many of them can be waiting for the Bitcoin server at the same time.
+ *
+ * The executor is supplied by the caller. On Java 21 and later that is typically
+ * <code>Executors.newVirtualThreadPerTaskExecutor()</code>, which makes a
+ * fan-out over thousands of accounts cheap; on older JVMs a fixed thread pool
+ * does the job. Either way the number of requests actually in flight is limited
+ * by {@link ru.paradoxs.bitcoin.http.HttpSession#setMaxConnections(int)}, and calls
+ * beyond that wait on a semaphore, which doesn't pin a virtual thread. The short
+ * synchronized sections inside commons-httpclient still pin it while they run.
+ */
+public class AsyncBitcoinClient {
+    private static final int DEFAULT_FAN_OUT_THRESHOLD = 256;
+
+    private final BitcoinClient    client;
+    private final ExecutorService executor;
+    private int fanOutThreshold = DEFAULT_FAN_OUT_THRESHOLD;
+
+    public AsyncBitcoinClient(BitcoinClient client, ExecutorService executor) {
+        if (client == null || executor == null) {
+            throw new BitcoinClientException("client and executor must not be null");
+        }
+
+        this.client = client;
+        this.executor = executor;
+    }
+
+    public BitcoinClient getClient() {
+        return client;
+    }
+
+    /**
+     * The largest number of accounts for which #getBalances(Collection) asks for the
+     * balance of each account in parallel, rather than listing all accounts at once
+     *
+     * @param fanOutThreshold the number of accounts, 256 by default
+     */
+    public void setFanOutThreshold(int fanOutThreshold) {
+        this.fanOutThreshold = fanOutThreshold;
+    }
+
+    public int getFanOutThreshold() {
+        return fanOutThreshold;
+    }
+
+    /**
+     * Runs any call on the executor
+     *
+     * @param call the call, typically using {@link #getClient()}
+     * @return the future result of the call
+     */
+    public <T> Future<T> submit(Callable<T> call) {
+        return executor.submit(call);
+    }
+
+    /**
+     * Returns the available balance for an account
+     *
+     * @param account the name of the account, or the default account if null or empty
+     * @return the future balance
+     */
+    public Future<BigDecimal> getBalance(final String account) {
+        return executor.submit(new Callable<BigDecimal>() {
+            public BigDecimal call() {
+                return client.getBalance(account);
+            }
+        });
+    }
+
+    /**
+     * Returns the available balances of several accounts. Up to
+     * {@link #setFanOutThreshold(int)} accounts their balances are fetched in parallel,
+     * above it {@link BitcoinClient#getBalances(Collection)} is called on the calling
+     * thread, which batches the calls or lists the whole wallet.
+     *
+     * @param accounts the names of the accounts
+     * @return the balances, in the iteration order of the accounts
+     */
+    public AccountBalances getBalances(Collection<String> accounts) {
+        if (accounts.size() > fanOutThreshold) {
+            return client.getBalances(accounts);
+        }
+
+        List<Future<BigDecimal>> futures = new ArrayList<Future<BigDecimal>>(accounts.size());
+
+        for (String account : accounts) {
+            futures.add(getBalance(account));
+        }
+
+        AccountBalances balances = new AccountBalances(accounts.size());
+        int i = 0;
+
+        for (String account : accounts) {
+            balances.put(account, get(futures.get(i++)));
+        }
+
+        return balances;
+    }
+
+    /**
+     * Waits for a future result, unwrapping the exception of a failed call
+     */
+    static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinClientException("Interrupted while waiting for the Bitcoin server", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new BitcoinClientException("Exception when calling the Bitcoin server", e.getCause());
+        }
+    }
+}
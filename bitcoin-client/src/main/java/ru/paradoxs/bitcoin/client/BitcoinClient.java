@@ -15,28 +15,45 @@
  */
 package ru.paradoxs.bitcoin.client;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
-import net.sf.json.JSONArray;
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-
-import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 
 import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.http.BatchTransport;
 import ru.paradoxs.bitcoin.http.HttpSession;
+import ru.paradoxs.bitcoin.http.StreamingTransport;
+import ru.paradoxs.bitcoin.http.TlsSocketFactory;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
 
 /**
  * A Java API for accessing a Bitcoin server.
  *
- * PLEASE NOTE: It doesn't use https for the communication, just http, but access to the Bitcoin server is
- * only allowed from localhost, so it shouldn't really matter.
+ * PLEASE NOTE: By default it doesn't use https for the communication, just http, but access to the Bitcoin
+ * server is only allowed from localhost, so it shouldn't really matter. Remote servers behind a TLS-terminating
+ * proxy can be reached with {@link #BitcoinClient(String, String, String, int, TlsSocketFactory)}.
+ *
+ * Errors the server answers with are thrown as {@link BitcoinRpcException}, with the server's error code,
+ * or returned by {@link #tryCall(String, Object...)} for callers that expect them. Like any other failed exchange
+ * they are HttpSessionExceptions, and {@link #setRpcErrorStackTraces(boolean)} makes them cheaper to throw.
+ *
+ * A client is thread-safe, and one instance is meant to be shared by all threads calling the same server.
+ * Calls run concurrently over the connections of the session, and are only held up when all of them are in use.
+ * {@link #close()} closes those connections when the client is no longer needed.
  *
  * @see <a href="http://www.bitcoin.org/wiki/doku.php?id=api">Bitcoin API</a>
  * @author paradoxs
@@ -44,14 +61,35 @@ import ru.paradoxs.bitcoin.http.HttpSession;
  */
 public class BitcoinClient {
 
+    /**
+     * Until the number of accounts in the wallet is known, #getBalances(Collection) calls
+     * getbalance for up to this many accounts, and listaccounts for more
+     */
+    static final int BULK_BALANCES_THRESHOLD = 16;
+
+    /**
+     * A round trip to the server costs about as much as this many more accounts in a
+     * listaccounts response, which is what #getBalances(Collection) weighs once the
+     * number of accounts in the wallet is known
+     */
+    static final int ACCOUNTS_PER_ROUND_TRIP = 256;
+
+    /**
+     * A getbalance call in a batch, its request and its answer, costs about as much as
+     * this many more accounts in a listaccounts response
+     */
+    static final int ACCOUNTS_PER_BATCHED_CALL = 8;
+
     private static BigDecimal getBigDecimal(JSONObject jsonObject, String key)
             throws JSONException {
-        String string = jsonObject.getString(key);
-        BigDecimal bigDecimal = new BigDecimal(string);
-        return bigDecimal;
+        return jsonObject.getBigDecimal(key);
     }
 
-    private HttpSession session = null;
+    private final Transport session;
+    private volatile AddressIndex addressIndex = null;
+    private volatile boolean rpcErrorStackTraces = true;
+    private volatile boolean signWithWallet = false;   // The server only has signrawtransactionwithwallet
+    private volatile int walletAccounts = -1;           // From the last listaccounts, -1 before the first
 
     /**
      * Creates a BitcoinClient
@@ -62,10 +100,25 @@ public class BitcoinClient {
      * @param port the port number to the bitcoind server
      */
     public BitcoinClient(String host, String login, String password, int port) {
+        this(new HttpSession(createUri("http", host, port), new UsernamePasswordCredentials(login, password)));
+    }
+
+    /**
+     * Creates a BitcoinClient talking https to a TLS-terminating proxy in front of the bitcoind server
+     *
+     * @param host the host machine of the proxy
+     * @param login the username to access the bitcoind server
+     * @param password the password to access the bitcoind server
+     * @param port the port number of the proxy
+     * @param tls the TLS socket factory, holding the trust/key stores, which may be shared between clients
+     */
+    public BitcoinClient(String host, String login, String password, int port, TlsSocketFactory tls) {
+        this(new HttpSession(createUri("https", host, port), new UsernamePasswordCredentials(login, password), tls));
+    }
+
+    private static URI createUri(String scheme, String host, int port) {
         try {
-            Credentials credentials = new UsernamePasswordCredentials(login, password);
-            URI uri = new URI("http", null, host, port, null, null, null);
-            session = new HttpSession(uri, credentials);
+            return new URI(scheme, null, host, port, null, null, null);
         } catch (URISyntaxException e) {
             throw new BitcoinClientException("This host probably doesn't have correct syntax: " + host, e);
         }
@@ -82,6 +135,58 @@ public class BitcoinClient {
         this(host, login, password, 8332);
     }
 
+    /**
+     * Creates a BitcoinClient using an already configured transport, for instance an
+     * HttpSession with request compression switched on, or one replaying a recording
+     *
+     * @param session the transport used to talk to the bitcoind server
+     */
+    public BitcoinClient(Transport session) {
+        if (session == null) {
+            throw new BitcoinClientException("session must not be null");
+        }
+
+        this.session = session;
+    }
+
+    /**
+     * Lets this client answer #getAccount(String) and #getAddressesByAccount(String)
+     * from a local index, and keep the index up to date when it changes accounts
+     *
+     * @param addressIndex the index, or null to always ask the server
+     */
+    public void setAddressIndex(AddressIndex addressIndex) {
+        this.addressIndex = addressIndex;
+    }
+
+    public AddressIndex getAddressIndex() {
+        return addressIndex;
+    }
+
+    /**
+     * Whether a BitcoinRpcException thrown by this client captures its stack trace.
+     * Turning it off is worth it when errors like "Insufficient funds" are common.
+     *
+     * @param rpcErrorStackTraces false to throw them without a stack trace, true by default
+     */
+    public void setRpcErrorStackTraces(boolean rpcErrorStackTraces) {
+        this.rpcErrorStackTraces = rpcErrorStackTraces;
+    }
+
+    public boolean getRpcErrorStackTraces() {
+        return rpcErrorStackTraces;
+    }
+
+    /**
+     * Closes the connections to the server, if the transport is an {@link HttpSession}.
+     * Other transports are left alone. The client can't be used after this.
+     */
+    public void close() {
+        if (session instanceof HttpSession) {
+            ((HttpSession) session).close();
+        }
+    }
+
     /**
      * Returns the list of addresses for the given account
      *
@@ -94,10 +199,16 @@ public class BitcoinClient {
             account = "";      // The default account
         }
 
+        AddressIndex index = addressIndex;
+
+        if (index != null && index.isWarm()) {
+            return index.getAddresses(account);
+        }
+
         try {
             JSONArray parameters = new JSONArray().element(account);
             JSONObject request = createRequest("getaddressesbyaccount", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONArray result = (JSONArray)response.get("result");
             int size = result.size();
 
@@ -121,7 +232,7 @@ public class BitcoinClient {
     public BigDecimal getBalance() {
         try {
             JSONObject request = createRequest("getbalance");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return getBigDecimal(response, "result");
         } catch (JSONException e) {
@@ -144,7 +255,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(account);
             JSONObject request = createRequest("getbalance", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return getBigDecimal(response, "result");
         } catch (JSONException e) {
@@ -152,6 +263,102 @@ public class BitcoinClient {
         }
     }
 
+    /**
+     * Returns the available balances for all accounts in the wallet
+     *
+     * @param minimumConfirmations only include transactions with at least this many confirmations
+     * @return the balance of every account
+     */
+    public AccountBalances listAccounts(long minimumConfirmations) {
+        try {
+            JSONArray parameters = new JSONArray().element(minimumConfirmations);
+            JSONObject request = createRequest("listaccounts", parameters);
+            JSONObject response = invoke(request);
+            JSONObject result = response.getJSONObject("result");
+
+            AccountBalances balances = new AccountBalances(result.size());
+
+            for (Iterator<?> keys = result.keys(); keys.hasNext(); ) {
+                String account = (String) keys.next();
+                balances.put(account, getBigDecimal(result, account));
+            }
+
+            walletAccounts = balances.size();
+            return balances;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when listing the balances of all accounts", e);
+        }
+    }
+
+    /**
+     * Returns the available balances for a set of accounts. For a few accounts their
+     * balances are asked for with a getbalance call each, all in one batch when the
+     * transport supports it. For many a single listaccounts call is made for the
+     * whole wallet.
+     *
+     * How many is many depends on the size of the wallet, as counted by the last
+     * #listAccounts(long) call, which this method makes too. In a batch, listaccounts
+     * is called when the wallet has no more accounts than ACCOUNTS_PER_BATCHED_CALL
+     * for each account asked for, both being one round trip. One by one, it is called
+     * when it saves more round trips than it has accounts to send, at
+     * ACCOUNTS_PER_ROUND_TRIP accounts for each round trip. Before the size is known,
+     * it is called for more than BULK_BALANCES_THRESHOLD accounts. The count may be
+     * out of date, which costs some speed but gives the same balances.
+     *
+     * @param accounts the names of the accounts, null or empty means the default account
+     * @return the balances, in the iteration order of the accounts
+     */
+    public AccountBalances getBalances(Collection<String> accounts) {
+        AccountBalances balances = new AccountBalances(accounts.size());
+
+        if (!isBulkCheaper(accounts.size())) {
+            try {
+                List<JSONObject> requests = new ArrayList<JSONObject>(accounts.size());
+
+                for (String account : accounts) {
+                    // Null being the default account
+                    requests.add(createRequest("getbalance", new JSONArray().element(account == null ? "" : account)));
+                }
+
+                List<JSONObject> responses = invokeAll(requests);
+                int i = 0;
+
+                for (String account : accounts) {
+                    balances.put(account, getBigDecimal(responses.get(i++), "result"));
+                }
+
+                return balances;
+            } catch (JSONException e) {
+                throw new BitcoinClientException("Exception when getting the balances of " + accounts.size() + " accounts", e);
+            }
+        }
+
+        AccountBalances all = listAccounts(1);
+
+        for (String account : accounts) {
+            balances.putSatoshis(account, all.getSatoshis(account));
+        }
+
+        return balances;
+    }
+
+    private boolean isBulkCheaper(int accounts) {
+        int known = walletAccounts;
+
+        if (known < 0) {
+            return accounts > BULK_BALANCES_THRESHOLD;
+        }
+
+        if (accounts <= 1) {
+            return false;
+        }
+
+        if (session instanceof BatchTransport) {
+            return (long) accounts * ACCOUNTS_PER_BATCHED_CALL >= known;
+        }
+
+        return (long) (accounts - 1) * ACCOUNTS_PER_ROUND_TRIP >= known;
+    }
 
     /**
      * Returns the number of blocks in the longest block chain
@@ -161,7 +368,7 @@ public class BitcoinClient {
     public int getBlockCount() {
         try {
             JSONObject request = createRequest("getblockcount");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return  response.getInt("result");
         } catch (JSONException e) {
@@ -169,6 +376,115 @@ public class BitcoinClient {
         }
     }
 
+    /**
+     * Returns the hash of the block at a given height in the longest block chain
+     *
+     * @param height the height of the block, 0 being the genesis block
+     * @return the block hash
+     * @since 0.3.24
+     */
+    public String getBlockHash(int height) {
+        try {
+            JSONArray parameters = new JSONArray().element(height);
+            JSONObject request = createRequest("getblockhash", parameters);
+            JSONObject response = invoke(request);
+
+            return response.getString("result");
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting the hash of block: " + height, e);
+        }
+    }
+
+    /**
+     * Returns the hashes of a run of blocks in the longest block chain, in one
+     * batch round trip when the transport supports it
+     *
+     * @param fromHeight the height of the first block
+     * @param count the number of blocks
+     * @return the block hashes, in height order
+     * @since 0.3.24
+     */
+    public List<String> getBlockHashes(int fromHeight, int count) {
+        try {
+            List<JSONObject> requests = new ArrayList<JSONObject>(count);
+
+            for (int i = 0; i < count; i++) {
+                requests.add(createRequest("getblockhash", new JSONArray().element(fromHeight + i)));
+            }
+
+            List<JSONObject> responses = invokeAll(requests);
+            List<String> hashes = new ArrayList<String>(count);
+
+            for (JSONObject response : responses) {
+                hashes.add(response.getString("result"));
+            }
+
+            return hashes;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting the hashes of blocks from: " + fromHeight, e);
+        }
+    }
+
+    /**
+     * Returns a block as the hex of its serialized form, for BlockInfo.decode()
+     *
+     * @param hash the block hash
+     * @return the serialized block in hex
+     * @since 0.9.0
+     */
+    public String getRawBlock(String hash) {
+        try {
+            JSONArray parameters = new JSONArray().element(hash).element(false);
+            JSONObject request = createRequest("getblock", parameters);
+            JSONObject response = invoke(request);
+
+            return response.getString("result");
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting block: " + hash, e);
+        }
+    }
+
+    /**
+     * Returns a block, as decoded by the server
+     *
+     * @param hash the block hash
+     * @return the block
+     * @since 0.3.24
+     */
+    public BlockInfo getBlock(String hash) {
+        try {
+            JSONArray parameters = new JSONArray().element(hash);
+            JSONObject request = createRequest("getblock", parameters);
+            JSONObject response = invoke(request);
+            JSONObject result = response.getJSONObject("result");
+
+            BlockInfo block = new BlockInfo();
+            block.setHash(result.getString("hash"));
+            block.setHeight(result.getInt("height"));
+            block.setVersion(result.getInt("version"));
+            block.setPreviousHash(result.has("previousblockhash") ? result.getString("previousblockhash") : null);
+            block.setMerkleRoot(result.getString("merkleroot"));
+            block.setTime(result.getLong("time"));
+            block.setBits(Long.parseLong(result.getString("bits"), 16));
+            block.setNonce(result.getLong("nonce"));
+            block.setSize(result.getInt("size"));
+
+            JSONArray tx = result.getJSONArray("tx");
+            List<String> txIds = new ArrayList<String>(tx.size());
+
+            for (int i = 0; i < tx.size(); i++) {
+                txIds.add(tx.getString(i));
+            }
+
+            block.setTxIds(txIds);
+            return block;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting block: " + hash, e);
+        } catch (NumberFormatException e) {
+            throw new BitcoinClientException("Exception when getting block: " + hash, e);
+        }
+    }
+
     /**
      * Returns the block number of the latest block in the longest block chain
      *
@@ -177,7 +493,7 @@ public class BitcoinClient {
     public int getBlockNumber() {
         try {
             JSONObject request = createRequest("getblocknumber");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getInt("result");
         } catch (JSONException e) {
@@ -193,7 +509,7 @@ public class BitcoinClient {
     public int getConnectionCount() {
         try {
             JSONObject request = createRequest("getconnectioncount");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getInt("result");
         } catch (JSONException e) {
@@ -210,7 +526,7 @@ public class BitcoinClient {
     public long getHashesPerSecond() {
         try {
             JSONObject request = createRequest("gethashespersec");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getLong("result");
         } catch (JSONException e) {
@@ -226,7 +542,7 @@ public class BitcoinClient {
     public BigDecimal getDifficulty() {
         try {
             JSONObject request = createRequest("getdifficulty");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return getBigDecimal(response, "result");
         } catch (JSONException e) {
@@ -242,7 +558,7 @@ public class BitcoinClient {
     public boolean getGenerate() {
         try {
             JSONObject request = createRequest("getgenerate");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getBoolean("result");
         } catch (JSONException e) {
@@ -260,7 +576,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(isGenerate).element(processorsCount);
             JSONObject request = createRequest("setgenerate", parameters);
-            session.sendAndReceive(request);
+            invoke(request);
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when setting whether the server is generating coins or not", e);
         }
@@ -274,7 +590,7 @@ public class BitcoinClient {
     public ServerInfo getServerInfo() {
         try {
             JSONObject request = createRequest("getinfo");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONObject result = (JSONObject) response.get("result");
 
             ServerInfo info = new ServerInfo();
@@ -301,12 +617,29 @@ public class BitcoinClient {
      * @since 0.3.18
      */
     public String getAccount(String address) {
+        AddressIndex index = addressIndex;
+
+        if (index != null) {
+            String account = index.getAccount(address);
+
+            if (account != null) {
+                return account;
+            }
+        }
+
         try {
             JSONArray parameters = new JSONArray().element(address);
             JSONObject request = createRequest("getaccount", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
+            String account = response.getString("result");
 
-            return response.getString("result");
+            // Addresses the wallet doesn't own are also answered with the default account,
+            // so only named accounts are known to be wallet addresses worth indexing
+            if (index != null && account.length() > 0) {
+                index.put(address, account);
+            }
+
+            return account;
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when getting the account associated with this address: " + address, e);
         }
@@ -323,7 +656,17 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(address).element(account);
             JSONObject request = createRequest("setaccount", parameters);
-            session.sendAndReceive(request);
+            invoke(request);
+
+            AddressIndex index = addressIndex;
+
+            if (index != null) {
+                if (account == null) {
+                    index.remove(address);
+                } else {
+                    index.put(address, account);
+                }
+            }
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when setting the account associated with a given address", e);
         }
@@ -346,14 +689,51 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(account);
             JSONObject request = createRequest("getaccountaddress", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
+            String address = response.getString("result");
 
-            return response.getString("result");
+            AddressIndex index = addressIndex;
+
+            if (index != null) {
+                index.put(address, account);
+            }
+
+            return address;
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when getting the new bitcoin address for receiving payments", e);
         }
     }
 
+    /**
+     * Returns a new bitcoin address for receiving payments, which unlike
+     * #getAccountAddress(String) is never handed out again
+     *
+     * @param account the account the address is for, null or empty for the default account
+     * @return the new address
+     */
+    public String getNewAddress(String account) {
+        if (account == null) {
+            account = "";      // The default account
+        }
+
+        try {
+            JSONArray parameters = new JSONArray().element(account);
+            JSONObject request = createRequest("getnewaddress", parameters);
+            JSONObject response = invoke(request);
+            String address = response.getString("result");
+
+            AddressIndex index = addressIndex;
+
+            if (index != null) {
+                index.put(address, account);
+            }
+
+            return address;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting a new bitcoin address for account: " + account, e);
+        }
+    }
+
     /**
      * Returns the total amount received by bitcoinaddress in transactions
      *
@@ -365,7 +745,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(address).element(minimumConfirmations);
             JSONObject request = createRequest("getreceivedbyaddress", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return getBigDecimal(response, "result");
         } catch (JSONException e) {
@@ -385,7 +765,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(account).element(minimumConfirmations);
             JSONObject request = createRequest("getreceivedbyaccount", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return getBigDecimal(response, "result");
         } catch (JSONException e) {
@@ -403,7 +783,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(command);
             JSONObject request = createRequest("help", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getString("result");
         } catch (JSONException e) {
@@ -422,7 +802,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(minimumConfirmations).element(includeEmpty);
             JSONObject request = createRequest("listreceivedbyaddress", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONArray result = response.getJSONArray("result");
             int size = result.size();
             List<AddressInfo> list = new ArrayList<AddressInfo>();
@@ -455,7 +835,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(minimumConfirmations).element(includeEmpty);
             JSONObject request = createRequest("listreceivedbyaccount", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONArray result = response.getJSONArray("result");
             int size = result.size();
 
@@ -485,6 +865,21 @@ public class BitcoinClient {
      * @since 0.3.18
      */
     public List<TransactionInfo> listTransactions(String account, int count) {
+        return listTransactions(account, count, 0);
+    }
+
+    /**
+     * Returns a list of at most <code>count</code> number of transactions for an account,
+     * skipping the <code>from</code> most recent ones. Use this to page backwards through
+     * the history of an account.
+     *
+     * @param account the account related to the transactions, the default account if null or empty
+     * @param count the maximum number of transactions returned, must be > 0
+     * @param from the number of most recent transactions to skip, must be >= 0
+     * @return a list of at most <code>count</code> transactions, oldest first
+     * @since 0.3.20
+     */
+    public List<TransactionInfo> listTransactions(String account, int count, int from) {
         if (account == null) {
             account = "";
         }
@@ -493,10 +888,19 @@ public class BitcoinClient {
             throw new BitcoinClientException("count must be > 0");
         }
 
+        if (from < 0) {
+            throw new BitcoinClientException("from must be >= 0");
+        }
+
         try {
             JSONArray parameters = new JSONArray().element(account).element(count);
+
+            if (from > 0) {
+                parameters.element(from);      // Only understood by 0.3.20 and later
+            }
+
             JSONObject request = createRequest("listtransactions", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONArray result = response.getJSONArray("result");
             int size = result.size();
 
@@ -514,6 +918,239 @@ public class BitcoinClient {
         }
     }
 
+    /**
+     * Same as #listTransactions(String, int, int), but returns the transactions column
+     * by column, which is much more compact for large numbers of transactions
+     *
+     * @param account the account related to the transactions, the default account if null or empty
+     * @param count the maximum number of transactions returned, must be > 0
+     * @param from the number of most recent transactions to skip, must be >= 0
+     * @return a batch of at most <code>count</code> transactions, oldest first
+     * @since 0.3.20
+     */
+    public TransactionBatch listTransactionBatch(String account, int count, int from) {
+        if (account == null) {
+            account = "";
+        }
+
+        if (count <= 0) {
+            throw new BitcoinClientException("count must be > 0");
+        }
+
+        if (from < 0) {
+            throw new BitcoinClientException("from must be >= 0");
+        }
+
+        try {
+            JSONArray parameters = new JSONArray().element(account).element(count);
+
+            if (from > 0) {
+                parameters.element(from);      // Only understood by 0.3.20 and later
+            }
+
+            JSONObject request = createRequest("listtransactions", parameters);
+
+            if (session instanceof StreamingTransport) {
+                return ((StreamingTransport) session).sendAndReceive(request,
+                        new TransactionBatchReader(request, Math.min(count, 1024), false));
+            }
+
+            JSONObject response = invoke(request);
+
+            return parseTransactionBatchFromJson(response.getJSONArray("result"));
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting transactions for account: " + account, e);
+        } catch (IllegalArgumentException e) {
+            throw new BitcoinClientException("Exception when getting transactions for account: " + account, e);
+        }
+    }
+
+    /**
+     * Returns all wallet transactions in blocks after the given block, and those not in a block yet
+     *
+     * @param blockHash the hash of the last block already seen, or null for all transactions
+     * @return the transactions since that block
+     * @since 0.5.0
+     */
+    public TransactionBatch listSinceBlock(String blockHash) {
+        try {
+            JSONArray parameters = new JSONArray();
+
+            if (blockHash != null) {
+                parameters.element(blockHash);
+            }
+
+            JSONObject request = createRequest("listsinceblock", parameters);
+
+            if (session instanceof StreamingTransport) {
+                return ((StreamingTransport) session).sendAndReceive(request,
+                        new TransactionBatchReader(request, 64, true));
+            }
+
+            JSONObject response = invoke(request);
+            JSONObject result = response.getJSONObject("result");
+
+            return parseTransactionBatchFromJson(result.getJSONArray("transactions"));
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when listing transactions since block: " + blockHash, e);
+        } catch (IllegalArgumentException e) {
+            throw new BitcoinClientException("Exception when listing transactions since block: " + blockHash, e);
+        }
+    }
+
+    /**
+     * Reads the rows of a listtransactions or listsinceblock response straight
+     * into the columns of a batch, as the response arrives
+     */
+    private final class TransactionBatchReader implements StreamingTransport.ResponseHandler<TransactionBatch> {
+        private final JSONObject request;
+        private final int capacity;
+        private final boolean sinceBlock;       // The rows are in the "transactions" of the result
+
+        TransactionBatchReader(JSONObject request, int capacity, boolean sinceBlock) {
+            this.request = request;
+            this.capacity = capacity;
+            this.sinceBlock = sinceBlock;
+        }
+
+        public TransactionBatch handle(JSONParser parser) throws IOException {
+            TransactionBatch batch = null;
+            Object error = null;
+
+            parser.beginObject();
+
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+
+                if (name.equals("result") && !parser.nextIsNull()) {
+                    batch = sinceBlock ? readResult(parser) : readRows(parser);
+                } else if (name.equals("error")) {
+                    error = parser.nextValue();
+                } else {
+                    parser.nextValue();
+                }
+            }
+
+            parser.endObject();
+            checkError(request, new JSONObject().put("error", error));
+
+            if (batch == null) {
+                throw new BitcoinClientException("No transactions in the response to " + request.optString("method"));
+            }
+
+            return batch;
+        }
+
+        private TransactionBatch readResult(JSONParser parser) throws IOException {
+            TransactionBatch batch = null;
+
+            parser.beginObject();
+
+            while (parser.hasNext()) {
+                if (parser.nextName().equals("transactions")) {
+                    batch = readRows(parser);
+                } else {
+                    parser.nextValue();
+                }
+            }
+
+            parser.endObject();
+            return batch;
+        }
+
+        private TransactionBatch readRows(JSONParser parser) throws IOException {
+            TransactionBatch batch = new TransactionBatch(capacity);
+
+            parser.beginArray();
+
+            while (parser.hasNext()) {
+                readRow(parser, batch);
+            }
+
+            parser.endArray();
+            return batch;
+        }
+
+        private void readRow(JSONParser parser, TransactionBatch batch) throws IOException {
+            String category = null;
+            long amount = 0;
+            Long fee = null;
+            long confirmations = 0;
+            String txId = null;
+            String account = null;
+            String otherAccount = null;
+            String message = null;
+            String to = null;
+            long time = 0;
+            String address = null;
+
+            parser.beginObject();
+
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+
+                if (parser.nextIsNull()) {
+                    parser.nextValue();
+                } else if (name.equals("category")) {
+                    category = parser.nextString();
+                } else if (name.equals("amount")) {
+                    amount = Amounts.toSatoshis(parser.nextBigDecimal());
+                } else if (name.equals("fee")) {
+                    fee = Amounts.toSatoshis(parser.nextBigDecimal());
+                } else if (name.equals("confirmations")) {
+                    confirmations = parser.nextLong();
+                } else if (name.equals("txid")) {
+                    txId = parser.nextString();
+                } else if (name.equals("account")) {
+                    account = parser.nextString();
+                } else if (name.equals("otheraccount")) {
+                    otherAccount = parser.nextString();
+                } else if (name.equals("message")) {
+                    message = parser.nextString();
+                } else if (name.equals("to")) {
+                    to = parser.nextString();
+                } else if (name.equals("time")) {
+                    time = parser.nextLong();
+                } else if (name.equals("address")) {
+                    address = parser.nextString();
+                } else {
+                    parser.nextValue();
+                }
+            }
+
+            parser.endObject();
+
+            int row = batch.add(category, amount, fee, confirmations, txId, account, otherAccount, message, to, time);
+            batch.setAddress(row, address);
+        }
+    }
+
+    private TransactionBatch parseTransactionBatchFromJson(JSONArray result) throws JSONException {
+        int size = result.size();
+        TransactionBatch batch = new TransactionBatch(size);
+
+        for (int i = 0; i < size; i++) {
+            JSONObject jObject = result.getJSONObject(i);
+            int row = batch.add(optString(jObject, "category"),
+                            Amounts.toSatoshis(getBigDecimal(jObject, "amount")),
+                            jObject.has("fee") ? Long.valueOf(Amounts.toSatoshis(getBigDecimal(jObject, "fee"))) : null,
+                            jObject.has("confirmations") ? jObject.getLong("confirmations") : 0,
+                            optString(jObject, "txid"),
+                            optString(jObject, "account"),
+                            optString(jObject, "otheraccount"),
+                            optString(jObject, "message"),
+                            optString(jObject, "to"),
+                            jObject.has("time") ? jObject.getLong("time") : 0);
+            batch.setAddress(row, optString(jObject, "address"));
+        }
+
+        return batch;
+    }
+
+    private static String optString(JSONObject jObject, String key) throws JSONException {
+        return jObject.has(key) ? jObject.getString(key) : null;
+    }
+
     /**
      * Returns transaction information for a specific transaction ID
      *
@@ -525,7 +1162,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(txId);
             JSONObject request = createRequest("gettransaction", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONObject result = (JSONObject) response.get("result");
 
             return parseTransactionInfoFromJson(result);
@@ -567,7 +1204,7 @@ public class BitcoinClient {
             info.setOtherAccount(jObject.getString("otheraccount"));
         }
         
-        if (!jObject.has("time")) {
+        if (jObject.has("time")) {
             info.setTime(jObject.getLong("time"));
         }
 
@@ -603,7 +1240,7 @@ public class BitcoinClient {
     public WorkInfo getWork() {
         try {
             JSONObject request = createRequest("getwork");
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONObject result = (JSONObject) response.get("result");
 
             WorkInfo info = new WorkInfo();
@@ -627,7 +1264,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(block);
             JSONObject request = createRequest("getwork", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getBoolean("result");
         } catch (JSONException e) {
@@ -635,6 +1272,298 @@ public class BitcoinClient {
         }
     }
 
+    /**
+     * Return work information, decoded for hashing
+     *
+     * @return a unit of work
+     */
+    public WorkUnit getWorkUnit() {
+        return new WorkUnit(getWork());
+    }
+
+    /**
+     * Submits a nonce solving a unit of work, and returns true if the block was accepted
+     *
+     * @param unit the unit of work
+     * @param nonce the nonce solving it
+     * @return true if the block was solved, false otherwise
+     */
+    public boolean getWork(WorkUnit unit, int nonce) {
+        return getWork(unit.toSolution(nonce));
+    }
+
+    /**
+     * Returns the unspent outputs of the wallet
+     *
+     * @param minimumConfirmations only outputs with at least this many confirmations
+     * @param maximumConfirmations only outputs with at most this many confirmations
+     * @return the unspent outputs
+     * @since 0.7.0
+     */
+    public List<UnspentOutput> listUnspent(int minimumConfirmations, int maximumConfirmations) {
+        try {
+            JSONArray parameters = new JSONArray().element(minimumConfirmations).element(maximumConfirmations);
+            JSONObject request = createRequest("listunspent", parameters);
+            JSONObject response = invoke(request);
+            JSONArray result = response.getJSONArray("result");
+            int size = result.size();
+
+            List<UnspentOutput> list = new ArrayList<UnspentOutput>(size);
+
+            for (int i = 0; i < size; i++) {
+                JSONObject jObject = result.getJSONObject(i);
+                list.add(new UnspentOutput(jObject.getString("txid"),
+                                           jObject.getInt("vout"),
+                                           optString(jObject, "address"),
+                                           optString(jObject, "account"),
+                                           optString(jObject, "scriptPubKey"),
+                                           Amounts.toSatoshis(getBigDecimal(jObject, "amount")),
+                                           jObject.has("confirmations") ? jObject.getLong("confirmations") : 0));
+            }
+
+            return list;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when listing unspent outputs", e);
+        }
+    }
+
+    /**
+     * Fills a set with the ids of the transactions in the memory pool of the
+     * server. The set keeps its storage between calls. With a transport that
+     * streams responses, such as HttpSession, the ids are also decoded straight
+     * from the response into the set, so polling doesn't allocate per
+     * transaction. Other transports build the whole response first.
+     *
+     * @param txIds the set to fill, which is cleared first
+     * @return the number of transactions
+     * @since 0.7.0
+     */
+    public int getRawMempool(TxIdSet txIds) {
+        try {
+            JSONObject request = createRequest("getrawmempool");
+
+            if (session instanceof StreamingTransport) {
+                return ((StreamingTransport) session).sendAndReceive(request, new MempoolReader(request, txIds));
+            }
+
+            JSONObject response = invoke(request);
+            JSONArray result = response.getJSONArray("result");
+            byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+            int size = result.size();
+
+            txIds.clear();
+
+            for (int i = 0; i < size; i++) {
+                Hex.decode(result.getString(i), 0, txId, 0, TxIdSet.TXID_LENGTH);
+                txIds.add(txId, 0);
+            }
+
+            return size;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting the memory pool", e);
+        } catch (IllegalArgumentException e) {
+            throw new BitcoinClientException("Exception when getting the memory pool", e);
+        }
+    }
+
+    /**
+     * Decodes the ids of a getrawmempool response into a set, one at a time as they are read
+     */
+    private final class MempoolReader implements StreamingTransport.ResponseHandler<Integer> {
+        private final JSONObject request;
+        private final TxIdSet txIds;
+
+        MempoolReader(JSONObject request, TxIdSet txIds) {
+            this.request = request;
+            this.txIds = txIds;
+        }
+
+        public Integer handle(JSONParser parser) throws IOException {
+            byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+            int size = -1;
+            Object error = null;
+
+            parser.beginObject();
+
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+
+                if (name.equals("result") && !parser.nextIsNull()) {
+                    txIds.clear();
+                    size = 0;
+                    parser.beginArray();
+
+                    while (parser.hasNext()) {
+                        Hex.decode(parser.nextChars(), 0, txId, 0, TxIdSet.TXID_LENGTH);
+                        txIds.add(txId, 0);
+                        size++;
+                    }
+
+                    parser.endArray();
+                } else if (name.equals("error")) {
+                    error = parser.nextValue();
+                } else {
+                    parser.nextValue();
+                }
+            }
+
+            parser.endObject();
+            checkError(request, new JSONObject().put("error", error));
+
+            if (size < 0) {
+                throw new BitcoinClientException("No transactions in the response to getrawmempool");
+            }
+
+            return size;
+        }
+    }
+
+    /**
+     * Returns the memory pool entries of transactions, in one batch round trip when
+     * the transport supports it. Transactions no longer in the pool are left out.
+     *
+     * @param txIds the transaction ids
+     * @return the entries, in the order of the ids
+     * @since 0.13.0
+     */
+    public List<MempoolEntry> getMempoolEntries(List<String> txIds) {
+        try {
+            List<JSONObject> requests = new ArrayList<JSONObject>(txIds.size());
+
+            for (String txId : txIds) {
+                requests.add(createRequest("getmempoolentry", new JSONArray().element(txId)));
+            }
+
+            List<JSONObject> responses = sendAll(requests);
+            List<MempoolEntry> entries = new ArrayList<MempoolEntry>(responses.size());
+
+            for (int i = 0; i < responses.size(); i++) {
+                JSONObject response = responses.get(i);
+                Object error = response.get("error");
+
+                if (error != null && errorCode(error) == BitcoinRpcException.RPC_INVALID_ADDRESS_OR_KEY) {
+                    continue;       // Confirmed or evicted since it was listed
+                }
+
+                JSONObject result = checkError(requests.get(i), response).getJSONObject("result");
+                BigDecimal fee = result.has("fees") ? getBigDecimal(result.getJSONObject("fees"), "base")
+                                                    : getBigDecimal(result, "fee");
+                JSONArray dependArray = result.has("depends") ? result.getJSONArray("depends") : new JSONArray();
+                List<String> depends = new ArrayList<String>(dependArray.size());
+
+                for (int j = 0; j < dependArray.size(); j++) {
+                    depends.add(dependArray.getString(j));
+                }
+
+                entries.add(new MempoolEntry(txIds.get(i),
+                                             result.has("vsize") ? result.getInt("vsize") : result.getInt("size"),
+                                             Amounts.toSatoshis(fee),
+                                             result.getLong("time"),
+                                             result.getInt("height"),
+                                             depends));
+            }
+
+            return entries;
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when getting memory pool entries", e);
+        }
+    }
+
+    /**
+     * Creates an unsigned transaction spending the given outputs. Whatever the inputs
+     * hold beyond the outputs is the fee, so remember the change output.
+     *
+     * @param inputs the outputs to spend
+     * @param outputs the amount in BTC to pay to each address, in the order of the transaction's outputs
+     * @return the transaction in hex
+     * @since 0.7.0
+     */
+    public String createRawTransaction(List<UnspentOutput> inputs, Map<String, BigDecimal> outputs) {
+        try {
+            JSONArray inputArray = new JSONArray(inputs.size());
+
+            for (UnspentOutput input : inputs) {
+                inputArray.element(new JSONObject().put("txid", input.getTxId()).put("vout", input.getVout()));
+            }
+
+            JSONObject outputObject = new JSONObject();
+
+            for (Map.Entry<String, BigDecimal> output : outputs.entrySet()) {
+                outputObject.put(output.getKey(), output.getValue());
+            }
+
+            JSONArray parameters = new JSONArray().element(inputArray).element(outputObject);
+            JSONObject request = createRequest("createrawtransaction", parameters);
+            JSONObject response = invoke(request);
+
+            return response.getString("result");
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when creating a raw transaction", e);
+        }
+    }
+
+    /**
+     * Signs the inputs of a raw transaction with the keys of the wallet, with
+     * signrawtransactionwithwallet on servers that no longer have signrawtransaction
+     *
+     * @param transaction the transaction in hex
+     * @return the signed transaction in hex
+     * @throws BitcoinClientException if the wallet couldn't sign all inputs
+     * @since 0.7.0
+     */
+    public String signRawTransaction(String transaction) {
+        try {
+            JSONArray parameters = new JSONArray().element(transaction);
+            JSONObject response;
+
+            if (signWithWallet) {
+                response = invoke(createRequest("signrawtransactionwithwallet", parameters));
+            } else {
+                try {
+                    response = invoke(createRequest("signrawtransaction", parameters));
+                } catch (BitcoinRpcException e) {
+                    // Deprecated in 0.17 and removed in 0.18, which only sign with the wallet by name
+                    if (e.getCode() != BitcoinRpcException.RPC_METHOD_NOT_FOUND &&
+                        e.getCode() != BitcoinRpcException.RPC_METHOD_DEPRECATED) {
+                        throw e;
+                    }
+
+                    signWithWallet = true;
+                    response = invoke(createRequest("signrawtransactionwithwallet", parameters));
+                }
+            }
+
+            JSONObject result = response.getJSONObject("result");
+
+            if (!result.getBoolean("complete")) {
+                throw new BitcoinClientException("The wallet couldn't sign all inputs of the transaction");
+            }
+
+            return result.getString("hex");
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when signing a raw transaction", e);
+        }
+    }
+
+    /**
+     * Submits a signed raw transaction to the server and the network
+     *
+     * @param transaction the signed transaction in hex
+     * @return the transaction ID
+     * @since 0.7.0
+     */
+    public String sendRawTransaction(String transaction) {
+        try {
+            JSONArray parameters = new JSONArray().element(transaction);
+            JSONObject request = createRequest("sendrawtransaction", parameters);
+            JSONObject response = invoke(request);
+
+            return response.getString("result");
+        } catch (JSONException e) {
+            throw new BitcoinClientException("Exception when sending a raw transaction", e);
+        }
+    }
+
     /**
      * Sends amount from the server's available balance to bitcoinAddress.
      *
@@ -651,7 +1580,7 @@ public class BitcoinClient {
             JSONArray parameters = new JSONArray().element(bitcoinAddress).element(amount)
                                                   .element(comment).element(commentTo);
             JSONObject request = createRequest("sendtoaddress", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getString("result");
         } catch (JSONException e) {
@@ -690,7 +1619,7 @@ public class BitcoinClient {
             JSONArray parameters = new JSONArray().element(account).element(bitcoinAddress).element(amount)
                                                   .element(minimumConfirmations).element(comment).element(commentTo);
             JSONObject request = createRequest("sendfrom", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getString("result");
         } catch (JSONException e) {
@@ -730,7 +1659,7 @@ public class BitcoinClient {
             JSONArray parameters = new JSONArray().element(fromAccount).element(toAccount).element(amount)
                                                   .element(minimumConfirmations).element(comment);
             JSONObject request = createRequest("move", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
 
             return response.getBoolean("result");
         } catch (JSONException e) {
@@ -758,7 +1687,7 @@ public class BitcoinClient {
     public void stop() {
         try {
             JSONObject request = createRequest("stop");
-            session.sendAndReceive(request);
+            invoke(request);
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when stopping the bitcoin server", e);
         }
@@ -773,7 +1702,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(address);
             JSONObject request = createRequest("validateaddress", parameters);
-            JSONObject response = session.sendAndReceive(request);
+            JSONObject response = invoke(request);
             JSONObject result = (JSONObject) response.get("result");
 
             ValidatedAddressInfo info = new ValidatedAddressInfo();
@@ -800,7 +1729,7 @@ public class BitcoinClient {
         try {
             JSONArray parameters = new JSONArray().element(destination);
             JSONObject request = createRequest("backupwallet", parameters);
-            session.sendAndReceive(request);
+            invoke(request);
         } catch (JSONException e) {
             throw new BitcoinClientException("Exception when backing up the wallet", e);
         }
@@ -818,6 +1747,100 @@ public class BitcoinClient {
         return roundedAmount;
     }
 
+    /**
+     * Calls a server method without throwing when the server answers with an
+     * error, for callers that expect errors like "Invalid Bitcoin address" or
+     * "Insufficient funds" as a normal outcome.
+     *
+     * @param method the JSON-RPC method
+     * @param parameters the parameters of the method
+     * @return the result, or the error code and message from the server
+     * @throws ru.paradoxs.bitcoin.http.exceptions.HttpSessionException if the server couldn't be reached
+     */
+    public RpcResult tryCall(String method, Object... parameters) {
+        JSONArray array = new JSONArray(parameters.length);
+
+        for (Object parameter : parameters) {
+            array.element(parameter);
+        }
+
+        JSONObject response = session.sendAndReceive(createRequest(method, array));
+        Object error = response.get("error");
+
+        if (error != null) {
+            return RpcResult.failure(method, errorCode(error), errorMessage(error));
+        }
+
+        return RpcResult.success(method, response.get("result"));
+    }
+
+    /**
+     * Sends a request and turns an error answer into a BitcoinRpcException
+     */
+    private JSONObject invoke(JSONObject request) {
+        return checkError(request, session.sendAndReceive(request));
+    }
+
+    /**
+     * Sends requests with #sendAll(List) and turns the first error answer into a BitcoinRpcException
+     */
+    private List<JSONObject> invokeAll(List<JSONObject> requests) {
+        List<JSONObject> responses = sendAll(requests);
+
+        for (int i = 0; i < responses.size(); i++) {
+            checkError(requests.get(i), responses.get(i));
+        }
+
+        return responses;
+    }
+
+    /**
+     * Sends requests as one batch when the transport supports it, otherwise one by one
+     */
+    private List<JSONObject> sendAll(List<JSONObject> requests) {
+        if (session instanceof BatchTransport && requests.size() > 1) {
+            return ((BatchTransport) session).sendAndReceiveBatch(requests);
+        }
+
+        List<JSONObject> responses = new ArrayList<JSONObject>(requests.size());
+
+        for (JSONObject request : requests) {
+            responses.add(session.sendAndReceive(request));
+        }
+
+        return responses;
+    }
+
+    private JSONObject checkError(JSONObject request, JSONObject response) {
+        Object error = response.get("error");
+
+        if (error != null) {
+            String method = request.optString("method");
+
+            throw rpcErrorStackTraces ? new BitcoinRpcException(method, errorCode(error), errorMessage(error))
+                                      : BitcoinRpcException.withoutStackTrace(method, errorCode(error), errorMessage(error));
+        }
+
+        return response;
+    }
+
+    private static int errorCode(Object error) {
+        if (error instanceof JSONObject && ((JSONObject) error).hasValue("code")) {
+            return ((JSONObject) error).getInt("code");
+        }
+
+        return BitcoinRpcException.RPC_MISC_ERROR;
+    }
+
+    private static String errorMessage(Object error) {
+        if (error instanceof JSONObject) {
+            String message = ((JSONObject) error).optString("message");
+            return message.length() == 0 ? error.toString() : message;
+        }
+
+        return error.toString();
+    }
+
     private JSONObject createRequest(String functionName, JSONArray parameters) throws JSONException {
         JSONObject request = new JSONObject();
         request.put("jsonrpc", "2.0");
@@ -0,0 +1,352 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * A block of the block chain, from #getBlock(String), or decoded from the raw
+ * block returned by #getRawBlock(String).
+ *
+ * Decoding a raw block parses the header and every transaction, hashing each
+ * to get its id, which is what makes it worth doing off the thread that
+ * fetched it.
+ */
+public class BlockInfo {
+    private static final int HEADER_LENGTH = 80;
+    private static final int HASH_LENGTH   = 32;
+
+    private String hash;
+    private int height;
+    private int version;
+    private String previousHash;
+    private String merkleRoot;
+    private long time;
+    private long bits;
+    private long nonce;
+    private int size;
+    private List<String> txIds = Collections.emptyList();
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the hash of the previous block, or null for the genesis block
+     */
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    public void setPreviousHash(String previousHash) {
+        this.previousHash = previousHash;
+    }
+
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public void setMerkleRoot(String merkleRoot) {
+        this.merkleRoot = merkleRoot;
+    }
+
+    /**
+     * @return the block time, in seconds since 1970
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * @return the difficulty target in compact form
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    public void setBits(long bits) {
+        this.bits = bits;
+    }
+
+    public long getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(long nonce) {
+        this.nonce = nonce;
+    }
+
+    /**
+     * @return the size of the serialized block in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the ids of the block's transactions, the coinbase first
+     */
+    public List<String> getTxIds() {
+        return txIds;
+    }
+
+    public void setTxIds(List<String> txIds) {
+        this.txIds = txIds;
+    }
+
+    /**
+     * Decodes a raw block
+     *
+     * @param hex the serialized block in hex
+     * @param height the height of the block, which the block itself doesn't hold
+     * @return the decoded block
+     */
+    public static BlockInfo decode(CharSequence hex, int height) {
+        byte[] raw;
+
+        try {
+            raw = Hex.decode(hex);
+        } catch (IllegalArgumentException e) {
+            throw new BitcoinClientException("Not a raw block", e);
+        }
+
+        if (raw.length < HEADER_LENGTH + 1) {
+            throw new BitcoinClientException("Too short for a block: " + raw.length + " bytes");
+        }
+
+        MessageDigest sha256 = sha256();
+        BlockInfo block = new BlockInfo();
+        block.height = height;
+        block.size = raw.length;
+        block.version = (int) readUInt32(raw, 0);
+        block.hash = Hex.encodeReversed(doubleHash(sha256, raw, 0, HEADER_LENGTH), 0, HASH_LENGTH);
+
+        String previous = Hex.encodeReversed(raw, 4, HASH_LENGTH);
+        block.previousHash = isZero(raw, 4, HASH_LENGTH) ? null : previous;
+        block.merkleRoot = Hex.encodeReversed(raw, 36, HASH_LENGTH);
+        block.time = readUInt32(raw, 68);
+        block.bits = readUInt32(raw, 72);
+        block.nonce = readUInt32(raw, 76);
+
+        Reader reader = new Reader(raw, HEADER_LENGTH);
+        long count = reader.readVarInt();
+        List<String> txIds = new ArrayList<String>((int) Math.min(count, raw.length / 60));
+
+        for (long i = 0; i < count; i++) {
+            txIds.add(readTransaction(reader, sha256));
+        }
+
+        if (reader.position != raw.length) {
+            throw new BitcoinClientException("Bytes left after the last transaction of block " + block.hash);
+        }
+
+        block.txIds = Collections.unmodifiableList(txIds);
+        return block;
+    }
+
+    /**
+     * Computes the id of a serialized transaction, such as those published as rawtx
+     *
+     * @param raw the serialized transaction
+     * @return the transaction id in hex
+     */
+    public static String transactionId(byte[] raw) {
+        Reader reader = new Reader(raw, 0);
+        String txId = readTransaction(reader, sha256());
+
+        if (reader.position != raw.length) {
+            throw new BitcoinClientException("Bytes left after the transaction " + txId);
+        }
+
+        return txId;
+    }
+
+    /**
+     * Skips over a transaction, hashing it without the witness data to get its id
+     */
+    private static String readTransaction(Reader reader, MessageDigest sha256) {
+        byte[] raw = reader.raw;
+        int start = reader.position;
+        reader.skip(4);                             // Version
+
+        boolean witness = reader.peek(0) == 0 && reader.peek(1) == 1;
+
+        if (witness) {
+            reader.skip(2);                         // Marker and flag
+        }
+
+        int inputsStart = reader.position;
+        long inputs = reader.readVarInt();
+
+        for (long i = 0; i < inputs; i++) {
+            reader.skip(36);                        // Previous output
+            reader.skip(reader.readVarInt());       // Script
+            reader.skip(4);                         // Sequence
+        }
+
+        long outputs = reader.readVarInt();
+
+        for (long i = 0; i < outputs; i++) {
+            reader.skip(8);                         // Value
+            reader.skip(reader.readVarInt());       // Script
+        }
+
+        int outputsEnd = reader.position;
+
+        if (witness) {
+            for (long i = 0; i < inputs; i++) {
+                long items = reader.readVarInt();
+
+                for (long j = 0; j < items; j++) {
+                    reader.skip(reader.readVarInt());
+                }
+            }
+        }
+
+        int lockTime = reader.position;
+        reader.skip(4);
+
+        sha256.reset();
+
+        if (witness) {
+            sha256.update(raw, start, 4);
+            sha256.update(raw, inputsStart, outputsEnd - inputsStart);
+            sha256.update(raw, lockTime, 4);
+        } else {
+            sha256.update(raw, start, reader.position - start);
+        }
+
+        byte[] first = sha256.digest();
+        return Hex.encodeReversed(sha256.digest(first), 0, HASH_LENGTH);
+    }
+
+    private static byte[] doubleHash(MessageDigest sha256, byte[] raw, int offset, int length) {
+        sha256.reset();
+        sha256.update(raw, offset, length);
+        return sha256.digest(sha256.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new BitcoinClientException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long readUInt32(byte[] raw, int offset) {
+        return (raw[offset] & 0xffL) | (raw[offset + 1] & 0xffL) << 8 | (raw[offset + 2] & 0xffL) << 16 |
+               (raw[offset + 3] & 0xffL) << 24;
+    }
+
+    private static boolean isZero(byte[] raw, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (raw[offset + i] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads through a serialized block or transaction, checking every step against its end
+     */
+    private static class Reader {
+        final byte[] raw;
+        int position;
+
+        Reader(byte[] raw, int position) {
+            this.raw = raw;
+            this.position = position;
+        }
+
+        int peek(int ahead) {
+            return position + ahead < raw.length ? raw[position + ahead] & 0xff : -1;
+        }
+
+        void skip(long length) {
+            if (length < 0 || length > raw.length - position) {
+                throw new BitcoinClientException("Truncated serialization at byte " + position);
+            }
+
+            position += (int) length;
+        }
+
+        long readVarInt() {
+            int first = peek(0);
+            skip(1);
+
+            if (first < 0xfd) {
+                return first;
+            }
+
+            int length = first == 0xfd ? 2 : first == 0xfe ? 4 : 8;
+            int start = position;
+            skip(length);
+            long value = 0;
+
+            for (int i = length - 1; i >= 0; i--) {
+                value = value << 8 | (raw[start + i] & 0xffL);
+            }
+
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockInfo{" +
+               "hash='" + hash + '\'' +
+               ", height=" + height +
+               ", time=" + time +
+               ", size=" + size +
+               ", transactions=" + txIds.size() +
+               '}';
+    }
+}
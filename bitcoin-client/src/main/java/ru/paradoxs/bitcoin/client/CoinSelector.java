@@ -0,0 +1,310 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Picks the unspent outputs to pay an amount with, keeping the number of inputs,
+ * and so the size and fee of the transaction, down.
+ *
+ * First a branch and bound search looks for a set of outputs that pays the
+ * amount and fee closely enough that no change output is needed, which is
+ * both the smallest and cheapest transaction. Failing that, the smallest
+ * single output big enough for the amount, fee and change is used, or else
+ * the biggest outputs until they cover it. When all outputs together cover
+ * the amount and fee, but not a change output above the dust limit, the
+ * biggest ones are spent without change, the rest going to the fee.
+ * Selection is deterministic, the same outputs and amount always give the
+ * same selection.
+ *
+ * Sizes are those of pay-to-pubkey-hash inputs and outputs.
+ */
+public class CoinSelector {
+    public static final int  INPUT_SIZE           = 148;
+    public static final int  OUTPUT_SIZE          = 34;
+    public static final int  TRANSACTION_OVERHEAD = 10;
+    public static final long DUST_LIMIT           = 546;
+
+    private static final int MAX_TRIES = 100000;
+
+    /**
+     * The outputs chosen to pay an amount
+     */
+    public static final class Selection {
+        private final List<UnspentOutput> inputs;
+        private final long inputTotal;
+        private final long amount;
+        private final long change;
+
+        Selection(List<UnspentOutput> inputs, long amount, long change) {
+            long total = 0;
+
+            for (UnspentOutput input : inputs) {
+                total += input.getAmountSatoshis();
+            }
+
+            this.inputs = Collections.unmodifiableList(inputs);
+            this.inputTotal = total;
+            this.amount = amount;
+            this.change = change;
+        }
+
+        public List<UnspentOutput> getInputs() {
+            return inputs;
+        }
+
+        /**
+         * @return the value of the inputs in satoshis
+         */
+        public long getInputTotal() {
+            return inputTotal;
+        }
+
+        /**
+         * @return the amount paid in satoshis
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * @return the change in satoshis, 0 if there is no change output
+         */
+        public long getChange() {
+            return change;
+        }
+
+        /**
+         * @return what the inputs hold beyond the amount and change, in satoshis
+         */
+        public long getFee() {
+            return inputTotal - amount - change;
+        }
+
+        @Override
+        public String toString() {
+            return "Selection{" + inputs.size() + " inputs, amount " + amount + ", change " + change + ", fee " +
+                   getFee() + "}";
+        }
+    }
+
+    private static final Comparator<UnspentOutput> BIGGEST_FIRST = new Comparator<UnspentOutput>() {
+        public int compare(UnspentOutput a, UnspentOutput b) {
+            if (a.getAmountSatoshis() != b.getAmountSatoshis()) {
+                return a.getAmountSatoshis() > b.getAmountSatoshis() ? -1 : 1;
+            }
+
+            // Ties are broken by outpoint, so the order doesn't depend on the order of the candidates
+            int byTxId = a.getTxId().compareTo(b.getTxId());
+            return byTxId != 0 ? byTxId : a.getVout() - b.getVout();
+        }
+    };
+
+    private final long feePerByte;
+
+    /**
+     * @param feePerByte the fee rate in satoshis per byte
+     */
+    public CoinSelector(long feePerByte) {
+        if (feePerByte < 0) {
+            throw new IllegalArgumentException("feePerByte must be >= 0");
+        }
+
+        this.feePerByte = feePerByte;
+    }
+
+    public long getFeePerByte() {
+        return feePerByte;
+    }
+
+    /**
+     * Selects outputs to pay an amount to one address
+     *
+     * @param candidates the outputs that may be spent
+     * @param amount the amount in satoshis
+     * @return the selection
+     * @throws BitcoinClientException if the candidates can't pay the amount and fee
+     */
+    public Selection select(Collection<UnspentOutput> candidates, long amount) {
+        if (amount <= 0) {
+            throw new BitcoinClientException("amount must be > 0");
+        }
+
+        long inputFee = feePerByte * INPUT_SIZE;
+        long changeFee = feePerByte * OUTPUT_SIZE;
+        long target = amount + feePerByte * (TRANSACTION_OVERHEAD + OUTPUT_SIZE);
+
+        // Outputs worth less than the fee of spending them only make things worse
+        List<UnspentOutput> sorted = new ArrayList<UnspentOutput>(candidates.size());
+
+        for (UnspentOutput candidate : candidates) {
+            if (candidate.getAmountSatoshis() > inputFee) {
+                sorted.add(candidate);
+            }
+        }
+
+        Collections.sort(sorted, BIGGEST_FIRST);
+
+        long[] values = new long[sorted.size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sorted.get(i).getAmountSatoshis() - inputFee;
+        }
+
+        // A change output costs its own fee now, and the fee of spending it later
+        boolean[] exact = branchAndBound(values, target, changeFee + inputFee);
+
+        if (exact != null) {
+            return new Selection(pick(sorted, exact), amount, 0);
+        }
+
+        long targetWithChange = target + changeFee + DUST_LIMIT;
+        List<UnspentOutput> inputs = new ArrayList<UnspentOutput>();
+        long total = 0;
+
+        for (int i = values.length - 1; i >= 0; i--) {
+            if (values[i] >= targetWithChange) {
+                inputs.add(sorted.get(i));
+                total = values[i];
+                break;
+            }
+        }
+
+        for (int i = 0; inputs.isEmpty() && i < values.length; i++) {
+            total += values[i];
+
+            if (total >= targetWithChange) {
+                inputs.addAll(sorted.subList(0, i + 1));
+            }
+        }
+
+        if (!inputs.isEmpty()) {
+            return new Selection(inputs, amount, total - target - changeFee);
+        }
+
+        // Too little is left over for change worth having, so it goes to the fee instead
+        total = 0;
+
+        for (int i = 0; total < target && i < values.length; i++) {
+            inputs.add(sorted.get(i));
+            total += values[i];
+        }
+
+        if (total < target) {
+            throw new BitcoinClientException("Insufficient funds: can't pay " + Amounts.fromSatoshis(amount) +
+                                             " BTC and fees from " + candidates.size() + " outputs");
+        }
+
+        return new Selection(inputs, amount, 0);
+    }
+
+    private static List<UnspentOutput> pick(List<UnspentOutput> sorted, boolean[] selected) {
+        List<UnspentOutput> inputs = new ArrayList<UnspentOutput>();
+
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                inputs.add(sorted.get(i));
+            }
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Searches depth first, biggest values first, for the subset of values adding up
+     * to between target and target + tolerance with the least excess, and of those
+     * the one with the fewest values. Branches that can't reach the target, or have
+     * gone past it, are cut.
+     *
+     * @param values the values, biggest first, all positive
+     * @return which values to use, or null if no subset was found
+     */
+    static boolean[] branchAndBound(long[] values, long target, long tolerance) {
+        int n = values.length;
+        long remaining = 0;
+
+        for (long value : values) {
+            remaining += value;
+        }
+
+        if (remaining < target) {
+            return null;
+        }
+
+        boolean[] included = new boolean[n];
+        boolean[] best = null;
+        long bestExcess = Long.MAX_VALUE;
+        int bestCount = Integer.MAX_VALUE;
+        int count = 0;
+        long sum = 0;
+        int depth = 0;
+
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            boolean backtrack;
+
+            if (sum > target + tolerance || sum + remaining < target) {
+                backtrack = true;
+            } else if (sum >= target) {
+                long excess = sum - target;
+
+                if (excess < bestExcess || (excess == bestExcess && count < bestCount)) {
+                    best = included.clone();
+                    bestExcess = excess;
+                    bestCount = count;
+                }
+
+                backtrack = true;       // More values would only add to the excess
+            } else {
+                backtrack = depth == n;
+            }
+
+            if (!backtrack) {
+                included[depth] = true;
+                sum += values[depth];
+                remaining -= values[depth];
+                count++;
+                depth++;
+                continue;
+            }
+
+            // Undo decisions until one to include a value can be turned into leaving it out
+            while (depth > 0) {
+                depth--;
+
+                if (included[depth]) {
+                    included[depth] = false;
+                    sum -= values[depth];
+                    count--;
+                    depth++;
+                    break;
+                }
+
+                remaining += values[depth];
+            }
+
+            if (depth == 0) {
+                break;
+            }
+        }
+
+        return best;
+    }
+}
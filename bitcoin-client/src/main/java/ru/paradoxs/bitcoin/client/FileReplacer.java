@@ -0,0 +1,45 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces files with new versions written next to them, for the files the
+ * client keeps its state in.
+ *
+ * On POSIX the rename replaces the old file in one step, so a crash leaves
+ * either the old file or the new one. Windows can't rename over a file, so
+ * there the old one is deleted first, and a crash between the two steps leaves
+ * only the new one, under its temporary name.
+ */
+public final class FileReplacer {
+
+    private FileReplacer() {
+    }
+
+    /**
+     * Renames a completely written file over another
+     *
+     * @param temporary the new version, which should be on disk already
+     * @param file the file to replace, which may not exist
+     * @throws IOException if the file couldn't be replaced
+     */
+    public static void replace(File temporary, File file) throws IOException {
+        if (!temporary.renameTo(file) && (!file.delete() || !temporary.renameTo(file))) {
+            throw new IOException("Can't replace " + file + " with " + temporary);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+/**
+ * Hex encoding and decoding into caller supplied arrays, so that no
+ * intermediate strings are created
+ */
+final class Hex {
+    static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    /**
+     * Decodes <code>length</code> bytes from hex text, starting at <code>start</code>
+     */
+    static void decode(CharSequence hex, int start, byte[] dst, int offset, int length) {
+        if (hex.length() - start < length * 2) {
+            throw new IllegalArgumentException("Too short hex string: " + hex);
+        }
+
+        for (int i = 0; i < length; i++) {
+            int high = digit(hex.charAt(start + 2 * i));
+            int low = digit(hex.charAt(start + 2 * i + 1));
+            dst[offset + i] = (byte) ((high << 4) | low);
+        }
+    }
+
+    static byte[] decode(CharSequence hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        decode(hex, 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Encodes <code>length</code> bytes as hex text into <code>dst</code>, starting at <code>dstOffset</code>
+     */
+    static void encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        for (int i = 0; i < length; i++) {
+            int b = src[offset + i] & 0xff;
+            dst[dstOffset + 2 * i] = DIGITS[b >>> 4];
+            dst[dstOffset + 2 * i + 1] = DIGITS[b & 0x0f];
+        }
+    }
+
+    static String encode(byte[] src, int offset, int length) {
+        char[] chars = new char[length * 2];
+        encode(src, offset, length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Encodes bytes in reverse order, the way hashes are shown
+     */
+    static String encodeReversed(byte[] src, int offset, int length) {
+        char[] chars = new char[length * 2];
+
+        for (int i = 0; i < length; i++) {
+            int b = src[offset + length - 1 - i] & 0xff;
+            chars[2 * i] = DIGITS[b >>> 4];
+            chars[2 * i + 1] = DIGITS[b & 0x0f];
+        }
+
+        return new String(chars);
+    }
+
+    static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+
+        throw new IllegalArgumentException("Not a hex digit: " + c);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.List;
+
+/**
+ * An unconfirmed transaction in the memory pool of the server, as returned by
+ * #getMempoolEntries(List).
+ */
+public final class MempoolEntry {
+    private final String txId;
+    private final int size;
+    private final long fee;
+    private final long time;
+    private final int height;
+    private final List<String> depends;
+
+    /**
+     * @param txId the transaction id
+     * @param size the virtual size in bytes, or the size for servers without segwit
+     * @param fee the fee in satoshis
+     * @param time the time the transaction entered the pool, in seconds since 1970
+     * @param height the block height when the transaction entered the pool
+     * @param depends the unconfirmed transactions this one spends outputs of
+     */
+    public MempoolEntry(String txId, int size, long fee, long time, int height, List<String> depends) {
+        this.txId = txId;
+        this.size = size;
+        this.fee = fee;
+        this.time = time;
+        this.height = height;
+        this.depends = depends;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the fee in satoshis
+     */
+    public long getFee() {
+        return fee;
+    }
+
+    /**
+     * @return the fee in satoshis per virtual byte
+     */
+    public double getFeeRate() {
+        return size == 0 ? 0 : (double) fee / size;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<String> getDepends() {
+        return depends;
+    }
+
+    @Override
+    public String toString() {
+        return "MempoolEntry{" +
+               "txId='" + txId + '\'' +
+               ", size=" + size +
+               ", fee=" + fee +
+               ", time=" + time +
+               '}';
+    }
+}
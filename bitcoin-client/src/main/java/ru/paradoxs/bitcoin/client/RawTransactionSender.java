@@ -0,0 +1,120 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Sends bitcoins from coins selected here rather than by the server, as raw
+ * transactions the server only signs and broadcasts.
+ *
+ * Compared to #sendToAddress() this gives transactions with fewer inputs
+ * and lower fees, and concurrent sends don't wait on each other, since the
+ * coins for each are reserved in the {@link UtxoView} up front.
+ */
+public class RawTransactionSender {
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final BitcoinClient client;
+    private final UtxoView view;
+    private final CoinSelector selector;
+    private final String changeAddress;
+    private volatile int minimumConfirmations = 1;
+
+    /**
+     * @param client the client of the server holding the wallet
+     * @param view the unspent outputs of the wallet
+     * @param selector selects the coins for each send
+     * @param changeAddress an address of the wallet to send change to
+     */
+    public RawTransactionSender(BitcoinClient client, UtxoView view, CoinSelector selector, String changeAddress) {
+        this.client = client;
+        this.view = view;
+        this.selector = selector;
+        this.changeAddress = changeAddress;
+    }
+
+    /**
+     * @param minimumConfirmations only spend outputs with at least this many confirmations, 1 by default
+     */
+    public void setMinimumConfirmations(int minimumConfirmations) {
+        this.minimumConfirmations = minimumConfirmations;
+    }
+
+    public int getMinimumConfirmations() {
+        return minimumConfirmations;
+    }
+
+    /**
+     * Sends an amount to an address
+     *
+     * @param address the address to pay
+     * @param amount the amount in BTC, rounded to whole satoshis
+     * @return the transaction ID
+     */
+    public String send(String address, BigDecimal amount) {
+        if (address.equals(changeAddress)) {
+            throw new BitcoinClientException("Can't pay to the change address: " + address);
+        }
+
+        CoinSelector.Selection selection = reserve(Amounts.toSatoshis(amount));
+        boolean sent = false;
+
+        try {
+            Map<String, BigDecimal> outputs = new LinkedHashMap<String, BigDecimal>();
+            outputs.put(address, Amounts.fromSatoshis(selection.getAmount()));
+
+            if (selection.getChange() > 0) {
+                outputs.put(changeAddress, Amounts.fromSatoshis(selection.getChange()));
+            }
+
+            String unsigned = client.createRawTransaction(selection.getInputs(), outputs);
+            String txId = client.sendRawTransaction(client.signRawTransaction(unsigned));
+            sent = true;
+
+            // The outputs keep the order they were given in, so the change is the second one
+            UnspentOutput change = selection.getChange() > 0
+                    ? new UnspentOutput(txId, 1, changeAddress, null, null, selection.getChange(), 0)
+                    : null;
+            view.spend(selection.getInputs(), change);
+
+            return txId;
+        } finally {
+            if (!sent) {
+                view.release(selection.getInputs());
+            }
+        }
+    }
+
+    /**
+     * Selects and reserves coins, selecting again if a concurrent send got some of them first
+     */
+    private CoinSelector.Selection reserve(long amount) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            List<UnspentOutput> available = view.getAvailable(minimumConfirmations);
+            CoinSelector.Selection selection = selector.select(available, amount);
+
+            if (view.reserve(selection.getInputs())) {
+                return selection;
+            }
+        }
+
+        throw new BitcoinClientException("Couldn't reserve coins for the send, too many concurrent sends");
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * The outcome of a call made with {@link BitcoinClient#tryCall(String, Object...)},
+ * either a result or the error the server answered with.
+ *
+ * Meant for callers where errors are part of the normal flow, such as
+ * validating addresses users typed in, so they can branch on the error code
+ * instead of catching exceptions.
+ */
+public final class RpcResult {
+    private final String method;
+    private final Object result;
+    private final int errorCode;
+    private final String errorMessage;
+
+    private RpcResult(String method, Object result, int errorCode, String errorMessage) {
+        this.method = method;
+        this.result = result;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+    }
+
+    static RpcResult success(String method, Object result) {
+        return new RpcResult(method, result, 0, null);
+    }
+
+    static RpcResult failure(String method, int errorCode, String errorMessage) {
+        return new RpcResult(method, null, errorCode, errorMessage);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public boolean isSuccess() {
+        return errorMessage == null;
+    }
+
+    /**
+     * @return the error code from the server, or 0 if the call succeeded
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return the error message from the server, or null if the call succeeded
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return the result as it was decoded, which is null for a failed call
+     */
+    public Object getResult() {
+        return result;
+    }
+
+    public String getString() {
+        Object value = checked();
+
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+
+        return value == null ? null : value.toString();
+    }
+
+    public BigDecimal getBigDecimal() {
+        Object value = checked();
+
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+
+        try {
+            return new BigDecimal(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            throw new BitcoinClientException("Got a non-numeric result from " + method + ": " + value, e);
+        }
+    }
+
+    public JSONObject getJSONObject() {
+        return (JSONObject) checked();
+    }
+
+    public JSONArray getJSONArray() {
+        return (JSONArray) checked();
+    }
+
+    /**
+     * @throws BitcoinRpcException if the call failed
+     */
+    private Object checked() {
+        if (!isSuccess()) {
+            throw toException();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the error as an exception, to throw after all
+     */
+    public BitcoinRpcException toException() {
+        return new BitcoinRpcException(method, errorCode, errorMessage);
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? method + ": " + result : method + " failed: " + errorMessage + " (" + errorCode + ")";
+    }
+}
@@ -0,0 +1,371 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Spreads accounts over the wallets of several Bitcoin servers.
+ *
+ * Each account lives on one server, picked by consistent hashing of its name,
+ * so adding a server only moves about a share of the accounts to it, and
+ * removing one only moves the accounts it had. The ring is built from the
+ * names the servers are given, so the order they are listed in doesn't matter.
+ * Calls about an account go to its server, while calls about the whole wallet
+ * are made on all servers in parallel and their results merged. The default
+ * account exists on every server, so its balances are summed.
+ */
+public class ShardedBitcoinClient {
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final List<String>        names;
+    private final List<BitcoinClient> shards;
+    private final ExecutorService     executor;
+    private final TreeMap<Integer, Integer> ring = new TreeMap<Integer, Integer>();
+
+    /**
+     * @param shards the clients of the servers by name, for instance host:port. The
+     *               names decide which accounts a server has, so they must stay the same
+     *               when servers are added or removed.
+     * @param executor runs the calls made on all servers
+     */
+    public ShardedBitcoinClient(Map<String, BitcoinClient> shards, ExecutorService executor) {
+        if (shards.isEmpty()) {
+            throw new BitcoinClientException("There must be at least one shard");
+        }
+
+        this.names = Collections.unmodifiableList(new ArrayList<String>(shards.keySet()));
+        this.shards = Collections.unmodifiableList(new ArrayList<BitcoinClient>(shards.values()));
+        this.executor = executor;
+
+        for (int shard = 0; shard < names.size(); shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                int key = hash(names.get(shard) + "-" + point);
+                Integer owner = ring.get(key);
+
+                // On a collision the point goes to the smaller name, whatever order the shards came in
+                if (owner == null || names.get(owner).compareTo(names.get(shard)) > 0) {
+                    ring.put(key, shard);
+                }
+            }
+        }
+    }
+
+    public List<BitcoinClient> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return the names of the servers, in the same order as #getShards()
+     */
+    public List<String> getShardNames() {
+        return names;
+    }
+
+    /**
+     * @param account the name of the account, the default account if null or empty
+     * @return the index of the server the account lives on
+     */
+    public int shardIndexFor(String account) {
+        SortedMap<Integer, Integer> tail = ring.tailMap(hash(account == null ? "" : account));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * @param account the name of the account, the default account if null or empty
+     * @return the name of the server the account lives on
+     */
+    public String shardNameFor(String account) {
+        return names.get(shardIndexFor(account));
+    }
+
+    /**
+     * @param account the name of the account, the default account if null or empty
+     * @return the client of the server the account lives on
+     */
+    public BitcoinClient shardFor(String account) {
+        return shards.get(shardIndexFor(account));
+    }
+
+    /**
+     * @param account the name of the account, the default account if null or empty
+     * @return the balance of the account, summed over all servers for the default account
+     */
+    public BigDecimal getBalance(final String account) {
+        if (account != null && account.length() > 0) {
+            return shardFor(account).getBalance(account);
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+
+        for (BigDecimal balance : onAllShards(new ShardCall<BigDecimal>() {
+            public BigDecimal call(BitcoinClient client) {
+                return client.getBalance("");
+            }
+        })) {
+            total = total.add(balance);
+        }
+
+        return total;
+    }
+
+    public String getAccountAddress(String account) {
+        return shardFor(account).getAccountAddress(account);
+    }
+
+    public List<String> getAddressesByAccount(String account) {
+        return shardFor(account).getAddressesByAccount(account);
+    }
+
+    public BigDecimal getReceivedByAccount(String account, long minimumConfirmations) {
+        return shardFor(account).getReceivedByAccount(account, minimumConfirmations);
+    }
+
+    public List<TransactionInfo> listTransactions(String account, int count) {
+        return shardFor(account).listTransactions(account, count);
+    }
+
+    public String sendFrom(String account, String bitcoinAddress, BigDecimal amount, int minimumConfirmations,
+                           String comment, String commentTo) {
+        return shardFor(account).sendFrom(account, bitcoinAddress, amount, minimumConfirmations, comment, commentTo);
+    }
+
+    /**
+     * Moves Bitcoins between two accounts, which must live on the same server
+     *
+     * @see BitcoinClient#move(String, String, BigDecimal, int, String)
+     */
+    public boolean move(String fromAccount, String toAccount, BigDecimal amount, int minimumConfirmations,
+                        String comment) {
+        int shard = shardIndexFor(fromAccount);
+
+        if (shard != shardIndexFor(toAccount)) {
+            throw new BitcoinClientException("Can't move between accounts on different servers: '" +
+                                             fromAccount + "' and '" + toAccount + "'");
+        }
+
+        return shards.get(shard).move(fromAccount, toAccount, amount, minimumConfirmations, comment);
+    }
+
+    /**
+     * @return the sum of the balances of all servers
+     */
+    public BigDecimal getBalance() {
+        BigDecimal total = BigDecimal.ZERO;
+
+        for (BigDecimal balance : onAllShards(new ShardCall<BigDecimal>() {
+            public BigDecimal call(BitcoinClient client) {
+                return client.getBalance();
+            }
+        })) {
+            total = total.add(balance);
+        }
+
+        return total;
+    }
+
+    /**
+     * @return the balances of the accounts of all servers
+     */
+    public AccountBalances listAccounts(final long minimumConfirmations) {
+        List<AccountBalances> perShard = onAllShards(new ShardCall<AccountBalances>() {
+            public AccountBalances call(BitcoinClient client) {
+                return client.listAccounts(minimumConfirmations);
+            }
+        });
+
+        int size = 0;
+
+        for (AccountBalances balances : perShard) {
+            size += balances.size();
+        }
+
+        AccountBalances merged = new AccountBalances(size);
+
+        for (AccountBalances balances : perShard) {
+            for (int i = 0; i < balances.size(); i++) {
+                String account = balances.getAccount(i);
+                merged.putSatoshis(account, merged.getSatoshis(account) + balances.getSatoshis(i));
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns the balances of a set of accounts, asking each server for its own accounts in
+     * parallel. The default account is asked for on all servers, and its balances summed.
+     *
+     * @param accounts the names of the accounts
+     * @return the balances, in the iteration order of the accounts
+     */
+    public AccountBalances getBalances(Collection<String> accounts) {
+        final List<List<String>> perShard = new ArrayList<List<String>>(shards.size());
+        boolean defaultAccount = false;
+
+        for (int i = 0; i < shards.size(); i++) {
+            perShard.add(new ArrayList<String>());
+        }
+
+        for (String account : accounts) {
+            if (account == null || account.length() == 0) {
+                defaultAccount = true;
+            } else {
+                perShard.get(shardIndexFor(account)).add(account);
+            }
+        }
+
+        if (defaultAccount) {
+            for (List<String> shardAccounts : perShard) {
+                shardAccounts.add("");
+            }
+        }
+
+        List<Future<AccountBalances>> futures = new ArrayList<Future<AccountBalances>>(shards.size());
+
+        for (int i = 0; i < shards.size(); i++) {
+            final BitcoinClient client = shards.get(i);
+            final List<String> shardAccounts = perShard.get(i);
+
+            futures.add(executor.submit(new Callable<AccountBalances>() {
+                public AccountBalances call() {
+                    return client.getBalances(shardAccounts);
+                }
+            }));
+        }
+
+        AccountBalances balances = new AccountBalances(accounts.size());
+
+        for (String account : accounts) {
+            if (account != null && account.length() > 0) {
+                AccountBalances shardBalances = AsyncBitcoinClient.get(futures.get(shardIndexFor(account)));
+                balances.putSatoshis(account, shardBalances.getSatoshis(account));
+                continue;
+            }
+
+            long total = 0;
+
+            for (Future<AccountBalances> future : futures) {
+                total += AsyncBitcoinClient.get(future).getSatoshis("");
+            }
+
+            balances.putSatoshis(account, total);
+        }
+
+        return balances;
+    }
+
+    /**
+     * Info about the received amounts by account on all servers, accounts on several
+     * servers get their amounts summed and the lowest number of confirmations
+     */
+    public List<AccountInfo> listReceivedByAccount(final long minimumConfirmations, final boolean includeEmpty) {
+        Map<String, AccountInfo> merged = new LinkedHashMap<String, AccountInfo>();
+
+        for (List<AccountInfo> infos : onAllShards(new ShardCall<List<AccountInfo>>() {
+            public List<AccountInfo> call(BitcoinClient client) {
+                return client.listReceivedByAccount(minimumConfirmations, includeEmpty);
+            }
+        })) {
+            for (AccountInfo info : infos) {
+                AccountInfo existing = merged.get(info.getAccount());
+
+                if (existing == null) {
+                    merged.put(info.getAccount(), info);
+                } else {
+                    existing.setAmount(existing.getAmount().add(info.getAmount()));
+                    existing.setConfirmations(Math.min(existing.getConfirmations(), info.getConfirmations()));
+                }
+            }
+        }
+
+        return new ArrayList<AccountInfo>(merged.values());
+    }
+
+    /**
+     * Info about all received transactions by address on all servers
+     */
+    public List<AddressInfo> listReceivedByAddress(final long minimumConfirmations, final boolean includeEmpty) {
+        List<AddressInfo> all = new ArrayList<AddressInfo>();
+
+        for (List<AddressInfo> infos : onAllShards(new ShardCall<List<AddressInfo>>() {
+            public List<AddressInfo> call(BitcoinClient client) {
+                return client.listReceivedByAddress(minimumConfirmations, includeEmpty);
+            }
+        })) {
+            all.addAll(infos);
+        }
+
+        return all;
+    }
+
+    /**
+     * A call made on every server
+     */
+    public interface ShardCall<T> {
+        T call(BitcoinClient client);
+    }
+
+    /**
+     * Makes a call on all servers in parallel
+     *
+     * @return the results, in the order of the servers
+     */
+    public <T> List<T> onAllShards(final ShardCall<T> call) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(shards.size());
+
+        for (final BitcoinClient client : shards) {
+            futures.add(executor.submit(new Callable<T>() {
+                public T call() {
+                    return call.call(client);
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<T>(shards.size());
+
+        for (Future<T> future : futures) {
+            results.add(AsyncBitcoinClient.get(future));
+        }
+
+        return results;
+    }
+
+    private static int hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BitcoinClientException("MD5 isn't available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new BitcoinClientException("UTF-8 isn't available", e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Holds many transactions column by column, returned from
+ * #listTransactionBatch(String, int, int).
+ *
+ * Amounts and fees are whole satoshis, categories and accounts are numbers
+ * into small dictionaries, and transaction ids are packed 32 byte values, so
+ * scanning millions of transactions touches a handful of primitive arrays
+ * rather than millions of objects. A {@link View} reads one row at a time
+ * without copying it.
+ */
+public class TransactionBatch {
+    public static final int TXID_LENGTH = 32;
+    public static final int NONE = -1;
+
+    private static final byte HAS_FEE  = 1;
+    private static final byte HAS_TXID = 2;
+
+    private int size = 0;
+
+    private long[] amounts;
+    private long[] fees;
+    private long[] times;
+    private long[] confirmations;
+    private byte[] categories;
+    private int[]  accounts;
+    private int[]  otherAccounts;
+    private byte[] flags;
+    private byte[] txIds;
+    private String[] messages = null;    // Only allocated if any transaction has one
+    private String[] tos = null;         // Only allocated if any transaction has one
+    private String[] addresses = null;   // Only allocated if any transaction has one
+
+    private final Dictionary categoryNames = new Dictionary("categories", Byte.MAX_VALUE + 1);
+    private final Dictionary accountNames = new Dictionary("accounts", Integer.MAX_VALUE);
+
+    public TransactionBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        amounts = new long[capacity];
+        fees = new long[capacity];
+        times = new long[capacity];
+        confirmations = new long[capacity];
+        categories = new byte[capacity];
+        accounts = new int[capacity];
+        otherAccounts = new int[capacity];
+        flags = new byte[capacity];
+        txIds = new byte[capacity * TXID_LENGTH];
+    }
+
+    /**
+     * Appends a row, and returns its index. The amounts are in satoshis, the names
+     * can be null, and the transaction id is hex text as sent by the server.
+     *
+     * @throws BitcoinClientException if the batch already has 128 other categories
+     */
+    public int add(String category, long amount, Long fee, long confirmations, String txId,
+                   String account, String otherAccount, String message, String to, long time) {
+        int categoryCode = categoryNames.code(category);
+
+        if (size == amounts.length) {
+            grow();
+        }
+
+        int row = size++;
+
+        this.amounts[row] = amount;
+        this.times[row] = time;
+        this.confirmations[row] = confirmations;
+        this.categories[row] = (byte) categoryCode;
+        this.accounts[row] = accountNames.code(account);
+        this.otherAccounts[row] = accountNames.code(otherAccount);
+
+        byte rowFlags = 0;
+
+        if (fee != null) {
+            this.fees[row] = fee.longValue();
+            rowFlags |= HAS_FEE;
+        }
+
+        if (txId != null) {
+            Hex.decode(txId, 0, txIds, row * TXID_LENGTH, TXID_LENGTH);
+            rowFlags |= HAS_TXID;
+        }
+
+        this.flags[row] = rowFlags;
+
+        if (message != null) {
+            if (messages == null) {
+                messages = new String[amounts.length];
+            }
+
+            messages[row] = message;
+        }
+
+        if (to != null) {
+            if (tos == null) {
+                tos = new String[amounts.length];
+            }
+
+            tos[row] = to;
+        }
+
+        return row;
+    }
+
+    /**
+     * Sets the address a row was received on or sent to
+     */
+    public void setAddress(int row, String address) {
+        if (address == null) {
+            if (addresses != null) {
+                addresses[row] = null;
+            }
+
+            return;
+        }
+
+        if (addresses == null) {
+            addresses = new String[amounts.length];
+        }
+
+        addresses[row] = address;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getAmount(int row) {
+        return amounts[row];
+    }
+
+    public boolean hasFee(int row) {
+        return (flags[row] & HAS_FEE) != 0;
+    }
+
+    public long getFee(int row) {
+        return fees[row];
+    }
+
+    public long getTime(int row) {
+        return times[row];
+    }
+
+    public long getConfirmations(int row) {
+        return confirmations[row];
+    }
+
+    /**
+     * @return the code of the category, see #getCategoryName(int), or NONE
+     */
+    public int getCategoryCode(int row) {
+        return categories[row];
+    }
+
+    public String getCategoryName(int code) {
+        return categoryNames.name(code);
+    }
+
+    /**
+     * @return the code of the account, see #getAccountName(int), or NONE
+     */
+    public int getAccountCode(int row) {
+        return accounts[row];
+    }
+
+    /**
+     * @return the code of the other account of a move, see #getAccountName(int), or NONE
+     */
+    public int getOtherAccountCode(int row) {
+        return otherAccounts[row];
+    }
+
+    public String getAccountName(int code) {
+        return accountNames.name(code);
+    }
+
+    /**
+     * @return the code the account has in this batch, or NONE if no transaction has it
+     */
+    public int findAccountCode(String account) {
+        return accountNames.find(account);
+    }
+
+    /**
+     * @return the code the category has in this batch, or NONE if no transaction has it
+     */
+    public int findCategoryCode(String category) {
+        return categoryNames.find(category);
+    }
+
+    public boolean hasTxId(int row) {
+        return (flags[row] & HAS_TXID) != 0;
+    }
+
+    /**
+     * Copies the 32 bytes of the transaction id of a row
+     */
+    public void getTxId(int row, byte[] dst, int offset) {
+        System.arraycopy(txIds, row * TXID_LENGTH, dst, offset, TXID_LENGTH);
+    }
+
+    /**
+     * @return the transaction id of a row as hex text, or null if it has none
+     */
+    public String getTxIdHex(int row) {
+        return hasTxId(row) ? Hex.encode(txIds, row * TXID_LENGTH, TXID_LENGTH) : null;
+    }
+
+    public String getMessage(int row) {
+        return messages == null ? null : messages[row];
+    }
+
+    public String getTo(int row) {
+        return tos == null ? null : tos[row];
+    }
+
+    public String getAddress(int row) {
+        return addresses == null ? null : addresses[row];
+    }
+
+    /**
+     * @return a new object holding a copy of a row
+     */
+    public TransactionInfo toTransactionInfo(int row) {
+        TransactionInfo info = new TransactionInfo();
+        info.setCategory(getCategoryName(categories[row]));
+        info.setAmount(Amounts.fromSatoshis(amounts[row]));
+
+        if (hasFee(row)) {
+            info.setFee(Amounts.fromSatoshis(fees[row]));
+        }
+
+        info.setConfirmations(confirmations[row]);
+        info.setTxId(getTxIdHex(row));
+        info.setOtherAccount(getAccountName(otherAccounts[row]));
+        info.setMessage(getMessage(row));
+        info.setTo(getTo(row));
+        info.setTime(times[row]);
+
+        return info;
+    }
+
+    public List<TransactionInfo> toTransactionInfos() {
+        List<TransactionInfo> list = new ArrayList<TransactionInfo>(size);
+
+        for (int row = 0; row < size; row++) {
+            list.add(toTransactionInfo(row));
+        }
+
+        return list;
+    }
+
+    /**
+     * @return a view positioned before the first row
+     */
+    public View view() {
+        return new View();
+    }
+
+    private void grow() {
+        int capacity = amounts.length * 2;
+        amounts = Arrays.copyOf(amounts, capacity);
+        fees = Arrays.copyOf(fees, capacity);
+        times = Arrays.copyOf(times, capacity);
+        confirmations = Arrays.copyOf(confirmations, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        accounts = Arrays.copyOf(accounts, capacity);
+        otherAccounts = Arrays.copyOf(otherAccounts, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        txIds = Arrays.copyOf(txIds, capacity * TXID_LENGTH);
+
+        if (messages != null) {
+            messages = Arrays.copyOf(messages, capacity);
+        }
+
+        if (tos != null) {
+            tos = Arrays.copyOf(tos, capacity);
+        }
+
+        if (addresses != null) {
+            addresses = Arrays.copyOf(addresses, capacity);
+        }
+    }
+
+    /**
+     * A cursor over the rows of the batch, reading straight from its columns
+     */
+    public class View {
+        private int row = -1;
+
+        public boolean next() {
+            if (row + 1 >= size) {
+                return false;
+            }
+
+            row++;
+            return true;
+        }
+
+        public View moveTo(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("row " + row + " of " + size);
+            }
+
+            this.row = row;
+            return this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getCategory() {
+            return getCategoryName(categories[row]);
+        }
+
+        public long getAmountSatoshis() {
+            return amounts[row];
+        }
+
+        public BigDecimal getAmount() {
+            return Amounts.fromSatoshis(amounts[row]);
+        }
+
+        public long getFeeSatoshis() {
+            return fees[row];
+        }
+
+        public long getConfirmations() {
+            return confirmations[row];
+        }
+
+        public long getTime() {
+            return times[row];
+        }
+
+        public String getAccount() {
+            return getAccountName(accounts[row]);
+        }
+
+        public String getOtherAccount() {
+            return getAccountName(otherAccounts[row]);
+        }
+
+        public String getTxId() {
+            return getTxIdHex(row);
+        }
+
+        public String getMessage() {
+            return TransactionBatch.this.getMessage(row);
+        }
+
+        public String getTo() {
+            return TransactionBatch.this.getTo(row);
+        }
+
+        public String getAddress() {
+            return TransactionBatch.this.getAddress(row);
+        }
+    }
+
+    /**
+     * Gives each distinct name a small number
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> names = new ArrayList<String>();
+        private final String what;
+        private final int    maxSize;
+
+        /**
+         * @param what what the names are, for the exception when there are too many
+         * @param maxSize the number of names the column holding the codes has room for
+         */
+        Dictionary(String what, int maxSize) {
+            this.what = what;
+            this.maxSize = maxSize;
+        }
+
+        int code(String name) {
+            if (name == null) {
+                return NONE;
+            }
+
+            Integer code = codes.get(name);
+
+            if (code == null) {
+                if (names.size() == maxSize) {
+                    throw new BitcoinClientException("More than " + maxSize + " " + what + " in one batch: " + name);
+                }
+
+                code = names.size();
+                codes.put(name, code);
+                names.add(name);
+            }
+
+            return code;
+        }
+
+        int find(String name) {
+            Integer code = name == null ? null : codes.get(name);
+
+            return code == null ? NONE : code;
+        }
+
+        String name(int code) {
+            return code == NONE ? null : names.get(code);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionBatch{" +
+                "size=" + size +
+                ", categories=" + categoryNames.names +
+                ", accounts=" + accountNames.names.size() +
+                '}';
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Publishes the transaction history of an account as a Reactive Streams source.
+ *
+ * Transactions are fetched with listtransactions one page at a time, and only
+ * when the subscriber has asked for more than what is buffered, so a slow
+ * subscriber never has more than a page of transactions waiting in memory.
+ * The history is published newest first. When following, the publisher then
+ * keeps polling for new transactions, and publishes them oldest first. A poll
+ * only keeps as many of them as the subscriber has asked for, up to a page,
+ * and the next poll picks up after the last one kept.
+ *
+ * New transactions are told apart by the last page of transactions published.
+ * If none of those are found within {@value #MAX_SEARCH_PAGES} pages, because
+ * they were dropped from the wallet or that many arrived between polls, the
+ * publisher skips ahead to the newest transactions rather than republishing
+ * the history.
+ *
+ * On Java 9 and later, <code>org.reactivestreams.FlowAdapters</code> turns this
+ * into a <code>java.util.concurrent.Flow.Publisher</code>.
+ */
+public class TransactionPublisher implements Publisher<TransactionInfo> {
+    private static final int MAX_SEARCH_PAGES = 8;
+
+    private final BitcoinClient client;
+    private final String       account;
+    private final int         pageSize;
+    private final Executor    executor;
+
+    private ScheduledExecutorService scheduler = null;
+    private long               pollIntervalMillis = 0;
+
+    /**
+     * @param client the client used to fetch the transactions
+     * @param account the account, the default account if null or empty
+     * @param pageSize the number of transactions fetched per call, also the size of the buffer
+     * @param executor delivers the transactions to subscribers
+     */
+    public TransactionPublisher(BitcoinClient client, String account, int pageSize, Executor executor) {
+        if (pageSize <= 0) {
+            throw new BitcoinClientException("pageSize must be > 0");
+        }
+
+        this.client = client;
+        this.account = account == null ? "" : account;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Keeps publishing new transactions after the history, instead of completing
+     *
+     * @param scheduler schedules the polls for new transactions
+     * @param pollInterval the time between polls
+     * @param unit the unit of the poll interval
+     */
+    public void follow(ScheduledExecutorService scheduler, long pollInterval, TimeUnit unit) {
+        this.scheduler = scheduler;
+        this.pollIntervalMillis = unit.toMillis(pollInterval);
+    }
+
+    public void subscribe(Subscriber<? super TransactionInfo> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+
+        TransactionSubscription subscription = new TransactionSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Identifies a transaction entry, a single transaction id can have several entries
+     */
+    private static String keyOf(TransactionInfo info) {
+        return info.getTxId() + '|' + info.getCategory() + '|' + info.getAmount() + '|' +
+               info.getTime() + '|' + info.getOtherAccount();
+    }
+
+    private class TransactionSubscription implements Subscription, Runnable {
+        private final Subscriber<? super TransactionInfo> subscriber;
+
+        private final AtomicLong    requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean pollScheduled = new AtomicBoolean();
+        private volatile boolean    cancelled = false;
+        private volatile Throwable  invalidRequest = null;
+
+        // Only touched by the drain loop, which never runs concurrently with itself
+        private final ArrayDeque<TransactionInfo> buffer = new ArrayDeque<TransactionInfo>();
+        private int     from = 0;
+        private String  oldestKey = null;
+        private final Set<String> recentKeys = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > pageSize;
+            }
+        });
+        private boolean historyDone = false;
+        private long    nextPoll = 0;
+
+        TransactionSubscription(Subscriber<? super TransactionInfo> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                // Signalled from the drain loop, which may be calling onNext right now (rule 1.3)
+                invalidRequest = new IllegalArgumentException("request must be > 0, was " + n);
+                schedule();
+                return;
+            }
+
+            for (;;) {
+                long current = requested.get();
+                long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+
+                if (requested.compareAndSet(current, updated)) {
+                    break;
+                }
+            }
+
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            schedule();         // The drain loop lets go of the buffer
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        public void run() {
+            int missed = 1;
+
+            try {
+                do {
+                    Throwable error = invalidRequest;
+
+                    if (error != null && !cancelled) {
+                        cancelled = true;
+                        buffer.clear();
+                        subscriber.onError(error);
+                        return;
+                    }
+
+                    while (!cancelled && requested.get() > 0) {
+                        if (buffer.isEmpty() && !fill()) {
+                            break;
+                        }
+
+                        if (buffer.isEmpty()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+
+                        requested.decrementAndGet();
+                        subscriber.onNext(buffer.poll());
+                    }
+
+                    if (cancelled) {
+                        buffer.clear();
+                        recentKeys.clear();
+                    }
+
+                    missed = wip.addAndGet(-missed);
+                } while (missed != 0);
+            } catch (RuntimeException e) {
+                cancelled = true;
+                buffer.clear();
+                subscriber.onError(e);
+            }
+        }
+
+        /**
+         * Fetches more transactions into the empty buffer
+         *
+         * @return false if there is nothing to fetch right now, but there may be later
+         */
+        private boolean fill() {
+            while (!historyDone && buffer.isEmpty()) {
+                fetchHistoryPage();
+            }
+
+            if (!buffer.isEmpty()) {
+                return true;
+            }
+
+            if (scheduler == null) {
+                return true;
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (now < nextPoll) {
+                schedulePoll(nextPoll - now);
+                return false;
+            }
+
+            nextPoll = now + pollIntervalMillis;
+            fetchNew();
+
+            if (buffer.isEmpty()) {
+                schedulePoll(pollIntervalMillis);
+                return false;
+            }
+
+            return true;
+        }
+
+        private void fetchHistoryPage() {
+            List<TransactionInfo> page = client.listTransactions(account, pageSize, from);
+            from += page.size();
+
+            if (page.size() < pageSize) {
+                historyDone = true;
+            }
+
+            // If transactions arrived since the previous page, the offsets have moved
+            // and the page starts with transactions that were already published
+            int newest = page.size() - 1;
+
+            if (oldestKey != null) {
+                for (int i = newest; i >= 0; i--) {
+                    if (keyOf(page.get(i)).equals(oldestKey)) {
+                        newest = i - 1;
+                        break;
+                    }
+                }
+            }
+
+            if (oldestKey == null) {
+                for (TransactionInfo info : page) {
+                    recentKeys.add(keyOf(info));
+                }
+            }
+
+            for (int i = newest; i >= 0; i--) {
+                buffer.add(page.get(i));
+            }
+
+            if (!page.isEmpty()) {
+                oldestKey = keyOf(page.get(0));
+            }
+        }
+
+        /**
+         * Buffers the oldest transactions newer than the last ones published, at most
+         * as many as have been asked for, and no more than a page
+         */
+        private void fetchNew() {
+            int limit = (int) Math.min(requested.get(), pageSize);
+            ArrayDeque<TransactionInfo> found = new ArrayDeque<TransactionInfo>(limit);
+            List<TransactionInfo> newest = null;
+            boolean truncated = false;
+            boolean reachedKnown = false;
+            int offset = 0;
+
+            // Nothing to look for if nothing was published yet, all of the history is new
+            for (int pages = 0; recentKeys.isEmpty() || pages < MAX_SEARCH_PAGES; pages++) {
+                List<TransactionInfo> page = client.listTransactions(account, pageSize, offset);
+
+                if (newest == null) {
+                    newest = page;
+                }
+
+                // Going back in time, keeping only the oldest ones seen
+                for (int i = page.size() - 1; i >= 0; i--) {
+                    if (recentKeys.contains(keyOf(page.get(i)))) {
+                        reachedKnown = true;
+                        break;
+                    }
+
+                    if (found.size() == limit) {
+                        found.removeFirst();
+                        truncated = true;
+                    }
+
+                    found.addLast(page.get(i));
+                }
+
+                if (reachedKnown || page.size() < pageSize) {
+                    break;
+                }
+
+                offset += page.size();
+            }
+
+            if (!reachedKnown && !recentKeys.isEmpty()) {
+                // The published ones are gone, start over from the newest page without publishing it
+                for (TransactionInfo info : newest) {
+                    recentKeys.add(keyOf(info));
+                }
+
+                return;
+            }
+
+            for (Iterator<TransactionInfo> oldestFirst = found.descendingIterator(); oldestFirst.hasNext(); ) {
+                TransactionInfo info = oldestFirst.next();
+                buffer.add(info);
+                recentKeys.add(keyOf(info));
+            }
+
+            if (truncated) {
+                nextPoll = 0;       // The rest is there already, no need to wait for the next poll
+            }
+        }
+
+        private void schedulePoll(long delayMillis) {
+            if (!pollScheduled.compareAndSet(false, true)) {
+                return;
+            }
+
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    pollScheduled.set(false);
+                    schedule();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
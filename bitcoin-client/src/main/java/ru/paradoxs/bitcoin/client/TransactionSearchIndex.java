@@ -0,0 +1,497 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * A local index for finding wallet transactions by their comment, the address
+ * paid, the other account of a move, or their category, without scanning the
+ * transaction history.
+ *
+ * Every transaction id gets a number, its document, and the ids are packed 32
+ * bytes each in one array, like in a {@link TransactionBatch}. For each term
+ * there is a sorted array of the documents having it, and the terms are kept
+ * in a sorted map, so a prefix is a range of terms. A comment is indexed both
+ * as a whole and word by word, the other fields as a whole. Text is compared
+ * in lower case.
+ *
+ * The index is filled from #listTransactionBatch(String, int, int) by
+ * {@link #build(BitcoinClient, int)}, and kept up to date with listsinceblock
+ * by {@link #catchUp(BitcoinClient)}. Adding a transaction again replaces what
+ * was indexed for it, so a category going from immature to generate, or an
+ * edited comment, isn't found by its old value any more. The rows a batch has
+ * for one transaction id are indexed together.
+ */
+public class TransactionSearchIndex {
+    public static final int MESSAGE       = 0;
+    public static final int TO            = 1;
+    public static final int OTHER_ACCOUNT = 2;
+    public static final int CATEGORY      = 3;
+
+    private static final char[] FIELD_KEYS = { 'm', 't', 'a', 'c' };
+    private static final char   WORD_KEY = 'w';         // A single word of a comment
+
+    private final TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+
+    // Transaction ids by document, and an open addressing table from id to document
+    private byte[] txIds = new byte[1024 * TxIdSet.TXID_LENGTH];
+    private Postings[][] documentTerms = new Postings[1024][];   // The terms of each document
+    private int    documents = 0;
+    private int[]  table = new int[2048];               // Document + 1, 0 for a free slot
+
+    private final byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+
+    // Catching up calls the server, so it has its own lock, leaving the index free for searches
+    private final Object catchUpLock = new Object();
+    private String blockHash = null;
+
+    /**
+     * Builds an index of the whole transaction history of the wallet
+     *
+     * @param client the client used to list the transactions
+     * @param pageSize the number of transactions fetched per call
+     * @return the index
+     */
+    public static TransactionSearchIndex build(BitcoinClient client, int pageSize) {
+        TransactionSearchIndex index = new TransactionSearchIndex();
+
+        // The watermark is taken first, so anything happening while building is caught up on later
+        index.blockHash = client.getBlockHash(client.getBlockCount());
+        int from = 0;
+
+        for (;;) {
+            TransactionBatch batch = client.listTransactionBatch("*", pageSize, from);
+            index.add(batch, false);            // A page may have only some of the rows of a transaction
+            from += batch.size();
+
+            if (batch.size() < pageSize) {
+                break;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Adds the transactions in blocks after the last catch up, or the build, and
+     * those not in a block yet
+     *
+     * @param client the client used to list the transactions
+     */
+    public void catchUp(BitcoinClient client) {
+        synchronized (catchUpLock) {
+            String hash = client.getBlockHash(client.getBlockCount());
+            TransactionBatch batch = client.listSinceBlock(blockHash);
+
+            add(batch);
+            blockHash = hash;
+        }
+    }
+
+    /**
+     * Adds every row with a transaction id, replacing what was indexed for the
+     * transactions with what their rows in the batch have
+     */
+    public synchronized void add(TransactionBatch batch) {
+        add(batch, true);
+    }
+
+    private synchronized void add(TransactionBatch batch, boolean replace) {
+        Map<Integer, Set<String>> byDocument = new LinkedHashMap<Integer, Set<String>>();
+
+        for (int row = 0; row < batch.size(); row++) {
+            if (!batch.hasTxId(row)) {
+                continue;
+            }
+
+            batch.getTxId(row, txId, 0);
+            int document = document(txId);
+            Set<String> found = byDocument.get(document);
+
+            if (found == null) {
+                found = new HashSet<String>();
+                byDocument.put(document, found);
+            }
+
+            terms(found, MESSAGE, batch.getMessage(row));
+            terms(found, TO, batch.getTo(row));
+            terms(found, OTHER_ACCOUNT, batch.getAccountName(batch.getOtherAccountCode(row)));
+            terms(found, CATEGORY, batch.getCategoryName(batch.getCategoryCode(row)));
+        }
+
+        for (Map.Entry<Integer, Set<String>> entry : byDocument.entrySet()) {
+            index(entry.getKey(), entry.getValue(), replace);
+        }
+    }
+
+    /**
+     * Adds a transaction, replacing what was indexed for it, so a transaction with
+     * several rows should be added as a batch instead
+     */
+    public synchronized void add(TransactionInfo info) {
+        if (info.getTxId() == null) {
+            return;
+        }
+
+        Hex.decode(info.getTxId(), 0, txId, 0, TxIdSet.TXID_LENGTH);
+        int document = document(txId);
+        Set<String> found = new HashSet<String>();
+
+        terms(found, MESSAGE, info.getMessage());
+        terms(found, TO, info.getTo());
+        terms(found, OTHER_ACCOUNT, info.getOtherAccount());
+        terms(found, CATEGORY, info.getCategory());
+        index(document, found, true);
+    }
+
+    /**
+     * Finds the transactions whose field is a value, the whole comment for MESSAGE
+     *
+     * @param field MESSAGE, TO, OTHER_ACCOUNT or CATEGORY
+     * @param value the value, in any case
+     * @param limit the most transaction ids to return
+     * @return the transaction ids, in the order they were added
+     */
+    public synchronized List<String> findExact(int field, String value, int limit) {
+        Postings postings = terms.get(term(fieldKey(field), normalize(value)));
+        List<String> found = new ArrayList<String>();
+
+        for (int i = 0; postings != null && i < postings.size && found.size() < limit; i++) {
+            found.add(Hex.encode(txIds, postings.documents[i] * TxIdSet.TXID_LENGTH, TxIdSet.TXID_LENGTH));
+        }
+
+        return found;
+    }
+
+    /**
+     * Finds the transactions whose field starts with a prefix, or for MESSAGE, with
+     * a word in the comment starting with it
+     *
+     * @param field MESSAGE, TO, OTHER_ACCOUNT or CATEGORY
+     * @param prefix the prefix, in any case
+     * @param limit the most transaction ids to return
+     * @return the transaction ids, in the order they were added
+     */
+    public synchronized List<String> findPrefix(int field, String prefix, int limit) {
+        char key = field == MESSAGE ? WORD_KEY : fieldKey(field);
+        return toTxIds(matchPrefix(key, normalize(prefix)), limit);
+    }
+
+    /**
+     * Finds the transactions with every word of a query in their comment, the last
+     * word matching as a prefix, so it works while the query is being typed
+     *
+     * @param query the words, in any case
+     * @param limit the most transaction ids to return
+     * @return the transaction ids, in the order they were added
+     */
+    public synchronized List<String> findWords(String query, int limit) {
+        List<String> words = words(normalize(query));
+
+        if (words.isEmpty()) {
+            return new ArrayList<String>();
+        }
+
+        BitSet matches = matchPrefix(WORD_KEY, words.get(words.size() - 1));
+
+        for (int i = 0; i < words.size() - 1 && !matches.isEmpty(); i++) {
+            Postings postings = terms.get(term(WORD_KEY, words.get(i)));
+
+            if (postings == null) {
+                return new ArrayList<String>();
+            }
+
+            matches.and(postings.toBitSet());
+        }
+
+        return toTxIds(matches, limit);
+    }
+
+    /**
+     * @return the number of transactions in the index
+     */
+    public synchronized int size() {
+        return documents;
+    }
+
+    /**
+     * @return the number of different terms in the index
+     */
+    public synchronized int getTermCount() {
+        return terms.size();
+    }
+
+    private static void terms(Set<String> found, int field, String value) {
+        if (value == null || value.length() == 0) {
+            return;
+        }
+
+        String normalized = normalize(value);
+        found.add(term(FIELD_KEYS[field], normalized));
+
+        if (field == MESSAGE) {
+            for (String word : words(normalized)) {
+                found.add(term(WORD_KEY, word));
+            }
+        }
+    }
+
+    /**
+     * Indexes a document under its terms, either instead of or as well as those it had
+     */
+    private void index(int document, Set<String> found, boolean replace) {
+        Postings[] old = documentTerms[document];
+        List<Postings> indexed = new ArrayList<Postings>(found.size());
+
+        if (old != null) {
+            for (Postings postings : old) {
+                if (found.remove(postings.term)) {
+                    indexed.add(postings);
+                } else if (!replace) {
+                    indexed.add(postings);
+                } else if (postings.remove(document) == 0) {
+                    terms.remove(postings.term);
+                }
+            }
+        }
+
+        for (String term : found) {
+            Postings postings = terms.get(term);
+
+            if (postings == null) {
+                postings = new Postings(term);
+                terms.put(term, postings);
+            }
+
+            postings.add(document);
+            indexed.add(postings);
+        }
+
+        documentTerms[document] = indexed.toArray(new Postings[indexed.size()]);
+    }
+
+    private BitSet matchPrefix(char key, String prefix) {
+        BitSet matches = new BitSet(documents);
+        String from = term(key, prefix);
+        SortedMap<String, Postings> range = terms.subMap(from, from + Character.MAX_VALUE);
+
+        for (Postings postings : range.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                matches.set(postings.documents[i]);
+            }
+        }
+
+        return matches;
+    }
+
+    private List<String> toTxIds(BitSet documents, int limit) {
+        List<String> found = new ArrayList<String>();
+
+        for (int document = documents.nextSetBit(0); document >= 0 && found.size() < limit;
+             document = documents.nextSetBit(document + 1)) {
+            found.add(Hex.encode(txIds, document * TxIdSet.TXID_LENGTH, TxIdSet.TXID_LENGTH));
+        }
+
+        return found;
+    }
+
+    /**
+     * @return the document of a transaction id, numbering it if it's new
+     */
+    private int document(byte[] id) {
+        int mask = table.length - 1;
+
+        for (int slot = hash(id, 0) & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+
+            if (entry == 0) {
+                break;
+            }
+
+            if (equalsAt(entry - 1, id)) {
+                return entry - 1;
+            }
+        }
+
+        if (documents == txIds.length / TxIdSet.TXID_LENGTH) {
+            txIds = Arrays.copyOf(txIds, txIds.length * 2);
+            documentTerms = Arrays.copyOf(documentTerms, documentTerms.length * 2);
+        }
+
+        int document = documents++;
+        System.arraycopy(id, 0, txIds, document * TxIdSet.TXID_LENGTH, TxIdSet.TXID_LENGTH);
+
+        if (documents * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(document);
+        }
+
+        return document;
+    }
+
+    private void insert(int document) {
+        int mask = table.length - 1;
+        int slot = hash(txIds, document * TxIdSet.TXID_LENGTH) & mask;
+
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = document + 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+
+        for (int document = 0; document < documents; document++) {
+            insert(document);
+        }
+    }
+
+    private boolean equalsAt(int document, byte[] id) {
+        int base = document * TxIdSet.TXID_LENGTH;
+
+        for (int i = 0; i < TxIdSet.TXID_LENGTH; i++) {
+            if (txIds[base + i] != id[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 |
+               (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    private static char fieldKey(int field) {
+        if (field < 0 || field >= FIELD_KEYS.length) {
+            throw new BitcoinClientException("No such field: " + field);
+        }
+
+        return FIELD_KEYS[field];
+    }
+
+    private static String term(char key, String value) {
+        return key + value;
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits text into words of letters and digits
+     */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * The documents having a term, in increasing order
+     */
+    private static class Postings {
+        final String term;
+        int[] documents = new int[2];
+        int   size = 0;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int document) {
+            if (size > 0 && documents[size - 1] >= document) {
+                // A transaction added again, which is rare enough to not need to be fast
+                int at = Arrays.binarySearch(documents, 0, size, document);
+
+                if (at >= 0) {
+                    return;
+                }
+
+                insert(-at - 1, document);
+                return;
+            }
+
+            insert(size, document);
+        }
+
+        private void insert(int at, int document) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+
+            System.arraycopy(documents, at, documents, at + 1, size - at);
+            documents[at] = document;
+            size++;
+        }
+
+        /**
+         * @return the number of documents left
+         */
+        int remove(int document) {
+            int at = Arrays.binarySearch(documents, 0, size, document);
+
+            if (at >= 0) {
+                System.arraycopy(documents, at + 1, documents, at, size - at - 1);
+                size--;
+            }
+
+            return size;
+        }
+
+        BitSet toBitSet() {
+            BitSet set = new BitSet();
+
+            for (int i = 0; i < size; i++) {
+                set.set(documents[i]);
+            }
+
+            return set;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionSearchIndex{transactions=" + documents + ", terms=" + terms.size() + '}';
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.Arrays;
+
+/**
+ * A set of 32 byte transaction ids, packed side by side into one byte array.
+ *
+ * It is an open addressing hash table with linear probing; since transaction
+ * ids are hashes already, their first bytes are used as the hash code.
+ * Unlike a <code>HashSet&lt;String&gt;</code> there is no string, char array
+ * or hash entry object per id.
+ */
+public class TxIdSet {
+    public static final int TXID_LENGTH = 32;
+
+    private byte[]  keys;
+    private boolean[] used;
+    private int     size = 0;
+
+    public TxIdSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new byte[capacity * TXID_LENGTH];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Adds the 32 bytes at <code>offset</code>
+     *
+     * @return true if the id wasn't in the set already
+     */
+    public boolean add(byte[] txId, int offset) {
+        if ((size + 1) * 2 > used.length) {
+            resize(used.length * 2);
+        }
+
+        int slot = find(txId, offset);
+
+        if (used[slot]) {
+            return false;
+        }
+
+        System.arraycopy(txId, offset, keys, slot * TXID_LENGTH, TXID_LENGTH);
+        used[slot] = true;
+        size++;
+
+        return true;
+    }
+
+    public boolean add(String txId) {
+        return add(Hex.decode(txId), 0);
+    }
+
+    public boolean contains(byte[] txId, int offset) {
+        return used[find(txId, offset)];
+    }
+
+    public boolean contains(String txId) {
+        return contains(Hex.decode(txId), 0);
+    }
+
+    /**
+     * Removes the 32 bytes at <code>offset</code>
+     *
+     * @return true if the id was in the set
+     */
+    public boolean remove(byte[] txId, int offset) {
+        int slot = find(txId, offset);
+
+        if (!used[slot]) {
+            return false;
+        }
+
+        // Shift later entries of the probe sequence back, so no tombstones are needed
+        int mask = used.length - 1;
+        int gap = slot;
+
+        for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = hash(keys, next * TXID_LENGTH) & mask;
+
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                System.arraycopy(keys, next * TXID_LENGTH, keys, gap * TXID_LENGTH, TXID_LENGTH);
+                gap = next;
+            }
+        }
+
+        used[gap] = false;
+        size--;
+
+        return true;
+    }
+
+    public boolean remove(String txId) {
+        return remove(Hex.decode(txId), 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * The number of slots, for iterating with #isUsed(int) and #get(int, byte[], int)
+     */
+    public int capacity() {
+        return used.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    public void get(int slot, byte[] dst, int offset) {
+        System.arraycopy(keys, slot * TXID_LENGTH, dst, offset, TXID_LENGTH);
+    }
+
+    public String getHex(int slot) {
+        return Hex.encode(keys, slot * TXID_LENGTH, TXID_LENGTH);
+    }
+
+    private int find(byte[] txId, int offset) {
+        int mask = used.length - 1;
+        int slot = hash(txId, offset) & mask;
+
+        while (used[slot] && !equalsAt(slot, txId, offset)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private boolean equalsAt(int slot, byte[] txId, int offset) {
+        int base = slot * TXID_LENGTH;
+
+        for (int i = 0; i < TXID_LENGTH; i++) {
+            if (keys[base + i] != txId[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void resize(int capacity) {
+        byte[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        keys = new byte[capacity * TXID_LENGTH];
+        used = new boolean[capacity];
+        size = 0;
+
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (oldUsed[slot]) {
+                add(oldKeys, slot * TXID_LENGTH);
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 |
+               (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    @Override
+    public String toString() {
+        return "TxIdSet{size=" + size + '}';
+    }
+}
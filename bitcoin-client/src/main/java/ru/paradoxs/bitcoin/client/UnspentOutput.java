@@ -0,0 +1,118 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.math.BigDecimal;
+
+/**
+ * An unspent transaction output of the wallet, as listed by #listUnspent(int, int).
+ */
+public final class UnspentOutput {
+    private final String txId;
+    private final int vout;
+    private final String address;
+    private final String account;
+    private final String scriptPubKey;
+    private final long amount;
+    private final long confirmations;
+
+    /**
+     * @param txId the transaction with the output
+     * @param vout the index of the output in the transaction
+     * @param address the address paid, or null if the script has none
+     * @param account the account of the address, or null
+     * @param scriptPubKey the output script in hex, or null
+     * @param amount the value in satoshis
+     * @param confirmations the confirmations of the transaction
+     */
+    public UnspentOutput(String txId, int vout, String address, String account, String scriptPubKey, long amount,
+                         long confirmations) {
+        this.txId = txId;
+        this.vout = vout;
+        this.address = address;
+        this.account = account;
+        this.scriptPubKey = scriptPubKey;
+        this.amount = amount;
+        this.confirmations = confirmations;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public int getVout() {
+        return vout;
+    }
+
+    /**
+     * @return "txid:vout", which identifies the output
+     */
+    public String getOutPoint() {
+        return txId + ":" + vout;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getScriptPubKey() {
+        return scriptPubKey;
+    }
+
+    /**
+     * @return the value in satoshis
+     */
+    public long getAmountSatoshis() {
+        return amount;
+    }
+
+    public BigDecimal getAmount() {
+        return Amounts.fromSatoshis(amount);
+    }
+
+    public long getConfirmations() {
+        return confirmations;
+    }
+
+    /**
+     * @return the same output with another number of confirmations
+     */
+    UnspentOutput withConfirmations(long confirmations) {
+        return new UnspentOutput(txId, vout, address, account, scriptPubKey, amount, confirmations);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UnspentOutput)) {
+            return false;
+        }
+
+        UnspentOutput other = (UnspentOutput) o;
+        return vout == other.vout && txId.equals(other.txId);
+    }
+
+    @Override
+    public int hashCode() {
+        return txId.hashCode() * 31 + vout;
+    }
+
+    @Override
+    public String toString() {
+        return "UnspentOutput{" + getOutPoint() + ", " + getAmount() + " BTC, " + confirmations + " confirmations}";
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The unspent outputs of the wallet, kept in memory so coins can be selected
+ * without asking the server, and reserved so concurrent sends never pick the
+ * same ones.
+ *
+ * Sends made through a {@link RawTransactionSender} update the view as they
+ * go. Everything else, coins received and sends made by other means, is
+ * picked up by {@link #refresh()}, which only applies what changed.
+ */
+public class UtxoView {
+    private static final int MAX_CONFIRMATIONS = 9999999;
+
+    private final BitcoinClient client;
+    private final Map<String, UnspentOutput> outputs = new LinkedHashMap<String, UnspentOutput>();
+    private final Set<String> reserved = new HashSet<String>();
+    private final Set<String> spent = new HashSet<String>();    // By us, maybe not yet seen by a refresh
+
+    public UtxoView(BitcoinClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Brings the view up to date with the server's unspent outputs
+     *
+     * @return the number of outputs added or removed
+     */
+    public int refresh() {
+        List<UnspentOutput> current = client.listUnspent(0, MAX_CONFIRMATIONS);
+
+        synchronized (this) {
+            Map<String, UnspentOutput> fetched = new LinkedHashMap<String, UnspentOutput>(current.size() * 2);
+
+            for (UnspentOutput output : current) {
+                fetched.put(output.getOutPoint(), output);
+            }
+
+            // Once the server no longer lists an output we spent, it has caught up with the spend
+            spent.retainAll(fetched.keySet());
+            int changes = 0;
+
+            for (Iterator<String> i = outputs.keySet().iterator(); i.hasNext(); ) {
+                String outPoint = i.next();
+
+                if (!fetched.containsKey(outPoint)) {
+                    i.remove();
+                    reserved.remove(outPoint);
+                    changes++;
+                }
+            }
+
+            for (Map.Entry<String, UnspentOutput> entry : fetched.entrySet()) {
+                if (spent.contains(entry.getKey())) {
+                    continue;
+                }
+
+                if (outputs.put(entry.getKey(), entry.getValue()) == null) {
+                    changes++;
+                }
+            }
+
+            return changes;
+        }
+    }
+
+    /**
+     * @param minimumConfirmations only outputs with at least this many confirmations
+     * @return the outputs that aren't reserved by a send under way
+     */
+    public synchronized List<UnspentOutput> getAvailable(int minimumConfirmations) {
+        List<UnspentOutput> available = new ArrayList<UnspentOutput>(outputs.size());
+
+        for (UnspentOutput output : outputs.values()) {
+            if (output.getConfirmations() >= minimumConfirmations && !reserved.contains(output.getOutPoint())) {
+                available.add(output);
+            }
+        }
+
+        return available;
+    }
+
+    /**
+     * Reserves outputs for a send, unless any of them is gone or already reserved
+     *
+     * @return true if all of them were reserved, false if none were
+     */
+    public synchronized boolean reserve(Collection<UnspentOutput> selected) {
+        for (UnspentOutput output : selected) {
+            if (!outputs.containsKey(output.getOutPoint()) || reserved.contains(output.getOutPoint())) {
+                return false;
+            }
+        }
+
+        for (UnspentOutput output : selected) {
+            reserved.add(output.getOutPoint());
+        }
+
+        return true;
+    }
+
+    /**
+     * Makes reserved outputs available again, after a send failed
+     */
+    public synchronized void release(Collection<UnspentOutput> selected) {
+        for (UnspentOutput output : selected) {
+            reserved.remove(output.getOutPoint());
+        }
+    }
+
+    /**
+     * Records a send: its inputs are spent and its change, if any, is a new output
+     *
+     * @param inputs the outputs the transaction spent
+     * @param change the change output of the transaction, or null
+     */
+    public synchronized void spend(Collection<UnspentOutput> inputs, UnspentOutput change) {
+        for (UnspentOutput input : inputs) {
+            outputs.remove(input.getOutPoint());
+            reserved.remove(input.getOutPoint());
+            spent.add(input.getOutPoint());
+        }
+
+        if (change != null) {
+            outputs.put(change.getOutPoint(), change);
+        }
+    }
+
+    /**
+     * @param minimumConfirmations only outputs with at least this many confirmations
+     * @return the value of the outputs in satoshis, reserved or not
+     */
+    public synchronized long getBalance(int minimumConfirmations) {
+        long balance = 0;
+
+        for (UnspentOutput output : outputs.values()) {
+            if (output.getConfirmations() >= minimumConfirmations) {
+                balance += output.getAmountSatoshis();
+            }
+        }
+
+        return balance;
+    }
+
+    public synchronized int size() {
+        return outputs.size();
+    }
+}
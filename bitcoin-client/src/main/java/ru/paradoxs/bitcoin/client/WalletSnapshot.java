@@ -0,0 +1,506 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * What a service knows about a wallet: the balance of every account, every address
+ * with its account and received amount, and the ids of all wallet transactions,
+ * together with the height and hash of the last block it covers.
+ *
+ * A snapshot can be written to a compact binary file, and loaded again on
+ * restart, after which #catchUp(BitcoinClient) only has to fetch the
+ * transactions since that block instead of the whole history.
+ *
+ * Balances and received amounts count confirmed transactions only. Catching up
+ * applies the confirmed receives and sends in the new blocks to them. Moves
+ * between accounts, and coinbase outputs that mature, don't show up in new
+ * blocks. Neither do blocks that a reorganisation deeper than the watermark
+ * takes away. Wallets with those need #refresh(BitcoinClient) every now and
+ * then, which fetches balances and addresses in full.
+ *
+ * The file starts with a magic number and a format version, followed by the
+ * watermark, a table of account names, the account balances, the addresses and
+ * finally the packed transaction ids. All numbers are big endian.
+ */
+public class WalletSnapshot {
+    private static final int    MAGIC   = 0x42544353;    // "BTCS"
+    private static final int    VERSION = 1;
+    private static final String CHARSET = "UTF-8";
+
+    private int    blockHeight;
+    private String blockHash;
+
+    private AccountBalances balances;
+    private String[] addresses;
+    private String[] addressAccounts;
+    private long[]   addressAmounts;
+    private long[]   addressConfirmations;
+    private TxIdSet  txIds;
+
+    private WalletSnapshot() {
+    }
+
+    /**
+     * Builds a snapshot from the server
+     *
+     * @param client the client used to fetch the wallet state
+     * @param pageSize the number of transactions fetched per call
+     * @return a snapshot of the wallet
+     */
+    public static WalletSnapshot capture(BitcoinClient client, int pageSize) {
+        WalletSnapshot snapshot = new WalletSnapshot();
+
+        // The balances have to be those at the watermark, or catching up adds a block to them twice.
+        // The transaction ids may go past it, since adding them again changes nothing.
+        for (;;) {
+            int height = client.getBlockCount();
+            String hash = client.getBlockHash(height);
+            snapshot.refresh(client);
+
+            if (client.getBlockCount() == height && client.getBlockHash(height).equals(hash)) {
+                snapshot.blockHeight = height;
+                snapshot.blockHash = hash;
+                break;
+            }
+        }
+
+        snapshot.txIds = new TxIdSet(pageSize);
+
+        byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+        int from = 0;
+
+        for (;;) {
+            TransactionBatch batch = client.listTransactionBatch("*", pageSize, from);
+            snapshot.addTxIds(batch, txId);
+            from += batch.size();
+
+            if (batch.size() < pageSize) {
+                break;
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Brings the snapshot up to date with the server, fetching only the
+     * transactions in blocks after the watermark, and applying them to the
+     * balances and addresses
+     *
+     * @param client the client used to fetch the wallet state
+     */
+    public void catchUp(BitcoinClient client) {
+        for (;;) {
+            int height = client.getBlockCount();
+            String hash = client.getBlockHash(height);
+            TransactionBatch batch = client.listSinceBlock(blockHash);
+
+            // The depth of a transaction only tells which block it is in if no block came meanwhile
+            if (client.getBlockCount() != height || !client.getBlockHash(height).equals(hash)) {
+                continue;
+            }
+
+            addTxIds(batch, new byte[TxIdSet.TXID_LENGTH]);
+            applyConfirmed(batch, height - blockHeight);
+
+            blockHeight = height;
+            blockHash = hash;
+            return;
+        }
+    }
+
+    /**
+     * Fetches the balances and addresses in full, for what catching up can't see
+     *
+     * @param client the client used to fetch the wallet state
+     */
+    public void refresh(BitcoinClient client) {
+        balances = client.listAccounts(1);
+
+        List<AddressInfo> infos = client.listReceivedByAddress(1, true);
+        int size = infos.size();
+        addresses = new String[size];
+        addressAccounts = new String[size];
+        addressAmounts = new long[size];
+        addressConfirmations = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            AddressInfo info = infos.get(i);
+            addresses[i] = info.getAddress();
+            addressAccounts[i] = info.getAccount();
+            addressAmounts[i] = Amounts.toSatoshis(info.getAmount());
+            addressConfirmations[i] = info.getConfirmations();
+        }
+    }
+
+    /**
+     * Adds the confirmed transactions, all in the newly added blocks, to the balances and addresses.
+     * Unconfirmed ones are left for the catch up after the block they end up in.
+     */
+    private void applyConfirmed(TransactionBatch batch, int newBlocks) {
+        Map<String, Integer> addressIndex = new HashMap<String, Integer>(addresses.length * 2);
+
+        for (int i = 0; i < addresses.length; i++) {
+            addressIndex.put(addresses[i], i);
+
+            if (addressConfirmations[i] > 0) {
+                addressConfirmations[i] += newBlocks;
+            }
+        }
+
+        int receive = batch.findCategoryCode("receive");
+        int send = batch.findCategoryCode("send");
+        int generate = batch.findCategoryCode("generate");
+
+        for (int row = 0; row < batch.size(); row++) {
+            int category = batch.getCategoryCode(row);
+            long confirmations = batch.getConfirmations(row);
+
+            if (confirmations <= 0 || category == TransactionBatch.NONE ||
+                category != receive && category != send && category != generate) {
+                continue;
+            }
+
+            String account = batch.getAccountName(batch.getAccountCode(row));
+            account = account == null ? "" : account;
+            long amount = batch.getAmount(row) + (batch.hasFee(row) ? batch.getFee(row) : 0);
+            balances.putSatoshis(account, balances.getSatoshis(account) + amount);
+
+            String address = batch.getAddress(row);
+
+            if (category != receive || address == null) {
+                continue;
+            }
+
+            Integer index = addressIndex.get(address);
+
+            if (index == null) {
+                index = addresses.length;
+                addressIndex.put(address, index);
+                addresses = Arrays.copyOf(addresses, index + 1);
+                addressAccounts = Arrays.copyOf(addressAccounts, index + 1);
+                addressAmounts = Arrays.copyOf(addressAmounts, index + 1);
+                addressConfirmations = Arrays.copyOf(addressConfirmations, index + 1);
+                addresses[index] = address;
+                addressAccounts[index] = account;
+            }
+
+            addressAmounts[index] += batch.getAmount(row);
+
+            if (addressConfirmations[index] == 0 || confirmations < addressConfirmations[index]) {
+                addressConfirmations[index] = confirmations;
+            }
+        }
+    }
+
+    private void addTxIds(TransactionBatch batch, byte[] txId) {
+        for (int row = 0; row < batch.size(); row++) {
+            if (batch.hasTxId(row)) {
+                batch.getTxId(row, txId, 0);
+                txIds.add(txId, 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot, replacing the file only once it has been completely written.
+     * On Windows a crash while replacing it may leave only the .tmp file, see {@link FileReplacer}.
+     *
+     * @param file the file to write to
+     */
+    public void write(File file) {
+        File temporary = new File(file.getPath() + ".tmp");
+
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(blockHeight);
+                writeString(out, blockHash);
+
+                Map<String, Integer> names = new HashMap<String, Integer>();
+                List<String> nameTable = new ArrayList<String>();
+
+                for (int i = 0; i < balances.size(); i++) {
+                    nameIndex(balances.getAccount(i), names, nameTable);
+                }
+
+                for (String account : addressAccounts) {
+                    nameIndex(account, names, nameTable);
+                }
+
+                out.writeInt(nameTable.size());
+
+                for (String name : nameTable) {
+                    writeString(out, name);
+                }
+
+                out.writeInt(balances.size());
+
+                for (int i = 0; i < balances.size(); i++) {
+                    out.writeInt(names.get(balances.getAccount(i)));
+                    out.writeLong(balances.getSatoshis(i));
+                }
+
+                out.writeInt(addresses.length);
+
+                for (int i = 0; i < addresses.length; i++) {
+                    writeString(out, addresses[i]);
+                    out.writeInt(names.get(addressAccounts[i]));
+                    out.writeLong(addressAmounts[i]);
+                    out.writeLong(addressConfirmations[i]);
+                }
+
+                out.writeInt(txIds.size());
+                byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+
+                for (int slot = 0; slot < txIds.capacity(); slot++) {
+                    if (txIds.isUsed(slot)) {
+                        txIds.get(slot, txId, 0);
+                        out.write(txId);
+                    }
+                }
+
+                // On disk before the rename, so the replaced file is never half written
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            FileReplacer.replace(temporary, file);
+        } catch (IOException e) {
+            throw new BitcoinClientException("Exception when writing the wallet snapshot to: " + file, e);
+        }
+    }
+
+    /**
+     * Loads a snapshot from a file written by #write(File). Every count in the
+     * file is checked against what is left of it before anything is allocated.
+     *
+     * @param file the file to read
+     * @return the snapshot, call #catchUp(BitcoinClient) to bring it up to date
+     */
+    public static WalletSnapshot load(File file) {
+        try {
+            SnapshotReader in = new SnapshotReader(file);
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new BitcoinClientException("Not a wallet snapshot: " + file);
+                }
+
+                int version = in.readInt();
+
+                if (version != VERSION) {
+                    throw new BitcoinClientException("Unsupported wallet snapshot version " + version + " in: " + file);
+                }
+
+                WalletSnapshot snapshot = new WalletSnapshot();
+                snapshot.blockHeight = in.readInt();
+                snapshot.blockHash = in.readString();
+
+                String[] names = new String[in.readCount(4)];
+
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = in.readString();
+                }
+
+                int accountCount = in.readCount(4 + 8);
+                snapshot.balances = new AccountBalances(accountCount);
+
+                for (int i = 0; i < accountCount; i++) {
+                    String account = names[in.readInt()];
+                    snapshot.balances.putSatoshis(account, in.readLong());
+                }
+
+                int addressCount = in.readCount(4 + 4 + 8 + 8);
+                snapshot.addresses = new String[addressCount];
+                snapshot.addressAccounts = new String[addressCount];
+                snapshot.addressAmounts = new long[addressCount];
+                snapshot.addressConfirmations = new long[addressCount];
+
+                for (int i = 0; i < addressCount; i++) {
+                    snapshot.addresses[i] = in.readString();
+                    snapshot.addressAccounts[i] = names[in.readInt()];
+                    snapshot.addressAmounts[i] = in.readLong();
+                    snapshot.addressConfirmations[i] = in.readLong();
+                }
+
+                int txIdCount = in.readCount(TxIdSet.TXID_LENGTH);
+                snapshot.txIds = new TxIdSet(txIdCount);
+                byte[] txId = new byte[TxIdSet.TXID_LENGTH];
+
+                for (int i = 0; i < txIdCount; i++) {
+                    in.readFully(txId);
+                    snapshot.txIds.add(txId, 0);
+                }
+
+                return snapshot;
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            throw new BitcoinClientException("Truncated wallet snapshot: " + file, e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new BitcoinClientException("Corrupt wallet snapshot: " + file, e);
+        } catch (IOException e) {
+            throw new BitcoinClientException("Exception when reading the wallet snapshot from: " + file, e);
+        }
+    }
+
+    private static int nameIndex(String name, Map<String, Integer> names, List<String> nameTable) {
+        Integer index = names.get(name);
+
+        if (index == null) {
+            index = nameTable.size();
+            names.put(name, index);
+            nameTable.add(name);
+        }
+
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a snapshot file, keeping track of how much of it is left
+     */
+    private static class SnapshotReader {
+        private final File            file;
+        private final DataInputStream in;
+        private long remaining;
+
+        SnapshotReader(File file) throws IOException {
+            this.file = file;
+            this.remaining = file.length();
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        int readInt() throws IOException {
+            remaining -= 4;
+            return in.readInt();
+        }
+
+        long readLong() throws IOException {
+            remaining -= 8;
+            return in.readLong();
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            remaining -= bytes.length;
+            in.readFully(bytes);
+        }
+
+        /**
+         * Reads the number of items that follow, checking that the rest of the file can hold them
+         */
+        int readCount(int minimumItemLength) throws IOException {
+            int count = readInt();
+
+            if (count < 0 || (long) count * minimumItemLength > remaining) {
+                throw new BitcoinClientException("Corrupt wallet snapshot, " + count + " items don't fit in: " + file);
+            }
+
+            return count;
+        }
+
+        String readString() throws IOException {
+            byte[] bytes = new byte[readCount(1)];
+            readFully(bytes);
+            return new String(bytes, CHARSET);
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the height of the last block covered by this snapshot
+     */
+    public int getBlockHeight() {
+        return blockHeight;
+    }
+
+    /**
+     * @return the hash of the last block covered by this snapshot
+     */
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    public AccountBalances getBalances() {
+        return balances;
+    }
+
+    public int getAddressCount() {
+        return addresses.length;
+    }
+
+    public String getAddress(int index) {
+        return addresses[index];
+    }
+
+    public String getAddressAccount(int index) {
+        return addressAccounts[index];
+    }
+
+    public long getAddressAmountSatoshis(int index) {
+        return addressAmounts[index];
+    }
+
+    public long getAddressConfirmations(int index) {
+        return addressConfirmations[index];
+    }
+
+    public TxIdSet getTxIds() {
+        return txIds;
+    }
+
+    @Override
+    public String toString() {
+        return "WalletSnapshot{" +
+                "blockHeight=" + blockHeight +
+                ", blockHash='" + blockHash + '\'' +
+                ", accounts=" + balances.size() +
+                ", addresses=" + addresses.length +
+                ", txIds=" + txIds.size() +
+                '}';
+    }
+}
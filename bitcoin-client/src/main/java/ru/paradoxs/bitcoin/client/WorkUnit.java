@@ -0,0 +1,216 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * A unit of work from #getWork(), decoded once from the hex strings of a
+ * {@link WorkInfo} into arrays, with the block header fields parsed out.
+ *
+ * In getwork data every 32 bit word of the block header is byte swapped, so
+ * reading the hex text of a word as a big endian number gives the value of the
+ * header field. The solved block is encoded from a hex template, only
+ * rewriting the eight characters of the nonce.
+ */
+public class WorkUnit {
+    public static final int DATA_LENGTH   = 128;
+    public static final int HEADER_LENGTH = 80;
+
+    private static final int VERSION_WORD     = 0;
+    private static final int PREV_HASH_WORD   = 1;
+    private static final int MERKLE_ROOT_WORD = 9;
+    private static final int TIME_WORD        = 17;
+    private static final int BITS_WORD        = 18;
+    private static final int NONCE_WORD       = 19;
+    private static final int NONCE_CHAR       = NONCE_WORD * 8;
+
+    private final int[]  data = new int[DATA_LENGTH / 4];
+    private final int[]  midstate = new int[8];
+    private final byte[] target = new byte[32];     // Little endian
+    private final String hash1;
+    private final char[] template;
+
+    public WorkUnit(WorkInfo info) {
+        this(info.getData(), info.getMidstate(), info.getHash1(), info.getTarget());
+    }
+
+    public WorkUnit(String data, String midstate, String hash1, String target) {
+        if (data == null || data.length() != DATA_LENGTH * 2) {
+            throw new BitcoinClientException("getwork data must be " + DATA_LENGTH * 2 + " hex characters");
+        }
+
+        readWords(data, this.data);
+        readWords(midstate, this.midstate);
+        Hex.decode(target, 0, this.target, 0, this.target.length);
+        this.hash1 = hash1;
+        this.template = data.toLowerCase().toCharArray();
+    }
+
+    private static void readWords(String hex, int[] words) {
+        if (hex.length() < words.length * 8) {
+            throw new BitcoinClientException("Too short hex string: " + hex);
+        }
+
+        for (int i = 0; i < words.length; i++) {
+            int word = 0;
+
+            for (int j = 0; j < 8; j++) {
+                word = (word << 4) | Hex.digit(hex.charAt(i * 8 + j));
+            }
+
+            words[i] = word;
+        }
+    }
+
+    public int getVersion() {
+        return data[VERSION_WORD];
+    }
+
+    public int getTime() {
+        return data[TIME_WORD];
+    }
+
+    public int getBits() {
+        return data[BITS_WORD];
+    }
+
+    public int getNonce() {
+        return data[NONCE_WORD];
+    }
+
+    /**
+     * @return the hash of the previous block, in the usual hex notation
+     */
+    public String getPrevBlockHash() {
+        return hashToHex(PREV_HASH_WORD);
+    }
+
+    /**
+     * @return the merkle root, in the usual hex notation
+     */
+    public String getMerkleRoot() {
+        return hashToHex(MERKLE_ROOT_WORD);
+    }
+
+    /**
+     * @return the 128 bytes of getwork data as 32 big endian words, do not modify
+     */
+    public int[] getDataWords() {
+        return data;
+    }
+
+    /**
+     * @return the SHA-256 state after the first 64 bytes of the header, do not modify
+     */
+    public int[] getMidstate() {
+        return midstate;
+    }
+
+    /**
+     * @return the target as a little endian 256 bit number, do not modify
+     */
+    public byte[] getTarget() {
+        return target;
+    }
+
+    public String getHash1() {
+        return hash1;
+    }
+
+    /**
+     * Writes the 80 byte block header with the given nonce, in the byte order it is hashed in
+     */
+    public void getHeader(int nonce, byte[] dst, int offset) {
+        for (int i = 0; i < HEADER_LENGTH / 4; i++) {
+            int word = i == NONCE_WORD ? nonce : data[i];
+            dst[offset + 4 * i]     = (byte) word;
+            dst[offset + 4 * i + 1] = (byte) (word >>> 8);
+            dst[offset + 4 * i + 2] = (byte) (word >>> 16);
+            dst[offset + 4 * i + 3] = (byte) (word >>> 24);
+        }
+    }
+
+    /**
+     * Checks a block hash against the target
+     *
+     * @param hash the double SHA-256 of the header, as it comes out of the digest
+     * @return true if the hash is at or below the target
+     */
+    public boolean meetsTarget(byte[] hash) {
+        for (int i = 31; i >= 0; i--) {
+            int h = hash[i] & 0xff;
+            int t = target[i] & 0xff;
+
+            if (h != t) {
+                return h < t;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the hex text of the solved block, to be sent with #getWork(String), into a buffer
+     *
+     * @param nonce the nonce solving the block
+     * @param buffer a buffer of at least 256 characters, which can be reused between calls
+     * @return the buffer
+     */
+    public char[] encodeSolution(int nonce, char[] buffer) {
+        System.arraycopy(template, 0, buffer, 0, template.length);
+
+        for (int i = 7; i >= 0; i--) {
+            buffer[NONCE_CHAR + i] = Hex.DIGITS[nonce & 0x0f];
+            nonce >>>= 4;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * @return the hex text of the solved block, to be sent with #getWork(String)
+     */
+    public String toSolution(int nonce) {
+        return new String(encodeSolution(nonce, new char[template.length]));
+    }
+
+    private String hashToHex(int firstWord) {
+        char[] chars = new char[64];
+
+        // The usual notation is the 32 hash bytes reversed, which is the words in reverse order
+        for (int i = 0; i < 8; i++) {
+            int word = data[firstWord + 7 - i];
+
+            for (int j = 7; j >= 0; j--) {
+                chars[i * 8 + j] = Hex.DIGITS[word & 0x0f];
+                word >>>= 4;
+            }
+        }
+
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return "WorkUnit{" +
+                "version=" + getVersion() +
+                ", prevBlockHash='" + getPrevBlockHash() + '\'' +
+                ", merkleRoot='" + getMerkleRoot() + '\'' +
+                ", time=" + (getTime() & 0xffffffffL) +
+                ", bits=" + Integer.toHexString(getBits()) +
+                ", nonce=" + (getNonce() & 0xffffffffL) +
+                '}';
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client.exceptions;
+
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+
+/**
+ * An error the Bitcoin server answered a call with, such as an invalid
+ * address or insufficient funds.
+ *
+ * These used to surface as an HttpSessionException for the HTTP 500 status
+ * the server answers them with, so it is one, and existing catch blocks
+ * still apply.
+ *
+ * Instances from #withoutStackTrace(String, int, String) capture no stack
+ * trace, which makes throwing one about as cheap as returning, for callers
+ * that treat the errors as expected outcomes.
+ */
+public class BitcoinRpcException extends HttpSessionException {
+    public static final int RPC_MISC_ERROR                = -1;
+    public static final int RPC_TYPE_ERROR                = -3;
+    public static final int RPC_WALLET_ERROR              = -4;
+    public static final int RPC_INVALID_ADDRESS_OR_KEY    = -5;
+    public static final int RPC_WALLET_INSUFFICIENT_FUNDS = -6;
+    public static final int RPC_INVALID_PARAMETER         = -8;
+    public static final int RPC_METHOD_DEPRECATED         = -32;
+    public static final int RPC_METHOD_NOT_FOUND          = -32601;
+
+    private final String method;
+    private final int code;
+    private final String rpcMessage;
+
+    public BitcoinRpcException(String method, int code, String rpcMessage) {
+        super(method + " failed: " + rpcMessage + " (" + code + ")");
+        this.method = method;
+        this.code = code;
+        this.rpcMessage = rpcMessage;
+    }
+
+    /**
+     * @return the JSON-RPC method that failed
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the error code from the server
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the error message from the server
+     */
+    public String getRpcMessage() {
+        return rpcMessage;
+    }
+
+    /**
+     * @return an exception like the constructor's, but without a stack trace
+     */
+    public static BitcoinRpcException withoutStackTrace(String method, int code, String rpcMessage) {
+        return new Stackless(method, code, rpcMessage);
+    }
+
+    private static final class Stackless extends BitcoinRpcException {
+        Stackless(String method, int code, String rpcMessage) {
+            super(method, code, rpcMessage);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.util.List;
+
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * A transport that can also send several requests in one JSON-RPC batch,
+ * saving a round trip for each but the first.
+ */
+public interface BatchTransport extends Transport {
+
+    /**
+     * Sends a batch of requests and waits for all the responses
+     *
+     * @param messages the JSON-RPC requests, each with its own id
+     * @return the JSON-RPC responses, in the order of the requests
+     * @throws ru.paradoxs.bitcoin.http.exceptions.HttpSessionException if the exchange failed
+     */
+    List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages);
+}
@@ -16,64 +16,382 @@
 package ru.paradoxs.bitcoin.http;
 
 import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
-import net.sf.json.JSONException;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONTokener;
-
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
 import org.apache.commons.httpclient.Credentials;
 
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 
 
 /**
  * Manages the HTTP machinery for accessing the Bitcoin server.
  * 
- * PLEASE NOTE that it doesn't do https, only http!
+ * An https URI needs a {@link TlsSocketFactory}, which is how TLS sessions
+ * get reused between connections. Connections are kept alive either way.
+ *
+ * Compressed responses are accepted by default, which only matters when the
+ * server is behind a compressing reverse proxy, since bitcoind itself never
+ * compresses. Compressing large request bodies has to be switched on with
+ * {@link #setRequestCompressionThreshold(int)}, as bitcoind can't read them.
+ *
+ * A session is safe to share between threads. Their requests share a pool of
+ * at most {@link #setMaxConnections(int)} connections. Requests beyond that wait
+ * for a permit from a {@link Semaphore} before entering commons-httpclient, so
+ * they never wait on the monitor of its connection pool. commons-httpclient
+ * still takes short synchronized sections on every request. On Java 21 these
+ * pin a virtual thread while they run, but never while it waits for the server
+ * or for a connection. Settings changed while requests are under way apply to
+ * later ones.
+ *
+ * A session holds its pooled connections open until {@link #close()} is called.
+ *
+ * An {@link RpcListener} can be set to monitor requests and connections. On
+ * JDK 11 and later the same is told as Java Flight Recorder events, see
+ * {@link RpcEvents}, recorded when a recording enables them.
+ *
+ * Responses are decoded while they are read, into a JSON tree or, through
+ * {@link #sendAndReceive(JSONObject, StreamingTransport.ResponseHandler)},
+ * by the caller's own handler.
  */
-public class HttpSession {
+public class HttpSession implements BatchTransport, StreamingTransport {
     private static final String JSON_CONTENT_TYPE = "application/json";
     private static final String POST_CONTENT_TYPE = "text/plain";
+    private static final String CHARSET           = "UTF-8";
+    private static final String GZIP              = "gzip";
+    private static final String DEFLATE           = "deflate";
+    private static final int    DEFAULT_MAX_CONNECTIONS = 20;
 
-    private HttpClient       client = null;
-    private URI                 uri = null;
-    private Credentials credentials = null;
+    private static final ResponseHandler<Object> TREE = new ResponseHandler<Object>() {
+        public Object handle(JSONParser parser) throws IOException {
+            return parser.nextValue();
+        }
+    };
+
+    private final AtomicReference<HttpClient> client = new AtomicReference<HttpClient>();
+    private final URI                 uri;
+    private final Credentials credentials;
+    private final TlsSocketFactory    tls;
+
+    private volatile boolean acceptCompressedResponses = true;
+    private volatile int   requestCompressionThreshold = -1;
+    private volatile int                maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile RpcListener              listener = null;
+    private final ResizableSemaphore          permits = new ResizableSemaphore(DEFAULT_MAX_CONNECTIONS);
+    private final HttpConnectionManagerParams connectionParams = new HttpConnectionManagerParams();
+    private volatile boolean                  closed = false;
 
     public HttpSession(URI uri, Credentials credentials) {
         this.uri = uri;
         this.credentials = credentials;
+        this.tls = null;
+        setConnectionLimits(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates a session to a server reached over TLS
+     *
+     * @param uri an https URI to the server, or the proxy in front of it
+     * @param credentials the username and password of the server
+     * @param tls creates the TLS sockets, and holds the trust/key stores and the TLS session cache
+     */
+    public HttpSession(URI uri, Credentials credentials, TlsSocketFactory tls) {
+        if (!"https".equalsIgnoreCase(uri.getScheme())) {
+            throw new HttpSessionException("TLS needs an https URI, not: " + uri);
+        }
+
+        this.uri = uri;
+        this.credentials = credentials;
+        this.tls = tls;
+        setConnectionLimits(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Whether to advertise gzip/deflate in the Accept-Encoding header, true by default
+     *
+     * @param acceptCompressedResponses true if compressed responses should be asked for
+     */
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    public boolean getAcceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    /**
+     * Request bodies of at least this many bytes are sent gzip compressed.
+     * Only use this if there is a proxy in front of bitcoind that decompresses them.
+     *
+     * @param requestCompressionThreshold the size in bytes, or a negative number to never compress (the default)
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * The maximum number of connections kept open to the server, which is also the
+     * maximum number of concurrent requests. When it is lowered, requests under way
+     * finish, and new ones wait until fewer than the new maximum are under way.
+     *
+     * @param maxConnections the maximum number of connections, 20 by default
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new HttpSessionException("maxConnections must be > 0");
+        }
+
+        synchronized (permits) {
+            int change = maxConnections - this.maxConnections;
+
+            // The permits of requests under way are handed back to the same semaphore. The pool
+            // grows first and shrinks last, so a request with a permit never waits for a connection.
+            if (change > 0) {
+                setConnectionLimits(maxConnections);
+                permits.release(change);
+            } else if (change < 0) {
+                permits.reducePermits(-change);
+                setConnectionLimits(maxConnections);
+            }
+
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    /**
+     * Sets the limits of the connection pool, which reads them on every request
+     */
+    private void setConnectionLimits(int maxConnections) {
+        connectionParams.setMaxTotalConnections(maxConnections);
+        connectionParams.setDefaultMaxConnectionsPerHost(maxConnections);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param listener told about requests and connections, or null to not measure anything
+     */
+    public void setRpcListener(RpcListener listener) {
+        this.listener = listener;
+    }
+
+    public RpcListener getRpcListener() {
+        return listener;
+    }
+
+    /**
+     * Closes connections that haven't been used for a while
+     *
+     * @param idleMillis close connections idle for at least this long
+     */
+    public void closeIdleConnections(long idleMillis) {
+        HttpClient httpClient = client.get();
+
+        if (httpClient != null) {
+            httpClient.getHttpConnectionManager().closeIdleConnections(idleMillis);
+        }
+    }
+
+    /**
+     * Closes all connections of the session. Requests made after this fail.
+     */
+    public void close() {
+        closed = true;
+        HttpClient httpClient = client.getAndSet(null);
+
+        if (httpClient != null) {
+            ((MultiThreadedHttpConnectionManager) httpClient.getHttpConnectionManager()).shutdown();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
     }
 
     public JSONObject sendAndReceive(JSONObject message) {
-        PostMethod method = new PostMethod(uri.toString());
+        Object response = exchange(message.optString("method"), message.toString(), TREE);
+
+        if (!(response instanceof JSONObject)) {
+            throw new HttpSessionException("Invalid response type");
+        }
+
+        return (JSONObject) response;
+    }
+
+    /**
+     * Sends several requests in one JSON-RPC batch, which the server answers in one response
+     *
+     * @param messages the JSON-RPC requests, each with its own id
+     * @return the responses, in the order of the requests
+     */
+    public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+        JSONArray batch = new JSONArray(messages.size());
+
+        for (JSONObject message : messages) {
+            batch.element(message);
+        }
+
+        String method = messages.isEmpty() ? "batch" : "batch:" + messages.get(0).optString("method");
+        Object response = exchange(method, batch.toString(), TREE);
+
+        if (response instanceof JSONObject) {
+            // The whole batch was rejected, for instance by a server too old for batches
+            throw new HttpSessionException("Batch failed: " + ((JSONObject) response).get("error"));
+        }
+
+        if (!(response instanceof JSONArray)) {
+            throw new HttpSessionException("Invalid response type");
+        }
+
+        // Responses may come in any order, so they are matched to the requests by id
+        JSONArray array = (JSONArray) response;
+        Map<Object, JSONObject> byId = new HashMap<Object, JSONObject>(array.size() * 2);
+
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            byId.put(item.get("id"), item);
+        }
+
+        List<JSONObject> responses = new ArrayList<JSONObject>(messages.size());
+
+        for (JSONObject message : messages) {
+            JSONObject item = byId.get(message.get("id"));
+
+            if (item == null) {
+                throw new HttpSessionException("No response in the batch for request: " + message.get("id"));
+            }
+
+            responses.add(item);
+        }
+
+        return responses;
+    }
+
+    public <T> T sendAndReceive(JSONObject message, ResponseHandler<T> handler) {
+        return exchange(message.optString("method"), message.toString(), handler);
+    }
+
+    /**
+     * Posts a request body and decodes the response, which is a JSON object or,
+     * for a batch, a JSON array
+     */
+    private <T> T exchange(String rpcMethod, String requestBody, ResponseHandler<T> handler) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpSessionException(e);
+        }
+
+        try {
+            return exchange(rpcMethod, requestBody, handler, listener);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private <T> T exchange(String rpcMethod, String requestBody, ResponseHandler<T> handler, RpcListener listener) {
+        long start = listener == null ? 0 : System.nanoTime();
+        Object event = RpcEvents.RPC_CALL.begin();
+        long bytesOut = 0;
+        CountingInputStream bytesIn = null;
+        PostMethod method = new PostMethod(getRequestTarget());
 
         try {
             method.setRequestHeader("Content-Type", POST_CONTENT_TYPE);
 
-            RequestEntity requestEntity = new StringRequestEntity(message.toString(), JSON_CONTENT_TYPE, null);
+            if (acceptCompressedResponses) {
+                method.setRequestHeader("Accept-Encoding", GZIP + ", " + DEFLATE);
+            }
+
+            RequestEntity requestEntity = createRequestEntity(method, requestBody);
+            bytesOut = requestEntity.getContentLength();
             method.setRequestEntity(requestEntity);
 
-            getHttpClient().executeMethod(method);
+            HttpClient httpClient = getHttpClient();
+            httpClient.executeMethod(httpClient.getHostConfiguration(), method);
             int statusCode = method.getStatusCode();
 
-            if (statusCode != HttpStatus.SC_OK) {
-                throw new HttpSessionException("HTTP Status - " + HttpStatus.getStatusText(statusCode) + " (" + statusCode + ")");
+            InputStream in = method.getResponseBodyAsStream();
+
+            if (in == null) {
+                throw statusCode == HttpStatus.SC_OK ? new HttpSessionException("Invalid response type")
+                                                     : statusException(statusCode);
             }
 
-            JSONTokener tokener = new JSONTokener(method.getResponseBodyAsString());
-            Object rawResponseMessage = tokener.nextValue();
-            JSONObject response = (JSONObject) rawResponseMessage;
+            bytesIn = new CountingInputStream(in);
+            Reader reader = openResponseReader(method, bytesIn);
+
+            long decodeStart = listener == null ? 0 : System.nanoTime();
+            Object decodeEvent = RpcEvents.RESPONSE_DECODED.begin();
+            T response;
+
+            try {
+                JSONParser parser = JSONParser.stream(reader);
+                response = handler.handle(parser);
+                parser.finish();
+            } catch (JSONException e) {
+                if (statusCode != HttpStatus.SC_OK) {
+                    throw statusException(statusCode);
+                }
+
+                throw e;
+            } finally {
+                reader.close();
+            }
 
-            if (response == null) {
-                throw new HttpSessionException("Invalid response type");
+            if (decodeEvent != null) {
+                RpcEvents.RESPONSE_DECODED.commit(decodeEvent, rpcMethod);
+            }
+
+            if (listener != null) {
+                listener.responseDecoded(rpcMethod, System.nanoTime() - decodeStart);
+            }
+
+            // The server answers RPC errors with a status of 500 and the error in the body,
+            // which is handed on so the caller gets the error code and message. A handler
+            // of its own throws the error itself, so what it returns is never one.
+            if (statusCode != HttpStatus.SC_OK &&
+                !(response instanceof JSONObject && ((JSONObject) response).hasValue("error"))) {
+                throw statusException(statusCode);
             }
 
             return response;
@@ -85,15 +403,232 @@ public class HttpSession {
             throw new HttpSessionException(e);
         } finally {
             method.releaseConnection();
+
+            long received = bytesIn == null ? 0 : bytesIn.count;
+            int status = method.getStatusLine() == null ? 0 : method.getStatusCode();
+
+            if (event != null) {
+                RpcEvents.RPC_CALL.commit(event, rpcMethod, String.valueOf(uri), bytesOut, received, status);
+            }
+
+            if (listener != null) {
+                listener.rpcCompleted(rpcMethod, uri, bytesOut, received, status, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static HttpSessionException statusException(int statusCode) {
+        return new HttpSessionException("HTTP Status - " + HttpStatus.getStatusText(statusCode) + " (" + statusCode + ")");
+    }
+
+    /**
+     * With TLS the host and protocol come from the client's host configuration,
+     * since an absolute URI would make commons-httpclient use its own https sockets
+     */
+    private String getRequestTarget() {
+        if (tls == null) {
+            return uri.toString();
+        }
+
+        String path = uri.getRawPath();
+
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    private RequestEntity createRequestEntity(PostMethod method, String body) throws IOException {
+        byte[] encoded = body.getBytes(CHARSET);
+
+        if (requestCompressionThreshold < 0 || encoded.length < requestCompressionThreshold) {
+            return new ByteArrayRequestEntity(encoded, JSON_CONTENT_TYPE);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(encoded);
+        gzip.close();
+
+        method.setRequestHeader("Content-Encoding", GZIP);
+        return new ByteArrayRequestEntity(bytes.toByteArray(), JSON_CONTENT_TYPE);
+    }
+
+    /**
+     * Opens the response body for the parser, decompressing it on the fly if
+     * the server sent it compressed
+     */
+    private Reader openResponseReader(PostMethod method, InputStream in) throws IOException {
+        Header encoding = method.getResponseHeader("Content-Encoding");
+
+        if (encoding != null) {
+            String value = encoding.getValue().trim();
+
+            if (GZIP.equalsIgnoreCase(value)) {
+                in = new InflatedInputStream(new GZIPInputStream(in));
+            } else if (DEFLATE.equalsIgnoreCase(value)) {
+                in = new InflatedInputStream(new InflaterInputStream(in));
+            }
+        }
+
+        return new InputStreamReader(in, method.getResponseCharSet());
+    }
+
+    /**
+     * Creates the client on first use. Threads racing to do that each build one, the
+     * first to be published wins and the others are thrown away before they have
+     * opened any connections, so creating it takes no lock of its own.
+     */
+    HttpClient getHttpClient() {
+        for (;;) {
+            if (closed) {
+                throw new HttpSessionException("The session is closed");
+            }
+
+            HttpClient current = client.get();
+
+            if (current != null) {
+                return current;
+            }
+
+            HttpClient created = createHttpClient();
+
+            if (client.compareAndSet(null, created)) {
+                if (closed) {
+                    close();        // Closed while it was being created
+                    continue;
+                }
+
+                return created;
+            }
+
+            ((MultiThreadedHttpConnectionManager) created.getHttpConnectionManager()).shutdown();
+        }
+    }
+
+    private HttpClient createHttpClient() {
+        MultiThreadedHttpConnectionManager connectionManager = new MonitoredConnectionManager();
+        connectionManager.setParams(connectionParams);
+
+        HttpClient httpClient = new HttpClient(connectionManager);
+        httpClient.getState().setCredentials(AuthScope.ANY, credentials);
+
+        if (tls != null) {
+            int port = uri.getPort() == -1 ? 443 : uri.getPort();
+            Protocol protocol = new Protocol(uri.getScheme(), (ProtocolSocketFactory) tls, port);
+            HostConfiguration hostConfiguration = new HostConfiguration();
+            hostConfiguration.setHost(uri.getHost(), port, protocol);
+            httpClient.setHostConfiguration(hostConfiguration);
         }
-    }    
 
-    private HttpClient getHttpClient() {
-        if (client == null) {
-            client = new HttpClient();
-            client.getState().setCredentials(AuthScope.ANY, credentials);
+        return httpClient;
+    }
+
+    /**
+     * Tells the listener and the flight recorder about connections being taken from the pool and evicted
+     */
+    private class MonitoredConnectionManager extends MultiThreadedHttpConnectionManager {
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+                throws ConnectionPoolTimeoutException {
+            RpcListener listener = HttpSession.this.listener;
+            Object event = RpcEvents.CONNECTION_ACQUIRED.begin();
+
+            if (listener == null && event == null) {
+                return super.getConnectionWithTimeout(hostConfiguration, timeout);
+            }
+
+            long start = System.nanoTime();
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+            boolean created = !connection.isOpen();
+
+            if (event != null) {
+                RpcEvents.CONNECTION_ACQUIRED.commit(event, String.valueOf(uri), created);
+            }
+
+            if (listener != null) {
+                listener.connectionAcquired(uri, System.nanoTime() - start, created);
+            }
+
+            return connection;
         }
 
-        return client;
+        @Override
+        public void closeIdleConnections(long idleTimeout) {
+            Object event = RpcEvents.CONNECTIONS_EVICTED.begin();
+            super.closeIdleConnections(idleTimeout);
+
+            if (event != null) {
+                RpcEvents.CONNECTIONS_EVICTED.commit(event, String.valueOf(uri), idleTimeout);
+            }
+
+            RpcListener listener = HttpSession.this.listener;
+
+            if (listener != null) {
+                listener.connectionsEvicted(uri, idleTimeout);
+            }
+        }
+    }
+
+    /**
+     * An inflating stream says a byte is available until its end, which makes an
+     * InputStreamReader wait to fill its buffer before the parser sees anything
+     */
+    /**
+     * Makes Semaphore#reducePermits(int) visible, for shrinking without replacing the semaphore
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private static class InflatedInputStream extends FilterInputStream {
+
+        InflatedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0) {
+                count += read;
+            }
+
+            return read;
+        }
     }
 }
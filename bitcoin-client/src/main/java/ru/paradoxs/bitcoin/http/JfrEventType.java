@@ -0,0 +1,222 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event type, in the category Bitcoin.
+ *
+ * The build targets Java 6, and jdk.jfr comes with JDK 11 and later, so the
+ * type is made at run time with jdk.jfr.EventFactory, through reflection. On a
+ * JVM without JFR there is no type, and #begin() always returns null. Like
+ * other events these are only recorded when a recording enables them, as the
+ * default and profile settings of the JDK don't know them. Until one does,
+ * #begin() only asks the type whether it is enabled, and makes no event.
+ */
+final class JfrEventType {
+    private static final Constructor<?> NEW_ANNOTATION;
+    private static final Constructor<?> NEW_FIELD;
+    private static final Method CREATE;
+    private static final Method GET_EVENT_TYPE;
+    private static final Method IS_ENABLED;
+    private static final Method NEW_EVENT;
+    private static final Method BEGIN;
+    private static final Method END;
+    private static final Method SHOULD_COMMIT;
+    private static final Method SET;
+    private static final Method COMMIT;
+
+    static {
+        Constructor<?> newAnnotation = null;
+        Constructor<?> newField = null;
+        Method create = null;
+        Method getEventType = null;
+        Method isEnabled = null;
+        Method newEvent = null;
+        Method begin = null;
+        Method end = null;
+        Method shouldCommit = null;
+        Method set = null;
+        Method commit = null;
+
+        try {
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            newAnnotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            newField = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            create = eventFactory.getMethod("create", List.class, List.class);
+            getEventType = eventFactory.getMethod("getEventType");
+            isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            newEvent = eventFactory.getMethod("newEvent");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            shouldCommit = event.getMethod("shouldCommit");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+        } catch (Exception e) {
+            create = null;      // Before JDK 11, or a JVM without JFR
+        } catch (LinkageError e) {
+            create = null;
+        }
+
+        NEW_ANNOTATION = newAnnotation;
+        NEW_FIELD = newField;
+        CREATE = create;
+        GET_EVENT_TYPE = getEventType;
+        IS_ENABLED = isEnabled;
+        NEW_EVENT = newEvent;
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private final Object factory;
+    private final Object eventType;
+
+    /**
+     * @param name the name of the type, under which recordings enable it
+     * @param label the name shown for it
+     * @param fields the fields, made with #field(Class, String, String), #bytes(String, String)
+     *               or #millis(String, String)
+     */
+    JfrEventType(String name, String label, Field... fields) {
+        Object factory = null;
+        Object eventType = null;
+
+        if (CREATE != null) {
+            try {
+                List<Object> annotations = new ArrayList<Object>();
+                annotations.add(annotation("jdk.jfr.Name", name));
+                annotations.add(annotation("jdk.jfr.Label", label));
+                annotations.add(annotation("jdk.jfr.Category", new String[] { "Bitcoin" }));
+
+                List<Object> descriptors = new ArrayList<Object>();
+
+                for (Field field : fields) {
+                    List<Object> fieldAnnotations = new ArrayList<Object>();
+                    fieldAnnotations.add(annotation("jdk.jfr.Label", field.label));
+
+                    if (field.unit != null) {
+                        fieldAnnotations.add(annotation(field.unit, field.unitValue));
+                    }
+
+                    descriptors.add(NEW_FIELD.newInstance(field.type, field.name, fieldAnnotations));
+                }
+
+                factory = CREATE.invoke(null, annotations, descriptors);
+                eventType = GET_EVENT_TYPE.invoke(factory);
+            } catch (Exception e) {
+                factory = null;
+            }
+        }
+
+        this.factory = factory;
+        this.eventType = eventType;
+    }
+
+    static Field field(Class<?> type, String name, String label) {
+        return new Field(type, name, label, null, null);
+    }
+
+    /**
+     * A number of bytes
+     */
+    static Field bytes(String name, String label) {
+        return new Field(long.class, name, label, "jdk.jfr.DataAmount", "BYTES");
+    }
+
+    /**
+     * A number of milliseconds
+     */
+    static Field millis(String name, String label) {
+        return new Field(long.class, name, label, "jdk.jfr.Timespan", "MILLISECONDS");
+    }
+
+    private static Object annotation(String type, Object value) throws Exception {
+        return NEW_ANNOTATION.newInstance(Class.forName(type).asSubclass(Annotation.class), value);
+    }
+
+    /**
+     * Starts timing an event
+     *
+     * @return the event, or null if there is no JFR or no recording wants the event
+     */
+    Object begin() {
+        if (factory == null) {
+            return null;
+        }
+
+        try {
+            if (!(Boolean) IS_ENABLED.invoke(eventType)) {
+                return null;
+            }
+
+            Object event = NEW_EVENT.invoke(factory);
+            BEGIN.invoke(event);
+            return event;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends an event, and records it if a recording wants it. The values are boxed,
+     * so callers check that there is an event before calling this.
+     *
+     * @param event what #begin() returned
+     * @param values the values of the fields, in order
+     */
+    void commit(Object event, Object... values) {
+        if (event == null) {
+            return;
+        }
+
+        try {
+            END.invoke(event);
+
+            if ((Boolean) SHOULD_COMMIT.invoke(event)) {
+                for (int i = 0; i < values.length; i++) {
+                    SET.invoke(event, i, values[i]);
+                }
+
+                COMMIT.invoke(event);
+            }
+        } catch (Exception e) {
+            // Monitoring never fails a request
+        }
+    }
+
+    static final class Field {
+        final Class<?> type;
+        final String   name;
+        final String   label;
+        final String   unit;
+        final String   unitValue;
+
+        private Field(Class<?> type, String name, String label, String unit, String unitValue) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.unit = unit;
+            this.unitValue = unitValue;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Passes messages on to another transport, and records every exchange
+ * so that it can be played back later by a {@link ReplayingTransport}.
+ *
+ * The recording is a gzip compressed stream of records, each holding when
+ * the request was sent relative to the first one, how long the exchange took,
+ * and the request and response as JSON text, or the failure message.
+ *
+ * A batch is recorded as one exchange, with the requests and responses as
+ * JSON arrays, so it is played back as the one round trip it was. Batches
+ * are passed on as batches when the other transport takes them, and else
+ * one request at a time.
+ */
+public class RecordingTransport implements BatchTransport {
+    static final int  MAGIC   = 0x42545252;    // "BTRR"
+    static final int  VERSION = 1;
+    static final byte SUCCESS = 0;
+    static final byte FAILURE = 1;
+    static final String CHARSET = "UTF-8";
+
+    private final Transport        delegate;
+    private final DataOutputStream out;
+    private long start = -1;
+
+    public RecordingTransport(Transport delegate, File file) {
+        this(delegate, open(file));
+    }
+
+    public RecordingTransport(Transport delegate, OutputStream out) {
+        this.delegate = delegate;
+
+        try {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out), 65536));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    private static OutputStream open(File file) {
+        try {
+            return new FileOutputStream(file);
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    public JSONObject sendAndReceive(JSONObject message) {
+        long sent = System.nanoTime();
+
+        try {
+            JSONObject response = delegate.sendAndReceive(message);
+            record(sent, System.nanoTime() - sent, SUCCESS, message.toString(), response.toString());
+
+            return response;
+        } catch (HttpSessionException e) {
+            record(sent, System.nanoTime() - sent, FAILURE, message.toString(), String.valueOf(e.getMessage()));
+            throw e;
+        }
+    }
+
+    public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+        JSONArray requests = new JSONArray(messages.size());
+
+        for (JSONObject message : messages) {
+            requests.element(message);
+        }
+
+        long sent = System.nanoTime();
+
+        try {
+            List<JSONObject> responses;
+
+            if (delegate instanceof BatchTransport) {
+                responses = ((BatchTransport) delegate).sendAndReceiveBatch(messages);
+            } else {
+                responses = new ArrayList<JSONObject>(messages.size());
+
+                for (JSONObject message : messages) {
+                    responses.add(delegate.sendAndReceive(message));
+                }
+            }
+
+            JSONArray array = new JSONArray(responses.size());
+
+            for (JSONObject response : responses) {
+                array.element(response);
+            }
+
+            record(sent, System.nanoTime() - sent, SUCCESS, requests.toString(), array.toString());
+
+            return responses;
+        } catch (HttpSessionException e) {
+            record(sent, System.nanoTime() - sent, FAILURE, requests.toString(), String.valueOf(e.getMessage()));
+            throw e;
+        }
+    }
+
+    private synchronized void record(long sent, long duration, byte status, String request, String response) {
+        if (start < 0) {
+            start = sent;
+        }
+
+        try {
+            out.writeLong(sent - start);
+            out.writeLong(duration);
+            out.writeByte(status);
+            writeString(request);
+            writeString(response);
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        byte[] bytes = string.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Finishes the recording, which isn't readable before this is done
+     */
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+}
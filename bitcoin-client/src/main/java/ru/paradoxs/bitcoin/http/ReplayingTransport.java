@@ -0,0 +1,264 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * Plays back a recording made by a {@link RecordingTransport}, without a server.
+ *
+ * Requests have to come in the recorded order, and are answered with the
+ * recorded responses, with the id changed to the one of the request. The
+ * responses are decoded from text on every call, like {@link HttpSession}
+ * does, so that the replay costs the client what the real exchange would.
+ *
+ * A recorded batch is played back as one exchange, and has to be sent as a
+ * batch of the same methods.
+ *
+ * By default the responses are returned at once. With recorded timing each
+ * request is held back until its recorded offset from the first one, and the
+ * response until the recorded duration has passed.
+ */
+public class ReplayingTransport implements BatchTransport {
+    private final List<Exchange> exchanges = new ArrayList<Exchange>();
+    private final boolean recordedTiming;
+
+    private int  next = 0;
+    private long start = -1;
+
+    public ReplayingTransport(File file, boolean recordedTiming) {
+        this(open(file), recordedTiming);
+    }
+
+    public ReplayingTransport(InputStream in, boolean recordedTiming) {
+        this.recordedTiming = recordedTiming;
+
+        try {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in), 65536));
+
+            try {
+                if (data.readInt() != RecordingTransport.MAGIC) {
+                    throw new HttpSessionException("Not a transport recording");
+                }
+
+                int version = data.readInt();
+
+                if (version != RecordingTransport.VERSION) {
+                    throw new HttpSessionException("Unsupported transport recording version: " + version);
+                }
+
+                for (;;) {
+                    long offset;
+
+                    try {
+                        offset = data.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    Exchange exchange = new Exchange();
+                    exchange.offset = offset;
+                    exchange.duration = data.readLong();
+                    exchange.success = data.readByte() == RecordingTransport.SUCCESS;
+                    exchange.method = methodOf(JSONParser.parse(readString(data)));
+                    exchange.response = readString(data);
+                    exchanges.add(exchange);
+                }
+            } finally {
+                data.close();
+            }
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    private static InputStream open(File file) {
+        try {
+            return new FileInputStream(file);
+        } catch (IOException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return new String(bytes, RecordingTransport.CHARSET);
+    }
+
+    /**
+     * @return the method of a request, or the methods of a batch in brackets
+     */
+    private static String methodOf(Object request) {
+        if (request instanceof JSONObject) {
+            return ((JSONObject) request).optString("method");
+        }
+
+        JSONArray batch = (JSONArray) request;
+        StringBuilder methods = new StringBuilder("[");
+
+        for (int i = 0; i < batch.size(); i++) {
+            methods.append(i == 0 ? "" : ", ").append(batch.getJSONObject(i).optString("method"));
+        }
+
+        return methods.append("]").toString();
+    }
+
+    public JSONObject sendAndReceive(JSONObject message) {
+        String response = replay(methodOf(message));
+
+        try {
+            JSONObject object = (JSONObject) JSONParser.parse(response);
+            object.put("id", message.get("id"));
+
+            return object;
+        } catch (JSONException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+        JSONArray requests = new JSONArray(messages.size());
+
+        for (JSONObject message : messages) {
+            requests.element(message);
+        }
+
+        String response = replay(methodOf(requests));
+
+        try {
+            JSONArray array = (JSONArray) JSONParser.parse(response);
+            List<JSONObject> responses = new ArrayList<JSONObject>(array.size());
+
+            // They were recorded in the order of the requests
+            for (int i = 0; i < array.size(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                object.put("id", messages.get(i).get("id"));
+                responses.add(object);
+            }
+
+            return responses;
+        } catch (JSONException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    /**
+     * Takes the next exchange, which has to be for the same method or methods
+     *
+     * @return its response text
+     */
+    private String replay(String method) {
+        Exchange exchange = nextExchange();
+
+        if (!exchange.method.equals(method)) {
+            throw new HttpSessionException("Replay diverged from the recording, expected " + exchange.method +
+                                           " but got " + method);
+        }
+
+        if (recordedTiming) {
+            sleepNanos(exchange.duration);
+        }
+
+        if (!exchange.success) {
+            throw new HttpSessionException(exchange.response);
+        }
+
+        return exchange.response;
+    }
+
+    private Exchange nextExchange() {
+        Exchange exchange;
+        long now = System.nanoTime();
+        long wait;
+
+        synchronized (this) {
+            if (next >= exchanges.size()) {
+                throw new HttpSessionException("The recording has no more exchanges, it had " + exchanges.size());
+            }
+
+            if (start < 0) {
+                start = now;
+            }
+
+            exchange = exchanges.get(next++);
+            wait = start + exchange.offset - now;
+        }
+
+        if (recordedTiming) {
+            sleepNanos(wait);
+        }
+
+        return exchange;
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpSessionException(e);
+        }
+    }
+
+    /**
+     * @return the number of exchanges in the recording
+     */
+    public int size() {
+        return exchanges.size();
+    }
+
+    /**
+     * @return the number of exchanges not played back yet
+     */
+    public synchronized int remaining() {
+        return exchanges.size() - next;
+    }
+
+    /**
+     * Starts playing back from the beginning again
+     */
+    public synchronized void rewind() {
+        next = 0;
+        start = -1;
+    }
+
+    private static class Exchange {
+        long    offset;
+        long    duration;
+        boolean success;
+        String  method;
+        String  response;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+/**
+ * The Java Flight Recorder events of talking to a Bitcoin server, the same as
+ * the callbacks of an {@link RpcListener}:
+ *
+ * ru.paradoxs.bitcoin.RpcCall for each request, with the method, the server,
+ * the bytes sent and received and the HTTP status, lasting as long as the request.
+ *
+ * ru.paradoxs.bitcoin.ResponseDecoded for each response body, with the method,
+ * lasting as long as reading and decoding it.
+ *
+ * ru.paradoxs.bitcoin.ConnectionAcquired for each connection taken from the
+ * pool, with the server and whether it had to be opened, lasting as long as
+ * the wait for it.
+ *
+ * ru.paradoxs.bitcoin.ConnectionsEvicted when idle connections are closed,
+ * with the server and the idle time.
+ *
+ * ru.paradoxs.bitcoin.CacheLookup for each time a local cache is asked instead
+ * of the server, with the name of the cache and whether it had the answer.
+ *
+ * They are recorded on JDK 11 and later, when a recording enables them.
+ */
+public final class RpcEvents {
+    static final JfrEventType RPC_CALL = new JfrEventType("ru.paradoxs.bitcoin.RpcCall", "Bitcoin RPC Call",
+            JfrEventType.field(String.class, "method", "Method"),
+            JfrEventType.field(String.class, "server", "Server"),
+            JfrEventType.bytes("bytesOut", "Bytes Out"),
+            JfrEventType.bytes("bytesIn", "Bytes In"),
+            JfrEventType.field(int.class, "status", "HTTP Status"));
+
+    static final JfrEventType RESPONSE_DECODED = new JfrEventType("ru.paradoxs.bitcoin.ResponseDecoded",
+            "Bitcoin Response Decoded",
+            JfrEventType.field(String.class, "method", "Method"));
+
+    static final JfrEventType CONNECTION_ACQUIRED = new JfrEventType("ru.paradoxs.bitcoin.ConnectionAcquired",
+            "Bitcoin Connection Acquired",
+            JfrEventType.field(String.class, "server", "Server"),
+            JfrEventType.field(boolean.class, "created", "Created"));
+
+    static final JfrEventType CONNECTIONS_EVICTED = new JfrEventType("ru.paradoxs.bitcoin.ConnectionsEvicted",
+            "Bitcoin Connections Evicted",
+            JfrEventType.field(String.class, "server", "Server"),
+            JfrEventType.millis("idleTime", "Idle Time"));
+
+    private static final JfrEventType CACHE_LOOKUP = new JfrEventType("ru.paradoxs.bitcoin.CacheLookup",
+            "Bitcoin Cache Lookup",
+            JfrEventType.field(String.class, "cache", "Cache"),
+            JfrEventType.field(boolean.class, "hit", "Hit"));
+
+    private RpcEvents() {
+    }
+
+    /**
+     * Records a lookup in a local cache, for caches kept outside this package
+     *
+     * @param cache the name of the cache
+     * @param hit true if the cache had the answer
+     */
+    public static void cacheLookup(String cache, boolean hit) {
+        Object event = CACHE_LOOKUP.begin();
+
+        if (event != null) {
+            CACHE_LOOKUP.commit(event, cache, hit);
+        }
+    }
+}
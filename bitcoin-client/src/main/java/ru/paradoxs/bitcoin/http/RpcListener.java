@@ -0,0 +1,74 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.net.URI;
+
+/**
+ * Told about every request to a Bitcoin server and what happened inside the
+ * {@link HttpSession} while making it, for monitoring.
+ *
+ * Nothing is measured for a listener unless one is set. The same events are
+ * Java Flight Recorder events without one, see {@link RpcEvents}, so a listener
+ * is for other monitoring systems. Listeners are called on the thread making the request
+ * and must be quick and thread safe.
+ * Extend {@link RpcListenerAdapter} to only get some of the events.
+ */
+public interface RpcListener {
+
+    /**
+     * A request has completed, successfully or not
+     *
+     * @param method the JSON-RPC method
+     * @param uri the server
+     * @param bytesOut the size of the request body as sent, compressed or not
+     * @param bytesIn the size of the response body as received, compressed or not
+     * @param status the HTTP status, or 0 if no response was received
+     * @param durationNanos the time from starting the request until the response was decoded
+     */
+    void rpcCompleted(String method, URI uri, long bytesOut, long bytesIn, int status, long durationNanos);
+
+    /**
+     * A response body has been decoded
+     *
+     * @param method the JSON-RPC method
+     * @param durationNanos the time spent reading and decoding the response body
+     */
+    void responseDecoded(String method, long durationNanos);
+
+    /**
+     * A connection to the server has been taken from the pool
+     *
+     * @param uri the server
+     * @param waitNanos the time spent waiting for a free connection
+     * @param created true if the connection wasn't open, and has to be opened now
+     */
+    void connectionAcquired(URI uri, long waitNanos, boolean created);
+
+    /**
+     * Connections idle for too long have been closed
+     *
+     * @param uri the server
+     * @param idleMillis the idle time after which connections were closed
+     */
+    void connectionsEvicted(URI uri, long idleMillis);
+
+    /**
+     * A local cache was asked instead of the server
+     *
+     * @param cache the name of the cache
+     * @param hit true if the cache had the answer
+     */
+    void cacheLookup(String cache, boolean hit);
+}
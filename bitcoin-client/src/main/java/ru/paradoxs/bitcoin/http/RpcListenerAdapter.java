@@ -0,0 +1,37 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.net.URI;
+
+/**
+ * An {@link RpcListener} ignoring all events, to extend for the interesting ones
+ */
+public abstract class RpcListenerAdapter implements RpcListener {
+
+    public void rpcCompleted(String method, URI uri, long bytesOut, long bytesIn, int status, long durationNanos) {
+    }
+
+    public void responseDecoded(String method, long durationNanos) {
+    }
+
+    public void connectionAcquired(URI uri, long waitNanos, boolean created) {
+    }
+
+    public void connectionsEvicted(URI uri, long idleMillis) {
+    }
+
+    public void cacheLookup(String cache, boolean hit) {
+    }
+}
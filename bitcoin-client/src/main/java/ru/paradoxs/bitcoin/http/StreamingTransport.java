@@ -0,0 +1,49 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.io.IOException;
+
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * A transport that can also hand a response to the caller while it is still
+ * being read, so large results can be decoded without building a JSON tree.
+ */
+public interface StreamingTransport extends Transport {
+
+    /**
+     * Decodes a JSON-RPC response, with "result", "error" and "id" members in any order
+     */
+    interface ResponseHandler<T> {
+
+        /**
+         * @param parser positioned before the response object, which must be read whole
+         * @return the decoded result
+         * @throws ru.paradoxs.bitcoin.http.exceptions.HttpSessionException if the response carries an error
+         */
+        T handle(JSONParser parser) throws IOException;
+    }
+
+    /**
+     * Sends a request and decodes the response with a handler as it arrives
+     *
+     * @param message the JSON-RPC request
+     * @param handler decodes the response
+     * @return what the handler returned
+     * @throws ru.paradoxs.bitcoin.http.exceptions.HttpSessionException if the exchange failed
+     */
+    <T> T sendAndReceive(JSONObject message, ResponseHandler<T> handler);
+}
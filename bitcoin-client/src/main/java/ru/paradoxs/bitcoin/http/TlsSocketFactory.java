@@ -0,0 +1,288 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+
+/**
+ * Creates TLS sockets for an {@link HttpSession} talking to a Bitcoin server
+ * behind a TLS-terminating proxy.
+ *
+ * All sockets come from the same {@link SSLContext}, so its client session
+ * cache lets new connections to the same proxy resume the TLS session instead
+ * of doing a full handshake.
+ *
+ * The handshake is done when the socket is created, and the host name is then
+ * checked against the subject alternative names of the server certificate, or
+ * its common name if it has no DNS names, before anything is sent. A socket
+ * failing the check is closed with an {@link SSLPeerUnverifiedException}.
+ */
+public class TlsSocketFactory implements SecureProtocolSocketFactory {
+    private static final int SAN_DNS_NAME   = 2;
+    private static final int SAN_IP_ADDRESS = 7;
+
+    private final SSLContext    context;
+    private final SSLSocketFactory factory;
+
+    private volatile HostnameVerifier hostnameVerifier = new CertificateHostnameVerifier();
+
+    public TlsSocketFactory(SSLContext context) {
+        this.context = context;
+        this.factory = context.getSocketFactory();
+    }
+
+    /**
+     * Creates a factory from key and trust stores
+     *
+     * @param keyStore the client certificate and key, or null if the proxy doesn't ask for one
+     * @param keyPassword the password for the key, can be null if keyStore is null
+     * @param trustStore the certificates to trust, or null to use the JVM default ones
+     * @return a factory using a new TLS context
+     */
+    public static TlsSocketFactory create(KeyStore keyStore, char[] keyPassword, KeyStore trustStore) {
+        try {
+            KeyManagerFactory keyManagers = null;
+
+            if (keyStore != null) {
+                keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyManagers.init(keyStore, keyPassword);
+            }
+
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trustStore);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers == null ? null : keyManagers.getKeyManagers(),
+                         trustManagers.getTrustManagers(), null);
+
+            return new TlsSocketFactory(context);
+        } catch (GeneralSecurityException e) {
+            throw new HttpSessionException(e);
+        }
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    /**
+     * Replaces the check of the host name against the server certificate, for
+     * instance to accept the name a proxy has in its certificate
+     *
+     * @param hostnameVerifier the check, not null
+     */
+    public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+        if (hostnameVerifier == null) {
+            throw new HttpSessionException("hostnameVerifier can't be null");
+        }
+
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    public HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+            throws IOException, UnknownHostException {
+        return verify(factory.createSocket(host, port, localAddress, localPort), host);
+    }
+
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+                               HttpConnectionParams params)
+            throws IOException, UnknownHostException, ConnectTimeoutException {
+        int timeout = params == null ? 0 : params.getConnectionTimeout();
+
+        if (timeout == 0) {
+            return createSocket(host, port, localAddress, localPort);
+        }
+
+        Socket socket = factory.createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(host, port), timeout);
+
+        return verify(socket, host);
+    }
+
+    public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+        return verify(factory.createSocket(host, port), host);
+    }
+
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+            throws IOException, UnknownHostException {
+        return verify(factory.createSocket(socket, host, port, autoClose), host);
+    }
+
+    /**
+     * Does the handshake and checks the server certificate against the host name
+     */
+    private Socket verify(Socket socket, String host) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) socket;
+
+        try {
+            sslSocket.startHandshake();
+
+            if (!hostnameVerifier.verify(host, sslSocket.getSession())) {
+                throw new SSLPeerUnverifiedException("The server certificate doesn't match the host name: " + host);
+            }
+
+            return sslSocket;
+        } catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        } catch (RuntimeException e) {
+            sslSocket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TlsSocketFactory && ((TlsSocketFactory) o).context == context;
+    }
+
+    @Override
+    public int hashCode() {
+        return context.hashCode();
+    }
+
+    /**
+     * Checks a host name against the server certificate the way https does (RFC 2818):
+     * an IP address against the IP address names, other names against the DNS names,
+     * where a leading "*" matches one label, and the common name if there are no DNS names.
+     */
+    private static class CertificateHostnameVerifier implements HostnameVerifier {
+
+        public boolean verify(String host, SSLSession session) {
+            try {
+                Certificate[] certificates = session.getPeerCertificates();
+
+                if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) {
+                    return false;
+                }
+
+                return matches(host, (X509Certificate) certificates[0]);
+            } catch (SSLException e) {
+                return false;
+            } catch (CertificateParsingException e) {
+                return false;
+            } catch (InvalidNameException e) {
+                return false;
+            }
+        }
+
+        private static boolean matches(String host, X509Certificate certificate)
+                throws CertificateParsingException, InvalidNameException {
+            boolean ipAddress = isIpAddress(host);
+            List<String> dnsNames = new ArrayList<String>();
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+
+            if (alternativeNames != null) {
+                for (List<?> name : alternativeNames) {
+                    int type = ((Integer) name.get(0)).intValue();
+
+                    if (type == SAN_IP_ADDRESS && ipAddress && sameAddress(host, (String) name.get(1))) {
+                        return true;
+                    }
+
+                    if (type == SAN_DNS_NAME) {
+                        dnsNames.add((String) name.get(1));
+                    }
+                }
+            }
+
+            if (ipAddress) {
+                return false;
+            }
+
+            if (dnsNames.isEmpty()) {
+                List<Rdn> rdns = new LdapName(certificate.getSubjectX500Principal().getName()).getRdns();
+
+                // The most specific common name comes last in the parsed name
+                for (int i = rdns.size() - 1; i >= 0; i--) {
+                    if (rdns.get(i).getType().equalsIgnoreCase("CN")) {
+                        return matchesName(host, rdns.get(i).getValue().toString());
+                    }
+                }
+
+                return false;
+            }
+
+            for (String dnsName : dnsNames) {
+                if (matchesName(host, dnsName)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private static boolean matchesName(String host, String name) {
+            host = host.toLowerCase(Locale.ENGLISH);
+            name = name.toLowerCase(Locale.ENGLISH);
+
+            if (!name.startsWith("*.")) {
+                return host.equals(name);
+            }
+
+            int dot = host.indexOf('.');
+            return dot > 0 && host.substring(dot).equals(name.substring(1));
+        }
+
+        private static boolean isIpAddress(String host) {
+            return host.indexOf(':') >= 0 || host.matches("[0-9]{1,3}(\\.[0-9]{1,3}){3}");
+        }
+
+        private static boolean sameAddress(String host, String address) {
+            try {
+                // Both are literals, so no name lookup is done
+                return InetAddress.getByName(host).equals(InetAddress.getByName(address));
+            } catch (UnknownHostException e) {
+                return false;
+            }
+        }
+    }
+}
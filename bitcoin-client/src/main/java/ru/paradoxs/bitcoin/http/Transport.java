@@ -0,0 +1,34 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Carries JSON-RPC messages to a Bitcoin server and back.
+ *
+ * {@link HttpSession} is the one talking to a real server, the others wrap
+ * or replace it, for instance to record and replay exchanges.
+ */
+public interface Transport {
+
+    /**
+     * Sends a request and waits for the response
+     *
+     * @param message the JSON-RPC request
+     * @return the JSON-RPC response, also when it carries an RPC error
+     * @throws ru.paradoxs.bitcoin.http.exceptions.HttpSessionException if the exchange failed
+     */
+    JSONObject sendAndReceive(JSONObject message);
+}
@@ -0,0 +1,107 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JSON array.
+ *
+ * The getters convert between compatible types like those of
+ * {@link JSONObject}, and throw {@link JSONException} when they can't.
+ */
+public class JSONArray {
+    private final List<Object> elements;
+
+    public JSONArray() {
+        elements = new ArrayList<Object>();
+    }
+
+    public JSONArray(int capacity) {
+        elements = new ArrayList<Object>(capacity);
+    }
+
+    /**
+     * Appends an element
+     *
+     * @param value null, a Boolean, String, Number, JSONObject or JSONArray
+     * @return this array
+     */
+    public JSONArray element(Object value) {
+        elements.add(Values.check(value));
+        return this;
+    }
+
+    public Object get(int index) {
+        return elements.get(index);
+    }
+
+    public String getString(int index) {
+        return Values.toString(elements.get(index), index);
+    }
+
+    public BigDecimal getBigDecimal(int index) {
+        return Values.toBigDecimal(elements.get(index), index);
+    }
+
+    public long getLong(int index) {
+        return Values.toLong(elements.get(index), index);
+    }
+
+    public int getInt(int index) {
+        return Values.toInt(elements.get(index), index);
+    }
+
+    public boolean getBoolean(int index) {
+        return Values.toBoolean(elements.get(index), index);
+    }
+
+    public JSONObject getJSONObject(int index) {
+        return Values.toJSONObject(elements.get(index), index);
+    }
+
+    public JSONArray getJSONArray(int index) {
+        return Values.toJSONArray(elements.get(index), index);
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JSONArray && elements.equals(((JSONArray) o).elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return elements.hashCode();
+    }
+
+    /**
+     * @return the array as compact JSON text
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(32);
+        JSONWriter.write(this, out);
+        return out.toString();
+    }
+}
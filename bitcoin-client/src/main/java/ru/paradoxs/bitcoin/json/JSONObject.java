@@ -0,0 +1,157 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A JSON object, with its members in the order they were put in.
+ *
+ * The getters convert between compatible types, so a number can be read as a
+ * string and a numeric string as a number, and throw {@link JSONException}
+ * when the member is missing or can't be converted.
+ */
+public class JSONObject {
+    private final Map<String, Object> members = new LinkedHashMap<String, Object>();
+
+    /**
+     * Sets a member
+     *
+     * @param name the name of the member
+     * @param value null, a Boolean, String, Number, JSONObject or JSONArray
+     * @return this object
+     */
+    public JSONObject put(String name, Object value) {
+        members.put(name, Values.check(value));
+        return this;
+    }
+
+    /**
+     * @return true if the object has the member, even if it is null
+     */
+    public boolean has(String name) {
+        return members.containsKey(name);
+    }
+
+    /**
+     * @return true if the object has the member and it isn't null
+     */
+    public boolean hasValue(String name) {
+        return members.get(name) != null;
+    }
+
+    /**
+     * @return the value of the member, or null if it is null or missing
+     */
+    public Object get(String name) {
+        return members.get(name);
+    }
+
+    public Object remove(String name) {
+        return members.remove(name);
+    }
+
+    public String getString(String name) {
+        return Values.toString(require(name), name);
+    }
+
+    /**
+     * @return the member as a string, or the empty string if it is null or missing
+     */
+    public String optString(String name) {
+        Object value = members.get(name);
+        return value == null ? "" : Values.toString(value, name);
+    }
+
+    public BigDecimal getBigDecimal(String name) {
+        return Values.toBigDecimal(require(name), name);
+    }
+
+    public long getLong(String name) {
+        return Values.toLong(require(name), name);
+    }
+
+    public int getInt(String name) {
+        return Values.toInt(require(name), name);
+    }
+
+    public double getDouble(String name) {
+        return Values.toDouble(require(name), name);
+    }
+
+    public boolean getBoolean(String name) {
+        return Values.toBoolean(require(name), name);
+    }
+
+    public JSONObject getJSONObject(String name) {
+        return Values.toJSONObject(require(name), name);
+    }
+
+    public JSONArray getJSONArray(String name) {
+        return Values.toJSONArray(require(name), name);
+    }
+
+    private Object require(String name) {
+        Object value = members.get(name);
+
+        if (value == null && !members.containsKey(name)) {
+            throw new JSONException("No member named " + name);
+        }
+
+        return value;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * @return the names of the members, in the order they were put in
+     */
+    public Iterator<String> keys() {
+        return members.keySet().iterator();
+    }
+
+    Set<Map.Entry<String, Object>> entries() {
+        return members.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JSONObject && members.equals(((JSONObject) o).members);
+    }
+
+    @Override
+    public int hashCode() {
+        return members.hashCode();
+    }
+
+    /**
+     * @return the object as compact JSON text
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(64);
+        JSONWriter.write(this, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,561 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Parses JSON text, reading it straight from a stream.
+ *
+ * A hand written recursive descent parser, without reflection or any
+ * intermediate strings but those of the values. Numbers with a fraction or
+ * exponent become BigDecimal, other numbers Long, or BigInteger if too big.
+ *
+ * A parser from #stream(Reader) walks the text without building a tree, for
+ * large responses whose values go straight into other structures. Each member
+ * or element is announced by #hasNext(), and then read as a value, or walked
+ * into with #beginObject() or #beginArray().
+ */
+public final class JSONParser {
+    private static final int MAX_DEPTH = 512;
+
+    // What a streaming parser expects next in each open object or array
+    private static final byte FIRST        = 0;
+    private static final byte AFTER_VALUE  = 1;
+    private static final byte BEFORE_VALUE = 2;
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;        // Of the start of the buffer in the text
+    private int depth = 0;
+    private final StringBuilder scratch = new StringBuilder(64);
+    private final byte[] states = new byte[MAX_DEPTH + 1];
+    private String name = null;     // Of the last member, for error messages
+
+    private JSONParser(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Parses one JSON value, which must be all the text
+     */
+    public static Object parse(String text) {
+        try {
+            return parse(new StringReader(text));
+        } catch (IOException e) {
+            throw new JSONException("Can't read a string", e);
+        }
+    }
+
+    /**
+     * Parses one JSON value, which must be all the text read
+     */
+    public static Object parse(Reader reader) throws IOException {
+        JSONParser parser = stream(reader);
+        Object value = parser.readValue();
+        parser.finish();
+
+        return value;
+    }
+
+    /**
+     * Opens a parser for walking JSON text one value at a time
+     */
+    public static JSONParser stream(Reader reader) {
+        return new JSONParser(reader, 8192);
+    }
+
+    /**
+     * Enters the object that is the next value
+     */
+    public void beginObject() throws IOException {
+        begin('{');
+    }
+
+    /**
+     * Leaves the current object, once #hasNext() has returned false
+     */
+    public void endObject() throws IOException {
+        end('}');
+    }
+
+    /**
+     * Enters the array that is the next value
+     */
+    public void beginArray() throws IOException {
+        begin('[');
+    }
+
+    /**
+     * Leaves the current array, once #hasNext() has returned false
+     */
+    public void endArray() throws IOException {
+        end(']');
+    }
+
+    /**
+     * @return true if the current object has another member, or the current array another element
+     */
+    public boolean hasNext() throws IOException {
+        skipWhitespace();
+
+        if (states[depth] == BEFORE_VALUE) {
+            return true;
+        }
+
+        int c = peek();
+
+        if (c == '}' || c == ']' || c == -1) {
+            return false;
+        }
+
+        if (states[depth] == AFTER_VALUE) {
+            expect(',');
+            skipWhitespace();
+        }
+
+        states[depth] = BEFORE_VALUE;
+        return true;
+    }
+
+    /**
+     * Reads the name of the next member of the current object, which is followed by its value
+     */
+    public String nextName() throws IOException {
+        skipWhitespace();
+
+        if (peek() != '"') {
+            throw error("Expected a member name");
+        }
+
+        name = readString();
+        skipWhitespace();
+        expect(':');
+
+        return name;
+    }
+
+    /**
+     * Reads the next value whole, as #parse(Reader) would
+     */
+    public Object nextValue() throws IOException {
+        Object value = readValue();
+        states[depth] = AFTER_VALUE;
+
+        return value;
+    }
+
+    /**
+     * Reads the next value as a string, the way {@link JSONObject#getString(String)} converts it
+     *
+     * @return the string, or null for a null value
+     */
+    public String nextString() throws IOException {
+        return Values.toString(nextValue(), name);
+    }
+
+    /**
+     * Reads the next value, which must be a string, without making a String of it
+     *
+     * @return the characters, valid until the parser is used again
+     */
+    public CharSequence nextChars() throws IOException {
+        skipWhitespace();
+
+        if (peek() != '"') {
+            throw error("Expected a string");
+        }
+
+        CharSequence chars = readChars();
+        states[depth] = AFTER_VALUE;
+
+        return chars;
+    }
+
+    /**
+     * @return the next value, which must be a whole number
+     */
+    public long nextLong() throws IOException {
+        return Values.toLong(nextValue(), name);
+    }
+
+    /**
+     * @return the next value, which must be a number
+     */
+    public BigDecimal nextBigDecimal() throws IOException {
+        return Values.toBigDecimal(nextValue(), name);
+    }
+
+    /**
+     * @return true if the next value is null
+     */
+    public boolean nextIsNull() throws IOException {
+        skipWhitespace();
+
+        return peek() == 'n';
+    }
+
+    /**
+     * Checks that the whole value has been read, and that no text follows it
+     */
+    public void finish() throws IOException {
+        if (depth > 0) {
+            throw error("Unterminated object or array");
+        }
+
+        skipWhitespace();
+
+        if (peek() >= 0) {
+            throw error("Text after the end of the JSON value");
+        }
+    }
+
+    private void begin(char open) throws IOException {
+        skipWhitespace();
+
+        if (peek() != open) {
+            throw error("Expected '" + open + "'");
+        }
+
+        enter();
+        next();
+        states[depth] = FIRST;
+    }
+
+    private void end(char close) throws IOException {
+        skipWhitespace();
+
+        if (states[depth] == BEFORE_VALUE) {
+            throw error("Expected a value");
+        }
+
+        expect(close);
+        depth--;
+        states[depth] = AFTER_VALUE;
+    }
+
+    /**
+     * Parses JSON text that must be an object
+     */
+    public static JSONObject parseObject(Reader reader) throws IOException {
+        Object value = parse(reader);
+
+        if (!(value instanceof JSONObject)) {
+            throw new JSONException("Expected a JSON object, but got: " + value);
+        }
+
+        return (JSONObject) value;
+    }
+
+    private Object readValue() throws IOException {
+        skipWhitespace();
+        int c = peek();
+
+        switch (c) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': expectWord("true");  return Boolean.TRUE;
+            case 'f': expectWord("false"); return Boolean.FALSE;
+            case 'n': expectWord("null");  return null;
+            case -1:  throw error("Unexpected end of the JSON text");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private JSONObject readObject() throws IOException {
+        enter();
+        next();     // {
+        JSONObject object = new JSONObject();
+        skipWhitespace();
+
+        if (peek() == '}') {
+            next();
+            depth--;
+            return object;
+        }
+
+        for (;;) {
+            skipWhitespace();
+
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(name, readValue());
+            skipWhitespace();
+
+            int c = next();
+
+            if (c == '}') {
+                depth--;
+                return object;
+            }
+
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private JSONArray readArray() throws IOException {
+        enter();
+        next();     // [
+        JSONArray array = new JSONArray();
+        skipWhitespace();
+
+        if (peek() == ']') {
+            next();
+            depth--;
+            return array;
+        }
+
+        for (;;) {
+            array.element(readValue());
+            skipWhitespace();
+
+            int c = next();
+
+            if (c == ']') {
+                depth--;
+                return array;
+            }
+
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        return readChars().toString();
+    }
+
+    /**
+     * Reads a string into the scratch buffer
+     */
+    private StringBuilder readChars() throws IOException {
+        next();     // "
+        scratch.setLength(0);
+
+        for (;;) {
+            // Copy runs of plain characters straight from the buffer
+            int start = position;
+
+            while (position < limit) {
+                char c = buffer[position];
+
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+
+                position++;
+            }
+
+            scratch.append(buffer, start, position - start);
+
+            int c = next();
+
+            if (c == '"') {
+                return scratch;
+            }
+
+            if (c == '\\') {
+                scratch.append(readEscape());
+            } else if (c == -1) {
+                throw error("Unterminated string");
+            } else if (c < 0x20) {
+                throw error("Control character in string");
+            } else {
+                scratch.append((char) c);    // Reached the end of the buffer
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = next();
+
+        switch (c) {
+            case '"':  return '"';
+            case '\\': return '\\';
+            case '/':  return '/';
+            case 'b':  return '\b';
+            case 'f':  return '\f';
+            case 'n':  return '\n';
+            case 'r':  return '\r';
+            case 't':  return '\t';
+            case 'u':
+                int value = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+
+                    if (digit < 0) {
+                        throw error("Bad unicode escape");
+                    }
+
+                    value = (value << 4) | digit;
+                }
+
+                return (char) value;
+            default:
+                throw error("Bad escape");
+        }
+    }
+
+    private Object readNumber() throws IOException {
+        StringBuilder text = new StringBuilder(24);
+        boolean integral = true;
+
+        if (peek() == '-') {
+            text.append((char) next());
+        }
+
+        int first = text.length();
+
+        if (!readDigits(text)) {
+            throw error("Expected a digit");
+        }
+
+        if (text.charAt(first) == '0' && text.length() > first + 1) {
+            throw error("Leading zero in a number");
+        }
+
+        if (peek() == '.') {
+            integral = false;
+            text.append((char) next());
+
+            if (!readDigits(text)) {
+                throw error("Expected a digit after the decimal point");
+            }
+        }
+
+        if (peek() == 'e' || peek() == 'E') {
+            integral = false;
+            text.append((char) next());
+
+            if (peek() == '+' || peek() == '-') {
+                text.append((char) next());
+            }
+
+            if (!readDigits(text)) {
+                throw error("Expected a digit in the exponent");
+            }
+        }
+
+        if (!integral) {
+            return new BigDecimal(text.toString());
+        }
+
+        int digits = text.length() - (text.charAt(0) == '-' ? 1 : 0);
+
+        if (digits < 19) {
+            return Long.parseLong(text.toString());
+        }
+
+        BigInteger big = new BigInteger(text.toString());
+        return big.bitLength() < 64 ? (Object) big.longValue() : big;
+    }
+
+    private boolean readDigits(StringBuilder text) throws IOException {
+        boolean any = false;
+
+        for (int c = peek(); c >= '0' && c <= '9'; c = peek()) {
+            text.append((char) next());
+            any = true;
+        }
+
+        return any;
+    }
+
+    private void expectWord(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (next() != word.charAt(i)) {
+                throw error("Expected '" + word + "'");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("JSON nested deeper than " + MAX_DEPTH);
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        for (int c = peek(); c == ' ' || c == '\n' || c == '\r' || c == '\t'; c = peek()) {
+            position++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        return buffer[position];
+    }
+
+    private int next() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+
+        int read = reader.read(buffer, 0, buffer.length);
+
+        while (read == 0) {
+            read = reader.read(buffer, 0, buffer.length);
+        }
+
+        if (read < 0) {
+            return false;
+        }
+
+        limit = read;
+        return true;
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at character " + (offset + position));
+    }
+}
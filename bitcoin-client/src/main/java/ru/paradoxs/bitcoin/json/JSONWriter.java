@@ -0,0 +1,102 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Writes values as compact JSON text
+ */
+final class JSONWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JSONWriter() {
+    }
+
+    static void write(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, out);
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value, out);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value, out);
+        } else if (value instanceof BigDecimal) {
+            out.append(((BigDecimal) value).toPlainString());
+        } else {
+            out.append(value);          // Boolean, Long or BigInteger
+        }
+    }
+
+    private static void writeObject(JSONObject object, StringBuilder out) {
+        out.append('{');
+        boolean first = true;
+
+        for (Map.Entry<String, Object> entry : object.entries()) {
+            if (!first) {
+                out.append(',');
+            }
+
+            first = false;
+            writeString(entry.getKey(), out);
+            out.append(':');
+            write(entry.getValue(), out);
+        }
+
+        out.append('}');
+    }
+
+    private static void writeArray(JSONArray array, StringBuilder out) {
+        out.append('[');
+
+        for (int i = 0; i < array.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+
+            write(array.get(i), out);
+        }
+
+        out.append(']');
+    }
+
+    private static void writeString(String string, StringBuilder out) {
+        out.append('"');
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            switch (c) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n");  break;
+                case '\r': out.append("\\r");  break;
+                case '\t': out.append("\\t");  break;
+                case '\b': out.append("\\b");  break;
+                case '\f': out.append("\\f");  break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.append("\\u").append(HEX[c >> 12 & 0xf]).append(HEX[c >> 8 & 0xf])
+                           .append(HEX[c >> 4 & 0xf]).append(HEX[c & 0xf]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+
+        out.append('"');
+    }
+}
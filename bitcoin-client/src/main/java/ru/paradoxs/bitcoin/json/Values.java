@@ -0,0 +1,178 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Conversions of the values held by {@link JSONObject} and {@link JSONArray}.
+ *
+ * Values are null, Boolean, String, Long, BigInteger, BigDecimal, JSONObject
+ * or JSONArray. Numbers with a fraction or exponent are kept as BigDecimal, so
+ * amounts are never rounded through a double.
+ *
+ * The name of the value, used in error messages only, is the member name of an
+ * object or the index of an array element.
+ */
+final class Values {
+
+    private Values() {
+    }
+
+    static String toString(Object value, Object name) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof String) {
+            return (String) value;
+        }
+
+        if (value instanceof JSONObject || value instanceof JSONArray) {
+            return value.toString();
+        }
+
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+
+        return String.valueOf(value);
+    }
+
+    static BigDecimal toBigDecimal(Object value, Object name) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+
+        if (value instanceof Long || value instanceof Integer) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+
+        if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        }
+
+        if (value instanceof String) {
+            try {
+                return new BigDecimal((String) value);
+            } catch (NumberFormatException e) {
+                throw new JSONException(describe(name) + " is not a number: " + value, e);
+            }
+        }
+
+        throw new JSONException(describe(name) + " is not a number: " + value);
+    }
+
+    static long toLong(Object value, Object name) {
+        if (value instanceof Long || value instanceof Integer) {
+            return ((Number) value).longValue();
+        }
+
+        try {
+            return toBigDecimal(value, name).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new JSONException(describe(name) + " is not a long: " + value, e);
+        }
+    }
+
+    static int toInt(Object value, Object name) {
+        long number = toLong(value, name);
+
+        if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            throw new JSONException(describe(name) + " is not an int: " + value);
+        }
+
+        return (int) number;
+    }
+
+    static double toDouble(Object value, Object name) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        return toBigDecimal(value, name).doubleValue();
+    }
+
+    static boolean toBoolean(Object value, Object name) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        if ("true".equals(value)) {
+            return true;
+        }
+
+        if ("false".equals(value)) {
+            return false;
+        }
+
+        throw new JSONException(describe(name) + " is not a boolean: " + value);
+    }
+
+    static JSONObject toJSONObject(Object value, Object name) {
+        if (value instanceof JSONObject) {
+            return (JSONObject) value;
+        }
+
+        throw new JSONException(describe(name) + " is not an object: " + value);
+    }
+
+    static JSONArray toJSONArray(Object value, Object name) {
+        if (value instanceof JSONArray) {
+            return (JSONArray) value;
+        }
+
+        throw new JSONException(describe(name) + " is not an array: " + value);
+    }
+
+    private static String describe(Object name) {
+        return name instanceof Integer ? "Element " + name : String.valueOf(name);
+    }
+
+    /**
+     * Makes sure only values that can be written as JSON get in
+     */
+    static Object check(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Long ||
+            value instanceof BigDecimal || value instanceof BigInteger ||
+            value instanceof JSONObject || value instanceof JSONArray) {
+            return value;
+        }
+
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new JSONException("JSON can't hold " + value);
+            }
+
+            return new BigDecimal(value.toString());
+        }
+
+        if (value instanceof Character) {
+            return value.toString();
+        }
+
+        throw new JSONException("JSON can't hold a " + value.getClass().getName());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with about 3% precision for values up to two hours,
+ * safe to record into from many threads at once.
+ *
+ * Values below 64 ns get a bucket each; above that every power of two is split
+ * into 32 buckets, so memory is fixed no matter how many values are recorded.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 32;
+    private static final int MAX_SHIFT = 37;                  // Up to 2^43 ns, about two and a half hours
+    private static final long MAX_VALUE = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos the latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        for (long current = max.get(); value > current && !max.compareAndSet(current, value); current = max.get()) {
+        }
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value that falls in the bucket
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which that percentage of the recorded values fall,
+     *         or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Adds the values recorded in another histogram to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+
+        long otherMax = other.max.get();
+
+        for (long current = max.get(); otherMax > current && !max.compareAndSet(current, otherMax); current = max.get()) {
+        }
+    }
+
+    /**
+     * Prints the percentile distribution, in milliseconds
+     */
+    public void printPercentiles(PrintStream out) {
+        double[] percentiles = { 50, 90, 99, 99.9, 99.99, 100 };
+
+        for (double percentile : percentiles) {
+            out.printf("  %7.2f%%  %10.3f ms%n", percentile, getPercentile(percentile) / 1e6);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", getCount(),
+                             getPercentile(50) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6,
+                             getMax() / 1e6);
+    }
+}
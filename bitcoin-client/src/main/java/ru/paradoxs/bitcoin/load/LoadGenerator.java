@@ -0,0 +1,383 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Drives a Bitcoin server with a mix of calls at a fixed rate, to find out
+ * how much load it takes before latency gets out of hand.
+ *
+ * The load is open loop: requests are due on a fixed schedule and are sent
+ * when due, whether or not earlier ones have come back, the way independent
+ * users would send them. Each call's latency is measured from when it was due,
+ * so a stalled server shows up as the queue of late requests it causes, not
+ * just as one slow request.
+ *
+ * Run {@link #main(String[])} without arguments for the options.
+ */
+public class LoadGenerator {
+
+    /**
+     * One kind of call in the mix
+     */
+    public interface Operation {
+        void call(BitcoinClient client);
+    }
+
+    private static final String TEST_ADDRESS = "1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa";
+
+    private final BitcoinClient client;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Operation> operations = new ArrayList<Operation>();
+    private final List<Integer> weights = new ArrayList<Integer>();
+    private int threads = 20;
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(1);
+    private long seed = 1;
+    private long baselineServiceTime = Long.MAX_VALUE;
+
+    public LoadGenerator(BitcoinClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Adds a kind of call to the mix
+     *
+     * @param name the name to report the call's latencies under
+     * @param weight the share of the calls, relative to the weights of the others
+     * @param operation the call
+     * @return this generator
+     */
+    public LoadGenerator addOperation(String name, int weight, Operation operation) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be > 0");
+        }
+
+        names.add(name);
+        weights.add(weight);
+        operations.add(operation);
+        return this;
+    }
+
+    /**
+     * Adds one of the common read-only calls to the mix: getbalance, getblockcount,
+     * getconnectioncount, listtransactions or validateaddress
+     *
+     * @param method the JSON-RPC method
+     * @param weight the share of the calls, relative to the weights of the others
+     * @return this generator
+     */
+    public LoadGenerator addMethod(String method, int weight) {
+        return addOperation(method, weight, operationFor(method));
+    }
+
+    private static Operation operationFor(String method) {
+        if (method.equals("getbalance")) {
+            return new Operation() {
+                public void call(BitcoinClient client) {
+                    client.getBalance();
+                }
+            };
+        } else if (method.equals("getblockcount")) {
+            return new Operation() {
+                public void call(BitcoinClient client) {
+                    client.getBlockCount();
+                }
+            };
+        } else if (method.equals("getconnectioncount")) {
+            return new Operation() {
+                public void call(BitcoinClient client) {
+                    client.getConnectionCount();
+                }
+            };
+        } else if (method.equals("listtransactions")) {
+            return new Operation() {
+                public void call(BitcoinClient client) {
+                    client.listTransactions("", 10);
+                }
+            };
+        } else if (method.equals("validateaddress")) {
+            return new Operation() {
+                public void call(BitcoinClient client) {
+                    client.validateAddress(TEST_ADDRESS);
+                }
+            };
+        }
+
+        throw new IllegalArgumentException("No built in call for " + method);
+    }
+
+    /**
+     * Sets the number of threads making calls, which should not be more than the
+     * connections the client may open to the server
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets how long each run goes on before measuring starts, to let the JIT compiler,
+     * connection pool and server caches settle
+     */
+    public void setWarmup(long warmup, TimeUnit unit) {
+        this.warmupNanos = unit.toNanos(warmup);
+    }
+
+    /**
+     * Sets the seed picking the calls, so runs with the same seed make the same calls
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sends calls at a fixed rate for a while
+     *
+     * @param rate the calls per second
+     * @param duration how long to measure, after the warmup
+     * @param unit the unit of duration
+     * @return the measurements
+     */
+    public LoadResult run(double rate, long duration, TimeUnit unit) {
+        if (operations.isEmpty()) {
+            throw new BitcoinClientException("No calls to make");
+        }
+
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be > 0");
+        }
+
+        int[] cumulative = new int[weights.size()];
+        int total = 0;
+
+        for (int i = 0; i < cumulative.length; i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "load-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        double interval = 1e9 / rate;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long measureStart = start + warmupNanos;
+        long end = measureStart + unit.toNanos(duration);
+        LoadResult result = new LoadResult(rate, threads, measureStart, names);
+        Random random = new Random(seed);
+
+        try {
+            long lastDue = start;
+
+            for (long i = 0; ; i++) {
+                long due = start + (long) (i * interval);
+
+                if (due >= end) {
+                    break;
+                }
+
+                lastDue = due;
+
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                int pick = random.nextInt(total);
+                int method = 0;
+
+                while (cumulative[method] <= pick) {
+                    method++;
+                }
+
+                pool.execute(new Call(method, due, System.nanoTime(), due >= measureStart ? result : null));
+            }
+
+            result.setDispatchOverrun(System.nanoTime() - lastDue, end - start);
+            pool.shutdown();
+
+            // Give late requests as long again as the run took to finish
+            if (!pool.awaitTermination(Math.max(end - start, TimeUnit.SECONDS.toNanos(10)), TimeUnit.NANOSECONDS)) {
+                result.setAbandoned(pool.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setAbandoned(pool.shutdownNow().size());
+        }
+
+        baselineServiceTime = Math.min(baselineServiceTime, result.getServiceTime().getPercentile(50));
+        result.setBaselineServiceTime(baselineServiceTime);
+
+        return result;
+    }
+
+    /**
+     * Runs at one rate after the other, to get a throughput/latency curve. The
+     * first rate should be well within what the server can take, since telling
+     * whether the client or the server held back the later runs is based on
+     * the service times of the earlier ones.
+     *
+     * @param rates the calls per second of each run
+     * @param duration how long to measure each run, after the warmup
+     * @param unit the unit of duration
+     * @return the measurements of each run
+     */
+    public List<LoadResult> curve(double[] rates, long duration, TimeUnit unit) {
+        List<LoadResult> results = new ArrayList<LoadResult>(rates.length);
+
+        for (double rate : rates) {
+            results.add(run(rate, duration, unit));
+        }
+
+        return results;
+    }
+
+    private class Call implements Runnable {
+        private final int method;
+        private final long due;
+        private final long dispatched;
+        private final LoadResult result;
+
+        Call(int method, long due, long dispatched, LoadResult result) {
+            this.method = method;
+            this.due = due;
+            this.dispatched = dispatched;
+            this.result = result;
+        }
+
+        public void run() {
+            long begin = System.nanoTime();
+            boolean failed = false;
+
+            try {
+                operations.get(method).call(client);
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+
+            if (result != null) {
+                result.record(method, due, dispatched, begin, System.nanoTime(), failed);
+            }
+        }
+    }
+
+    /**
+     * Runs a throughput/latency curve against a server, or against a {@link StubBitcoinServer}
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 8332;
+        String user = "";
+        String password = "";
+        String mix = "getbalance=70,listtransactions=20,validateaddress=10";
+        String rates = "100,200,400,800";
+        int duration = 10;
+        int warmup = 2;
+        int threads = 20;
+        long stubMicros = -1;
+        int stubThreads = 4;
+
+        if (args.length == 0) {
+            System.out.println("Usage: LoadGenerator [--host localhost] [--port 8332] [--user name] [--password secret]");
+            System.out.println("                     [--mix getbalance=70,listtransactions=20,validateaddress=10]");
+            System.out.println("                     [--rates 100,200,400,800] [--duration 10] [--warmup 2] [--threads 20]");
+            System.out.println("                     [--stub microseconds-per-call] [--stub-threads 4]");
+            System.out.println("With --stub it runs against a stand-in server in this JVM instead of bitcoind.");
+            return;
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            String value = i + 1 < args.length ? args[++i] : "";
+
+            if (option.equals("--host")) {
+                host = value;
+            } else if (option.equals("--port")) {
+                port = Integer.parseInt(value);
+            } else if (option.equals("--user")) {
+                user = value;
+            } else if (option.equals("--password")) {
+                password = value;
+            } else if (option.equals("--mix")) {
+                mix = value;
+            } else if (option.equals("--rates")) {
+                rates = value;
+            } else if (option.equals("--duration")) {
+                duration = Integer.parseInt(value);
+            } else if (option.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (option.equals("--threads")) {
+                threads = Integer.parseInt(value);
+            } else if (option.equals("--stub")) {
+                stubMicros = Long.parseLong(value);
+            } else if (option.equals("--stub-threads")) {
+                stubThreads = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        StubBitcoinServer stub = null;
+
+        if (stubMicros >= 0) {
+            stub = new StubBitcoinServer(0, stubThreads, stubMicros, TimeUnit.MICROSECONDS);
+            stub.start();
+            host = "127.0.0.1";
+            port = stub.getPort();
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(new BitcoinClient(host, user, password, port));
+            generator.setThreads(threads);
+            generator.setWarmup(warmup, TimeUnit.SECONDS);
+
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.split("=");
+                generator.addMethod(parts[0].trim(), parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+            }
+
+            String[] rateStrings = rates.split(",");
+            List<LoadResult> results = new ArrayList<LoadResult>();
+
+            for (String rate : rateStrings) {
+                LoadResult result = generator.run(Double.parseDouble(rate.trim()), duration, TimeUnit.SECONDS);
+                result.print(System.out);
+                System.out.println();
+                results.add(result);
+            }
+
+            LoadResult.printCurve(results, System.out);
+        } finally {
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.load;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one run of the {@link LoadGenerator} at a fixed rate measured.
+ *
+ * Latencies are measured from when a request was due on the schedule, not
+ * from when it was actually sent, so time spent waiting behind slow requests
+ * is counted instead of silently omitted. Service times, from sending to
+ * receiving, are kept alongside for comparison.
+ */
+public class LoadResult {
+
+    /**
+     * Latencies of one kind of call
+     */
+    public static class MethodStats {
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        MethodStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the latency from when each call was due until it completed
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time from sending each call until it completed
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+
+    private final double targetRate;
+    private final int threads;
+    private final long measureStart;
+    private final List<MethodStats> methods = new ArrayList<MethodStats>();
+    private final LatencyHistogram dispatchLag = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong lastCompletion = new AtomicLong();
+    private volatile long abandoned = 0;
+    private volatile long dispatchOverrun = 0;
+    private volatile long runLength = 0;
+    private volatile long baselineServiceTime = Long.MAX_VALUE;
+
+    LoadResult(double targetRate, int threads, long measureStart, List<String> names) {
+        this.targetRate = targetRate;
+        this.threads = threads;
+        this.measureStart = measureStart;
+        this.lastCompletion.set(measureStart);
+
+        for (String name : names) {
+            methods.add(new MethodStats(name));
+        }
+    }
+
+    void record(int method, long intended, long dispatched, long begin, long end, boolean failed) {
+        MethodStats stats = methods.get(method);
+
+        if (failed) {
+            stats.errors.incrementAndGet();
+        } else {
+            stats.latency.record(end - intended);
+            stats.serviceTime.record(end - begin);
+        }
+
+        dispatchLag.record(dispatched - intended);
+        queueWait.record(begin - dispatched);
+        busyNanos.addAndGet(end - begin);
+
+        for (long last = lastCompletion.get(); end > last && !lastCompletion.compareAndSet(last, end);
+             last = lastCompletion.get()) {
+        }
+    }
+
+    /**
+     * @param overrun how long after the last request was due the generator got it sent
+     * @param runLength how long the run was scheduled to take
+     */
+    void setDispatchOverrun(long overrun, long runLength) {
+        this.dispatchOverrun = overrun;
+        this.runLength = runLength;
+    }
+
+    /**
+     * @param serviceTime the median service time of the lightest loaded run so far
+     */
+    void setBaselineServiceTime(long serviceTime) {
+        this.baselineServiceTime = serviceTime;
+    }
+
+    void setAbandoned(long abandoned) {
+        this.abandoned = abandoned;
+    }
+
+    /**
+     * @return the rate the requests were scheduled at, per second
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return the rate the requests were completed at, per second
+     */
+    public double getAchievedRate() {
+        long elapsed = lastCompletion.get() - measureStart;
+        return elapsed <= 0 ? 0 : getCompleted() * 1e9 / elapsed;
+    }
+
+    public long getCompleted() {
+        long completed = 0;
+
+        for (MethodStats stats : methods) {
+            completed += stats.latency.getCount() + stats.errors.get();
+        }
+
+        return completed;
+    }
+
+    public long getErrors() {
+        long errors = 0;
+
+        for (MethodStats stats : methods) {
+            errors += stats.errors.get();
+        }
+
+        return errors;
+    }
+
+    /**
+     * @return the number of requests still not done when the run gave up waiting
+     */
+    public long getAbandoned() {
+        return abandoned;
+    }
+
+    public List<MethodStats> getMethods() {
+        return Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * @return the latency of all successful calls together
+     */
+    public LatencyHistogram getLatency() {
+        LatencyHistogram all = new LatencyHistogram();
+
+        for (MethodStats stats : methods) {
+            all.add(stats.latency);
+        }
+
+        return all;
+    }
+
+    /**
+     * @return the service time of all successful calls together
+     */
+    public LatencyHistogram getServiceTime() {
+        LatencyHistogram all = new LatencyHistogram();
+
+        for (MethodStats stats : methods) {
+            all.add(stats.serviceTime);
+        }
+
+        return all;
+    }
+
+    /**
+     * @return how late the generator handed requests to the client threads
+     */
+    public LatencyHistogram getDispatchLag() {
+        return dispatchLag;
+    }
+
+    /**
+     * @return how long requests waited for a free client thread
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return the fraction of the client threads' time spent in calls
+     */
+    public double getThreadUtilization() {
+        long elapsed = lastCompletion.get() - measureStart;
+        return elapsed <= 0 ? 0 : (double) busyNanos.get() / ((double) elapsed * threads);
+    }
+
+    /**
+     * @return true if the completed rate fell clearly short of the target rate
+     */
+    public boolean isSaturated() {
+        return getAchievedRate() < 0.95 * targetRate || abandoned > 0;
+    }
+
+    /**
+     * Tells whether the load generator itself, rather than the server, limited the run
+     *
+     * @return why the client was the bottleneck, or null if it wasn't
+     */
+    public String getClientBottleneck() {
+        long interval = (long) (1e9 / targetRate);
+        long lag = dispatchLag.getPercentile(99);
+
+        if (dispatchOverrun > Math.max(10000000, runLength / 20)) {
+            return String.format("the generator finished sending %.0f ms late, this JVM can't issue %.0f requests/s",
+                                 dispatchOverrun / 1e6, targetRate);
+        }
+
+        if (lag > Math.max(10000000, 2 * interval)) {
+            return String.format("the generator fell up to %.1f ms behind its schedule, stalled by CPU, GC or " +
+                                 "timer resolution", lag / 1e6);
+        }
+
+        // Busy threads only hold the load back if the server is still answering about as fast
+        // as at lighter load, otherwise they are just waiting for a saturated server
+        LatencyHistogram serviceTime = getServiceTime();
+        long wait = queueWait.getPercentile(99);
+        double utilization = getThreadUtilization();
+
+        if (utilization > 0.8 && wait > serviceTime.getPercentile(99) &&
+            serviceTime.getPercentile(50) <= 2 * Math.min(baselineServiceTime, serviceTime.getPercentile(50))) {
+            return String.format("all %d client threads were busy (%.0f%%) and requests waited up to %.1f ms for one, " +
+                                 "more threads and connections could carry more load", threads, utilization * 100,
+                                 wait / 1e6);
+        }
+
+        return null;
+    }
+
+    /**
+     * Prints the latencies of each method
+     */
+    public void print(PrintStream out) {
+        out.printf("Target %.0f/s, achieved %.1f/s, %d completed, %d errors, %d abandoned, threads %.0f%% busy%n",
+                   targetRate, getAchievedRate(), getCompleted(), getErrors(), abandoned, getThreadUtilization() * 100);
+
+        for (MethodStats stats : methods) {
+            out.printf("%-20s latency %s%n%-20s service %s%n", stats.name, stats.latency, "", stats.serviceTime);
+
+            if (stats.errors.get() > 0) {
+                out.printf("%-20s errors  %d%n", "", stats.errors.get());
+            }
+        }
+
+        out.println("Dispatch lag " + dispatchLag);
+        out.println("Queue wait   " + queueWait);
+
+        String bottleneck = getClientBottleneck();
+
+        if (bottleneck != null) {
+            out.println("Client bottleneck: " + bottleneck);
+        }
+    }
+
+    /**
+     * Prints the throughput/latency curve of runs at increasing rates, one line per run
+     */
+    public static void printCurve(List<LoadResult> results, PrintStream out) {
+        out.printf("%10s %10s %10s %10s %10s %10s %6s  %s%n", "target/s", "achieved/s", "p50 ms", "p99 ms",
+                   "p99.9 ms", "svc p99 ms", "busy", "limit");
+
+        for (LoadResult result : results) {
+            LatencyHistogram latency = result.getLatency();
+            String limit = result.getClientBottleneck() != null ? "client" : result.isSaturated() ? "server" : "";
+
+            out.printf("%10.0f %10.1f %10.3f %10.3f %10.3f %10.3f %5.0f%%  %s%n", result.targetRate,
+                       result.getAchievedRate(), latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6,
+                       latency.getPercentile(99.9) / 1e6, result.getServiceTime().getPercentile(99) / 1e6,
+                       result.getThreadUtilization() * 100, limit);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.load;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * A stand-in for bitcoind answering the read-only calls the {@link LoadGenerator}
+ * makes with canned results, after a fixed service time.
+ *
+ * With a known service time and number of threads the server's capacity is
+ * known too, threads / service time calls per second, which makes it easy to
+ * tell the load generator's own limits from the server's.
+ */
+public class StubBitcoinServer {
+    private final int port;
+    private final int threads;
+    private final long serviceNanos;
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     * @param threads the number of calls served at the same time
+     * @param serviceTime how long each call takes
+     * @param unit the unit of serviceTime
+     */
+    public StubBitcoinServer(int port, int threads, long serviceTime, TimeUnit unit) {
+        this.port = port;
+        this.threads = threads;
+        this.serviceNanos = unit.toNanos(serviceTime);
+    }
+
+    public synchronized void start() throws IOException {
+        // The JDK server writes the headers and body of a response separately, and without
+        // this Nagle's algorithm holds back the body until the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        JSONObject response = new JSONObject();
+        int status = 200;
+
+        try {
+            JSONObject request = JSONParser.parseObject(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+            String method = request.optString("method");
+            JSONArray params = request.hasValue("params") ? request.getJSONArray("params") : new JSONArray();
+            response.put("id", request.get("id"));
+
+            long due = System.nanoTime() + serviceNanos;
+
+            for (long wait = serviceNanos; wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Object result = answer(method, params);
+
+            if (result == null) {
+                status = 500;
+                response.put("result", null);
+                response.put("error", new JSONObject().put("code", -32601).put("message", "Method not found"));
+            } else {
+                response.put("result", result);
+                response.put("error", null);
+            }
+        } catch (JSONException e) {
+            status = 500;
+            response.put("result", null);
+            response.put("error", new JSONObject().put("code", -32700).put("message", "Parse error"));
+        }
+
+        byte[] body = response.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static Object answer(String method, JSONArray params) {
+        if (method.equals("getbalance")) {
+            return new BigDecimal("12.50000000");
+        } else if (method.equals("getblockcount") || method.equals("getblocknumber")) {
+            return 105000;
+        } else if (method.equals("getconnectioncount")) {
+            return 8;
+        } else if (method.equals("validateaddress")) {
+            String address = params.size() > 0 ? params.getString(0) : "";
+            return new JSONObject().put("isvalid", true).put("address", address).put("ismine", false);
+        } else if (method.equals("listtransactions")) {
+            int count = params.size() > 1 ? params.getInt(1) : 10;
+            JSONArray transactions = new JSONArray(count);
+
+            for (int i = 0; i < count; i++) {
+                transactions.element(new JSONObject().put("account", "").put("category", "receive")
+                                                     .put("amount", new BigDecimal("0.05000000")).put("confirmations", 6 + i)
+                                                     .put("txid", "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b")
+                                                     .put("time", 1290000000L + i));
+            }
+
+            return transactions;
+        }
+
+        return null;
+    }
+}
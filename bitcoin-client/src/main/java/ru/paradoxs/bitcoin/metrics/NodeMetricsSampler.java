@@ -0,0 +1,103 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.metrics;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.ServerInfo;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Polls #getServerInfo() on a schedule and keeps the block count, connection
+ * count, difficulty and hashes per second in a {@link NodeMetricsStore}, so
+ * services can chart them from the store instead of each keeping samples.
+ */
+public class NodeMetricsSampler {
+    private final BitcoinClient    client;
+    private final NodeMetricsStore store;
+
+    private ScheduledFuture<?> task = null;
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure = null;
+
+    /**
+     * @param client the client polling the server
+     * @param store where the samples go
+     */
+    public NodeMetricsSampler(BitcoinClient client, NodeMetricsStore store) {
+        this.client = client;
+        this.store = store;
+    }
+
+    /**
+     * Polls the server once and records the sample
+     */
+    public void sample() {
+        ServerInfo info = client.getServerInfo();
+        store.record(System.currentTimeMillis(), info);
+        store.force();
+        samples.incrementAndGet();
+    }
+
+    /**
+     * Starts sampling in the background. A failed poll is counted and skipped.
+     *
+     * @param scheduler schedules the polls
+     * @param period the time between polls
+     * @param unit the unit of the period
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        if (task != null) {
+            throw new BitcoinClientException("The sampler is already started");
+        }
+
+        task = scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    lastFailure = e;
+                    failures.incrementAndGet();
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return why the last failed poll failed, or null if none has failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+}
@@ -0,0 +1,472 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ru.paradoxs.bitcoin.client.ServerInfo;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Keeps node metrics over time in a file of fixed size, mapped into memory.
+ *
+ * The file holds a ring of fixed width records for each of a few levels of
+ * resolution. Level 0 holds every sample, each coarser level one record per
+ * interval, with the mean, the maximum and the number of samples in it. A
+ * sample is added to every level at once, so the coarse levels are always up
+ * to date, and each level forgets its oldest records when its ring is full.
+ * The record being filled for each level is kept in the file as well, so a
+ * restart continues where it stopped.
+ *
+ * A {@link Range} reads the records straight from the mapped file, without
+ * copying them, so memory use is the same whatever the history held. A range
+ * reaching the present ends with the record being filled, so the latest
+ * samples show on every level.
+ *
+ * The file starts with a header: a magic number, the format version, the
+ * number of levels and the record size, then for each level its resolution,
+ * capacity, the number of records ever written to it, and its record being
+ * filled. The rings follow, from the first page boundary. All numbers are big
+ * endian.
+ */
+public class NodeMetricsStore {
+    private static final int MAGIC   = 0x4e4d5453;     // "NMTS"
+    private static final int VERSION = 1;
+
+    static final int RECORD_SIZE = 48;
+
+    // Offsets within a record
+    private static final int TIME            = 0;
+    private static final int SAMPLES         = 8;
+    private static final int MAX_CONNECTIONS = 12;
+    private static final int CONNECTIONS     = 16;
+    private static final int DIFFICULTY      = 24;
+    private static final int HASHES          = 32;
+    private static final int BLOCKS          = 40;
+
+    private static final int HEADER_SIZE       = 16;
+    private static final int LEVEL_HEADER_SIZE = 24 + RECORD_SIZE;
+    private static final int PAGE_SIZE         = 4096;
+
+    /**
+     * The default levels: every sample for a day at one a minute, minutes for a
+     * week, quarters of an hour for three months, and days for ten years
+     */
+    public static final long[] DEFAULT_RESOLUTIONS = { 0, 60000L, 900000L, 86400000L };
+    public static final int[]  DEFAULT_CAPACITIES  = { 1440, 10080, 8640, 3650 };
+
+    private final File file;
+    private final long[] resolutions;
+    private final int[]  capacities;
+    private final long[] ringOffsets;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Opens a store with the default levels
+     */
+    public NodeMetricsStore(File file) {
+        this(file, DEFAULT_RESOLUTIONS, DEFAULT_CAPACITIES);
+    }
+
+    /**
+     * Opens a store, creating the file if it doesn't exist
+     *
+     * @param file the file, which must have been created with the same levels
+     * @param resolutions the length of the interval of each level in milliseconds, finest first,
+     *                    0 for a level holding every sample
+     * @param capacities the number of records kept for each level
+     */
+    public NodeMetricsStore(File file, long[] resolutions, int[] capacities) {
+        if (resolutions.length == 0 || resolutions.length != capacities.length) {
+            throw new BitcoinClientException("Need one capacity for each resolution");
+        }
+
+        for (int level = 0; level < resolutions.length; level++) {
+            if (capacities[level] <= 0 || resolutions[level] < 0 ||
+                level > 0 && resolutions[level] <= resolutions[level - 1]) {
+                throw new BitcoinClientException("Resolutions must grow from level to level, and capacities be > 0");
+            }
+        }
+
+        this.file = file;
+        this.resolutions = resolutions.clone();
+        this.capacities = capacities.clone();
+        this.ringOffsets = new long[resolutions.length];
+
+        long offset = roundToPage(HEADER_SIZE + resolutions.length * LEVEL_HEADER_SIZE);
+
+        for (int level = 0; level < resolutions.length; level++) {
+            ringOffsets[level] = offset;
+            offset += (long) capacities[level] * RECORD_SIZE;
+        }
+
+        if (offset > Integer.MAX_VALUE) {
+            throw new BitcoinClientException("A store of " + offset + " bytes is too big to map");
+        }
+
+        boolean created = !file.exists() || file.length() == 0;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+
+            if (!created && randomAccessFile.length() != offset) {
+                randomAccessFile.close();
+                throw new BitcoinClientException(file + " is not a node metrics store with these levels");
+            }
+
+            randomAccessFile.setLength(offset);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, offset);
+        } catch (IOException e) {
+            throw new BitcoinClientException("Can't open " + file, e);
+        }
+
+        if (created) {
+            writeHeader();
+        } else if (!checkHeader()) {
+            close();
+            throw new BitcoinClientException(file + " is not a node metrics store with these levels");
+        }
+    }
+
+    /**
+     * Adds a sample to every level
+     *
+     * @param time the time of the sample, in milliseconds since 1970
+     */
+    public synchronized void record(long time, long blocks, int connections, double difficulty, double hashesPerSecond) {
+        for (int level = 0; level < resolutions.length; level++) {
+            int pending = pendingOffset(level);
+            long resolution = resolutions[level];
+            int samples = buffer.getInt(pending + SAMPLES);
+
+            if (resolution == 0) {
+                // Every sample is a record, kept in time order even if the clock is set back
+                long last = samples == 0 ? time : Math.max(time, buffer.getLong(pending + TIME));
+                start(pending, last, blocks, connections, difficulty, hashesPerSecond);
+                append(level, pending);
+                continue;
+            }
+
+            long bucket = time - time % resolution;
+
+            if (samples > 0 && bucket > buffer.getLong(pending + TIME)) {
+                append(level, pending);
+                samples = 0;
+            }
+
+            if (samples == 0) {
+                start(pending, bucket, blocks, connections, difficulty, hashesPerSecond);
+            } else {
+                // Running means, so nothing but the record itself is needed to add to it
+                int n = samples + 1;
+                buffer.putInt(pending + SAMPLES, n);
+                buffer.putInt(pending + MAX_CONNECTIONS, Math.max(connections, buffer.getInt(pending + MAX_CONNECTIONS)));
+                addToMean(pending + CONNECTIONS, connections, n);
+                addToMean(pending + DIFFICULTY, difficulty, n);
+                addToMean(pending + HASHES, hashesPerSecond, n);
+                buffer.putLong(pending + BLOCKS, Math.max(blocks, buffer.getLong(pending + BLOCKS)));
+            }
+        }
+    }
+
+    /**
+     * Adds a sample from getinfo to every level
+     */
+    public void record(long time, ServerInfo info) {
+        record(time, info.getBlocks(), info.getConnections(), info.getDifficulty().doubleValue(),
+               info.getHashesPerSecond());
+    }
+
+    /**
+     * Returns the records of the finest level that still goes back to <code>from</code>,
+     * or of the coarsest level if none does
+     *
+     * @param from the earliest time, in milliseconds since 1970
+     * @param to the latest time, in milliseconds since 1970
+     */
+    public synchronized Range range(long from, long to) {
+        for (int level = 0; level < resolutions.length - 1; level++) {
+            long head = head(level);
+            long oldest = Math.max(0, head - capacities[level]);
+
+            if (head > oldest && timeAt(level, oldest) <= from) {
+                return range(level, from, to);
+            }
+        }
+
+        return range(resolutions.length - 1, from, to);
+    }
+
+    /**
+     * Returns the records of a level from <code>from</code> up to and including <code>to</code>.
+     * Records are included by the start of their interval, the last one may be the one still
+     * being filled.
+     */
+    public synchronized Range range(int level, long from, long to) {
+        long head = head(level);
+        long oldest = Math.max(0, head - capacities[level]);
+        long first = firstAtOrAfter(level, oldest, head, from);
+        long end = to == Long.MAX_VALUE ? head : firstAtOrAfter(level, first, head, to + 1);
+
+        // On the level of every sample the record being filled is already the newest in the ring
+        int pending = pendingOffset(level);
+        long pendingTime = buffer.getLong(pending + TIME);
+        boolean withPending = resolutions[level] > 0 && buffer.getInt(pending + SAMPLES) > 0 &&
+                              end == head && pendingTime >= from && pendingTime <= to;
+
+        return new Range(level, first, (int) (end - first), withPending);
+    }
+
+    /**
+     * @return the number of levels
+     */
+    public int getLevels() {
+        return resolutions.length;
+    }
+
+    /**
+     * @return the length of the interval of a level in milliseconds, 0 if it holds every sample
+     */
+    public long getResolution(int level) {
+        return resolutions[level];
+    }
+
+    /**
+     * @return the number of records a level holds now
+     */
+    public synchronized int size(int level) {
+        return (int) Math.min(head(level), capacities[level]);
+    }
+
+    /**
+     * Writes changes out to the file, which the operating system otherwise does when it likes
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    public synchronized void close() {
+        buffer.force();
+
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            throw new BitcoinClientException("Can't close " + file, e);
+        }
+    }
+
+    /**
+     * Records read straight from the file, oldest first. Reading a record the ring
+     * has written over since the range was made throws an exception. When the range
+     * ends with the record being filled, that record keeps changing as samples are
+     * added, and is the next interval's once its own has passed.
+     */
+    public class Range {
+        private final int     level;
+        private final long    first;
+        private final int     size;
+        private final boolean withPending;
+
+        Range(int level, long first, int size, boolean withPending) {
+            this.level = level;
+            this.first = first;
+            this.size = size;
+            this.withPending = withPending;
+        }
+
+        public int size() {
+            return withPending ? size + 1 : size;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the length of the interval of each record in milliseconds, 0 if each record is one sample
+         */
+        public long getResolution() {
+            return resolutions[level];
+        }
+
+        /**
+         * @return the time of the sample, or the start of the interval
+         */
+        public long getTime(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getLong(offset(i) + TIME);
+            }
+        }
+
+        public int getSamples(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getInt(offset(i) + SAMPLES);
+            }
+        }
+
+        public long getBlocks(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getLong(offset(i) + BLOCKS);
+            }
+        }
+
+        /**
+         * @return the mean number of connections over the interval
+         */
+        public double getConnections(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getDouble(offset(i) + CONNECTIONS);
+            }
+        }
+
+        public int getMaxConnections(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getInt(offset(i) + MAX_CONNECTIONS);
+            }
+        }
+
+        public double getDifficulty(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getDouble(offset(i) + DIFFICULTY);
+            }
+        }
+
+        public double getHashesPerSecond(int i) {
+            synchronized (NodeMetricsStore.this) {
+                return buffer.getDouble(offset(i) + HASHES);
+            }
+        }
+
+        private int offset(int i) {
+            if (i < 0 || i >= size()) {
+                throw new IndexOutOfBoundsException("Record " + i + " of " + size());
+            }
+
+            if (i == size) {
+                return pendingOffset(level);
+            }
+
+            if (first + i < head(level) - capacities[level]) {
+                throw new BitcoinClientException("Record " + i + " has been written over");
+            }
+
+            return recordOffset(level, first + i);
+        }
+    }
+
+    private void start(int pending, long time, long blocks, int connections, double difficulty, double hashesPerSecond) {
+        buffer.putLong(pending + TIME, time);
+        buffer.putInt(pending + SAMPLES, 1);
+        buffer.putInt(pending + MAX_CONNECTIONS, connections);
+        buffer.putDouble(pending + CONNECTIONS, connections);
+        buffer.putDouble(pending + DIFFICULTY, difficulty);
+        buffer.putDouble(pending + HASHES, hashesPerSecond);
+        buffer.putLong(pending + BLOCKS, blocks);
+    }
+
+    private void addToMean(int offset, double value, int n) {
+        double mean = buffer.getDouble(offset);
+        buffer.putDouble(offset, mean + (value - mean) / n);
+    }
+
+    /**
+     * Copies the pending record of a level into its ring
+     */
+    private void append(int level, int pending) {
+        long head = head(level);
+        int target = recordOffset(level, head);
+
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            buffer.putLong(target + i, buffer.getLong(pending + i));
+        }
+
+        // The head is moved last, so a crash before it leaves the ring as it was
+        buffer.putLong(levelOffset(level) + 16, head + 1);
+    }
+
+    private long firstAtOrAfter(int level, long low, long high, long time) {
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+
+            if (timeAt(level, middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private long timeAt(int level, long index) {
+        return buffer.getLong(recordOffset(level, index) + TIME);
+    }
+
+    private long head(int level) {
+        return buffer.getLong(levelOffset(level) + 16);
+    }
+
+    private int recordOffset(int level, long index) {
+        return (int) (ringOffsets[level] + (index % capacities[level]) * RECORD_SIZE);
+    }
+
+    private static int levelOffset(int level) {
+        return HEADER_SIZE + level * LEVEL_HEADER_SIZE;
+    }
+
+    private static int pendingOffset(int level) {
+        return levelOffset(level) + 24;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, resolutions.length);
+        buffer.putInt(12, RECORD_SIZE);
+
+        for (int level = 0; level < resolutions.length; level++) {
+            buffer.putLong(levelOffset(level), resolutions[level]);
+            buffer.putInt(levelOffset(level) + 8, capacities[level]);
+            buffer.putLong(levelOffset(level) + 16, 0);
+        }
+
+        buffer.force();
+    }
+
+    private boolean checkHeader() {
+        boolean same = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(12) == RECORD_SIZE &&
+                       buffer.getInt(8) == resolutions.length;
+
+        for (int level = 0; same && level < resolutions.length; level++) {
+            same = buffer.getLong(levelOffset(level)) == resolutions[level] &&
+                   buffer.getInt(levelOffset(level) + 8) == capacities[level];
+        }
+
+        return same;
+    }
+
+    private static long roundToPage(long size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeMetricsStore{file=" + file + ", levels=" + resolutions.length + '}';
+    }
+}
@@ -0,0 +1,622 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.mining;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.WorkUnit;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Hands out work from a single Bitcoin server to many local workers, so the
+ * load on the server doesn't grow with the number of workers.
+ *
+ * Each unit of work from getwork is split into non-overlapping nonce ranges,
+ * and a new unit, with a new extranonce rolled by the server, is only fetched
+ * once all ranges of the current one are handed out, or it has grown too old.
+ * Workers send back the nonces they found, which are checked here, and only
+ * those actually solving a block are submitted to the server. Shares for the
+ * last {@value #MAX_UNITS} units are taken, older ones are rejected as stale.
+ *
+ * By default workers are handed the target of the block, so they only report
+ * solved blocks. With {@link #setShareTarget(String)} they are handed an easier
+ * target instead, and the shares meeting it show their progress.
+ *
+ * Given a {@link WorkSupplier}, work is taken from its prefetched queue instead,
+ * and all handed out ranges are dropped as soon as the block chain grows, so
+ * shares for the old block are rejected as stale.
+ *
+ * The protocol is line based text over a socket, one request and one reply at a time:
+ * <pre>
+ *   WORK                  -&gt; JOB &lt;job&gt; &lt;data&gt; &lt;midstate&gt; &lt;target&gt; &lt;first nonce&gt; &lt;last nonce + 1&gt;
+ *   SHARE &lt;job&gt; &lt;nonce&gt;   -&gt; ACCEPTED | REJECTED &lt;reason&gt;
+ *   QUIT
+ * </pre>
+ * The data, midstate and target are hex as sent by getwork, the nonces are
+ * unsigned decimals. Unknown requests get an ERROR reply.
+ */
+public class WorkServer {
+    private static final long NONCE_SPACE = 1L << 32;
+    private static final int  MAX_UNITS = 4;
+
+    private final BitcoinClient client;
+    private final WorkSupplier  supplier;
+    private final int           port;
+    private final long          rangeSize;
+
+    private long   maxWorkAgeMillis = 30000;
+    private byte[] shareTarget = null;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock fetching = new ReentrantLock();
+    private long     generation = 0;
+    private WorkUnit current = null;
+    private WorkSupplier.Work currentWork = null;
+    private IssuedUnit currentIssued = null;
+    private long     currentFetched = 0;
+    private long     nextNonce = NONCE_SPACE;
+    private long     nextJobId = 1;
+    private final Map<Long, IssuedUnit> issued = new LinkedHashMap<Long, IssuedUnit>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, IssuedUnit> eldest) {
+            return size() > MAX_UNITS;
+        }
+    };
+
+    private final AtomicLong unitsFetched = new AtomicLong();
+    private final AtomicLong jobsIssued = new AtomicLong();
+    private final AtomicLong sharesAccepted = new AtomicLong();
+    private final AtomicLong sharesRejected = new AtomicLong();
+    private final AtomicLong blocksSubmitted = new AtomicLong();
+    private final AtomicLong blocksAccepted = new AtomicLong();
+
+    private ServerSocket    serverSocket = null;
+    private ExecutorService connections = null;
+
+    /**
+     * @param client the client fetching work from the server
+     * @param port the local port to listen on, 0 for any free port
+     * @param rangeSize the number of nonces in each range handed out, at most 2^32
+     */
+    public WorkServer(BitcoinClient client, int port, long rangeSize) {
+        this(client, null, port, rangeSize);
+    }
+
+    /**
+     * @param client the client submitting solved blocks to the server
+     * @param supplier supplies the work, or null to fetch it with the client when needed
+     * @param port the local port to listen on, 0 for any free port
+     * @param rangeSize the number of nonces in each range handed out, at most 2^32
+     */
+    public WorkServer(BitcoinClient client, WorkSupplier supplier, int port, long rangeSize) {
+        if (rangeSize <= 0 || rangeSize > NONCE_SPACE) {
+            throw new BitcoinClientException("rangeSize must be > 0 and <= 2^32");
+        }
+
+        this.client = client;
+        this.supplier = supplier;
+        this.port = port;
+        this.rangeSize = rangeSize;
+
+        if (supplier != null) {
+            supplier.addListener(new WorkSupplier.Listener() {
+                public void chainAdvanced(int blockCount) {
+                    invalidateWork();
+                }
+            });
+        }
+    }
+
+    /**
+     * After this long, a new unit of work is fetched even though the current one still has
+     * nonces left, so that new transactions get included
+     *
+     * @param maxWorkAgeMillis the maximum age, 30 seconds by default
+     */
+    public void setMaxWorkAgeMillis(long maxWorkAgeMillis) {
+        this.maxWorkAgeMillis = maxWorkAgeMillis;
+    }
+
+    /**
+     * Hands workers an easier target than the block's, so that they find shares
+     * often enough to show their progress. Shares meeting it are accepted, and
+     * those also meeting the block's target are submitted. Takes effect with the
+     * next unit of work.
+     *
+     * @param shareTarget the target in hex, little endian as sent by getwork, or null for the block's target
+     */
+    public void setShareTarget(String shareTarget) {
+        byte[] target = null;
+
+        if (shareTarget != null) {
+            if (shareTarget.length() != 64) {
+                throw new BitcoinClientException("The share target must be 64 hex characters");
+            }
+
+            target = new byte[32];
+
+            for (int i = 0; i < target.length; i++) {
+                target[i] = (byte) Integer.parseInt(shareTarget.substring(2 * i, 2 * i + 2), 16);
+            }
+        }
+
+        lock.lock();
+
+        try {
+            this.shareTarget = target;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts listening on the loopback interface
+     */
+    public synchronized void start() {
+        if (serverSocket != null) {
+            throw new BitcoinClientException("The work server is already started");
+        }
+
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        } catch (IOException e) {
+            throw new BitcoinClientException("Exception when starting the work server on port: " + port, e);
+        }
+
+        connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "work-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final ServerSocket listening = serverSocket;
+
+        connections.execute(new Runnable() {
+            public void run() {
+                accept(listening);
+            }
+        });
+    }
+
+    /**
+     * Stops listening and disconnects all workers
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+
+        connections.shutdownNow();
+        serverSocket = null;
+        connections = null;
+    }
+
+    /**
+     * @return the port the server listens on, useful if it was started on port 0
+     */
+    public synchronized int getLocalPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    private void accept(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            try {
+                final Socket socket = listening.accept();
+
+                connections.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // The server socket was closed
+            } catch (RuntimeException e) {
+                // The pool was shut down while accepting
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        MessageDigest sha256 = newSha256();
+
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] words = line.trim().split(" +");
+
+                if (words[0].equals("QUIT")) {
+                    break;
+                }
+
+                out.write(handle(words, sha256));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The worker went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    String handle(String[] words, MessageDigest sha256) {
+        try {
+            if (words[0].equals("WORK") && words.length == 1) {
+                Job job = nextJob();
+                return "JOB " + job.id + " " + job.issued.hex + " " + job.start + " " + job.end;
+            }
+
+            if (words[0].equals("SHARE") && words.length == 3) {
+                return checkShare(Long.parseLong(words[1]), Long.parseLong(words[2]), sha256);
+            }
+
+            return "ERROR unknown request";
+        } catch (NumberFormatException e) {
+            return "ERROR bad number";
+        } catch (BitcoinClientException e) {
+            return "ERROR " + e.getMessage();
+        } catch (RuntimeException e) {
+            // HttpSessionException and the like, the server can't be reached
+            return "ERROR " + e.getClass().getSimpleName();
+        }
+    }
+
+    private Job nextJob() {
+        for (;;) {
+            Job job = issueJob();
+
+            if (job != null) {
+                return job;
+            }
+
+            // The lock isn't held while fetching, since the supplier invalidates work from the
+            // same thread that refills its queue. One fetch at a time, so that workers running
+            // out of work together share the new unit.
+            fetching.lock();
+
+            try {
+                long seen;
+
+                lock.lock();
+
+                try {
+                    if (hasWork(System.currentTimeMillis())) {
+                        continue;
+                    }
+
+                    seen = generation;
+                } finally {
+                    lock.unlock();
+                }
+
+                WorkSupplier.Work work = fetchWork();
+
+                lock.lock();
+
+                try {
+                    if (seen == generation) {
+                        setCurrent(work, System.currentTimeMillis());
+                    } else if (supplier != null) {
+                        supplier.finished(work);        // The chain grew while fetching
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                fetching.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the next range of the current unit of work, or null if a new unit is needed
+     */
+    private Job issueJob() {
+        lock.lock();
+
+        try {
+            if (!hasWork(System.currentTimeMillis())) {
+                return null;
+            }
+
+            Job job = new Job(nextJobId++, currentIssued, nextNonce, Math.min(nextNonce + rangeSize, NONCE_SPACE));
+            nextNonce = job.end;
+            currentIssued.nextJobId = nextJobId;
+            jobsIssued.incrementAndGet();
+
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasWork(long now) {
+        return current != null && nextNonce < NONCE_SPACE && now - currentFetched <= maxWorkAgeMillis;
+    }
+
+    /**
+     * Fetches a new unit of work, called without the lock held
+     */
+    protected WorkSupplier.Work fetchWork() {
+        unitsFetched.incrementAndGet();
+
+        if (supplier == null) {
+            return new WorkSupplier.Work(client.getWorkUnit(), -1);
+        }
+
+        try {
+            return supplier.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinClientException("Interrupted while waiting for work", e);
+        }
+    }
+
+    private void setCurrent(WorkSupplier.Work work, long now) {
+        if (currentWork != null && supplier != null) {
+            supplier.finished(currentWork);
+        }
+
+        WorkUnit unit = work.getUnit();
+        currentWork = work;
+        current = unit;
+        byte[] target = shareTarget != null && isBelow(unit.getTarget(), shareTarget) ? shareTarget : unit.getTarget();
+        String hex = new String(unit.encodeSolution(unit.getNonce(), new char[WorkUnit.DATA_LENGTH * 2])) + " " +
+                     toHex(unit.getMidstate()) + " " + toHex(target);
+        currentIssued = new IssuedUnit(unit, hex, target, nextJobId);
+        issued.put(nextJobId, currentIssued);
+        currentFetched = now;
+        nextNonce = 0;
+    }
+
+    /**
+     * Drops all handed out work, so that shares for it are rejected as stale,
+     * and makes the next request fetch a new unit of work. Work being fetched
+     * while this is called is thrown away when it arrives.
+     */
+    protected void invalidateWork() {
+        lock.lock();
+
+        try {
+            generation++;
+            current = null;
+            currentIssued = null;
+            issued.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String checkShare(long jobId, long nonce, MessageDigest sha256) {
+        Job job;
+
+        lock.lock();
+
+        try {
+            job = findJob(jobId);
+
+            if (job == null) {
+                return reject("stale");
+            }
+
+            if (nonce < job.start || nonce >= job.end) {
+                return reject("out-of-range");
+            }
+
+            if (!job.issued.submitted.add(nonce)) {
+                return reject("duplicate");
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        WorkUnit unit = job.issued.unit;
+        byte[] header = new byte[WorkUnit.HEADER_LENGTH];
+        unit.getHeader((int) nonce, header, 0);
+        byte[] hash = sha256.digest(sha256.digest(header));
+
+        if (isBelow(job.issued.target, hash)) {
+            return reject("above-target");
+        }
+
+        if (!unit.meetsTarget(hash)) {
+            sharesAccepted.incrementAndGet();
+            return "ACCEPTED";
+        }
+
+        blocksSubmitted.incrementAndGet();
+
+        if (!client.getWork(unit, (int) nonce)) {
+            return reject("refused-by-server");
+        }
+
+        sharesAccepted.incrementAndGet();
+        blocksAccepted.incrementAndGet();
+        return "ACCEPTED";
+    }
+
+    /**
+     * Works out a handed out range from its job id, called with the lock held
+     *
+     * @return the range, or null if its unit was dropped or it wasn't handed out
+     */
+    private Job findJob(long jobId) {
+        for (IssuedUnit unit : issued.values()) {
+            if (jobId >= unit.firstJobId && jobId < unit.nextJobId) {
+                long start = (jobId - unit.firstJobId) * rangeSize;
+                return new Job(jobId, unit, start, Math.min(start + rangeSize, NONCE_SPACE));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Compares 256 bit little endian numbers, such as hashes and targets
+     */
+    private static boolean isBelow(byte[] a, byte[] b) {
+        for (int i = 31; i >= 0; i--) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+
+            if (x != y) {
+                return x < y;
+            }
+        }
+
+        return false;
+    }
+
+    private String reject(String reason) {
+        sharesRejected.incrementAndGet();
+        return "REJECTED " + reason;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new BitcoinClientException("SHA-256 isn't available", e);
+        }
+    }
+
+    private static String toHex(int[] words) {
+        StringBuilder hex = new StringBuilder(words.length * 8);
+
+        for (int word : words) {
+            String digits = Integer.toHexString(word);
+
+            for (int i = digits.length(); i < 8; i++) {
+                hex.append('0');
+            }
+
+            hex.append(digits);
+        }
+
+        return hex.toString();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >>> 4) & 0x0f, 16)).append(Character.forDigit(b & 0x0f, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * @return the number of units of work fetched from the server
+     */
+    public long getUnitsFetched() {
+        return unitsFetched.get();
+    }
+
+    public long getJobsIssued() {
+        return jobsIssued.get();
+    }
+
+    /**
+     * @return the number of shares meeting the share target, including solved blocks
+     */
+    public long getSharesAccepted() {
+        return sharesAccepted.get();
+    }
+
+    public long getSharesRejected() {
+        return sharesRejected.get();
+    }
+
+    public long getBlocksSubmitted() {
+        return blocksSubmitted.get();
+    }
+
+    public long getBlocksAccepted() {
+        return blocksAccepted.get();
+    }
+
+    /**
+     * A unit of work and the ranges handed out of it, which have consecutive job ids
+     */
+    private static class IssuedUnit {
+        final WorkUnit  unit;
+        final String    hex;
+        final byte[]    target;
+        final long      firstJobId;
+        long            nextJobId;
+        final Set<Long> submitted = new HashSet<Long>();
+
+        IssuedUnit(WorkUnit unit, String hex, byte[] target, long firstJobId) {
+            this.unit = unit;
+            this.hex = hex;
+            this.target = target;
+            this.firstJobId = firstJobId;
+            this.nextJobId = firstJobId;
+        }
+    }
+
+    private static class Job {
+        final long       id;
+        final IssuedUnit issued;
+        final long       start;
+        final long       end;
+
+        Job(long id, IssuedUnit issued, long start, long end) {
+            this.id = id;
+            this.issued = issued;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
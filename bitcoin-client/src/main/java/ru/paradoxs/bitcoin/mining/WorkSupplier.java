@@ -0,0 +1,319 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.mining;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.WorkUnit;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Keeps a few units of work fetched ahead of time, so that a miner never has to
+ * wait for getwork, and throws them away as soon as the block chain grows.
+ *
+ * A background thread refills the queue and polls getblockcount, both on its
+ * own and after each getwork. When the count changes, queued work is dropped, work being hashed is marked stale, and the
+ * listeners are told. Miners hand each unit back with #finished(Work) when
+ * they stop hashing it, which is what the time spent on stale work, and the
+ * time spent waiting for work, are measured from.
+ */
+public class WorkSupplier {
+
+    /**
+     * Told when the block chain has grown, and all work handed out is stale
+     */
+    public interface Listener {
+        void chainAdvanced(int blockCount);
+    }
+
+    private final BitcoinClient client;
+    private final int           queueSize;
+    private final long          pollIntervalMillis;
+
+    private final LinkedBlockingQueue<Work> queue = new LinkedBlockingQueue<Work>();
+    private final Set<Work> handedOut = Collections.newSetFromMap(new ConcurrentHashMap<Work, Boolean>());
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Object refill = new Object();
+
+    private volatile int     blockCount = -1;
+    private volatile boolean running = false;
+    private volatile RuntimeException lastError = null;
+    private Thread thread = null;
+
+    private final AtomicLong hashingNanos = new AtomicLong();
+    private final AtomicLong staleNanos = new AtomicLong();
+    private final AtomicLong idleNanos = new AtomicLong();
+    private final AtomicLong unitsFetched = new AtomicLong();
+    private final AtomicLong unitsDropped = new AtomicLong();
+
+    /**
+     * @param client the client fetching work from the server
+     * @param queueSize the number of units of work to keep ready
+     * @param pollIntervalMillis how often to check whether the block chain has grown
+     */
+    public WorkSupplier(BitcoinClient client, int queueSize, long pollIntervalMillis) {
+        if (queueSize <= 0) {
+            throw new BitcoinClientException("queueSize must be > 0");
+        }
+
+        this.client = client;
+        this.queueSize = queueSize;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                supply();
+            }
+        }, "work-supplier");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Takes the next unit of work, waiting for one if none is ready
+     *
+     * @return fresh work, to be handed back with #finished(Work)
+     */
+    public Work take() throws InterruptedException {
+        long start = System.nanoTime();
+        Work work;
+
+        for (;;) {
+            signalRefill();
+            work = queue.take();
+
+            if (work.blockCount == blockCount) {
+                break;
+            }
+
+            unitsDropped.incrementAndGet();
+        }
+
+        long now = System.nanoTime();
+        idleNanos.addAndGet(now - start);
+        work.taken = now;
+        handedOut.add(work);
+        signalRefill();
+
+        return work;
+    }
+
+    /**
+     * Hands back work that is no longer being hashed
+     */
+    public void finished(Work work) {
+        if (!handedOut.remove(work)) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        hashingNanos.addAndGet(now - work.taken);
+
+        long staleSince = work.staleSince;
+
+        if (staleSince != 0) {
+            staleNanos.addAndGet(now - Math.max(staleSince, work.taken));
+        }
+    }
+
+    /**
+     * @return true if the block chain has grown since the work was fetched
+     */
+    public boolean isStale(Work work) {
+        return work.blockCount != blockCount;
+    }
+
+    private void supply() {
+        long nextPoll = 0;
+
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+
+                if (now >= nextPoll) {
+                    checkBlockCount();
+                    nextPoll = now + pollIntervalMillis;
+                }
+
+                if (queue.size() < queueSize) {
+                    fetch();
+                    nextPoll = System.currentTimeMillis() + pollIntervalMillis;
+                    continue;
+                }
+
+                synchronized (refill) {
+                    if (queue.size() >= queueSize) {
+                        refill.wait(Math.max(1, nextPoll - System.currentTimeMillis()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                lastError = e;
+
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void checkBlockCount() {
+        int count = client.getBlockCount();
+
+        if (count == blockCount) {
+            return;
+        }
+
+        blockCount = count;
+        long now = System.nanoTime();
+        unitsDropped.addAndGet(queue.size());
+        queue.clear();
+
+        for (Work work : handedOut) {
+            if (work.staleSince == 0) {
+                work.staleSince = now;
+            }
+        }
+
+        for (Listener listener : listeners) {
+            listener.chainAdvanced(count);
+        }
+    }
+
+    /**
+     * Fetches a unit of work and polls the block count right after, since the
+     * chain may have grown while the server made it for the old block
+     */
+    private void fetch() {
+        int count = blockCount;
+        WorkUnit unit = client.getWorkUnit();
+        unitsFetched.incrementAndGet();
+        checkBlockCount();
+
+        if (count != blockCount) {
+            unitsDropped.incrementAndGet();
+            return;
+        }
+
+        queue.add(new Work(unit, count));
+    }
+
+    private void signalRefill() {
+        synchronized (refill) {
+            refill.notifyAll();
+        }
+    }
+
+    /**
+     * @return the share of the time miners spent hashing stale work
+     */
+    public double getStaleFraction() {
+        long total = hashingNanos.get() + idleNanos.get();
+        return total == 0 ? 0 : (double) staleNanos.get() / total;
+    }
+
+    /**
+     * @return the share of the time miners spent waiting for work
+     */
+    public double getIdleFraction() {
+        long total = hashingNanos.get() + idleNanos.get();
+        return total == 0 ? 0 : (double) idleNanos.get() / total;
+    }
+
+    /**
+     * @return the share of the time miners wasted, either hashing stale work or waiting for work
+     */
+    public double getWastedFraction() {
+        return getStaleFraction() + getIdleFraction();
+    }
+
+    public long getUnitsFetched() {
+        return unitsFetched.get();
+    }
+
+    /**
+     * @return the number of fetched units thrown away before anyone hashed them
+     */
+    public long getUnitsDropped() {
+        return unitsDropped.get();
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the last exception from the server, or null if there was none
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * A unit of work, together with the block count it was fetched at
+     */
+    public static class Work {
+        private final WorkUnit unit;
+        private final int      blockCount;
+        private volatile long  taken = 0;
+        private volatile long  staleSince = 0;
+
+        Work(WorkUnit unit, int blockCount) {
+            this.unit = unit;
+            this.blockCount = blockCount;
+        }
+
+        public WorkUnit getUnit() {
+            return unit;
+        }
+
+        public int getBlockCount() {
+            return blockCount;
+        }
+    }
+}
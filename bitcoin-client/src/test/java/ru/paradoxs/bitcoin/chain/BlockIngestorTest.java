@@ -0,0 +1,260 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.BlockInfo;
+import ru.paradoxs.bitcoin.http.BatchTransport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Reads made up block chains from a transport standing in for the server.
+ */
+public class BlockIngestorTest {
+    private static final String GENESIS =
+        "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3" +
+        "888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c0101000000010000000000000000000000000000000000000000000000000000" +
+        "000000000000ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e2062" +
+        "72696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe554827" +
+        "1967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5f" +
+        "ac00000000";
+
+    private File checkpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        checkpoint = File.createTempFile("blocks", ".checkpoint");
+        checkpoint.delete();
+    }
+
+    @After
+    public void tearDown() {
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testDecodesTheGenesisBlock() {
+        BlockInfo block = BlockInfo.decode(GENESIS, 0);
+
+        assertEquals("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f", block.getHash());
+        assertNull(block.getPreviousHash());
+        assertEquals(1231006505L, block.getTime());
+        assertEquals(285, block.getSize());
+        assertEquals(1, block.getTxIds().size());
+        assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", block.getTxIds().get(0));
+        assertEquals(block.getMerkleRoot(), block.getTxIds().get(0));
+    }
+
+    @Test
+    public void testDeliversInOrderAndResumes() {
+        Chain chain = new Chain();
+        chain.extend(250, 0);
+        Recorder recorder = new Recorder();
+        BlockIngestor ingestor = ingestor(chain, recorder);
+
+        assertEquals(250, ingestor.ingest());
+        assertEquals(chain.hashes, recorder.hashes);
+
+        chain.extend(50, 0);
+
+        assertEquals(50, ingestor(chain, recorder).ingest());
+        assertEquals(chain.hashes, recorder.hashes);
+        assertEquals(Arrays.asList(249), recorder.rewinds);
+    }
+
+    @Test
+    public void testRewindsToTheCheckpointAfterACrash() throws Exception {
+        Chain chain = new Chain();
+        chain.extend(100, 0);
+        Recorder recorder = new Recorder();
+
+        assertEquals(100, ingestor(chain, recorder).ingest());
+
+        // As if the run had died after writing the checkpoint at 80 blocks
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(checkpoint));
+
+        for (String line = reader.readLine(); line != null && !line.startsWith("80 "); line = reader.readLine()) {
+            lines.add(line);
+        }
+
+        reader.close();
+        Writer writer = new FileWriter(checkpoint);
+
+        for (String line : lines) {
+            writer.write(line + "\n");
+        }
+
+        writer.close();
+
+        assertEquals(20, ingestor(chain, recorder).ingest());
+        assertEquals(Arrays.asList(79), recorder.rewinds);
+        assertEquals(chain.hashes, recorder.hashes);
+    }
+
+    @Test
+    public void testRewindsAfterReorganization() {
+        Chain chain = new Chain();
+        chain.extend(100, 0);
+        Recorder recorder = new Recorder();
+
+        assertEquals(100, ingestor(chain, recorder).ingest());
+
+        chain.truncate(90);
+        chain.extend(20, 1);
+
+        assertEquals(20, ingestor(chain, recorder).ingest());
+        assertEquals(Arrays.asList(89), recorder.rewinds);
+        assertEquals(chain.hashes, recorder.hashes);
+    }
+
+    private BlockIngestor ingestor(Chain chain, Recorder recorder) {
+        BlockIngestor ingestor = new BlockIngestor(new BitcoinClient(chain), recorder, checkpoint);
+        ingestor.setHashBatchSize(30);
+        ingestor.setWindow(8);
+        ingestor.setFetchThreads(3);
+        ingestor.setDecodeThreads(2);
+        ingestor.setCheckpointInterval(40);
+        return ingestor;
+    }
+
+    private static class Recorder implements BlockIngestor.Consumer {
+        final List<String>  hashes = new ArrayList<String>();
+        final List<Integer> rewinds = new ArrayList<Integer>();
+
+        public void accept(BlockInfo block) {
+            assertEquals(hashes.size(), block.getHeight());
+            hashes.add(block.getHash());
+        }
+
+        public void rewind(int height) {
+            rewinds.add(height);
+
+            while (hashes.size() > height + 1) {
+                hashes.remove(hashes.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * A block chain of blocks holding only a coinbase transaction, answering
+     * the calls the ingestor makes
+     */
+    private static class Chain implements BatchTransport {
+        final List<String> hashes = new ArrayList<String>();
+        final List<String> blocks = new ArrayList<String>();
+
+        synchronized void extend(int count, int fork) {
+            for (int i = 0; i < count; i++) {
+                int height = blocks.size();
+                String previous = height == 0 ? repeat("00", 32) : reverse(hashes.get(height - 1));
+                String coinbase = "01000000" + "01" + repeat("00", 32) + "ffffffff" +
+                                  "05" + "04" + littleEndian(height) + "ffffffff" +
+                                  "01" + "00f2052a01000000" + "00" + "00000000";
+                String header = "01000000" + previous + repeat("00", 32) +
+                                littleEndian(1231006505 + height * 600) + "ffff001d" + littleEndian(fork);
+                String block = header + "01" + coinbase;
+
+                blocks.add(block);
+                hashes.add(BlockInfo.decode(block, height).getHash());
+            }
+        }
+
+        synchronized void truncate(int height) {
+            while (blocks.size() > height) {
+                blocks.remove(blocks.size() - 1);
+                hashes.remove(hashes.size() - 1);
+            }
+        }
+
+        public synchronized JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            JSONObject response = new JSONObject().put("id", message.get("id"));
+
+            if (method.equals("getblockcount")) {
+                return response.put("result", blocks.size() - 1).put("error", null);
+            }
+
+            if (method.equals("getblockhash")) {
+                int height = message.getJSONArray("params").getInt(0);
+
+                if (height >= hashes.size()) {
+                    JSONObject error = new JSONObject().put("code", -8).put("message", "Block height out of range");
+                    return response.put("result", null).put("error", error);
+                }
+
+                return response.put("result", hashes.get(height)).put("error", null);
+            }
+
+            if (method.equals("getblock")) {
+                int height = hashes.indexOf(message.getJSONArray("params").getString(0));
+                JSONObject error = new JSONObject().put("code", -5).put("message", "Block not found");
+                return height < 0 ? response.put("result", null).put("error", error)
+                                  : response.put("result", blocks.get(height)).put("error", null);
+            }
+
+            throw new IllegalArgumentException(method);
+        }
+
+        public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+            List<JSONObject> responses = new ArrayList<JSONObject>();
+
+            for (JSONObject message : messages) {
+                responses.add(sendAndReceive(message));
+            }
+
+            return responses;
+        }
+
+        private static String littleEndian(long value) {
+            return String.format("%02x%02x%02x%02x", value & 0xff, value >>> 8 & 0xff, value >>> 16 & 0xff, value >>> 24 & 0xff);
+        }
+
+        private static String reverse(String hex) {
+            StringBuilder reversed = new StringBuilder(hex.length());
+
+            for (int i = hex.length() - 2; i >= 0; i -= 2) {
+                reversed.append(hex, i, i + 2);
+            }
+
+            return reversed.toString();
+        }
+
+        private static String repeat(String text, int times) {
+            StringBuilder repeated = new StringBuilder();
+
+            for (int i = 0; i < times; i++) {
+                repeated.append(text);
+            }
+
+            return repeated.toString();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.MempoolEntry;
+import ru.paradoxs.bitcoin.http.BatchTransport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Follows a made up memory pool.
+ */
+public class MempoolMonitorTest {
+
+    @Test
+    public void testReportsOnlyTheChanges() {
+        Pool pool = new Pool();
+        Recorder recorder = new Recorder();
+        MempoolMonitor monitor = new MempoolMonitor(new BitcoinClient(pool), recorder);
+        monitor.setBatchSize(7);
+
+        for (int i = 0; i < 20; i++) {
+            pool.listed.add(txId(i));
+        }
+
+        assertEquals(20, monitor.poll());
+        assertEquals(20, recorder.added.size());
+        assertEquals(3, pool.batches);
+
+        assertEquals(0, monitor.poll());
+        assertEquals(3, pool.batches);
+
+        recorder.added.clear();
+        pool.listed.remove(txId(3));
+        pool.listed.remove(txId(4));
+        pool.listed.add(txId(20));
+
+        assertEquals(3, monitor.poll());
+        assertEquals(setOf(txId(3), txId(4)), new HashSet<String>(recorder.removed));
+        assertEquals(setOf(txId(20)), new HashSet<String>(recorder.added));
+        assertEquals(19, monitor.size());
+    }
+
+    @Test
+    public void testSkipsTransactionsGoneBeforeTheirDetails() {
+        Pool pool = new Pool();
+        Recorder recorder = new Recorder();
+        MempoolMonitor monitor = new MempoolMonitor(new BitcoinClient(pool), recorder);
+
+        pool.listed.add(txId(1));
+        pool.listed.add(txId(2));
+        pool.vanished.add(txId(2));
+
+        assertEquals(1, monitor.poll());
+        assertEquals(setOf(txId(1)), new HashSet<String>(recorder.added));
+
+        pool.listed.remove(txId(2));
+
+        assertEquals(0, monitor.poll());
+        assertTrue(recorder.removed.isEmpty());
+    }
+
+    private static String txId(int i) {
+        return String.format("%08x", i * 0x9e3779b9L & 0xffffffffL) + "00000000000000000000000000000000000000000000000000000000";
+    }
+
+    private static Set<String> setOf(String... txIds) {
+        Set<String> set = new HashSet<String>();
+
+        for (String txId : txIds) {
+            set.add(txId);
+        }
+
+        return set;
+    }
+
+    private static class Recorder implements MempoolMonitor.Listener {
+        final List<String> added = new ArrayList<String>();
+        final List<String> removed = new ArrayList<String>();
+
+        public void added(MempoolEntry entry) {
+            added.add(entry.getTxId());
+        }
+
+        public void removed(String txId) {
+            removed.add(txId);
+        }
+
+        public void pollFailed(RuntimeException e) {
+            throw e;
+        }
+    }
+
+    /**
+     * A memory pool answering getrawmempool and getmempoolentry
+     */
+    private static class Pool implements BatchTransport {
+        final Set<String> listed = new HashSet<String>();
+        final Set<String> vanished = new HashSet<String>();
+        int batches = 0;
+
+        public JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            JSONObject response = new JSONObject().put("id", message.get("id"));
+
+            if (method.equals("getrawmempool")) {
+                JSONArray result = new JSONArray();
+
+                for (String txId : listed) {
+                    result.element(txId);
+                }
+
+                return response.put("result", result).put("error", null);
+            }
+
+            if (method.equals("getmempoolentry")) {
+                String txId = message.getJSONArray("params").getString(0);
+
+                if (!listed.contains(txId) || vanished.contains(txId)) {
+                    JSONObject error = new JSONObject().put("code", -5).put("message", "Transaction not in mempool");
+                    return response.put("result", null).put("error", error);
+                }
+
+                JSONObject entry = new JSONObject().put("vsize", 141).put("time", 1500000000).put("height", 500000)
+                                                   .put("fees", new JSONObject().put("base", new BigDecimal("0.00001410")))
+                                                   .put("depends", new JSONArray());
+                return response.put("result", entry).put("error", null);
+            }
+
+            throw new IllegalArgumentException(method);
+        }
+
+        public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+            batches++;
+            List<JSONObject> responses = new ArrayList<JSONObject>();
+
+            for (JSONObject message : messages) {
+                responses.add(sendAndReceive(message));
+            }
+
+            return responses;
+        }
+    }
+}
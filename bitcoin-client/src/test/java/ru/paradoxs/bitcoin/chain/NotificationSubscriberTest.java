@@ -0,0 +1,397 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.client.BlockInfo;
+import ru.paradoxs.bitcoin.client.TransactionInfo;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Subscribes to an in-process publisher standing in for bitcoind, with a
+ * made up server behind the client for catching up.
+ */
+public class NotificationSubscriberTest {
+    private static final long TIMEOUT = 10000;
+
+    private ZmtpPublisher publisher;
+    private Node node;
+    private Recorder recorder;
+    private NotificationSubscriber subscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        publisher = new ZmtpPublisher();
+        node = new Node();
+        recorder = new Recorder();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+
+        publisher.close();
+    }
+
+    @Test
+    public void testDeliversBlocksAndCatchesUpOnGaps() throws Exception {
+        node.extend(11, 0);
+        subscriber = new NotificationSubscriber(new BitcoinClient(node), "127.0.0.1", publisher.getPort(), recorder, null);
+        subscriber.setStartBlock(10, node.hash(10));
+        subscriber.start();
+        publisher.awaitSubscriptions(1, TIMEOUT);
+
+        node.extend(1, 0);
+        publisher.publish(NotificationSubscriber.HASHBLOCK, bytes(node.hash(11)), 0);
+        recorder.awaitBlocks(1);
+
+        // Block 12 is never published, and found missing by the sequence number of 13
+        node.extend(2, 0);
+        publisher.publish(NotificationSubscriber.HASHBLOCK, bytes(node.hash(13)), 2);
+        recorder.awaitBlocks(3);
+
+        assertEquals(Arrays.asList(node.hash(11), node.hash(12), node.hash(13)), recorder.blocks());
+        assertEquals(1, subscriber.getGaps());
+
+        // A reorganization replacing block 13
+        node.truncate(13);
+        node.extend(2, 1);
+        publisher.publish(NotificationSubscriber.HASHBLOCK, bytes(node.hash(14)), 3);
+        recorder.awaitBlocks(4);
+
+        assertEquals(Collections.singletonList(12), recorder.rewinds);
+        assertEquals(Arrays.asList(node.hash(11), node.hash(12), node.hash(13), node.hash(14)), recorder.blocks());
+    }
+
+    @Test
+    public void testDeliversWalletTransactionsAndCatchesUpOnGaps() throws Exception {
+        String coinbase = "01000000" + "01" + repeat("00", 32) + "ffffffff" + "0100" + "ffffffff" +
+                          "01" + "00f2052a01000000" + "00" + "00000000";
+        String other = coinbase.replace("0100ffffffff", "0101ffffffff");
+        String coinbaseId = BlockInfo.transactionId(bytes(coinbase));
+        String otherId = BlockInfo.transactionId(bytes(other));
+
+        node.extend(1, 0);
+        node.wallet.put(coinbaseId, new BigDecimal("50.0"));
+        subscriber = new NotificationSubscriber(new BitcoinClient(node), "127.0.0.1", publisher.getPort(), null, recorder);
+        subscriber.setRawTransactions(true);
+        subscriber.start();
+        publisher.awaitSubscriptions(1, TIMEOUT);
+
+        long start = System.nanoTime();
+        publisher.publish(NotificationSubscriber.RAWTX, bytes(other), 7);
+        publisher.publish(NotificationSubscriber.RAWTX, bytes(coinbase), 8);
+        recorder.awaitTransactions(1);
+        long latencyMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(Arrays.asList(otherId, coinbaseId), recorder.rawTxIds);
+        assertEquals(coinbaseId, recorder.transactions.get(0).getTxId());
+        assertTrue("Took " + latencyMillis + " ms", latencyMillis < TIMEOUT);
+
+        // Notifications 9 and 10 are lost, the wallet is asked for what happened since
+        node.wallet.put(repeat("ab", 32), new BigDecimal("1.5"));
+        publisher.publish(NotificationSubscriber.RAWTX, bytes(other), 11);
+        recorder.awaitTransactions(3);
+
+        assertEquals(1, subscriber.getGaps());
+        assertEquals(repeat("ab", 32), recorder.transactions.get(2).getTxId());
+    }
+
+    @Test
+    public void testReconnectsAfterAMalformedCommand() throws Exception {
+        SilentPublisher silent = new SilentPublisher(new byte[] { 0x04, 0x00 });
+
+        try {
+            node.extend(1, 0);
+            subscriber = new NotificationSubscriber(new BitcoinClient(node), "127.0.0.1", silent.getPort(), null, recorder);
+            subscriber.setReconnectDelayMillis(10);
+            subscriber.start();
+            silent.awaitConnections(2);
+
+            assertEquals(IOException.class, recorder.failures.get(0).getClass());
+        } finally {
+            subscriber.stop();
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testCatchesUpAndReconnectsWhenNothingIsHeard() throws Exception {
+        SilentPublisher silent = new SilentPublisher(new byte[0]);
+
+        try {
+            node.extend(11, 0);
+            subscriber = new NotificationSubscriber(new BitcoinClient(node), "127.0.0.1", silent.getPort(), recorder, null);
+            subscriber.setStartBlock(10, node.hash(10));
+            subscriber.setReadTimeoutMillis(300);
+            subscriber.start();
+            silent.awaitConnections(1);
+
+            // Block 11 is never published, and found by catching up when the connection has been quiet
+            node.extend(1, 0);
+            recorder.awaitBlocks(1);
+            silent.awaitConnections(2);
+
+            assertEquals(Collections.singletonList(node.hash(11)), recorder.blocks());
+            assertTrue(recorder.failures.isEmpty());
+        } finally {
+            subscriber.stop();
+            silent.close();
+        }
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return bytes;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder repeated = new StringBuilder();
+
+        for (int i = 0; i < times; i++) {
+            repeated.append(text);
+        }
+
+        return repeated.toString();
+    }
+
+    private static class Recorder implements BlockIngestor.Consumer, NotificationSubscriber.Listener {
+        final List<BlockInfo> blocks = Collections.synchronizedList(new ArrayList<BlockInfo>());
+        final List<Integer> rewinds = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<TransactionInfo> transactions = Collections.synchronizedList(new ArrayList<TransactionInfo>());
+        final List<String> rawTxIds = Collections.synchronizedList(new ArrayList<String>());
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+        public void accept(BlockInfo block) {
+            blocks.add(block);
+        }
+
+        public void rewind(int height) {
+            rewinds.add(height);
+
+            synchronized (blocks) {
+                while (!blocks.isEmpty() && blocks.get(blocks.size() - 1).getHeight() > height) {
+                    blocks.remove(blocks.size() - 1);
+                }
+            }
+        }
+
+        public void walletTransaction(TransactionInfo transaction) {
+            transactions.add(transaction);
+        }
+
+        public void rawTransaction(String txId, byte[] raw) {
+            rawTxIds.add(txId);
+        }
+
+        public void failed(Exception e) {
+            failures.add(e);
+        }
+
+        List<String> blocks() {
+            List<String> hashes = new ArrayList<String>();
+
+            synchronized (blocks) {
+                for (BlockInfo block : blocks) {
+                    hashes.add(block.getHash());
+                }
+            }
+
+            return hashes;
+        }
+
+        void awaitBlocks(int count) throws InterruptedException {
+            await(blocks, count);
+        }
+
+        void awaitTransactions(int count) throws InterruptedException {
+            await(transactions, count);
+        }
+
+        private static void await(List<?> list, int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+
+            while (list.size() < count) {
+                if (System.currentTimeMillis() > end) {
+                    throw new AssertionError("Only " + list.size() + " of " + count + " delivered");
+                }
+
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * A publisher sending the given bytes after the greeting and then nothing at all
+     */
+    private static class SilentPublisher implements Runnable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        private final byte[] after;
+
+        SilentPublisher(byte[] after) throws IOException {
+            this.after = after;
+            Thread thread = new Thread(this, "SilentPublisher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    sockets.add(socket);
+
+                    try {
+                        new ZmtpConnection(socket).handshake("PUB", true);
+                        socket.getOutputStream().write(after);
+                        socket.getOutputStream().flush();
+                    } catch (IOException e) {
+                        // The subscriber gave up on this connection
+                    }
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        void awaitConnections(int count) throws InterruptedException {
+            Recorder.await(sockets, count);
+        }
+
+        void close() throws IOException {
+            server.close();
+
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A server with a block chain and a wallet, answering what the subscriber asks
+     */
+    private static class Node implements Transport {
+        final List<String> hashes = new ArrayList<String>();
+        final Map<String, BigDecimal> wallet = Collections.synchronizedMap(new LinkedHashMap<String, BigDecimal>());
+
+        synchronized void extend(int count, int fork) {
+            for (int i = 0; i < count; i++) {
+                hashes.add(String.format("%08x%056x", fork, hashes.size()));
+            }
+        }
+
+        synchronized void truncate(int height) {
+            while (hashes.size() > height) {
+                hashes.remove(hashes.size() - 1);
+            }
+        }
+
+        synchronized String hash(int height) {
+            return hashes.get(height);
+        }
+
+        public synchronized JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            JSONArray params = message.getJSONArray("params");
+            JSONObject response = new JSONObject().put("id", message.get("id")).put("error", null);
+
+            if (method.equals("getblockcount")) {
+                return response.put("result", hashes.size() - 1);
+            }
+
+            if (method.equals("getblockhash")) {
+                return response.put("result", hashes.get(params.getInt(0)));
+            }
+
+            if (method.equals("getblock")) {
+                int height = hashes.indexOf(params.getString(0));
+                JSONObject block = new JSONObject().put("hash", hashes.get(height)).put("height", height)
+                                                   .put("version", 1).put("merkleroot", repeat("00", 32))
+                                                   .put("time", 1231006505L + height * 600).put("bits", "1d00ffff")
+                                                   .put("nonce", 0).put("size", 285).put("tx", new JSONArray());
+
+                if (height > 0) {
+                    block.put("previousblockhash", hashes.get(height - 1));
+                }
+
+                return response.put("result", block);
+            }
+
+            if (method.equals("gettransaction")) {
+                String txId = params.getString(0);
+
+                if (!wallet.containsKey(txId)) {
+                    JSONObject error = new JSONObject().put("code", -5).put("message", "Invalid or non-wallet transaction id");
+                    return response.put("result", null).put("error", error);
+                }
+
+                return response.put("result", walletTransaction(txId));
+            }
+
+            if (method.equals("listsinceblock")) {
+                JSONArray transactions = new JSONArray();
+
+                synchronized (wallet) {
+                    for (String txId : wallet.keySet()) {
+                        transactions.element(walletTransaction(txId));
+                    }
+                }
+
+                return response.put("result", new JSONObject().put("transactions", transactions)
+                                                              .put("lastblock", hashes.get(hashes.size() - 1)));
+            }
+
+            throw new IllegalArgumentException(method);
+        }
+
+        private JSONObject walletTransaction(String txId) {
+            return new JSONObject().put("txid", txId).put("amount", wallet.get(txId)).put("category", "receive")
+                                   .put("confirmations", 0).put("time", 1231006505L);
+        }
+    }
+}
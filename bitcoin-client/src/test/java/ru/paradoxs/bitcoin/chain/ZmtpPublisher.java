@@ -0,0 +1,146 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.chain;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Enough of a ZeroMQ PUB socket to stand in for the notifications of bitcoind.
+ */
+class ZmtpPublisher {
+    private final ServerSocket server;
+    private final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+    private volatile boolean closed = false;
+
+    ZmtpPublisher() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "zmtp-publisher");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Waits until the subscribers together have subscribed to a number of topics
+     */
+    void awaitSubscriptions(int count, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+
+        while (subscriptions() < count) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Only " + subscriptions() + " of " + count + " subscriptions");
+            }
+
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Publishes a notification the way bitcoind does: topic, body and a little endian sequence number
+     */
+    void publish(String topic, byte[] body, long sequence) throws IOException {
+        byte[] sequenceFrame = { (byte) sequence, (byte) (sequence >>> 8), (byte) (sequence >>> 16), (byte) (sequence >>> 24) };
+
+        for (Peer peer : peers) {
+            for (String prefix : peer.topics) {
+                if (topic.startsWith(prefix)) {
+                    peer.connection.send(topic.getBytes(ZmtpConnection.ASCII), body, sequenceFrame);
+                    break;
+                }
+            }
+        }
+    }
+
+    void close() throws IOException {
+        closed = true;
+        server.close();
+
+        for (Peer peer : peers) {
+            peer.connection.close();
+        }
+    }
+
+    private int subscriptions() {
+        int count = 0;
+
+        for (Peer peer : peers) {
+            count += peer.topics.size();
+        }
+
+        return count;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                final Peer peer = new Peer(new ZmtpConnection(socket));
+                peer.connection.handshake("PUB", true);
+                peers.add(peer);
+
+                Thread reader = new Thread(new Runnable() {
+                    public void run() {
+                        readSubscriptions(peer);
+                    }
+                }, "zmtp-publisher-peer");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // Closed, or a failed handshake
+            }
+        }
+    }
+
+    private void readSubscriptions(Peer peer) {
+        try {
+            for (;;) {
+                byte[] frame = peer.connection.receive().get(0);
+                String topic = new String(frame, 1, frame.length - 1, ZmtpConnection.ASCII);
+
+                if (frame[0] == 1) {
+                    peer.topics.add(topic);
+                } else if (frame[0] == 0) {
+                    peer.topics.remove(topic);
+                }
+            }
+        } catch (IOException e) {
+            peers.remove(peer);
+        }
+    }
+
+    private static class Peer {
+        final ZmtpConnection connection;
+        final Set<String> topics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Peer(ZmtpConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Checks the index against a fake server listing a fixed wallet.
+ */
+public class AddressIndexTest {
+
+    private final AddressIndex index = new AddressIndex();
+
+    /**
+     * A wallet with one address, "a1" in "alice", where every other address
+     * belongs to someone else. The index is written through while it lists.
+     */
+    private final Transport fakeServer = new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            Object result;
+
+            if (method.equals("listreceivedbyaddress")) {
+                // Written through by other threads while the server makes the listing
+                index.put("new", "bob");
+                index.put("a1", "dave");
+
+                result = new JSONArray().element(new JSONObject().put("address", "a1").put("account", "alice")
+                                                                 .put("amount", 0).put("confirmations", 0));
+            } else if (method.equals("getaccount")) {
+                result = message.getJSONArray("params").getString(0).equals("a1") ? "alice" : "";
+            } else {
+                throw new IllegalStateException("Unexpected call: " + method);
+            }
+
+            return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+        }
+    };
+
+    @Test
+    public void testReconcileKeepsAddressesWrittenWhileListing() {
+        index.put("old", "carol");
+        index.reconcile(new BitcoinClient(fakeServer));
+
+        assertNull(index.getAccount("old"));
+        assertEquals("bob", index.getAccount("new"));
+        assertEquals("dave", index.getAccount("a1"));
+        assertEquals(Arrays.asList("a1"), index.getAddresses("dave"));
+        assertTrue(index.getAddresses("alice").isEmpty());
+        assertTrue(index.getAddresses("carol").isEmpty());
+    }
+
+    @Test
+    public void testForeignAddressesAreNotIndexed() {
+        BitcoinClient client = new BitcoinClient(fakeServer);
+        client.setAddressIndex(index);
+
+        assertEquals("", client.getAccount("foreign"));
+        assertNull(index.getAccount("foreign"));
+        assertTrue(index.getAddresses("").isEmpty());
+
+        assertEquals("alice", client.getAccount("a1"));
+        assertEquals("alice", index.getAccount("a1"));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Hands out addresses from a made up wallet, across restarts.
+ */
+public class AddressPoolTest {
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File journal;
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = File.createTempFile("addresses", ".journal");
+        journal.delete();
+        wallet = new Wallet();
+    }
+
+    @After
+    public void tearDown() {
+        journal.delete();
+    }
+
+    @Test
+    public void testRefillsBetweenTheWatermarks() {
+        AddressPool pool = new AddressPool(new BitcoinClient(wallet), journal, 5, 30, SAME_THREAD);
+        pool.prefill("shop");
+
+        assertEquals(30, pool.available("shop"));
+        assertEquals(30, wallet.made);
+
+        for (int i = 0; i < 25; i++) {
+            pool.take("shop");
+        }
+
+        assertEquals(5, pool.available("shop"));
+        assertEquals(30, wallet.made);
+
+        pool.take("shop");
+
+        assertEquals(30, pool.available("shop"));
+        assertEquals(0, pool.getMisses());
+        pool.close();
+    }
+
+    @Test
+    public void testNeverHandsOutAnAddressTwiceAfterRestarts() throws Exception {
+        Set<String> handedOut = new HashSet<String>();
+        AddressPool pool = new AddressPool(new BitcoinClient(wallet), journal, 2, 10, SAME_THREAD);
+        pool.prefill("shop");
+        pool.prefill("other account");
+
+        for (int i = 0; i < 7; i++) {
+            assertTrue(handedOut.add(pool.take("shop")));
+        }
+
+        pool.close();
+
+        // A crash in the middle of appending leaves a line without a line break
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write("- addr-1".getBytes("UTF-8"));
+        out.close();
+
+        pool = new AddressPool(new BitcoinClient(wallet), journal, 2, 10, SAME_THREAD);
+
+        assertEquals(3, pool.available("shop"));
+        assertEquals(10, pool.available("other account"));
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(handedOut.add(pool.take("shop")));
+        }
+
+        pool.close();
+    }
+
+    /**
+     * A wallet answering getnewaddress
+     */
+    private static class Wallet implements Transport {
+        int made = 0;
+
+        public synchronized JSONObject sendAndReceive(JSONObject message) {
+            if (!message.getString("method").equals("getnewaddress")) {
+                throw new IllegalArgumentException(message.getString("method"));
+            }
+
+            made++;
+            return new JSONObject().put("result", "addr-" + made).put("error", null).put("id", message.get("id"));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Runs calls to a fake wallet, which notes the thread of each call, on an
+ * executor of named threads. The account "broken" answers with an error.
+ */
+public class AsyncBitcoinClientTest {
+    private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "async-test");
+        }
+    });
+
+    private final AsyncBitcoinClient client = new AsyncBitcoinClient(new BitcoinClient(new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            threads.add(Thread.currentThread().getName());
+            JSONObject response = new JSONObject().put("id", message.get("id"));
+
+            if (message.getString("method").equals("listaccounts")) {
+                return response.put("result", new JSONObject().put("alice", 1).put("bob", 2)).put("error", null);
+            }
+
+            if (message.getJSONArray("params").getString(0).equals("broken")) {
+                JSONObject error = new JSONObject().put("code", -18).put("message", "Wallet unavailable");
+                return response.put("result", null).put("error", error);
+            }
+
+            return response.put("result", 1.5).put("error", null);
+        }
+    }), executor);
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCallsRunOnTheExecutor() throws Exception {
+        assertEquals(new BigDecimal("1.5"), client.getBalance("alice").get());
+        assertEquals(Arrays.asList("async-test"), threads);
+
+        AccountBalances balances = client.getBalances(Arrays.asList("alice", "bob", "carol"));
+        assertEquals(3, balances.size());
+        assertEquals(150000000L, balances.getSatoshis("carol"));
+        assertEquals(Arrays.asList("async-test", "async-test", "async-test", "async-test"), threads);
+    }
+
+    @Test
+    public void testManyAccountsAreLeftToTheClient() {
+        client.setFanOutThreshold(1);
+        String caller = Thread.currentThread().getName();
+
+        AccountBalances balances = client.getBalances(Arrays.asList("alice", "bob"));
+        assertEquals(150000000L, balances.getSatoshis("bob"));
+        assertEquals(Arrays.asList(caller, caller), threads);
+    }
+
+    @Test
+    public void testErrorsReachTheFuture() throws Exception {
+        Future<BigDecimal> balance = client.getBalance("broken");
+
+        try {
+            balance.get();
+            fail("getbalance should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BitcoinRpcException);
+            assertEquals(-18, ((BitcoinRpcException) e.getCause()).getCode());
+        }
+
+        // Waiting for several unwraps the error
+        try {
+            client.getBalances(Arrays.asList("alice", "broken"));
+            fail("getbalance should have failed");
+        } catch (BitcoinRpcException e) {
+            assertEquals("getbalance", e.getMethod());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.BatchTransport;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Gets the balances of accounts from a fake wallet where every account holds
+ * 1 BTC, counting the calls made for them, and the round trips when batched.
+ */
+public class BalancesTest {
+    private int walletSize = 100;
+    private int getBalanceCalls = 0;
+    private int listAccountsCalls = 0;
+    private int batches = 0;
+
+    private final BitcoinClient client = new BitcoinClient(new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            return answer(message);
+        }
+    });
+
+    private final BitcoinClient batchingClient = new BitcoinClient(new BatchTransport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            return answer(message);
+        }
+
+        public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+            List<JSONObject> responses = new ArrayList<JSONObject>(messages.size());
+            batches++;
+
+            for (JSONObject message : messages) {
+                responses.add(answer(message));
+            }
+
+            return responses;
+        }
+    });
+
+    private JSONObject answer(JSONObject message) {
+        Object result = 1;
+
+        if (message.getString("method").equals("listaccounts")) {
+            JSONObject accounts = new JSONObject();
+
+            for (int i = 0; i < walletSize; i++) {
+                accounts.put("account-" + i, 1);
+            }
+
+            result = accounts;
+            listAccountsCalls++;
+        } else {
+            getBalanceCalls++;
+        }
+
+        return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+    }
+
+    private static List<String> accounts(int count) {
+        List<String> accounts = new ArrayList<String>();
+
+        for (int i = 0; i < count; i++) {
+            accounts.add("account-" + i);
+        }
+
+        return accounts;
+    }
+
+    private void assertCalls(int getBalance, int listAccounts) {
+        assertEquals(getBalance, getBalanceCalls);
+        assertEquals(listAccounts, listAccountsCalls);
+        getBalanceCalls = 0;
+        listAccountsCalls = 0;
+    }
+
+    @Test
+    public void testThresholdDecidesBeforeTheWalletSizeIsKnown() {
+        AccountBalances few = client.getBalances(accounts(BitcoinClient.BULK_BALANCES_THRESHOLD));
+        assertCalls(BitcoinClient.BULK_BALANCES_THRESHOLD, 0);
+        assertEquals(100000000L, few.getSatoshis("account-0"));
+
+        AccountBalances many = client.getBalances(accounts(BitcoinClient.BULK_BALANCES_THRESHOLD + 1));
+        assertCalls(0, 1);
+        assertEquals(BitcoinClient.BULK_BALANCES_THRESHOLD + 1, many.size());
+        assertEquals(100000000L, many.getSatoshis("account-16"));
+    }
+
+    @Test
+    public void testWalletSizeDecidesOnceKnown() {
+        // In a small wallet, listaccounts is cheaper for as few as two accounts
+        client.listAccounts(1);
+        assertCalls(0, 1);
+
+        client.getBalances(accounts(2));
+        assertCalls(0, 1);
+
+        client.getBalances(accounts(1));
+        assertCalls(1, 0);
+
+        // In a big one, it takes more accounts than the threshold
+        walletSize = 20 * BitcoinClient.ACCOUNTS_PER_ROUND_TRIP;
+        client.listAccounts(1);
+        assertCalls(0, 1);
+
+        client.getBalances(accounts(BitcoinClient.BULK_BALANCES_THRESHOLD + 1));
+        assertCalls(BitcoinClient.BULK_BALANCES_THRESHOLD + 1, 0);
+
+        client.getBalances(accounts(21));
+        assertCalls(0, 1);
+    }
+
+    @Test
+    public void testBatchesBalanceCallsIntoOneRoundTrip() {
+        walletSize = 20 * BitcoinClient.ACCOUNTS_PER_ROUND_TRIP;
+        batchingClient.listAccounts(1);
+        assertCalls(0, 1);
+
+        // One by one this would be a listaccounts call, in a batch it's cheaper to ask for each
+        AccountBalances balances = batchingClient.getBalances(accounts(21));
+        assertCalls(21, 0);
+        assertEquals(1, batches);
+        assertEquals(21, balances.size());
+        assertEquals(100000000L, balances.getSatoshis("account-20"));
+
+        // Until the calls cost as much as the accounts of the whole wallet
+        batchingClient.getBalances(accounts(walletSize / BitcoinClient.ACCOUNTS_PER_BATCHED_CALL - 1));
+        assertCalls(walletSize / BitcoinClient.ACCOUNTS_PER_BATCHED_CALL - 1, 0);
+
+        batchingClient.getBalances(accounts(walletSize / BitcoinClient.ACCOUNTS_PER_BATCHED_CALL));
+        assertCalls(0, 1);
+        assertEquals(2, batches);
+    }
+}
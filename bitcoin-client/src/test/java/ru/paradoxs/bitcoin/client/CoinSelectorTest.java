@@ -0,0 +1,120 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Selects coins from made up outputs.
+ */
+public class CoinSelectorTest {
+    private static final long FEE_PER_BYTE = 10;
+    private static final long INPUT_FEE = FEE_PER_BYTE * CoinSelector.INPUT_SIZE;
+    private static final long BASE_FEE = FEE_PER_BYTE * (CoinSelector.TRANSACTION_OVERHEAD + CoinSelector.OUTPUT_SIZE);
+
+    private static List<UnspentOutput> outputs(long... amounts) {
+        List<UnspentOutput> outputs = new ArrayList<UnspentOutput>();
+
+        for (int i = 0; i < amounts.length; i++) {
+            outputs.add(new UnspentOutput("tx" + i, 0, null, null, null, amounts[i], 6));
+        }
+
+        return outputs;
+    }
+
+    @Test
+    public void testFindsAnExactMatchWithoutChange() {
+        // 3000000 and 2000000 pay exactly 5000000 plus the fee for two inputs
+        long amount = 5000000 - BASE_FEE - 2 * INPUT_FEE;
+        List<UnspentOutput> outputs = outputs(10000000, 3000000, 7000000, 2000000, 400000);
+        Collections.shuffle(outputs);
+
+        CoinSelector.Selection selection = new CoinSelector(FEE_PER_BYTE).select(outputs, amount);
+
+        assertEquals(0, selection.getChange());
+        assertEquals(2, selection.getInputs().size());
+        assertEquals(5000000, selection.getInputTotal());
+        assertEquals(BASE_FEE + 2 * INPUT_FEE, selection.getFee());
+    }
+
+    @Test
+    public void testFallsBackToTheSmallestCoinThatCoversItWithChange() {
+        CoinSelector.Selection selection = new CoinSelector(FEE_PER_BYTE).select(outputs(100000, 9000000, 2500000, 50000000),
+                                                                                  1000000);
+
+        assertEquals(1, selection.getInputs().size());
+        assertEquals(2500000, selection.getInputTotal());
+        assertEquals(BASE_FEE + INPUT_FEE + FEE_PER_BYTE * CoinSelector.OUTPUT_SIZE, selection.getFee());
+        assertTrue(selection.getChange() >= CoinSelector.DUST_LIMIT);
+    }
+
+    @Test
+    public void testAddsUpTheBiggestCoinsWhenNoneIsEnoughAlone() {
+        CoinSelector.Selection selection = new CoinSelector(FEE_PER_BYTE).select(outputs(400000, 300000, 200000, 100000),
+                                                                                  550000);
+
+        assertEquals(Arrays.asList("tx0", "tx1"), Arrays.asList(selection.getInputs().get(0).getTxId(),
+                                                                selection.getInputs().get(1).getTxId()));
+        assertEquals(selection.getInputTotal(), selection.getAmount() + selection.getChange() + selection.getFee());
+    }
+
+    @Test
+    public void testSpendsWithoutChangeWhenTheChangeWouldBeDust() {
+        // At 1 satoshi per byte the one coin leaves 300 over, too much for the search but too little for change
+        CoinSelector selector = new CoinSelector(1);
+        long amount = 100000 - CoinSelector.INPUT_SIZE - (CoinSelector.TRANSACTION_OVERHEAD + CoinSelector.OUTPUT_SIZE) - 300;
+
+        CoinSelector.Selection selection = selector.select(outputs(100000), amount);
+
+        assertEquals(1, selection.getInputs().size());
+        assertEquals(0, selection.getChange());
+        assertEquals(100000 - amount, selection.getFee());
+    }
+
+    @Test
+    public void testIgnoresCoinsWorthLessThanSpendingThem() {
+        try {
+            new CoinSelector(FEE_PER_BYTE).select(outputs(INPUT_FEE, INPUT_FEE, INPUT_FEE), 1);
+            fail("Only dust to spend");
+        } catch (BitcoinClientException expected) {
+        }
+    }
+
+    @Test
+    public void testBranchAndBound() {
+        long[] values = { 8, 7, 5, 3, 1 };
+
+        // 8 + 3 + 1 adds up too, but takes more values
+        assertEquals(Arrays.toString(new boolean[] { false, true, true, false, false }),
+                     Arrays.toString(CoinSelector.branchAndBound(values, 12, 0)));
+        assertEquals(Arrays.toString(new boolean[] { false, false, false, true, true }),
+                     Arrays.toString(CoinSelector.branchAndBound(values, 4, 0)));
+        // Nothing adds up to 22 exactly, 23 is the closest within the tolerance
+        assertEquals(Arrays.toString(new boolean[] { true, true, true, true, false }),
+                     Arrays.toString(CoinSelector.branchAndBound(values, 22, 2)));
+        assertNull(CoinSelector.branchAndBound(values, 25, 0));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Sends through a fake server that, like bitcoind 0.18 and later, only signs
+ * with signrawtransactionwithwallet.
+ */
+public class RawTransactionSenderTest {
+    private final List<String> calls = new ArrayList<String>();
+    private volatile boolean rejectSends = false;
+
+    private final BitcoinClient client = new BitcoinClient(new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            Object result = null;
+            JSONObject error = null;
+
+            calls.add(method);
+
+            if (method.equals("listunspent")) {
+                result = new JSONArray().element(new JSONObject().put("txid", "a").put("vout", 0).put("amount", 1)
+                                                                 .put("confirmations", 6));
+            } else if (method.equals("createrawtransaction")) {
+                result = "0100";
+            } else if (method.equals("signrawtransactionwithwallet")) {
+                result = new JSONObject().put("hex", "0100signed").put("complete", true);
+            } else if (method.equals("sendrawtransaction") && !rejectSends) {
+                result = "t1";
+            } else if (method.equals("sendrawtransaction")) {
+                error = new JSONObject().put("code", -26).put("message", "min relay fee not met");
+            } else {
+                error = new JSONObject().put("code", BitcoinRpcException.RPC_METHOD_NOT_FOUND)
+                                        .put("message", "Method not found");
+            }
+
+            return new JSONObject().put("result", result).put("error", error).put("id", message.get("id"));
+        }
+    });
+
+    private RawTransactionSender sender(UtxoView view) {
+        view.refresh();
+        return new RawTransactionSender(client, view, new CoinSelector(10), "1Change");
+    }
+
+    @Test
+    public void testSignsWithTheWalletWhenSignRawTransactionIsGone() {
+        UtxoView view = new UtxoView(client);
+        RawTransactionSender sender = sender(view);
+
+        assertEquals("t1", sender.send("1Bob", new BigDecimal("0.5")));
+        assertEquals("[listunspent, createrawtransaction, signrawtransaction, signrawtransactionwithwallet, " +
+                     "sendrawtransaction]", calls.toString());
+
+        // The second send spends the unconfirmed change, and doesn't try the old method again
+        sender.setMinimumConfirmations(0);
+        calls.clear();
+        assertEquals("t1", sender.send("1Bob", new BigDecimal("0.1")));
+        assertEquals("[createrawtransaction, signrawtransactionwithwallet, sendrawtransaction]", calls.toString());
+    }
+
+    @Test
+    public void testFailedSendReleasesTheCoins() {
+        UtxoView view = new UtxoView(client);
+        RawTransactionSender sender = sender(view);
+        rejectSends = true;
+
+        try {
+            sender.send("1Bob", new BigDecimal("0.5"));
+            fail("The server rejected the transaction");
+        } catch (BitcoinRpcException e) {
+            assertEquals(-26, e.getCode());
+        }
+
+        assertEquals(1, view.getAvailable(1).size());
+    }
+}
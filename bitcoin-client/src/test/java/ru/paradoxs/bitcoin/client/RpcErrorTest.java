@@ -0,0 +1,133 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+
+/**
+ * Decodes the errors a server answers with, from a stub server answering
+ * like bitcoind does, with a status of 500 and the error in the body.
+ */
+public class RpcErrorTest {
+    private HttpServer server;
+    private BitcoinClient client;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                StringBuilder request = new StringBuilder();
+
+                for (int c = in.read(); c >= 0; c = in.read()) {
+                    request.append((char) c);
+                }
+
+                if (request.indexOf("\"getbalance\"") >= 0) {
+                    respond(exchange, 200, "{\"result\":1.5,\"error\":null,\"id\":\"1\"}");
+                } else if (request.indexOf("\"sendtoaddress\"") >= 0) {
+                    respond(exchange, 500, "{\"result\":null,\"error\":{\"code\":-5,\"message\":\"Invalid bitcoin address\"},\"id\":\"1\"}");
+                } else {
+                    respond(exchange, 500, "<html>Internal error</html>");
+                }
+            }
+        });
+        server.start();
+
+        client = new BitcoinClient("127.0.0.1", "user", "password", server.getAddress().getPort());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @After
+    public void stopServer() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testErrorIsThrownWithCode() {
+        try {
+            client.sendToAddress("nonsense", new BigDecimal("1.00"), null, null);
+            fail("sendtoaddress should have failed");
+        } catch (HttpSessionException e) {
+            BitcoinRpcException rpcException = (BitcoinRpcException) e;
+
+            assertEquals(BitcoinRpcException.RPC_INVALID_ADDRESS_OR_KEY, rpcException.getCode());
+            assertEquals("Invalid bitcoin address", rpcException.getRpcMessage());
+            assertEquals("sendtoaddress", rpcException.getMethod());
+            assertTrue(e.getStackTrace().length > 0);
+        }
+    }
+
+    @Test
+    public void testErrorCanBeThrownWithoutStackTrace() {
+        client.setRpcErrorStackTraces(false);
+
+        try {
+            client.sendToAddress("nonsense", new BigDecimal("1.00"), null, null);
+            fail("sendtoaddress should have failed");
+        } catch (BitcoinRpcException e) {
+            assertEquals(BitcoinRpcException.RPC_INVALID_ADDRESS_OR_KEY, e.getCode());
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testTryCallReturnsErrors() {
+        RpcResult failed = client.tryCall("sendtoaddress", "nonsense", new BigDecimal("1.00"));
+
+        assertFalse(failed.isSuccess());
+        assertEquals(-5, failed.getErrorCode());
+        assertNull(failed.getResult());
+
+        RpcResult balance = client.tryCall("getbalance");
+
+        assertTrue(balance.isSuccess());
+        assertEquals(new BigDecimal("1.5"), balance.getBigDecimal());
+    }
+
+    @Test(expected = HttpSessionException.class)
+    public void testErrorStatusWithoutJsonStillFails() {
+        client.tryCall("stop");
+    }
+}
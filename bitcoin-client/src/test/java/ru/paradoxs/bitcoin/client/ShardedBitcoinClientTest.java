@@ -0,0 +1,118 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Checks how accounts are spread over fake servers, each of which has a
+ * balance of its number for the default account, and 1 for any other.
+ */
+public class ShardedBitcoinClientTest {
+    private static final int ACCOUNTS = 10000;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static BitcoinClient server(final int number) {
+        return new BitcoinClient(new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                String account = message.getJSONArray("params").getString(0);
+                Object balance = account.length() == 0 ? number : 1;
+
+                return new JSONObject().put("result", balance).put("error", null).put("id", message.get("id"));
+            }
+        });
+    }
+
+    private ShardedBitcoinClient sharded(String... names) {
+        Map<String, BitcoinClient> shards = new LinkedHashMap<String, BitcoinClient>();
+
+        for (int i = 0; i < names.length; i++) {
+            shards.put(names[i], server(i + 1));
+        }
+
+        return new ShardedBitcoinClient(shards, executor);
+    }
+
+    @Test
+    public void testAccountsAreSpreadEvenly() {
+        ShardedBitcoinClient client = sharded("node-a:8332", "node-b:8332", "node-c:8332", "node-d:8332");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String shard = client.shardNameFor("account-" + i);
+            counts.put(shard, counts.containsKey(shard) ? counts.get(shard) + 1 : 1);
+        }
+
+        assertEquals(4, counts.size());
+
+        for (int count : counts.values()) {
+            assertTrue("A quarter is 2500, but a shard got " + count, count > 1500 && count < 3500);
+        }
+    }
+
+    @Test
+    public void testRemovingAShardOnlyMovesItsAccounts() {
+        ShardedBitcoinClient before = sharded("node-a:8332", "node-b:8332", "node-c:8332", "node-d:8332");
+        ShardedBitcoinClient after = sharded("node-d:8332", "node-b:8332", "node-a:8332");
+        int moved = 0;
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String account = "account-" + i;
+            String shard = before.shardNameFor(account);
+
+            if (shard.equals("node-c:8332")) {
+                moved++;
+            } else {
+                assertEquals(shard, after.shardNameFor(account));
+            }
+        }
+
+        assertTrue(moved > 0);
+    }
+
+    @Test
+    public void testDefaultAccountIsSummed() {
+        ShardedBitcoinClient client = sharded("node-a:8332", "node-b:8332", "node-c:8332");
+
+        assertEquals(0, new BigDecimal(6).compareTo(client.getBalance("")));
+        assertEquals(0, new BigDecimal(6).compareTo(client.getBalance(null)));
+        assertEquals(0, BigDecimal.ONE.compareTo(client.getBalance("alice")));
+
+        AccountBalances balances = client.getBalances(Arrays.asList("alice", "", "bob"));
+        assertEquals(600000000L, balances.getSatoshis(""));
+        assertEquals(100000000L, balances.getSatoshis("alice"));
+        assertEquals(100000000L, balances.getSatoshis("bob"));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+
+import ru.paradoxs.bitcoin.http.HttpSession;
+import ru.paradoxs.bitcoin.load.StubBitcoinServer;
+
+/**
+ * Measures how the throughput of one shared BitcoinClient grows with the
+ * number of threads calling it, against a stub server with enough threads
+ * to never be the limit. Run with the test classpath:
+ *
+ *   java -cp ... ru.paradoxs.bitcoin.client.ThroughputBenchmark [seconds per step]
+ */
+public class ThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = Math.max(2, 2 * cores);
+
+        StubBitcoinServer server = new StubBitcoinServer(0, maxThreads, 0, TimeUnit.MICROSECONDS);
+        server.start();
+
+        HttpSession session = new HttpSession(URI.create("http://127.0.0.1:" + server.getPort() + "/"),
+                                              new UsernamePasswordCredentials("user", "password"));
+        session.setMaxConnections(maxThreads);
+
+        try {
+            BitcoinClient client = new BitcoinClient(session);
+
+            run(client, maxThreads, 1);     // Warm up
+
+            System.out.printf("%d cores%n%8s %12s %8s%n", cores, "threads", "calls/s", "speedup");
+            double single = 0;
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double rate = run(client, threads, seconds);
+
+                if (threads == 1) {
+                    single = rate;
+                }
+
+                System.out.printf("%8d %12.0f %8.2f%n", threads, rate, rate / single);
+            }
+        } finally {
+            session.close();
+            server.stop();
+        }
+    }
+
+    private static double run(final BitcoinClient client, int threads, int seconds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final long runNanos = TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Long>> counts = new ArrayList<Future<Long>>();
+
+        for (int i = 0; i < threads; i++) {
+            counts.add(pool.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    barrier.await();
+                    long end = System.nanoTime() + runNanos;
+                    long calls = 0;
+
+                    while (System.nanoTime() < end) {
+                        client.getBlockCount();
+                        calls++;
+                    }
+
+                    return calls;
+                }
+            }));
+        }
+
+        long total = 0;
+
+        for (Future<Long> count : counts) {
+            total += count.get();
+        }
+
+        pool.shutdown();
+        return total / (double) seconds;
+    }
+}
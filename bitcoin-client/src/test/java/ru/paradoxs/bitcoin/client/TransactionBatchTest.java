@@ -0,0 +1,212 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinRpcException;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * Decodes listtransactions and listsinceblock into columns, and getrawmempool
+ * into a set, from a stub server that answers with whatever text the test has set.
+ */
+public class TransactionBatchTest {
+    private static final String TXID_1 = "a1b2c3d4e5f60718293a4b5c6d7e8f90a1b2c3d4e5f60718293a4b5c6d7e8f90";
+    private static final String TXID_2 = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+
+    private static final String ROWS =
+            "[{\"account\":\"alice\",\"address\":\"1Alice\",\"category\":\"receive\",\"amount\":1.5," +
+            "\"confirmations\":3,\"txid\":\"" + TXID_1 + "\",\"time\":1300000000}," +
+            "{\"account\":\"alice\",\"address\":\"1Bob\",\"category\":\"send\",\"amount\":-0.25,\"fee\":-0.0005," +
+            "\"confirmations\":0,\"txid\":\"" + TXID_2 + "\",\"time\":1300000100,\"comment\":\"rent\"," +
+            "\"message\":\"hi\",\"to\":\"bob\",\"walletconflicts\":[],\"bip125-replaceable\":\"no\"}]";
+
+    private HttpServer server;
+    private BitcoinClient client;
+    private volatile int status;
+    private volatile String body;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+
+                while (in.read() >= 0) {
+                    // The answer doesn't depend on the request
+                }
+
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+
+        client = new BitcoinClient("127.0.0.1", "user", "password", server.getAddress().getPort());
+    }
+
+    @After
+    public void stopServer() {
+        client.close();
+        server.stop(0);
+    }
+
+    private void answer(int status, String body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    private static void assertRows(TransactionBatch batch) {
+        assertEquals(2, batch.size());
+
+        assertEquals("receive", batch.getCategoryName(batch.getCategoryCode(0)));
+        assertEquals(150000000L, batch.getAmount(0));
+        assertFalse(batch.hasFee(0));
+        assertEquals(3, batch.getConfirmations(0));
+        assertEquals(TXID_1, batch.getTxIdHex(0));
+        assertEquals("alice", batch.getAccountName(batch.getAccountCode(0)));
+        assertEquals("1Alice", batch.getAddress(0));
+        assertEquals(1300000000L, batch.getTime(0));
+        assertNull(batch.getMessage(0));
+
+        assertEquals("send", batch.getCategoryName(batch.getCategoryCode(1)));
+        assertEquals(-25000000L, batch.getAmount(1));
+        assertEquals(-50000L, batch.getFee(1));
+        assertEquals(TXID_2, batch.getTxIdHex(1));
+        assertEquals("hi", batch.getMessage(1));
+        assertEquals("bob", batch.getTo(1));
+        assertEquals("1Bob", batch.getAddress(1));
+    }
+
+    @Test
+    public void testListTransactionBatchStreamsTheRows() {
+        answer(200, "{\"result\":" + ROWS + ",\"error\":null,\"id\":\"1\"}");
+
+        assertRows(client.listTransactionBatch("alice", 10, 0));
+    }
+
+    @Test
+    public void testListSinceBlockStreamsTheRows() {
+        answer(200, "{\"id\":\"1\",\"error\":null,\"result\":{\"transactions\":" + ROWS + ",\"removed\":[]," +
+                    "\"lastblock\":\"000000000000000000024bead8df69990852c202db0e0097c1a12ea637d7e96d\"}}");
+
+        assertRows(client.listSinceBlock(null));
+    }
+
+    @Test
+    public void testStreamedErrorIsThrownWithCode() {
+        answer(500, "{\"result\":null,\"error\":{\"code\":-8,\"message\":\"Negative count\"},\"id\":\"1\"}");
+
+        try {
+            client.listTransactionBatch("alice", 10, 0);
+            fail("listtransactions should have failed");
+        } catch (BitcoinRpcException e) {
+            assertEquals(BitcoinRpcException.RPC_INVALID_PARAMETER, e.getCode());
+            assertEquals("listtransactions", e.getMethod());
+        }
+    }
+
+    @Test
+    public void testMalformedTxIdIsAClientError() {
+        answer(200, "{\"result\":[{\"category\":\"receive\",\"amount\":1,\"txid\":\"xyz\"}],\"error\":null,\"id\":\"1\"}");
+
+        try {
+            client.listTransactionBatch("alice", 10, 0);
+            fail("A malformed txid shouldn't be decoded");
+        } catch (BitcoinClientException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        // The same, when the response is decoded into a JSON tree first
+        BitcoinClient treeClient = new BitcoinClient(new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                return (JSONObject) JSONParser.parse(body);
+            }
+        });
+
+        try {
+            treeClient.listTransactionBatch("alice", 10, 0);
+            fail("A malformed txid shouldn't be decoded");
+        } catch (BitcoinClientException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testTooManyCategoriesAreRefused() {
+        TransactionBatch batch = new TransactionBatch(4);
+
+        for (int i = 0; i < 128; i++) {
+            batch.add("category" + i, i, null, 0, null, null, null, null, null, 0);
+        }
+
+        assertEquals("category127", batch.getCategoryName(batch.getCategoryCode(127)));
+
+        try {
+            batch.add("category128", 128, null, 0, null, null, null, null, null, 0);
+            fail("The 129th category doesn't fit in a byte");
+        } catch (BitcoinClientException e) {
+            assertEquals(128, batch.size());
+            assertEquals(TransactionBatch.NONE, batch.findCategoryCode("category128"));
+        }
+
+        assertEquals(128, batch.add("category0", 0, null, 0, null, null, null, null, null, 0));
+    }
+
+    @Test
+    public void testGetRawMempoolStreamsTheIds() {
+        TxIdSet txIds = new TxIdSet(4);
+        txIds.add(TXID_2);
+        answer(200, "{\"result\":[\"" + TXID_1 + "\"],\"error\":null,\"id\":\"1\"}");
+
+        assertEquals(1, client.getRawMempool(txIds));
+        assertEquals(1, txIds.size());
+        assertTrue(txIds.contains(TXID_1));
+
+        answer(500, "{\"result\":null,\"error\":{\"code\":-1,\"message\":\"Busy\"},\"id\":\"1\"}");
+
+        try {
+            client.getRawMempool(txIds);
+            fail("getrawmempool should have failed");
+        } catch (BitcoinRpcException e) {
+            assertEquals("getrawmempool", e.getMethod());
+            assertEquals(1, txIds.size());
+        }
+    }
+}
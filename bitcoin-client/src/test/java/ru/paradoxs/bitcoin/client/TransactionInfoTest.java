@@ -0,0 +1,59 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Parses transactions from a made up server answering gettransaction.
+ */
+public class TransactionInfoTest {
+
+    @Test
+    public void testTimeIsParsed() {
+        JSONObject transaction = transaction().put("time", 1231006505L);
+
+        assertEquals(1231006505L, client(transaction).getTransaction("ab").getTime());
+    }
+
+    @Test
+    public void testTimeMayBeMissing() {
+        TransactionInfo info = client(transaction()).getTransaction("ab");
+
+        assertEquals(0, info.getTime());
+        assertEquals(new BigDecimal("1.5"), info.getAmount());
+    }
+
+    private static JSONObject transaction() {
+        return new JSONObject().put("txid", "ab").put("amount", new BigDecimal("1.5")).put("category", "receive")
+                               .put("confirmations", 1);
+    }
+
+    private static BitcoinClient client(final JSONObject transaction) {
+        return new BitcoinClient(new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                assertEquals("gettransaction", message.getString("method"));
+
+                return new JSONObject().put("result", transaction).put("error", null).put("id", message.get("id"));
+            }
+        });
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Subscribes to the history of an account on a fake server, which answers
+ * listtransactions from a list of transactions "tx0", "tx1", ... oldest first.
+ */
+public class TransactionPublisherTest {
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<String> transactions = new ArrayList<String>();
+    private int calls = 0;
+
+    private final Transport fakeServer = new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            JSONArray parameters = message.getJSONArray("params");
+            int count = parameters.getInt(1);
+            int from = parameters.size() > 2 ? parameters.getInt(2) : 0;
+            JSONArray result = new JSONArray();
+
+            synchronized (transactions) {
+                calls++;
+                int end = Math.max(0, transactions.size() - from);
+
+                for (int i = Math.max(0, end - count); i < end; i++) {
+                    result.element(new JSONObject().put("txid", transactions.get(i)).put("category", "receive")
+                                                   .put("amount", 1).put("time", i).put("confirmations", 1));
+                }
+            }
+
+            return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+        }
+    };
+
+    private void addTransactions(int count) {
+        synchronized (transactions) {
+            for (int i = 0; i < count; i++) {
+                transactions.add("tx" + transactions.size());
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyFetchesWhatIsAskedFor() {
+        addTransactions(25);
+        Recorder recorder = new Recorder();
+        new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD).subscribe(recorder);
+
+        recorder.subscription.request(3);
+        assertEquals(3, recorder.received.size());
+        assertEquals("tx24", recorder.received.get(0));
+        assertEquals("tx22", recorder.received.get(2));
+        assertEquals(1, calls);
+        assertFalse(recorder.completed);
+
+        recorder.subscription.request(100);
+        assertEquals(25, recorder.received.size());
+        assertEquals("tx0", recorder.received.get(24));
+        assertTrue(recorder.completed);
+        assertNull(recorder.error);
+    }
+
+    @Test
+    public void testCancelAndBadRequest() throws Exception {
+        addTransactions(25);
+        Recorder cancelling = new Recorder();
+        cancelling.cancelAfter = 2;
+        new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD).subscribe(cancelling);
+
+        cancelling.subscription.request(5);
+        cancelling.subscription.request(5);
+        assertEquals(2, cancelling.received.size());
+        assertFalse(cancelling.completed);
+
+        // The buffered rest of the page isn't held on to
+        Recorder later = new Recorder();
+        new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD).subscribe(later);
+        later.subscription.request(2);
+        assertEquals(8, buffered(later.subscription));
+        later.subscription.cancel();
+        assertEquals(0, buffered(later.subscription));
+
+        Recorder bad = new Recorder();
+        new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD).subscribe(bad);
+
+        bad.subscription.request(0);
+        bad.subscription.request(5);
+        assertTrue(bad.error instanceof IllegalArgumentException);
+        assertTrue(bad.received.isEmpty());
+    }
+
+    @Test
+    public void testNewTransactionsFollowDemand() throws Exception {
+        addTransactions(2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Recorder recorder = new Recorder();
+
+        try {
+            TransactionPublisher publisher = new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD);
+            publisher.follow(scheduler, 10, TimeUnit.MILLISECONDS);
+            publisher.subscribe(recorder);
+
+            recorder.subscription.request(3);
+            addTransactions(50);
+            recorder.await(3);
+
+            // Only the oldest new transaction was asked for
+            assertEquals("tx2", recorder.received.get(2));
+
+            recorder.subscription.request(49);
+            recorder.await(52);
+
+            for (int i = 0; i < 50; i++) {
+                assertEquals("tx" + (i + 2), recorder.received.get(i + 2));
+            }
+
+            Thread.sleep(50);
+            assertEquals(52, recorder.received.size());
+        } finally {
+            recorder.subscription.cancel();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResyncsWhenPublishedTransactionsVanish() throws Exception {
+        addTransactions(5);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Recorder recorder = new Recorder();
+
+        try {
+            TransactionPublisher publisher = new TransactionPublisher(new BitcoinClient(fakeServer), "", 10, SAME_THREAD);
+            publisher.follow(scheduler, 10, TimeUnit.MILLISECONDS);
+            publisher.subscribe(recorder);
+            recorder.subscription.request(5);
+
+            // The newest one is dropped, the one before it is still known
+            synchronized (transactions) {
+                transactions.set(4, "new0");
+            }
+
+            recorder.subscription.request(1);
+            assertEquals(6, recorder.received.size());
+            assertEquals("new0", recorder.received.get(5));
+
+            // All published ones are gone, the history isn't published again
+            synchronized (transactions) {
+                transactions.clear();
+
+                for (int i = 0; i < 30; i++) {
+                    transactions.add("moved" + i);
+                }
+            }
+
+            int before;
+
+            synchronized (transactions) {
+                before = calls;
+            }
+
+            recorder.subscription.request(100);
+
+            // The next poll pages through all 30 without finding any, then starts over
+            for (;;) {
+                synchronized (transactions) {
+                    if (calls >= before + 4) {
+                        break;
+                    }
+                }
+
+                Thread.sleep(5);
+            }
+
+            assertEquals(6, recorder.received.size());
+
+            addTransactions(2);
+            recorder.await(8);
+            assertEquals("tx30", recorder.received.get(6));
+            assertEquals("tx31", recorder.received.get(7));
+        } finally {
+            recorder.subscription.cancel();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static int buffered(Subscription subscription) throws Exception {
+        Field buffer = subscription.getClass().getDeclaredField("buffer");
+        buffer.setAccessible(true);
+        return ((Collection<?>) buffer.get(subscription)).size();
+    }
+
+    private static class Recorder implements Subscriber<TransactionInfo> {
+        final List<String> received = new ArrayList<String>();
+        volatile Subscription subscription;
+        volatile boolean completed = false;
+        volatile Throwable error = null;
+        int cancelAfter = -1;
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public synchronized void onNext(TransactionInfo info) {
+            received.add(info.getTxId());
+            notifyAll();
+
+            if (received.size() == cancelAfter) {
+                subscription.cancel();
+            }
+        }
+
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+
+            assertEquals(count, received.size());
+        }
+    }
+}
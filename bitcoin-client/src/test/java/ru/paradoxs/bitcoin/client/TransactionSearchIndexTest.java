@@ -0,0 +1,119 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Searches made up transactions.
+ */
+public class TransactionSearchIndexTest {
+
+    private static String txId(int i) {
+        return String.format("%08x", i * 0x9e3779b9L & 0xffffffffL) + "00000000000000000000000000000000000000000000000000000000";
+    }
+
+    private static TransactionBatch history() {
+        TransactionBatch batch = new TransactionBatch(4);
+        batch.add("send", -100000, -1000L, 10, txId(0), "", null, "Invoice 1042 for Acme", "1AcmeAddress", 1000);
+        batch.add("receive", 50000, null, 8, txId(1), "", null, "Refund invoice 1043", null, 1100);
+        batch.add("move", -20000, null, 0, txId(2), "", "Savings", null, null, 1200);
+        batch.add("send", -30000, -1000L, 5, txId(3), "", null, "Acme monthly", "1AcmeAddress", 1300);
+        return batch;
+    }
+
+    @Test
+    public void testFindsByExactValueAndPrefix() {
+        TransactionSearchIndex index = new TransactionSearchIndex();
+        index.add(history());
+
+        assertEquals(4, index.size());
+        assertEquals(Collections.singletonList(txId(0)),
+                     index.findExact(TransactionSearchIndex.MESSAGE, "invoice 1042 FOR acme", 10));
+        assertEquals(Arrays.asList(txId(0), txId(3)), index.findExact(TransactionSearchIndex.TO, "1AcmeAddress", 10));
+        assertEquals(Collections.singletonList(txId(2)),
+                     index.findExact(TransactionSearchIndex.OTHER_ACCOUNT, "savings", 10));
+        assertEquals(Arrays.asList(txId(0), txId(3)), index.findExact(TransactionSearchIndex.CATEGORY, "send", 10));
+
+        assertEquals(Arrays.asList(txId(0), txId(1)), index.findPrefix(TransactionSearchIndex.MESSAGE, "inv", 10));
+        assertEquals(Collections.singletonList(txId(0)), index.findPrefix(TransactionSearchIndex.MESSAGE, "inv", 1));
+        assertEquals(Collections.singletonList(txId(2)), index.findPrefix(TransactionSearchIndex.OTHER_ACCOUNT, "Sav", 10));
+        assertTrue(index.findPrefix(TransactionSearchIndex.TO, "2", 10).isEmpty());
+    }
+
+    @Test
+    public void testFindsAllWordsAndIndexesTransactionsOnce() {
+        TransactionSearchIndex index = new TransactionSearchIndex();
+        index.add(history());
+
+        assertEquals(Collections.singletonList(txId(1)), index.findWords("refund Invoice 104", 10));
+        assertEquals(Arrays.asList(txId(0), txId(3)), index.findWords("acme", 10));
+        assertTrue(index.findWords("acme weekly", 10).isEmpty());
+
+        // Seen again, for instance by listsinceblock, with a comment added since
+        TransactionInfo again = new TransactionInfo();
+        again.setTxId(txId(2));
+        again.setCategory("move");
+        again.setOtherAccount("Savings");
+        again.setMessage("Acme savings");
+        index.add(history());
+        index.add(again);
+
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList(txId(0), txId(2), txId(3)), index.findWords("acme", 10));
+        assertEquals(Collections.singletonList(txId(2)),
+                     index.findExact(TransactionSearchIndex.OTHER_ACCOUNT, "Savings", 10));
+    }
+
+    @Test
+    public void testAddingAgainReplacesTheTerms() {
+        TransactionSearchIndex index = new TransactionSearchIndex();
+        index.add(history());
+
+        TransactionBatch mined = new TransactionBatch(1);
+        mined.add("immature", 5000000000L, null, 1, txId(4), "", null, "Acme pool", null, 1400);
+        index.add(mined);
+        int termCount = index.getTermCount();
+
+        // Matured, with the comment edited
+        TransactionBatch matured = new TransactionBatch(1);
+        matured.add("generate", 5000000000L, null, 101, txId(4), "", null, "Block reward", null, 1400);
+        index.add(matured);
+
+        assertEquals(5, index.size());
+        assertTrue(index.findExact(TransactionSearchIndex.CATEGORY, "immature", 10).isEmpty());
+        assertEquals(Collections.singletonList(txId(4)), index.findExact(TransactionSearchIndex.CATEGORY, "generate", 10));
+        assertEquals(Arrays.asList(txId(0), txId(3)), index.findWords("acme", 10));
+        assertTrue(index.findWords("pool", 10).isEmpty());
+        assertEquals(Collections.singletonList(txId(4)), index.findWords("block reward", 10));
+        // Immature, the comment and pool gone, generate, the comment, block and reward new
+        assertEquals(termCount - 3 + 4, index.getTermCount());
+
+        // The rows of a transaction paying two addresses keep each other's terms
+        TransactionBatch twice = new TransactionBatch(2);
+        twice.add("send", -1000, -1000L, 1, txId(5), "", null, null, "1First", 1500);
+        twice.add("send", -2000, -1000L, 1, txId(5), "", null, null, "1Second", 1500);
+        index.add(twice);
+        index.add(twice);
+
+        assertEquals(Collections.singletonList(txId(5)), index.findExact(TransactionSearchIndex.TO, "1First", 10));
+        assertEquals(Collections.singletonList(txId(5)), index.findExact(TransactionSearchIndex.TO, "1Second", 10));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Keeps a view of the outputs a fake server lists as unspent.
+ */
+public class UtxoViewTest {
+    private final List<String> listed = new ArrayList<String>();
+
+    private final BitcoinClient client = new BitcoinClient(new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            JSONArray result = new JSONArray();
+
+            synchronized (listed) {
+                for (String txId : listed) {
+                    result.element(new JSONObject().put("txid", txId).put("vout", 0).put("amount", 1)
+                                                   .put("confirmations", 6));
+                }
+            }
+
+            return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+        }
+    });
+
+    private void list(String... txIds) {
+        synchronized (listed) {
+            listed.clear();
+            listed.addAll(Arrays.asList(txIds));
+        }
+    }
+
+    private static List<String> txIds(List<UnspentOutput> outputs) {
+        List<String> txIds = new ArrayList<String>();
+
+        for (UnspentOutput output : outputs) {
+            txIds.add(output.getTxId());
+        }
+
+        return txIds;
+    }
+
+    @Test
+    public void testReservedOutputsAreNotAvailable() {
+        UtxoView view = new UtxoView(client);
+        list("a", "b");
+        assertEquals(2, view.refresh());
+
+        List<UnspentOutput> outputs = view.getAvailable(1);
+        UnspentOutput a = outputs.get(0);
+        UnspentOutput b = outputs.get(1);
+
+        assertTrue(view.reserve(Arrays.asList(a)));
+        assertEquals(Arrays.asList("b"), txIds(view.getAvailable(1)));
+
+        // Nothing is reserved if any of them is taken
+        assertFalse(view.reserve(Arrays.asList(b, a)));
+        assertEquals(Arrays.asList("b"), txIds(view.getAvailable(1)));
+
+        view.release(Arrays.asList(a));
+        assertEquals(Arrays.asList("a", "b"), txIds(view.getAvailable(1)));
+        assertEquals(200000000L, view.getBalance(1));
+    }
+
+    @Test
+    public void testRefreshKeepsOurSpendsUntilTheServerHasThem() {
+        UtxoView view = new UtxoView(client);
+        list("a", "b");
+        view.refresh();
+
+        UnspentOutput a = view.getAvailable(1).get(0);
+        UnspentOutput change = new UnspentOutput("c", 1, null, null, null, 50000000, 0);
+        assertTrue(view.reserve(Arrays.asList(a)));
+        view.spend(Arrays.asList(a), change);
+
+        assertEquals(Arrays.asList("b"), txIds(view.getAvailable(1)));
+        assertEquals(Arrays.asList("b", "c"), txIds(view.getAvailable(0)));
+
+        // The server hasn't seen the send yet, so it still lists a, and not the change
+        assertEquals(1, view.refresh());
+        assertEquals(Arrays.asList("b"), txIds(view.getAvailable(0)));
+
+        // Now it has, and d came in too
+        list("b", "c", "d");
+        assertEquals(2, view.refresh());
+        assertEquals(Arrays.asList("b", "c", "d"), txIds(view.getAvailable(0)));
+
+        // A reserved output that another send spent is dropped
+        UnspentOutput d = view.getAvailable(0).get(2);
+        assertTrue(view.reserve(Arrays.asList(d)));
+        list("b", "c");
+        assertEquals(1, view.refresh());
+        assertEquals(2, view.size());
+        assertFalse(view.reserve(Arrays.asList(d)));
+    }
+}
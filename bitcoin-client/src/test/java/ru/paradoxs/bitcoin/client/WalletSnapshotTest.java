@@ -0,0 +1,189 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Captures a snapshot from a fake wallet, writes and loads it, and catches up
+ * on two new blocks.
+ */
+public class WalletSnapshotTest {
+
+    private int height = 100;
+    private boolean caughtUp = false;
+    private int blockDuringCapture = -1;
+    private int accountListings = 0;
+    private File file;
+
+    private final Transport wallet = new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+            Object result;
+
+            if (method.equals("getblockcount")) {
+                result = height;
+            } else if (method.equals("getblockhash")) {
+                result = "hash" + message.getJSONArray("params").getInt(0);
+            } else if (caughtUp) {
+                // Everything after the capture has to come from the blocks since the watermark
+                if (!method.equals("listsinceblock")) {
+                    throw new IllegalStateException("Catching up shouldn't call " + method);
+                }
+
+                assertEquals("hash100", message.getJSONArray("params").getString(0));
+                result = new JSONObject().put("lastblock", "hash" + height).put("transactions", new JSONArray()
+                        .element(transaction("receive", "alice", "a1", "0.5", null, 1, txId(3)))
+                        .element(transaction("receive", "bob", "a2", "1.0", null, 2, txId(4)))
+                        .element(transaction("send", "", "x1", "-0.2", "-0.0001", 1, txId(5)))
+                        .element(transaction("receive", "alice", "a1", "0.3", null, 0, txId(6))));
+            } else if (method.equals("listaccounts")) {
+                if (++accountListings == blockDuringCapture) {
+                    height++;
+                }
+
+                result = new JSONObject().put("", 1).put("alice", 2.5);
+            } else if (method.equals("listreceivedbyaddress")) {
+                result = new JSONArray().element(new JSONObject().put("address", "a1").put("account", "alice")
+                                                                 .put("amount", 2.5).put("confirmations", 3));
+            } else if (method.equals("listtransactions")) {
+                result = new JSONArray().element(transaction("receive", "alice", "a1", "2.5", null, 3, txId(1)))
+                                        .element(transaction("receive", "", "a0", "1", null, 10, txId(2)));
+            } else {
+                throw new IllegalStateException("Unexpected call: " + method);
+            }
+
+            return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+        }
+    };
+
+    private static JSONObject transaction(String category, String account, String address, String amount,
+                                          String fee, long confirmations, String txId) {
+        JSONObject transaction = new JSONObject().put("category", category).put("account", account)
+                                                 .put("address", address).put("amount", new BigDecimal(amount))
+                                                 .put("confirmations", confirmations).put("txid", txId);
+
+        return fee == null ? transaction : transaction.put("fee", new BigDecimal(fee));
+    }
+
+    private static String txId(int n) {
+        StringBuilder hex = new StringBuilder();
+
+        for (int i = 0; i < TxIdSet.TXID_LENGTH; i++) {
+            hex.append(String.format("%02x", n));
+        }
+
+        return hex.toString();
+    }
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("wallet", ".snapshot");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTripAndCatchUp() {
+        WalletSnapshot captured = WalletSnapshot.capture(new BitcoinClient(wallet), 10);
+        captured.write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        WalletSnapshot loaded = WalletSnapshot.load(file);
+        assertEquals(100, loaded.getBlockHeight());
+        assertEquals("hash100", loaded.getBlockHash());
+        assertEquals(100000000L, loaded.getBalances().getSatoshis(""));
+        assertEquals(250000000L, loaded.getBalances().getSatoshis("alice"));
+        assertEquals(1, loaded.getAddressCount());
+        assertEquals("a1", loaded.getAddress(0));
+        assertEquals("alice", loaded.getAddressAccount(0));
+        assertEquals(250000000L, loaded.getAddressAmountSatoshis(0));
+        assertEquals(3, loaded.getAddressConfirmations(0));
+        assertEquals(2, loaded.getTxIds().size());
+        assertTrue(loaded.getTxIds().contains(txId(2)));
+
+        height = 102;
+        caughtUp = true;
+        loaded.catchUp(new BitcoinClient(wallet));
+
+        assertEquals(102, loaded.getBlockHeight());
+        assertEquals("hash102", loaded.getBlockHash());
+        assertEquals(300000000L, loaded.getBalances().getSatoshis("alice"));
+        assertEquals(100000000L, loaded.getBalances().getSatoshis("bob"));
+        assertEquals(79990000L, loaded.getBalances().getSatoshis(""));
+
+        // The unconfirmed 0.3 to a1 waits for the next catch up
+        assertEquals(2, loaded.getAddressCount());
+        assertEquals(300000000L, loaded.getAddressAmountSatoshis(0));
+        assertEquals(1, loaded.getAddressConfirmations(0));
+        assertEquals("a2", loaded.getAddress(1));
+        assertEquals("bob", loaded.getAddressAccount(1));
+        assertEquals(2, loaded.getAddressConfirmations(1));
+        assertEquals(6, loaded.getTxIds().size());
+
+        // Writing over the previous snapshot
+        loaded.write(file);
+        assertEquals(6, WalletSnapshot.load(file).getTxIds().size());
+    }
+
+    @Test
+    public void testCapturesAgainWhenABlockComesMeanwhile() {
+        blockDuringCapture = 1;
+        WalletSnapshot captured = WalletSnapshot.capture(new BitcoinClient(wallet), 10);
+
+        // The balances of the first try may hold block 101 already, so they aren't kept with watermark 100
+        assertEquals(2, accountListings);
+        assertEquals(101, captured.getBlockHeight());
+        assertEquals("hash101", captured.getBlockHash());
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsRejected() throws Exception {
+        WalletSnapshot.capture(new BitcoinClient(wallet), 10).write(file);
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+
+        try {
+            truncated.setLength(truncated.length() - 40);
+        } finally {
+            truncated.close();
+        }
+
+        try {
+            WalletSnapshot.load(file);
+            fail("A truncated snapshot shouldn't load");
+        } catch (BitcoinClientException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt wallet snapshot"));
+        }
+    }
+}
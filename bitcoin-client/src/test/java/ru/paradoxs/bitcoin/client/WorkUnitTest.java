@@ -0,0 +1,88 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+/**
+ * Decodes the genesis block header as getwork would have sent it, and checks
+ * the parsed fields and the block hash.
+ */
+public class WorkUnitTest {
+
+    private static final String GENESIS_DATA =
+            "00000001000000000000000000000000000000000000000000000000000000000000000" +
+            "0fdeda33bb2127b7a3e2cc77a618f7667c31bc87f32518a88aab89f3a4a5e1e4b495fab29" +
+            "1d00ffff7c2bac1d00000080000000000000000000000000000000000000000000000000" +
+            "0000000000000000000000000000000080020000";
+    private static final String MIDSTATE = "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String HASH1 =
+            "00000000000000000000000000000000000000000000000000000000000000000000008000000000000000000000000000000000000000000000000000010000";
+    private static final String TARGET = "0000000000000000000000000000000000000000000000000000ffff00000000";
+    private static final String GENESIS_HASH = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+    private static final int    GENESIS_NONCE = 2083236893;
+
+    private final WorkUnit unit = new WorkUnit(GENESIS_DATA, MIDSTATE, HASH1, TARGET);
+
+    @Test
+    public void testHeaderFields() {
+        assertEquals(1, unit.getVersion());
+        assertEquals("0000000000000000000000000000000000000000000000000000000000000000", unit.getPrevBlockHash());
+        assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", unit.getMerkleRoot());
+        assertEquals(1231006505, unit.getTime());
+        assertEquals(0x1d00ffff, unit.getBits());
+        assertEquals(GENESIS_NONCE, unit.getNonce());
+    }
+
+    @Test
+    public void testHeaderHashesToGenesisBlock() throws Exception {
+        byte[] hash = hash(GENESIS_NONCE);
+
+        assertEquals(GENESIS_HASH, reversedHex(hash));
+        assertTrue(unit.meetsTarget(hash));
+        assertFalse(unit.meetsTarget(hash(GENESIS_NONCE + 1)));
+    }
+
+    @Test
+    public void testSolutionOnlyChangesTheNonce() {
+        char[] buffer = new char[256];
+
+        assertEquals(GENESIS_DATA, new String(unit.encodeSolution(GENESIS_NONCE, buffer)));
+        assertEquals(GENESIS_DATA.replace("7c2bac1d", "0000002a"), new String(unit.encodeSolution(42, buffer)));
+    }
+
+    private byte[] hash(int nonce) throws Exception {
+        byte[] header = new byte[WorkUnit.HEADER_LENGTH];
+        unit.getHeader(nonce, header, 0);
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        return sha256.digest(sha256.digest(header));
+    }
+
+    private static String reversedHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            hex.append(String.format("%02x", bytes[i] & 0xff));
+        }
+
+        return hex.toString();
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * Sends requests with text that is longer in UTF-8 than in characters to a
+ * stub server, which notes how each request came and what it said. Asked to,
+ * the server answers compressed, in two parts, the second only once the
+ * client has decoded the first.
+ */
+public class HttpSessionCompressionTest {
+    private static final String TEXT = "деньги ₿";
+
+    private HttpServer server;
+    private HttpSession session;
+    private BitcoinClient client;
+
+    private volatile String encoding;
+    private volatile int    length;
+    private volatile String received;
+
+    private volatile String         responseEncoding = null;
+    private volatile CountDownLatch firstDecoded;
+    private volatile boolean        waitedForClient;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(exchange.getRequestBody())
+                                                         : exchange.getRequestBody();
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+                for (int b = in.read(); b >= 0; b = in.read()) {
+                    request.write(b);
+                }
+
+                length = request.size();
+
+                JSONObject message = JSONParser.parseObject(new InputStreamReader(
+                        new ByteArrayInputStream(request.toByteArray()), "UTF-8"));
+                received = message.getJSONArray("params").getString(0);
+                JSONObject response = new JSONObject().put("result", 1)
+                                                      .put("error", null).put("id", message.get("id"));
+                if (responseEncoding != null) {
+                    respondInParts(exchange, message.get("id"));
+                    return;
+                }
+
+                byte[] body = response.toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        session = new HttpSession(uri, new UsernamePasswordCredentials("user", "password"));
+        client = new BitcoinClient(session);
+    }
+
+    private void respondInParts(HttpExchange exchange, Object id) throws IOException {
+        exchange.getResponseHeaders().set("Content-Encoding", responseEncoding);
+        exchange.sendResponseHeaders(200, 0);      // Chunked
+
+        // Flushing the compressor sends all that has been written so far
+        OutputStream out = responseEncoding.equals("gzip")
+                ? new GZIPOutputStream(exchange.getResponseBody(), true)
+                : new DeflaterOutputStream(exchange.getResponseBody(), new Deflater(), true);
+        out.write("{\"result\":[\"first\",".getBytes("UTF-8"));
+        out.flush();
+
+        try {
+            waitedForClient = firstDecoded.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        out.write(("\"second\"],\"error\":null,\"id\":\"" + id + "\"}").getBytes("UTF-8"));
+        out.close();
+    }
+
+    @After
+    public void stop() {
+        session.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testRequestsAreSentAsUtf8() {
+        client.tryCall("echo", TEXT);
+        assertEquals(TEXT, received);
+        assertNull(encoding);
+    }
+
+    @Test
+    public void testThresholdIsInBytes() {
+        client.tryCall("echo", TEXT);
+        int bytes = length;
+
+        // One byte more than the request is long in UTF-8, but still more than its characters
+        session.setRequestCompressionThreshold(bytes + 1);
+        client.tryCall("echo", TEXT);
+        assertNull(encoding);
+
+        session.setRequestCompressionThreshold(bytes);
+        client.tryCall("echo", TEXT);
+        assertEquals(TEXT, received);
+        assertEquals("gzip", encoding);
+    }
+
+    @Test
+    public void testGzipResponseIsDecodedWhileItArrives() {
+        assertDecodedWhileItArrives("gzip");
+    }
+
+    @Test
+    public void testDeflateResponseIsDecodedWhileItArrives() {
+        assertDecodedWhileItArrives("deflate");
+    }
+
+    private void assertDecodedWhileItArrives(String encoding) {
+        responseEncoding = encoding;
+        firstDecoded = new CountDownLatch(1);
+
+        JSONObject request = new JSONObject().put("method", "echo").put("params", new JSONArray().element(TEXT))
+                                             .put("id", "1");
+        List<String> result = session.sendAndReceive(request, new StreamingTransport.ResponseHandler<List<String>>() {
+            public List<String> handle(JSONParser parser) throws IOException {
+                List<String> values = new ArrayList<String>();
+
+                parser.beginObject();
+
+                while (parser.hasNext()) {
+                    if (!parser.nextName().equals("result")) {
+                        parser.nextValue();
+                        continue;
+                    }
+
+                    parser.beginArray();
+
+                    while (parser.hasNext()) {
+                        values.add(parser.nextString());
+                        firstDecoded.countDown();
+                    }
+
+                    parser.endArray();
+                }
+
+                parser.endObject();
+                return values;
+            }
+        });
+
+        assertEquals("[first, second]", result.toString());
+        assertTrue("The first part was only decoded with the whole body", waitedForClient);
+
+        // And decoded into a tree
+        firstDecoded = new CountDownLatch(0);
+        assertEquals(JSONParser.parse("[\"first\",\"second\"]").toString(), client.tryCall("echo", TEXT).getResult().toString());
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * Stress tests sharing one session between threads: many trials of threads
+ * racing to make the first request, and many concurrent requests checking
+ * that each thread gets the answer to its own.
+ */
+public class HttpSessionConcurrencyTest {
+    private static final int THREADS = 8;
+
+    private HttpServer server;
+    private ExecutorService threads;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(Executors.newFixedThreadPool(THREADS));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // Answers with the first parameter, so every caller can check it got its own answer
+                JSONObject request = JSONParser.parseObject(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+                JSONObject response = new JSONObject().put("result", request.getJSONArray("params").get(0))
+                                                      .put("error", null).put("id", request.get("id"));
+                byte[] body = response.toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        threads = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void stop() {
+        threads.shutdownNow();
+        server.stop(0);
+    }
+
+    private HttpSession newSession() {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        return new HttpSession(uri, new UsernamePasswordCredentials("user", "password"));
+    }
+
+    @Test
+    public void testRacingFirstUsesShareOneClient() throws Exception {
+        for (int trial = 0; trial < 200; trial++) {
+            final HttpSession session = newSession();
+            final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<HttpClient>> clients = new ArrayList<Future<HttpClient>>();
+
+            for (int i = 0; i < THREADS; i++) {
+                clients.add(threads.submit(new Callable<HttpClient>() {
+                    public HttpClient call() throws Exception {
+                        barrier.await();
+                        return session.getHttpClient();
+                    }
+                }));
+            }
+
+            HttpClient first = clients.get(0).get();
+
+            for (Future<HttpClient> client : clients) {
+                assertSame(first, client.get());
+            }
+
+            session.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsGetTheirOwnAnswers() throws Exception {
+        final BitcoinClient client = new BitcoinClient(newSession());
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+
+            results.add(threads.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    barrier.await();
+
+                    for (int call = 0; call < 200; call++) {
+                        String expected = thread + "-" + call;
+                        assertEquals(expected, client.tryCall("echo", expected).getString());
+                    }
+
+                    return 200;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(200), result.get());
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClosedSessionRefusesRequests() {
+        HttpSession session = newSession();
+        BitcoinClient client = new BitcoinClient(session);
+        assertEquals("before", client.tryCall("echo", "before").getString());
+
+        client.close();
+        assertTrue(session.isClosed());
+
+        try {
+            client.tryCall("echo", "after");
+            fail("A closed session shouldn't make requests");
+        } catch (HttpSessionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testResizingAppliesToRequestsAlreadyWaiting() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        final CountDownLatch[] release = { new CountDownLatch(1) };
+
+        HttpServer holding = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        holding.setExecutor(Executors.newCachedThreadPool());
+        holding.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                JSONObject request = JSONParser.parseObject(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+                int now = inFlight.incrementAndGet();
+
+                for (int most = mostInFlight.get(); now > most && !mostInFlight.compareAndSet(most, now); ) {
+                    most = mostInFlight.get();
+                }
+
+                try {
+                    release[0].await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                inFlight.decrementAndGet();
+                byte[] body = new JSONObject().put("result", "pong").put("error", null).put("id", request.get("id"))
+                                              .toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        holding.start();
+
+        URI uri = URI.create("http://127.0.0.1:" + holding.getAddress().getPort() + "/");
+        final HttpSession session = new HttpSession(uri, new UsernamePasswordCredentials("user", "password"));
+        final BitcoinClient client = new BitcoinClient(session);
+        ExecutorService callers = Executors.newCachedThreadPool();
+        List<Future<Object>> calls = new ArrayList<Future<Object>>();
+        Callable<Object> call = new Callable<Object>() {
+            public Object call() {
+                return client.tryCall("ping").getString();
+            }
+        };
+
+        try {
+            session.setMaxConnections(1);
+
+            for (int i = 0; i < 4; i++) {
+                calls.add(callers.submit(call));
+            }
+
+            awaitInFlight(inFlight, 1);
+
+            // Grown while three wait, and two more come: two at a time, not one plus two
+            session.setMaxConnections(2);
+            calls.add(callers.submit(call));
+            calls.add(callers.submit(call));
+            awaitInFlight(inFlight, 2);
+            Thread.sleep(200);
+            assertEquals(2, inFlight.get());
+
+            release[0].countDown();
+
+            for (Future<Object> done : calls) {
+                assertEquals("pong", done.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(2, mostInFlight.get());
+
+            // Shrunk while none are under way
+            release[0] = new CountDownLatch(1);
+            mostInFlight.set(0);
+            calls.clear();
+            session.setMaxConnections(1);
+
+            for (int i = 0; i < 3; i++) {
+                calls.add(callers.submit(call));
+            }
+
+            awaitInFlight(inFlight, 1);
+            Thread.sleep(200);
+            release[0].countDown();
+
+            for (Future<Object> done : calls) {
+                assertEquals("pong", done.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, mostInFlight.get());
+        } finally {
+            release[0].countDown();
+            callers.shutdownNow();
+            client.close();
+            holding.stop(0);
+        }
+    }
+
+    private static void awaitInFlight(AtomicInteger inFlight, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (inFlight.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(count, inFlight.get());
+    }
+}
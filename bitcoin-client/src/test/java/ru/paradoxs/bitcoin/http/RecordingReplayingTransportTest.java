@@ -0,0 +1,163 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONArray;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Records exchanges with a fake server, and plays them back without it.
+ */
+public class RecordingReplayingTransportTest {
+
+    private static final Transport FAKE_SERVER = new Transport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            String method = message.getString("method");
+
+            if (method.equals("stop")) {
+                throw new HttpSessionException("HTTP Status - Internal Server Error (500)");
+            }
+
+            JSONObject response = new JSONObject();
+            response.put("result", method.equals("getbalance") ? "12.5" : "42");
+            response.put("error", null);
+            response.put("id", message.get("id"));
+            return response;
+        }
+    };
+
+    @Test
+    public void testReplayAnswersLikeTheRecordedServer() {
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        RecordingTransport recorder = new RecordingTransport(FAKE_SERVER, recording);
+        BitcoinClient recordingClient = new BitcoinClient(recorder);
+
+        BigDecimal balance = recordingClient.getBalance();
+        int blockCount = recordingClient.getBlockCount();
+
+        try {
+            recordingClient.stop();
+            fail("stop should have failed");
+        } catch (HttpSessionException expected) {
+        }
+
+        recorder.close();
+
+        ReplayingTransport replayer = new ReplayingTransport(new ByteArrayInputStream(recording.toByteArray()), false);
+        BitcoinClient replayingClient = new BitcoinClient(replayer);
+
+        assertEquals(3, replayer.size());
+        assertEquals(balance, replayingClient.getBalance());
+        assertEquals(blockCount, replayingClient.getBlockCount());
+
+        try {
+            replayingClient.stop();
+            fail("stop should have failed");
+        } catch (HttpSessionException expected) {
+            assertEquals("HTTP Status - Internal Server Error (500)", expected.getMessage());
+        }
+
+        assertEquals(0, replayer.remaining());
+    }
+
+    private static int batches = 0;
+
+    private static final BatchTransport FAKE_BATCH_SERVER = new BatchTransport() {
+        public JSONObject sendAndReceive(JSONObject message) {
+            JSONArray params = message.getJSONArray("params");
+
+            JSONObject response = new JSONObject();
+            response.put("result", "hash" + params.get(0));
+            response.put("error", null);
+            response.put("id", message.get("id"));
+            return response;
+        }
+
+        public List<JSONObject> sendAndReceiveBatch(List<JSONObject> messages) {
+            List<JSONObject> responses = new ArrayList<JSONObject>();
+
+            for (JSONObject message : messages) {
+                responses.add(sendAndReceive(message));
+            }
+
+            batches++;
+            return responses;
+        }
+    };
+
+    @Test
+    public void testBatchIsRecordedAndReplayedAsOneExchange() {
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        RecordingTransport recorder = new RecordingTransport(FAKE_BATCH_SERVER, recording);
+        int batchesBefore = batches;
+
+        List<String> hashes = new BitcoinClient(recorder).getBlockHashes(10, 3);
+        recorder.close();
+
+        assertEquals(Arrays.asList("hash10", "hash11", "hash12"), hashes);
+        assertEquals(batchesBefore + 1, batches);
+
+        ReplayingTransport replayer = new ReplayingTransport(new ByteArrayInputStream(recording.toByteArray()), false);
+        assertEquals(1, replayer.size());
+        assertEquals(hashes, new BitcoinClient(replayer).getBlockHashes(10, 3));
+        assertEquals(0, replayer.remaining());
+
+        // Sending the requests one at a time isn't what was recorded
+        replayer.rewind();
+
+        try {
+            new BitcoinClient(replayer).getBlockHash(10);
+            fail("A single request shouldn't replay a batch");
+        } catch (HttpSessionException expected) {
+        }
+    }
+
+    @Test
+    public void testBatchToAPlainTransportIsRecordedAsOneExchange() {
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        RecordingTransport recorder = new RecordingTransport(FAKE_SERVER, recording);
+
+        new BitcoinClient(recorder).getBlockHashes(0, 2);
+        recorder.close();
+
+        ReplayingTransport replayer = new ReplayingTransport(new ByteArrayInputStream(recording.toByteArray()), false);
+        assertEquals(1, replayer.size());
+        assertEquals(Arrays.asList("42", "42"), new BitcoinClient(replayer).getBlockHashes(0, 2));
+    }
+
+    @Test(expected = HttpSessionException.class)
+    public void testReplayRejectsRequestsOutOfOrder() {
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        RecordingTransport recorder = new RecordingTransport(FAKE_SERVER, recording);
+        new BitcoinClient(recorder).getBalance();
+        recorder.close();
+
+        ReplayingTransport replayer = new ReplayingTransport(new ByteArrayInputStream(recording.toByteArray()), false);
+        new BitcoinClient(replayer).getBlockCount();
+    }
+}
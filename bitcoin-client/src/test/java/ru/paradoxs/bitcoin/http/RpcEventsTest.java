@@ -0,0 +1,188 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.AddressIndex;
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+
+/**
+ * Makes requests to a stub server, and checks what a listener is told and,
+ * where the JVM has JFR, what a flight recording holds.
+ */
+public class RpcEventsTest {
+    private static final String BODY = "{\"result\":1.5,\"error\":null,\"id\":\"1\"}";
+
+    private HttpServer server;
+    private HttpSession session;
+    private BitcoinClient client;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+
+                while (in.read() >= 0) {
+                    // The answer doesn't depend on the request
+                }
+
+                byte[] body = BODY.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        session = new HttpSession(uri, new UsernamePasswordCredentials("user", "password"));
+        client = new BitcoinClient(session);
+    }
+
+    @After
+    public void stop() {
+        session.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testListenerIsToldAboutRequestsAndConnections() {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        session.setRpcListener(new RpcListenerAdapter() {
+            @Override
+            public void rpcCompleted(String method, URI uri, long bytesOut, long bytesIn, int status, long durationNanos) {
+                assertTrue(bytesOut > 0);
+                assertEquals(BODY.length(), bytesIn);
+                events.add("completed " + method + " " + status);
+            }
+
+            @Override
+            public void responseDecoded(String method, long durationNanos) {
+                events.add("decoded " + method);
+            }
+
+            @Override
+            public void connectionAcquired(URI uri, long waitNanos, boolean created) {
+                events.add("acquired " + created);
+            }
+
+            @Override
+            public void connectionsEvicted(URI uri, long idleMillis) {
+                events.add("evicted " + idleMillis);
+            }
+        });
+
+        client.getBalance();
+        client.getBalance();
+        session.closeIdleConnections(1000);
+
+        assertEquals(Arrays.asList("acquired true", "decoded getbalance", "completed getbalance 200",
+                                   "acquired false", "decoded getbalance", "completed getbalance 200",
+                                   "evicted 1000"), events);
+
+        // Nothing is told once the listener is gone
+        session.setRpcListener(null);
+        client.getBalance();
+        assertEquals(7, events.size());
+    }
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        Class<?> recordingClass;
+
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+
+        Object recording = recordingClass.newInstance();
+        Method enable = recordingClass.getMethod("enable", String.class);
+        String[] names = { "RpcCall", "ResponseDecoded", "ConnectionAcquired", "ConnectionsEvicted", "CacheLookup" };
+
+        for (String name : names) {
+            enable.invoke(recording, "ru.paradoxs.bitcoin." + name);
+        }
+
+        recordingClass.getMethod("start").invoke(recording);
+        client.getBalance();
+        session.closeIdleConnections(1000);
+        new AddressIndex().getAccount("1Unknown");
+        recordingClass.getMethod("stop").invoke(recording);
+
+        File file = File.createTempFile("rpc", ".jfr");
+
+        try {
+            recordingClass.getMethod("dump", java.nio.file.Path.class).invoke(recording, file.toPath());
+            List<?> recorded = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", java.nio.file.Path.class).invoke(null, file.toPath());
+            List<String> events = new ArrayList<String>();
+
+            for (Object event : recorded) {
+                Object type = event.getClass().getMethod("getEventType").invoke(event);
+                String name = (String) type.getClass().getMethod("getName").invoke(type);
+                Method value = event.getClass().getMethod("getValue", String.class);
+
+                if (name.equals("ru.paradoxs.bitcoin.RpcCall")) {
+                    events.add("call " + value.invoke(event, "method") + " " + value.invoke(event, "status") + " " +
+                               value.invoke(event, "bytesIn"));
+                } else if (name.equals("ru.paradoxs.bitcoin.ResponseDecoded")) {
+                    events.add("decoded " + value.invoke(event, "method"));
+                } else if (name.equals("ru.paradoxs.bitcoin.ConnectionAcquired")) {
+                    events.add("acquired " + value.invoke(event, "created"));
+                } else if (name.equals("ru.paradoxs.bitcoin.ConnectionsEvicted")) {
+                    events.add("evicted");
+                } else if (name.equals("ru.paradoxs.bitcoin.CacheLookup")) {
+                    events.add("lookup " + value.invoke(event, "cache") + " " + value.invoke(event, "hit"));
+                }
+            }
+
+            Collections.sort(events);
+            assertEquals(Arrays.asList("acquired true", "call getbalance 200 " + BODY.length(), "decoded getbalance",
+                                       "evicted", "lookup address-index false"), events);
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            file.delete();
+        }
+    }
+}
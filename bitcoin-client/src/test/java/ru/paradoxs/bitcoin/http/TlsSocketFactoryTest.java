@@ -0,0 +1,156 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsServer;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.http.exceptions.HttpSessionException;
+import ru.paradoxs.bitcoin.json.JSONObject;
+import ru.paradoxs.bitcoin.json.JSONParser;
+
+/**
+ * Talks to a local https stub with a self-signed certificate for localhost,
+ * from localhost.jks (password "changeit"). TLS 1.2 is used, since that is
+ * where a resumed session keeps its session id on the server.
+ */
+public class TlsSocketFactoryTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private HttpsServer server;
+    private KeyStore keyStore;
+    private final List<byte[]> sessionIds = new ArrayList<byte[]>();
+
+    @Before
+    public void start() throws Exception {
+        keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("localhost.jks");
+
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLSv1.2");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (sessionIds) {
+                    sessionIds.add(((HttpsExchange) exchange).getSSLSession().getId());
+                }
+
+                JSONObject request = JSONParser.parseObject(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+                JSONObject response = new JSONObject().put("result", request.getJSONArray("params").get(0))
+                                                      .put("error", null).put("id", request.get("id"));
+                byte[] body = response.toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    private TlsSocketFactory newFactory() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(null, trustManagers.getTrustManagers(), null);
+
+        return new TlsSocketFactory(context);
+    }
+
+    private HttpSession newSession(String host, TlsSocketFactory tls) {
+        URI uri = URI.create("https://" + host + ":" + server.getAddress().getPort() + "/");
+        return new HttpSession(uri, new UsernamePasswordCredentials("user", "password"), tls);
+    }
+
+    @Test
+    public void testNewConnectionsResumeTheTlsSession() throws Exception {
+        TlsSocketFactory tls = newFactory();
+
+        // Two sessions don't share connections, only the TLS session cache of the factory
+        BitcoinClient first = new BitcoinClient(newSession("localhost", tls));
+        BitcoinClient second = new BitcoinClient(newSession("localhost", tls));
+
+        try {
+            assertEquals("first", first.tryCall("echo", "first").getString());
+            assertEquals("second", second.tryCall("echo", "second").getString());
+        } finally {
+            first.close();
+            second.close();
+        }
+
+        assertEquals(2, sessionIds.size());
+        assertTrue(Arrays.equals(sessionIds.get(0), sessionIds.get(1)));
+    }
+
+    @Test
+    public void testCertificateForAnotherHostIsRejected() throws Exception {
+        // The certificate is for localhost, and has no IP address names
+        BitcoinClient client = new BitcoinClient(newSession("127.0.0.1", newFactory()));
+
+        try {
+            client.tryCall("echo", "hello");
+            fail("The certificate shouldn't be accepted for 127.0.0.1");
+        } catch (HttpSessionException e) {
+            assertTrue(e.getCause() instanceof SSLPeerUnverifiedException);
+        } finally {
+            client.close();
+        }
+
+        assertTrue(sessionIds.isEmpty());
+    }
+}
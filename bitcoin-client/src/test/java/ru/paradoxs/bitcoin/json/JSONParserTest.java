@@ -0,0 +1,190 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+/**
+ * Parses and writes the kind of messages the Bitcoin server sends.
+ */
+public class JSONParserTest {
+
+    @Test
+    public void testParsesAResponse() throws Exception {
+        String text = "{\"result\" : {\"balance\" : 12.50000000, \"blocks\" : 105000, \"testnet\" : false,\n" +
+                      "  \"errors\" : \"\", \"list\" : [1, -2.5e1, \"a\\u00e5\\n\", null]}, \"error\" : null, \"id\" : \"1\"}";
+
+        JSONObject response = JSONParser.parseObject(new StringReader(text));
+        JSONObject result = response.getJSONObject("result");
+
+        assertEquals(new BigDecimal("12.50000000"), result.getBigDecimal("balance"));
+        assertEquals(105000, result.getInt("blocks"));
+        assertEquals("105000", result.getString("blocks"));
+        assertEquals(false, result.getBoolean("testnet"));
+        assertEquals("", result.getString("errors"));
+
+        JSONArray list = result.getJSONArray("list");
+        assertEquals(4, list.size());
+        assertEquals(1L, list.getLong(0));
+        assertEquals(new BigDecimal("-25"), list.getBigDecimal(1));
+        assertEquals("a\u00e5\n", list.getString(2));
+        assertNull(list.get(3));
+
+        assertTrue(response.has("error"));
+        assertTrue(!response.hasValue("error"));
+        assertEquals("", response.optString("error"));
+    }
+
+    @Test
+    public void testKeepsBigNumbersExact() {
+        JSONArray array = (JSONArray) JSONParser.parse("[21000000.00000001, 123456789012345678901234567890]");
+
+        assertEquals("21000000.00000001", array.getString(0));
+        assertEquals(new BigInteger("123456789012345678901234567890"), array.get(1));
+    }
+
+    @Test
+    public void testWritesWhatItParses() {
+        JSONObject message = new JSONObject();
+        message.put("method", "sendtoaddress");
+        message.put("params", new JSONArray().element("1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa").element(0.01)
+                                             .element("quote \" slash \\ tab \t").element(true));
+        message.put("id", 7);
+
+        String text = message.toString();
+
+        assertEquals("{\"method\":\"sendtoaddress\",\"params\":[\"1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa\",0.01," +
+                     "\"quote \\\" slash \\\\ tab \\t\",true],\"id\":7}", text);
+        assertEquals(message, JSONParser.parse(text));
+    }
+
+    @Test
+    public void testRejectsBrokenText() {
+        String[] broken = { "", "{", "{\"a\" 1}", "[1,]", "[1 2]", "\"open", "01", "1.", "-", "tru", "{} x",
+                            "\"\\x\"", "\"\\u12\"" };
+
+        for (String text : broken) {
+            try {
+                JSONParser.parse(text);
+                fail("Parsed " + text);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testStreamsValueByValue() throws Exception {
+        JSONParser parser = JSONParser.stream(new StringReader(
+                "{\"result\" : [ {\"amount\" : 1.5, \"txid\" : null}, {\"amount\" : 2} ], \"id\" : \"1\"}"));
+        BigDecimal sum = BigDecimal.ZERO;
+
+        parser.beginObject();
+        assertTrue(parser.hasNext());
+        assertEquals("result", parser.nextName());
+        parser.beginArray();
+
+        while (parser.hasNext()) {
+            parser.beginObject();
+
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+
+                if (name.equals("amount")) {
+                    sum = sum.add(parser.nextBigDecimal());
+                } else {
+                    assertTrue(parser.nextIsNull());
+                    assertNull(parser.nextString());
+                }
+            }
+
+            parser.endObject();
+        }
+
+        parser.endArray();
+        assertTrue(parser.hasNext());
+        assertEquals("id", parser.nextName());
+        assertEquals(1, parser.nextLong());
+        assertTrue(!parser.hasNext());
+        parser.endObject();
+        parser.finish();
+
+        assertEquals(new BigDecimal("3.5"), sum);
+    }
+
+    @Test
+    public void testStreamsStringsWithoutMakingThem() throws Exception {
+        JSONParser parser = JSONParser.stream(new StringReader("[\"ab\", \"c\\u0064\", 1]"));
+
+        parser.beginArray();
+        assertTrue(parser.hasNext());
+        assertEquals("ab", parser.nextChars().toString());
+        assertTrue(parser.hasNext());
+        assertEquals("cd", parser.nextChars().toString());
+        assertTrue(parser.hasNext());
+
+        try {
+            parser.nextChars();
+            fail("A number isn't a string");
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamingRejectsBrokenText() throws Exception {
+        String[] broken = { "[1 2]", "[1,]", "[,1]", "[1}" };
+
+        for (String text : broken) {
+            JSONParser parser = JSONParser.stream(new StringReader(text));
+
+            try {
+                parser.beginArray();
+
+                while (parser.hasNext()) {
+                    parser.nextLong();
+                }
+
+                parser.endArray();
+                fail("Streamed " + text);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testReportsMissingAndMistypedMembers() {
+        JSONObject object = (JSONObject) JSONParser.parse("{\"a\":\"x\"}");
+
+        try {
+            object.getString("b");
+            fail("b is missing");
+        } catch (JSONException expected) {
+        }
+
+        try {
+            object.getLong("a");
+            fail("a is not a number");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.json;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+
+/**
+ * Measures time-to-first-RPC and decode cost of our JSON codec against json-lib.
+ *
+ * Each run is a fresh JVM, so class loading and warm-up are part of the first
+ * call just as after a deploy. Both codecs make the same getbalance call over
+ * commons-httpclient to a local stub server, then decode a listtransactions
+ * sized response many times. Run with the test classpath:
+ *
+ *   java -cp ... ru.paradoxs.bitcoin.json.StartupBenchmark [runs]
+ */
+public class StartupBenchmark {
+    private static final String OURS = "ours";
+    private static final String JSON_LIB = "json-lib";
+    private static final int DECODES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("child")) {
+            runChild(args[1]);
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        for (String codec : new String[] { OURS, JSON_LIB }) {
+            long[][] results = new long[3][runs];
+
+            for (int run = 0; run < runs; run++) {
+                long[] result = forkChild(codec);
+
+                for (int i = 0; i < 3; i++) {
+                    results[i][run] = result[i];
+                }
+            }
+
+            System.out.printf("%-8s first RPC %7.2f ms, first decode %7.2f ms, steady decode %6.2f us%n", codec,
+                              median(results[0]) / 1e6, median(results[1]) / 1e6, median(results[2]) / 1e3);
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long[] forkChild(String codec) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StartupBenchmark.class.getName());
+        command.add("child");
+        command.add(codec);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String last = null;
+
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            last = line;
+        }
+
+        if (process.waitFor() != 0 || last == null) {
+            throw new IllegalStateException("Benchmark run failed: " + last);
+        }
+
+        String[] fields = last.trim().split(" ");
+        return new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]) };
+    }
+
+    /**
+     * Prints "firstRpcNanos firstDecodeNanos steadyDecodeNanos" as its last line
+     */
+    private static void runChild(String codec) throws Exception {
+        final String body = listTransactionsResponse(100);
+        HttpServer server = startStub();
+
+        try {
+            String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            long start = System.nanoTime();
+
+            if (codec.equals(OURS)) {
+                new BitcoinClient("127.0.0.1", "user", "password", server.getAddress().getPort()).getBalance();
+            } else {
+                jsonLibGetBalance(uri);
+            }
+
+            long firstRpc = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            decode(codec, body);
+            long firstDecode = System.nanoTime() - start;
+
+            for (int i = 0; i < DECODES; i++) {
+                decode(codec, body);
+            }
+
+            start = System.nanoTime();
+
+            for (int i = 0; i < DECODES; i++) {
+                decode(codec, body);
+            }
+
+            long steadyDecode = (System.nanoTime() - start) / DECODES;
+
+            System.out.println(firstRpc + " " + firstDecode + " " + steadyDecode);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Object decode(String codec, String body) throws IOException {
+        if (codec.equals(OURS)) {
+            return JSONParser.parseObject(new StringReader(body)).getJSONArray("result").getJSONObject(0);
+        }
+
+        return net.sf.json.JSONObject.fromObject(body).getJSONArray("result").getJSONObject(0);
+    }
+
+    /**
+     * The getbalance call as HttpSession made it with json-lib
+     */
+    private static void jsonLibGetBalance(String uri) throws IOException {
+        net.sf.json.JSONObject request = new net.sf.json.JSONObject();
+        request.put("jsonrpc", "2.0");
+        request.put("id", "1");
+        request.put("method", "getbalance");
+        request.put("params", new net.sf.json.JSONArray());
+
+        PostMethod method = new PostMethod(uri);
+
+        try {
+            method.setRequestEntity(new StringRequestEntity(request.toString(), "application/json", null));
+            new HttpClient().executeMethod(method);
+
+            net.sf.json.JSONObject response = (net.sf.json.JSONObject)
+                    new net.sf.json.util.JSONTokener(method.getResponseBodyAsString()).nextValue();
+            response.getString("result");
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    private static HttpServer startStub() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+
+                while (in.read() >= 0) {
+                }
+
+                byte[] response = "{\"result\":12.50000000,\"error\":null,\"id\":\"1\"}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String listTransactionsResponse(int count) {
+        StringBuilder body = new StringBuilder("{\"result\":[");
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+
+            body.append("{\"account\":\"account-").append(i % 10).append("\",\"address\":\"1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa\"")
+                .append(",\"category\":\"receive\",\"amount\":").append(i).append(".05000000")
+                .append(",\"confirmations\":").append(i * 7)
+                .append(",\"txid\":\"4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b\"")
+                .append(",\"time\":").append(1290000000L + i).append('}');
+        }
+
+        return body.append("],\"error\":null,\"id\":\"1\"}").toString();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+
+/**
+ * Runs the load generator against the stub server, at a rate well within
+ * what the stub can take.
+ */
+public class LoadGeneratorTest {
+    private StubBitcoinServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StubBitcoinServer(0, 4, 1, TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testEveryScheduledCallIsMeasured() {
+        BitcoinClient client = new BitcoinClient("127.0.0.1", "user", "password", server.getPort());
+        LoadGenerator generator = new LoadGenerator(client);
+        generator.addMethod("getbalance", 7).addMethod("listtransactions", 2).addMethod("validateaddress", 1);
+        generator.setThreads(4);
+        generator.setWarmup(0, TimeUnit.SECONDS);
+
+        LoadResult result;
+
+        try {
+            result = generator.run(100, 1, TimeUnit.SECONDS);
+        } finally {
+            client.close();
+        }
+
+        assertEquals(100, result.getCompleted());
+        assertEquals(0, result.getErrors());
+        assertEquals(0, result.getAbandoned());
+
+        long calls = 0;
+
+        for (LoadResult.MethodStats stats : result.getMethods()) {
+            calls += stats.getLatency().getCount();
+            assertTrue(stats.getLatency().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(1));
+            assertTrue(stats.getLatency().getMax() >= stats.getServiceTime().getMax());
+        }
+
+        assertEquals(100, calls);
+        assertTrue(result.getMethods().get(0).getLatency().getCount() > result.getMethods().get(2).getLatency().getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000000, histogram.getPercentile(50), 5000000 * 0.04);
+        assertEquals(9900000, histogram.getPercentile(99), 9900000 * 0.04);
+        assertEquals(10000000, histogram.getPercentile(100));
+
+        for (long value = 1; value < 1L << 40; value = value * 3 + 1) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.exceptions.BitcoinClientException;
+
+/**
+ * Records made up samples every ten seconds.
+ */
+public class NodeMetricsStoreTest {
+    private static final long   START = 1299999600000L;        // On a ten minute boundary
+    private static final long[] RESOLUTIONS = { 0, 60000, 600000 };
+    private static final int[]  CAPACITIES = { 100, 50, 10 };
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("metrics", ".ring");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static void record(NodeMetricsStore store, int from, int to) {
+        for (int i = from; i < to; i++) {
+            store.record(START + i * 10000L, i, i % 6, 1000.0 + i, 5e6);
+        }
+    }
+
+    @Test
+    public void testDownsamplesAndForgetsTheOldest() {
+        NodeMetricsStore store = new NodeMetricsStore(file, RESOLUTIONS, CAPACITIES);
+        record(store, 0, 720);      // Two hours
+
+        assertEquals(100, store.size(0));
+        assertEquals(50, store.size(1));
+        assertEquals(10, store.size(2));
+
+        NodeMetricsStore.Range samples = store.range(0, 0, Long.MAX_VALUE);
+        assertEquals(100, samples.size());
+        assertEquals(START + 620 * 10000L, samples.getTime(0));
+        assertEquals(719, samples.getBlocks(99));
+
+        // The minutes from 1:10 to 1:15, six samples each
+        NodeMetricsStore.Range minutes = store.range(1, START + 4200000, START + 4500000);
+        assertEquals(6, minutes.size());
+        assertEquals(START + 4200000, minutes.getTime(0));
+        assertEquals(6, minutes.getSamples(0));
+        assertEquals(2.5, minutes.getConnections(0), 1e-9);
+        assertEquals(5, minutes.getMaxConnections(0));
+        assertEquals(425, minutes.getBlocks(0));
+        assertEquals(1422.5, minutes.getDifficulty(0), 1e-9);
+
+        // Only the ten minute level goes back to the start of the second hour, the last ten minutes still being filled
+        NodeMetricsStore.Range tenMinutes = store.range(START + 3600000, Long.MAX_VALUE);
+        assertEquals(2, tenMinutes.getLevel());
+        assertEquals(6, tenMinutes.size());
+        assertEquals(60, tenMinutes.getSamples(4));
+        assertEquals(START + 6600000, tenMinutes.getTime(5));
+        assertEquals(60, tenMinutes.getSamples(5));
+        assertEquals(719, tenMinutes.getBlocks(5));
+        assertEquals(5, store.range(2, START + 3600000, START + 6000000).size());
+
+        assertEquals(0, store.range(START + 7000000, Long.MAX_VALUE).getLevel());
+        store.close();
+    }
+
+    @Test
+    public void testContinuesAfterReopening() {
+        NodeMetricsStore store = new NodeMetricsStore(file, RESOLUTIONS, CAPACITIES);
+        record(store, 0, 3);
+        store.close();
+
+        try {
+            new NodeMetricsStore(file, new long[] { 0, 60000 }, new int[] { 100, 50 });
+            fail("Opened with other levels");
+        } catch (BitcoinClientException e) {
+            // Expected
+        }
+
+        store = new NodeMetricsStore(file, RESOLUTIONS, CAPACITIES);
+        record(store, 3, 7);
+
+        assertEquals(7, store.size(0));
+        assertEquals(1, store.size(1));
+        NodeMetricsStore.Range minutes = store.range(1, 0, Long.MAX_VALUE);
+        assertEquals(2, minutes.size());
+        assertEquals(6, minutes.getSamples(0));
+        assertEquals(1, minutes.getSamples(1));
+        assertEquals(7, store.range(0, 0, Long.MAX_VALUE).size());
+        assertEquals(6, store.range(0, 0, Long.MAX_VALUE).getBlocks(6));
+        store.close();
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Serves the genesis block header as work to a worker on a local socket,
+ * with a fake server behind it.
+ */
+public class WorkServerTest {
+
+    private static final String GENESIS_DATA =
+            "00000001000000000000000000000000000000000000000000000000000000000000000" +
+            "0fdeda33bb2127b7a3e2cc77a618f7667c31bc87f32518a88aab89f3a4a5e1e4b495fab29" +
+            "1d00ffff7c2bac1d00000080000000000000000000000000000000000000000000000000" +
+            "0000000000000000000000000000000080020000";
+    private static final String MIDSTATE = "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String TARGET = "0000000000000000000000000000000000000000000000000000ffff00000000";
+    private static final long   GENESIS_NONCE = 2083236893L;
+
+    private int getWorkCalls = 0;
+    private int submissions = 0;
+    private Transport fakeServer;
+    private WorkServer server;
+
+    @Before
+    public void startServer() {
+        fakeServer = new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                JSONObject response = new JSONObject();
+                response.put("id", message.get("id"));
+
+                if (message.getJSONArray("params").isEmpty()) {
+                    getWorkCalls++;
+                    JSONObject work = new JSONObject();
+                    work.put("data", GENESIS_DATA);
+                    work.put("midstate", MIDSTATE);
+                    work.put("hash1", "");
+                    work.put("target", TARGET);
+                    response.put("result", work);
+                } else {
+                    submissions++;
+                    response.put("result", Boolean.TRUE);
+                }
+
+                return response;
+            }
+        };
+
+        server = new WorkServer(new BitcoinClient(fakeServer), 0, 1L << 30);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testRangesDoNotOverlapAndOnlySolutionsAreSubmitted() throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+
+            long[] starts = new long[5];
+
+            for (int i = 0; i < starts.length; i++) {
+                String[] job = request(in, out, "WORK").split(" ");
+                assertEquals("JOB", job[0]);
+                assertEquals(GENESIS_DATA, job[2]);
+                assertEquals(MIDSTATE, job[3]);
+                assertEquals(TARGET, job[4]);
+                starts[i] = Long.parseLong(job[5]);
+                assertEquals(starts[i] + (1L << 30), Long.parseLong(job[6]));
+            }
+
+            // Four ranges cover all nonces of a unit, so the fifth is from a new unit
+            assertEquals(0, starts[0]);
+            assertEquals(3L << 30, starts[3]);
+            assertEquals(0, starts[4]);
+            assertEquals(2, getWorkCalls);
+
+            // The genesis nonce is in the second range, handed out as job 2
+            assertEquals("REJECTED out-of-range", request(in, out, "SHARE 1 " + GENESIS_NONCE));
+            assertEquals("REJECTED above-target", request(in, out, "SHARE 2 " + (GENESIS_NONCE + 1)));
+            assertEquals("ACCEPTED", request(in, out, "SHARE 2 " + GENESIS_NONCE));
+            assertEquals("REJECTED duplicate", request(in, out, "SHARE 2 " + GENESIS_NONCE));
+            assertTrue(request(in, out, "HELLO").startsWith("ERROR"));
+
+            assertEquals(1, submissions);
+            assertEquals(1, server.getBlocksAccepted());
+            assertEquals(3, server.getSharesRejected());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRangesOfTheCurrentUnitStayValid() {
+        WorkServer small = new WorkServer(new BitcoinClient(fakeServer), 0, 1L << 16);
+        String first = small.handle(new String[] { "WORK" }, WorkServer.newSha256());
+
+        for (int i = 0; i < 10000; i++) {
+            small.handle(new String[] { "WORK" }, WorkServer.newSha256());
+        }
+
+        assertEquals(1, getWorkCalls);
+        assertTrue(first.startsWith("JOB 1 "));
+        assertEquals("REJECTED above-target", small.handle(new String[] { "SHARE", "1", "0" }, WorkServer.newSha256()));
+    }
+
+    @Test
+    public void testRangesOfOldUnitsAreDropped() {
+        WorkServer whole = new WorkServer(new BitcoinClient(fakeServer), 0, 1L << 32);
+
+        for (int i = 0; i < 5; i++) {
+            whole.handle(new String[] { "WORK" }, WorkServer.newSha256());
+        }
+
+        assertEquals(5, getWorkCalls);
+        assertEquals("REJECTED stale", whole.handle(new String[] { "SHARE", "1", "0" }, WorkServer.newSha256()));
+        assertEquals("REJECTED above-target", whole.handle(new String[] { "SHARE", "2", "0" }, WorkServer.newSha256()));
+    }
+
+    @Test
+    public void testEasierShareTarget() {
+        String easy = "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff";
+        WorkServer sharing = new WorkServer(new BitcoinClient(fakeServer), 0, 1L << 32);
+        sharing.setShareTarget(easy);
+
+        String[] job = sharing.handle(new String[] { "WORK" }, WorkServer.newSha256()).split(" ");
+        assertEquals(easy, job[4]);
+
+        // Meets the share target only, so it isn't submitted
+        assertEquals("ACCEPTED", sharing.handle(new String[] { "SHARE", job[1], "1" }, WorkServer.newSha256()));
+        assertEquals(0, submissions);
+
+        assertEquals("ACCEPTED", sharing.handle(new String[] { "SHARE", job[1], "" + GENESIS_NONCE }, WorkServer.newSha256()));
+        assertEquals(1, submissions);
+        assertEquals(2, sharing.getSharesAccepted());
+        assertEquals(1, sharing.getBlocksAccepted());
+    }
+
+    @Test
+    public void testChainAdvancingWhileWaitingForWork() throws Exception {
+        final int[] blockCount = { 1 };
+        final boolean[] workAvailable = { false };
+
+        Transport fakeServer = new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                JSONObject response = new JSONObject();
+                response.put("id", message.get("id"));
+
+                synchronized (blockCount) {
+                    if (message.getString("method").equals("getblockcount")) {
+                        response.put("result", blockCount[0]);
+                    } else if (workAvailable[0]) {
+                        JSONObject work = new JSONObject();
+                        work.put("data", GENESIS_DATA);
+                        work.put("midstate", MIDSTATE);
+                        work.put("hash1", "");
+                        work.put("target", TARGET);
+                        response.put("result", work);
+                    } else {
+                        throw new IllegalStateException("No work yet");
+                    }
+                }
+
+                return response;
+            }
+        };
+
+        BitcoinClient client = new BitcoinClient(fakeServer);
+        WorkSupplier supplier = new WorkSupplier(client, 1, 10);
+        final WorkServer waiting = new WorkServer(client, supplier, 0, 1L << 30);
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+
+        try {
+            supplier.start();
+
+            // The queue stays empty, so the worker blocks waiting for work
+            Future<String> job = worker.submit(new Callable<String>() {
+                public String call() {
+                    return waiting.handle(new String[] { "WORK" }, WorkServer.newSha256());
+                }
+            });
+
+            Thread.sleep(200);
+
+            synchronized (blockCount) {
+                blockCount[0] = 2;
+            }
+
+            while (supplier.getBlockCount() != 2) {
+                Thread.sleep(10);
+            }
+
+            synchronized (blockCount) {
+                workAvailable[0] = true;
+            }
+
+            assertTrue(job.get(5, TimeUnit.SECONDS).startsWith("JOB "));
+        } finally {
+            supplier.stop();
+            worker.shutdownNow();
+        }
+    }
+
+    private static String request(BufferedReader in, Writer out, String line) throws Exception {
+        out.write(line + "\n");
+        out.flush();
+        return in.readLine();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package ru.paradoxs.bitcoin.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.paradoxs.bitcoin.client.BitcoinClient;
+import ru.paradoxs.bitcoin.http.Transport;
+import ru.paradoxs.bitcoin.json.JSONObject;
+
+/**
+ * Runs a supplier against a fake server whose block count the test bumps
+ */
+public class WorkSupplierTest {
+
+    private static final String DATA =
+            "00000001000000000000000000000000000000000000000000000000000000000000000" +
+            "0fdeda33bb2127b7a3e2cc77a618f7667c31bc87f32518a88aab89f3a4a5e1e4b495fab29" +
+            "1d00ffff7c2bac1d00000080000000000000000000000000000000000000000000000000" +
+            "0000000000000000000000000000000080020000";
+
+    private final Object server = new Object();
+    private int blockCount = 1;
+    private int getWorkCalls = 0;
+    private boolean blockDuringGetWork = false;
+    private WorkSupplier supplier;
+
+    @Before
+    public void createSupplier() {
+        Transport fakeServer = new Transport() {
+            public JSONObject sendAndReceive(JSONObject message) {
+                Object result;
+
+                synchronized (server) {
+                    if (message.getString("method").equals("getblockcount")) {
+                        result = blockCount;
+                    } else {
+                        getWorkCalls++;
+
+                        if (blockDuringGetWork) {
+                            blockDuringGetWork = false;
+                            blockCount++;
+                        }
+
+                        result = new JSONObject().put("data", DATA).put("midstate", DATA.substring(0, 64))
+                                .put("hash1", "").put("target", DATA.substring(0, 64));
+                    }
+                }
+
+                return new JSONObject().put("result", result).put("error", null).put("id", message.get("id"));
+            }
+        };
+
+        supplier = new WorkSupplier(new BitcoinClient(fakeServer), 3, 10);
+    }
+
+    @After
+    public void stopSupplier() {
+        supplier.stop();
+    }
+
+    @Test
+    public void testPrefetchesTheQueue() throws Exception {
+        supplier.start();
+        waitFor(3);
+
+        Thread.sleep(100);
+
+        synchronized (server) {
+            assertEquals(3, getWorkCalls);
+        }
+
+        WorkSupplier.Work work = supplier.take();
+        assertEquals(1, work.getBlockCount());
+        assertFalse(supplier.isStale(work));
+
+        // Taking one makes room for the next
+        waitFor(4);
+        assertNull(supplier.getLastError());
+    }
+
+    @Test
+    public void testDropsWorkWhenTheChainGrows() throws Exception {
+        final List<Integer> advanced = new ArrayList<Integer>();
+        supplier.addListener(new WorkSupplier.Listener() {
+            public void chainAdvanced(int count) {
+                synchronized (advanced) {
+                    advanced.add(count);
+                }
+            }
+        });
+
+        supplier.start();
+        waitFor(3);
+        WorkSupplier.Work old = supplier.take();
+
+        synchronized (server) {
+            blockCount = 2;
+        }
+
+        while (supplier.getBlockCount() != 2) {
+            Thread.sleep(5);
+        }
+
+        assertTrue(supplier.isStale(old));
+        assertEquals(2, supplier.take().getBlockCount());
+        assertTrue(supplier.getUnitsDropped() >= 2);
+
+        synchronized (advanced) {
+            assertEquals(2, advanced.get(advanced.size() - 1).intValue());
+        }
+    }
+
+    @Test
+    public void testDropsWorkFetchedWhileTheChainGrew() throws Exception {
+        synchronized (server) {
+            blockDuringGetWork = true;
+        }
+
+        supplier.start();
+        WorkSupplier.Work work = supplier.take();
+
+        // The first unit was made while block 2 came, and is never handed out
+        assertEquals(2, work.getBlockCount());
+        assertTrue(supplier.getUnitsDropped() >= 1);
+    }
+
+    private void waitFor(int calls) throws InterruptedException {
+        for (;;) {
+            synchronized (server) {
+                if (getWorkCalls >= calls) {
+                    return;
+                }
+            }
+
+            Thread.sleep(5);
+        }
+    }
+}